@@ -13,9 +13,16 @@
  */
 package priv.lucife.utils.core.base;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
 import priv.lucife.utils.core.annotation.UBTCompatible;
 
 /**
+ * 16进制编解码工具类。
+ * <p>
+ * 编码使用256项查找表，一个字节一次查表得到两个字符；解码使用字符到数值的反向查找表。支持大小写输出、预分配的
+ * char/byte 数组以及 {@link ByteBuffer}。
  * 
  * @author Lucifer Wong
  *
@@ -25,6 +32,43 @@ public abstract class HexByteUtil {
 	private static final char[] _hex = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E',
 			'F' };
 
+	private static final char[] _hexLower = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd',
+			'e', 'f' };
+
+	/**
+	 * 编码表，下标 2*b 和 2*b+1 分别是字节 b 的高位和低位字符
+	 */
+	private static final char[] ENCODE_UPPER = buildEncodeTable(_hex);
+
+	private static final char[] ENCODE_LOWER = buildEncodeTable(_hexLower);
+
+	/**
+	 * 解码表，非16进制字符对应 -1
+	 */
+	private static final byte[] DECODE = new byte[128];
+
+	static {
+		for (int i = 0; i < DECODE.length; i++) {
+			DECODE[i] = -1;
+		}
+		for (int i = 0; i < 10; i++) {
+			DECODE['0' + i] = (byte) i;
+		}
+		for (int i = 0; i < 6; i++) {
+			DECODE['a' + i] = (byte) (10 + i);
+			DECODE['A' + i] = (byte) (10 + i);
+		}
+	}
+
+	private static char[] buildEncodeTable(char[] digits) {
+		char[] table = new char[512];
+		for (int i = 0; i < 256; i++) {
+			table[i << 1] = digits[i >>> 4];
+			table[(i << 1) + 1] = digits[i & 0x0f];
+		}
+		return table;
+	}
+
 	/**
 	 * 将一组16进制的的字符串转化成byte数组(16进制的asii码串)
 	 * 
@@ -32,6 +76,8 @@ public abstract class HexByteUtil {
 	 * @param s
 	 *            一组16进制的的字符串
 	 * @return If string is not even length, return null.
+	 * @throws NumberFormatException
+	 *             包含非16进制字符
 	 */
 	public static byte[] decode(final String s) {
 		int len = s.length();
@@ -40,15 +86,70 @@ public abstract class HexByteUtil {
 		}
 
 		byte[] bytes = new byte[len / 2];
-		int pos = 0;
+		decode(s, 0, len, bytes, 0);
+		return bytes;
+	}
 
-		for (int i = 0; i < len; i += 2) {
-			byte hi = (byte) Character.digit(s.charAt(i), 16);
-			byte lo = (byte) Character.digit(s.charAt(i + 1), 16);
-			bytes[pos++] = (byte) (hi * 16 + lo);
+	/**
+	 * 将字符序列的一段解码到预分配的byte数组中。
+	 * 
+	 * @author Lucifer Wong
+	 * @param s
+	 *            16进制字符序列
+	 * @param offset
+	 *            起始位置
+	 * @param length
+	 *            字符数，必须为偶数
+	 * @param dst
+	 *            目标数组
+	 * @param dstOffset
+	 *            目标数组起始位置
+	 * @return 写入的字节数
+	 * @throws NumberFormatException
+	 *             包含非16进制字符
+	 */
+	public static int decode(final CharSequence s, int offset, int length, byte[] dst, int dstOffset) {
+		if (length % 2 != 0) {
+			throw new IllegalArgumentException("hex length must be even, actual was " + length);
+		}
+		int pos = dstOffset;
+		for (int i = offset, end = offset + length; i < end; i += 2) {
+			dst[pos++] = (byte) ((digit(s, i) << 4) | digit(s, i + 1));
 		}
+		return length >> 1;
+	}
 
-		return bytes;
+	/**
+	 * 将字符序列解码并写入 {@link ByteBuffer}，写入后 position 向后移动。
+	 * 
+	 * @author Lucifer Wong
+	 * @param s
+	 *            16进制字符序列，长度必须为偶数
+	 * @param dst
+	 *            目标缓冲区
+	 * @return 写入的字节数
+	 * @throws NumberFormatException
+	 *             包含非16进制字符
+	 * @throws BufferOverflowException
+	 *             缓冲区剩余空间不足，此时不写入任何字节
+	 */
+	public static int decode(final CharSequence s, ByteBuffer dst) {
+		int length = s.length();
+		if (length % 2 != 0) {
+			throw new IllegalArgumentException("hex length must be even, actual was " + length);
+		}
+		if (length >> 1 > dst.remaining()) {
+			throw new BufferOverflowException();
+		}
+		if (dst.hasArray()) {
+			int written = decode(s, 0, length, dst.array(), dst.arrayOffset() + dst.position());
+			dst.position(dst.position() + written);
+			return written;
+		}
+		for (int i = 0; i < length; i += 2) {
+			dst.put((byte) ((digit(s, i) << 4) | digit(s, i + 1)));
+		}
+		return length >> 1;
 	}
 
 	/**
@@ -61,14 +162,81 @@ public abstract class HexByteUtil {
 	 * @return String hex digits
 	 */
 	public static String encode(final byte[] bytes) {
-		StringBuilder sb = new StringBuilder(bytes.length << 1);
-		for (byte aByte : bytes) {
-			// 8字节的高四位
-			sb.append(convertDigit(aByte >> 4));
-			// 低4位
-			sb.append(convertDigit(aByte & 0x0f));
+		return encode(bytes, true);
+	}
+
+	/**
+	 * 将字节数组转成16进制字符串
+	 * 
+	 * @author Lucifer Wong
+	 * @param bytes
+	 *            字节数组
+	 * @param upperCase
+	 *            是否使用大写字母
+	 * @return 16进制字符串
+	 */
+	public static String encode(final byte[] bytes, boolean upperCase) {
+		char[] chars = new char[bytes.length << 1];
+		encode(bytes, 0, bytes.length, chars, 0, upperCase);
+		return new String(chars);
+	}
+
+	/**
+	 * 将字节数组的一段编码到预分配的char数组中。
+	 * 
+	 * @author Lucifer Wong
+	 * @param bytes
+	 *            字节数组
+	 * @param offset
+	 *            起始位置
+	 * @param length
+	 *            字节数
+	 * @param dst
+	 *            目标数组，至少需要 2*length 个位置
+	 * @param dstOffset
+	 *            目标数组起始位置
+	 * @param upperCase
+	 *            是否使用大写字母
+	 * @return 写入的字符数
+	 */
+	public static int encode(final byte[] bytes, int offset, int length, char[] dst, int dstOffset,
+			boolean upperCase) {
+		char[] table = upperCase ? ENCODE_UPPER : ENCODE_LOWER;
+		int pos = dstOffset;
+		for (int i = offset, end = offset + length; i < end; i++) {
+			int index = (bytes[i] & 0xff) << 1;
+			dst[pos++] = table[index];
+			dst[pos++] = table[index + 1];
 		}
-		return sb.toString();
+		return length << 1;
+	}
+
+	/**
+	 * 将 {@link ByteBuffer} 中 position 到 limit 之间的字节编码为16进制字符串，编码后 position 移动到 limit。
+	 * 
+	 * @author Lucifer Wong
+	 * @param buffer
+	 *            缓冲区，可以是切片
+	 * @param upperCase
+	 *            是否使用大写字母
+	 * @return 16进制字符串
+	 */
+	public static String encode(ByteBuffer buffer, boolean upperCase) {
+		int length = buffer.remaining();
+		char[] chars = new char[length << 1];
+		if (buffer.hasArray()) {
+			encode(buffer.array(), buffer.arrayOffset() + buffer.position(), length, chars, 0, upperCase);
+			buffer.position(buffer.limit());
+		} else {
+			char[] table = upperCase ? ENCODE_UPPER : ENCODE_LOWER;
+			int pos = 0;
+			while (buffer.hasRemaining()) {
+				int index = (buffer.get() & 0xff) << 1;
+				chars[pos++] = table[index];
+				chars[pos++] = table[index + 1];
+			}
+		}
+		return new String(chars);
 	}
 
 	/**
@@ -83,6 +251,18 @@ public abstract class HexByteUtil {
 		return _hex[value & 0x0f];
 	}
 
+	/**
+	 * 将一个16进制字符转化成0..15
+	 * 
+	 * @author Lucifer Wong
+	 * @param c
+	 *            '0'..'9'、'a'..'f' 或 'A'..'F'
+	 * @return 对应的数值，非16进制字符返回 -1
+	 */
+	public static int toDigit(final char c) {
+		return c < 128 ? DECODE[c] : -1;
+	}
+
 	/**
 	 * @param bytes
 	 *            byte[] of bytes to test
@@ -91,4 +271,12 @@ public abstract class HexByteUtil {
 	public static boolean isGzipped(byte[] bytes) {
 		return bytes[0] == (byte) 0x1f && bytes[1] == (byte) 0x8b;
 	}
+
+	private static int digit(CharSequence s, int index) {
+		int value = toDigit(s.charAt(index));
+		if (value < 0) {
+			throw new NumberFormatException("Illegal hex digit '" + s.charAt(index) + "' at index " + index);
+		}
+		return value;
+	}
 }
@@ -817,18 +817,19 @@ public abstract class StringUtil {
 			return null;
 		}
 
-		if (str.length() % 2 != 0) {
-			str = "0" + str;
+		int length = str.length();
+		if (length % 2 == 0) {
+			return HexByteUtil.decode(str);
 		}
 
-		byte[] result = new byte[str.length() / 2];
-		for (int i = 0; i < result.length; i++) {
-			// High bit
-			byte high = (byte) (Byte.decode("0x" + str.charAt(i * 2)).byteValue() << 4);
-			// Low bit
-			byte low = Byte.decode("0x" + str.charAt(i * 2 + 1)).byteValue();
-			result[i] = (byte) (high ^ low);
+		// 奇数长度时相当于在前面补 "0"
+		byte[] result = new byte[(length + 1) / 2];
+		int high = HexByteUtil.toDigit(str.charAt(0));
+		if (high < 0) {
+			throw new NumberFormatException("Illegal hex digit '" + str.charAt(0) + "' at index 0");
 		}
+		result[0] = (byte) high;
+		HexByteUtil.decode(str, 1, length - 1, result, 1);
 		return result;
 	}
 
@@ -841,7 +842,20 @@ public abstract class StringUtil {
 	 * @return Returns the value of this Integer as an int.
 	 */
 	public static int hexString2Int(String hexString) {
-		return Integer.valueOf(hexString, 16).intValue();
+		int length = hexString.length();
+		// 7位以内的纯16进制数字不会溢出，直接查表计算；其余情况（符号、溢出、非法字符）交给 Integer.parseInt
+		if (length > 0 && length < 8) {
+			int value = 0;
+			for (int i = 0; i < length; i++) {
+				int digit = HexByteUtil.toDigit(hexString.charAt(i));
+				if (digit < 0) {
+					return Integer.parseInt(hexString, 16);
+				}
+				value = (value << 4) | digit;
+			}
+			return value;
+		}
+		return Integer.parseInt(hexString, 16);
 	}
 
 	/**
@@ -1541,12 +1555,7 @@ public abstract class StringUtil {
 	 * @return 把一个字节数组转换为16进制表达的字符串
 	 */
 	public static String toHexString(byte[] bytes) {
-		StringBuilder hexString = new StringBuilder();
-
-		for (int i = 0; i < bytes.length; i++) {
-			hexString.append(enoughZero(Integer.toHexString(bytes[i] & 0xff), 2));
-		}
-		return hexString.toString();
+		return HexByteUtil.encode(bytes, false);
 	}
 
 	/**
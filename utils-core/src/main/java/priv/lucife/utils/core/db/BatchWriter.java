@@ -0,0 +1,512 @@
+/**
+ * Copyright (C) 2017 Lucifer Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package priv.lucife.utils.core.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import priv.lucife.utils.core.annotation.UBTCompatible;
+
+/**
+ * 批量写入器，累积多行参数后一次性执行，用于批量导入数据。
+ * <p>
+ * 有两种执行方式：默认使用 {@link PreparedStatement#addBatch()}/{@link PreparedStatement#executeBatch()}；
+ * {@link #setMultiRowValues(boolean)} 开启后，把 {@code INSERT ... VALUES (?, ?)} 改写为一条包含多行 VALUES 的语句执行，
+ * 对不能在驱动层合并批量的数据库更快。多行语句的行数取 2 的幂，同一个写入器最多预编译十几条不同的语句。
+ * <p>
+ * 每批的行数在 {@link #setBatchSize(int, int, int)} 指定的范围内按每批执行耗时自动调整，使其接近
+ * {@link #setTargetFlushMillis(long)}。{@link #setCommitRows(int)} 大于 0 时写入器关闭自动提交，每写入指定行数提交一次事务；
+ * 执行失败时回滚当前事务并抛出异常。
+ * <p>
+ * 写入器不是线程安全的。配置方法必须在第一次 {@link #add(Object...)} 之前调用，用完后必须调用 {@link #close()}，否则最后一批不会写入。
+ *
+ * @author Lucifer Wong
+ */
+@UBTCompatible
+public final class BatchWriter implements AutoCloseable {
+
+	private final Connection conn;
+	private final String sql;
+	private final BinderPlan plan;
+	private final int columns;
+
+	private boolean multiRowValues;
+	private int minBatchSize = 16;
+	private int maxBatchSize = 4096;
+	private int batchSize = 256;
+	private long targetFlushNanos = TimeUnit.MILLISECONDS.toNanos(200);
+	private int commitRows;
+	private int maxParameters = 2000;
+
+	private boolean started;
+	private boolean closed;
+	private Boolean previousAutoCommit;
+
+	private PreparedStatement batchStatement;
+	private int pending;
+	private final List<Object[]> rows = new ArrayList<>();
+	private final Map<Integer, PreparedStatement> multiRowStatements = new HashMap<>();
+	private String valuesPrefix;
+	private String valuesTuple;
+	private String valuesSuffix;
+	private int uncommitted;
+
+	private long startNanos;
+	private long rowsWritten;
+	private long rowsCommitted;
+	private long flushes;
+	private long totalFlushNanos;
+	private long maxFlushNanos;
+	private long lastFlushNanos;
+
+	/**
+	 * 构造方法
+	 *
+	 * @param conn
+	 *            连接，关闭写入器时不会关闭
+	 * @param sql
+	 *            单行的预编译语句，如 INSERT INTO t (a, b) VALUES (?, ?)
+	 * @param argTypes
+	 *            各参数的类型，取值为 {@link java.sql.Types} 中的常量
+	 */
+	public BatchWriter(Connection conn, String sql, int[] argTypes) {
+		this.conn = conn;
+		this.sql = sql;
+		this.plan = BinderPlan.compile(sql, argTypes);
+		this.columns = argTypes.length;
+	}
+
+	/**
+	 * 是否改写为多行 VALUES 语句执行，默认 false。语句必须是 {@code INSERT ... VALUES (...)} 的形式。
+	 *
+	 * @param multiRowValues
+	 *            是否改写
+	 * @return 本写入器
+	 */
+	public BatchWriter setMultiRowValues(boolean multiRowValues) {
+		checkNotStarted();
+		if (multiRowValues) {
+			parseValues();
+		}
+		this.multiRowValues = multiRowValues;
+		return this;
+	}
+
+	/**
+	 * 设置每批行数的范围，默认 16 到 4096，初始 256。min 等于 max 时不自动调整。
+	 *
+	 * @param min
+	 *            最小行数
+	 * @param initial
+	 *            初始行数
+	 * @param max
+	 *            最大行数
+	 * @return 本写入器
+	 */
+	public BatchWriter setBatchSize(int min, int initial, int max) {
+		checkNotStarted();
+		if (min <= 0 || min > initial || initial > max) {
+			throw new IllegalArgumentException("Require 0 < min <= initial <= max, actual was " + min + ", " + initial
+					+ ", " + max);
+		}
+		this.minBatchSize = min;
+		this.batchSize = initial;
+		this.maxBatchSize = max;
+		return this;
+	}
+
+	/**
+	 * 设置每批执行的目标耗时，默认 200 毫秒
+	 *
+	 * @param millis
+	 *            目标耗时（毫秒）
+	 * @return 本写入器
+	 */
+	public BatchWriter setTargetFlushMillis(long millis) {
+		checkNotStarted();
+		if (millis <= 0) {
+			throw new IllegalArgumentException("millis must be positive, actual was " + millis);
+		}
+		this.targetFlushNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+		return this;
+	}
+
+	/**
+	 * 设置每个事务写入的行数，默认 0，即不管理事务，沿用连接原有的提交方式
+	 *
+	 * @param commitRows
+	 *            每个事务的行数，不小于 0
+	 * @return 本写入器
+	 */
+	public BatchWriter setCommitRows(int commitRows) {
+		checkNotStarted();
+		if (commitRows < 0) {
+			throw new IllegalArgumentException("commitRows must not be negative, actual was " + commitRows);
+		}
+		this.commitRows = commitRows;
+		return this;
+	}
+
+	/**
+	 * 按方言限制多行 VALUES 语句的参数个数，默认最多 2000 个
+	 *
+	 * @param dialect
+	 *            数据库方言
+	 * @return 本写入器
+	 */
+	public BatchWriter setDialect(Dialect dialect) {
+		checkNotStarted();
+		this.maxParameters = dialect.getMaxParameters();
+		return this;
+	}
+
+	/**
+	 * 添加一行，累积到当前批次行数时自动执行
+	 *
+	 * @author Lucifer Wong
+	 * @param args
+	 *            这一行的参数，多行 VALUES 方式下会复制一份
+	 * @throws SQLException
+	 *             执行出错
+	 */
+	public void add(Object... args) throws SQLException {
+		if (closed) {
+			throw new IllegalStateException("BatchWriter is closed");
+		}
+		if (!started) {
+			start();
+		}
+		if (multiRowValues) {
+			rows.add(args.clone());
+		} else {
+			plan.bind(batchStatement, args);
+			batchStatement.addBatch();
+		}
+		pending++;
+		if (pending >= batchSize) {
+			flush();
+		}
+	}
+
+	/**
+	 * 立即执行已累积的行。不会提交事务，除非累积的行数达到了 {@link #setCommitRows(int)}。
+	 *
+	 * @author Lucifer Wong
+	 * @throws SQLException
+	 *             执行出错
+	 */
+	public void flush() throws SQLException {
+		if (pending == 0) {
+			return;
+		}
+		long start = System.nanoTime();
+		try {
+			if (multiRowValues) {
+				flushMultiRow();
+			} else {
+				batchStatement.executeBatch();
+			}
+		} catch (SQLException e) {
+			rollback(e);
+			throw e;
+		} catch (RuntimeException e) {
+			rollback(e);
+			throw e;
+		}
+		int count = pending;
+		pending = 0;
+		rowsWritten += count;
+		uncommitted += count;
+		if (commitRows > 0 && uncommitted >= commitRows) {
+			commit();
+		}
+		long nanos = System.nanoTime() - start;
+		record(nanos);
+		adapt(count, nanos);
+	}
+
+	/**
+	 * 执行剩余的行、提交事务、关闭语句并恢复连接的自动提交设置
+	 *
+	 * @throws SQLException
+	 *             执行或提交出错
+	 */
+	@Override
+	public void close() throws SQLException {
+		if (closed) {
+			return;
+		}
+		try {
+			if (started) {
+				flush();
+				if (commitRows > 0 && uncommitted > 0) {
+					commit();
+				}
+			}
+		} finally {
+			closed = true;
+			try {
+				closeStatements();
+			} finally {
+				if (previousAutoCommit != null) {
+					conn.setAutoCommit(previousAutoCommit);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return 当前每批行数
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * @return 已执行的行数
+	 */
+	public long getRowsWritten() {
+		return rowsWritten;
+	}
+
+	/**
+	 * @return 已提交的行数，不管理事务时与 {@link #getRowsWritten()} 相同
+	 */
+	public long getRowsCommitted() {
+		return commitRows > 0 ? rowsCommitted : rowsWritten;
+	}
+
+	/**
+	 * @return 自第一次添加以来每秒执行的行数
+	 */
+	public double getRowsPerSecond() {
+		if (!started) {
+			return 0;
+		}
+		long nanos = System.nanoTime() - startNanos;
+		return nanos <= 0 ? 0 : rowsWritten * 1e9 / nanos;
+	}
+
+	/**
+	 * @return 执行的批次数
+	 */
+	public long getFlushes() {
+		return flushes;
+	}
+
+	/**
+	 * @return 每批执行（包括提交）的平均耗时（纳秒）
+	 */
+	public long getMeanFlushNanos() {
+		return flushes == 0 ? 0 : totalFlushNanos / flushes;
+	}
+
+	/**
+	 * @return 每批执行（包括提交）的最大耗时（纳秒）
+	 */
+	public long getMaxFlushNanos() {
+		return maxFlushNanos;
+	}
+
+	/**
+	 * @return 最近一批执行（包括提交）的耗时（纳秒）
+	 */
+	public long getLastFlushNanos() {
+		return lastFlushNanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("BatchWriter[rows=%d, rows/s=%.1f, flushes=%d, batchSize=%d, meanFlush=%.2fms]",
+				rowsWritten, getRowsPerSecond(), flushes, batchSize, getMeanFlushNanos() / 1e6);
+	}
+
+	private void start() throws SQLException {
+		if (commitRows > 0 && conn.getAutoCommit()) {
+			previousAutoCommit = Boolean.TRUE;
+			conn.setAutoCommit(false);
+		}
+		if (!multiRowValues) {
+			batchStatement = conn.prepareStatement(sql);
+		}
+		started = true;
+		startNanos = System.nanoTime();
+	}
+
+	/**
+	 * 把累积的行拆成若干个 2 的幂行数的多行语句执行
+	 */
+	private void flushMultiRow() throws SQLException {
+		int maxRows = Integer.highestOneBit(Math.max(1, maxParameters / Math.max(1, columns)));
+		int offset = 0;
+		int remaining = rows.size();
+		while (remaining > 0) {
+			int count = Math.min(Integer.highestOneBit(remaining), maxRows);
+			PreparedStatement ps = multiRowStatement(count);
+			for (int i = 0; i < count; i++) {
+				plan.bindAt(ps, i * columns + 1, rows.get(offset + i));
+			}
+			ps.executeUpdate();
+			offset += count;
+			remaining -= count;
+		}
+		rows.clear();
+	}
+
+	private PreparedStatement multiRowStatement(int count) throws SQLException {
+		PreparedStatement ps = multiRowStatements.get(count);
+		if (ps == null) {
+			StringBuilder builder = new StringBuilder(valuesPrefix.length() + valuesSuffix.length()
+					+ (valuesTuple.length() + 1) * count);
+			builder.append(valuesPrefix).append(valuesTuple);
+			for (int i = 1; i < count; i++) {
+				builder.append(',').append(valuesTuple);
+			}
+			builder.append(valuesSuffix);
+			ps = conn.prepareStatement(builder.toString());
+			multiRowStatements.put(count, ps);
+		}
+		return ps;
+	}
+
+	/**
+	 * 找出 VALUES 之后的括号部分，跳过字符串字面量、引号标识符和注释
+	 */
+	private void parseValues() {
+		String lower = sql.toLowerCase();
+		int length = sql.length();
+		int values = -1;
+		for (int i = 0; i < length; i++) {
+			int end = BinderPlan.skipLiteral(sql, i);
+			if (end != i) {
+				i = end;
+			} else if (lower.startsWith("values", i) && !isIdentifierPart(sql, i - 1)
+					&& !isIdentifierPart(sql, i + 6)) {
+				values = i + 6;
+				break;
+			}
+		}
+		int open = values == -1 ? -1 : sql.indexOf('(', values);
+		if (open == -1 || sql.substring(values, open).trim().length() > 0) {
+			throw new IllegalArgumentException("Not an INSERT ... VALUES (...) statement: " + sql);
+		}
+		int depth = 0;
+		for (int i = open; i < length; i++) {
+			char c = sql.charAt(i);
+			int end = BinderPlan.skipLiteral(sql, i);
+			if (end != i) {
+				i = end;
+			} else if (c == '(') {
+				depth++;
+			} else if (c == ')' && --depth == 0) {
+				valuesPrefix = sql.substring(0, open);
+				valuesTuple = sql.substring(open, i + 1);
+				valuesSuffix = sql.substring(i + 1);
+				return;
+			}
+		}
+		throw new IllegalArgumentException("Unbalanced VALUES clause: " + sql);
+	}
+
+	private static boolean isIdentifierPart(String sql, int index) {
+		if (index < 0 || index >= sql.length()) {
+			return false;
+		}
+		char c = sql.charAt(index);
+		return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+	}
+
+	/**
+	 * 按本批每行耗时调整下一批的行数，使每批耗时接近目标，每次最多变为原来的两倍或一半
+	 */
+	private void adapt(int count, long nanos) {
+		if (minBatchSize == maxBatchSize || count < batchSize) {
+			return;
+		}
+		long ideal = nanos <= 0 ? (long) batchSize * 2 : targetFlushNanos * count / nanos;
+		long next = Math.max(batchSize / 2, Math.min((long) batchSize * 2, ideal));
+		batchSize = (int) Math.max(minBatchSize, Math.min(maxBatchSize, next));
+	}
+
+	private void record(long nanos) {
+		flushes++;
+		totalFlushNanos += nanos;
+		lastFlushNanos = nanos;
+		if (nanos > maxFlushNanos) {
+			maxFlushNanos = nanos;
+		}
+	}
+
+	private void commit() throws SQLException {
+		conn.commit();
+		rowsCommitted += uncommitted;
+		uncommitted = 0;
+	}
+
+	private void rollback(Exception cause) {
+		pending = 0;
+		rows.clear();
+		if (commitRows > 0) {
+			uncommitted = 0;
+			try {
+				conn.rollback();
+			} catch (SQLException e) {
+				cause.addSuppressed(e);
+			}
+		}
+		if (batchStatement != null) {
+			try {
+				batchStatement.clearBatch();
+			} catch (SQLException e) {
+				cause.addSuppressed(e);
+			}
+		}
+	}
+
+	private void closeStatements() throws SQLException {
+		SQLException failure = null;
+		List<PreparedStatement> statements = new ArrayList<>(multiRowStatements.values());
+		if (batchStatement != null) {
+			statements.add(batchStatement);
+		}
+		for (PreparedStatement ps : statements) {
+			try {
+				ps.close();
+			} catch (SQLException e) {
+				if (failure == null) {
+					failure = e;
+				} else {
+					failure.addSuppressed(e);
+				}
+			}
+		}
+		multiRowStatements.clear();
+		batchStatement = null;
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private void checkNotStarted() {
+		if (started) {
+			throw new IllegalStateException("BatchWriter must be configured before the first add");
+		}
+	}
+}
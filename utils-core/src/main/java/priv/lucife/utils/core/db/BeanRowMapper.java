@@ -0,0 +1,542 @@
+/**
+ * Copyright (C) 2017 Lucifer Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package priv.lucife.utils.core.db;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import priv.lucife.utils.core.annotation.UBTCompatible;
+import priv.lucife.utils.core.base.ConvertUtil;
+
+/**
+ * 把记录集的每一行映射为 JavaBean。
+ * <p>
+ * 列按标签与 bean 的可写属性匹配，忽略大小写和下划线（user_name 对应 userName）。对每种列组合（{@link ResultSetMetaData}
+ * 的形状）只解析一次：为每一列选好按属性类型读取的方法，并把 setter 转换为 {@link MethodHandle}。之后每行只按列号读取并直接调用
+ * setter，基本类型的属性不装箱，也不再经过 {@link Introspector}。
+ * <p>
+ * {@link #query(Connection, String, Object[], int)} 返回逐行读取的 {@link Cursor}，可以处理数百万行而不把结果放入列表。
+ *
+ * @author Lucifer Wong
+ * @param <T>
+ *            bean 类型
+ */
+@UBTCompatible
+public final class BeanRowMapper<T> {
+
+	private static final ConcurrentMap<Class<?>, BeanRowMapper<?>> MAPPERS = new ConcurrentHashMap<>();
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	/**
+	 * 每列的读取和设值方式
+	 */
+	private abstract static class Accessor {
+		final int column;
+		final MethodHandle setter;
+
+		Accessor(int column, MethodHandle setter, Class<?> valueType) {
+			this.column = column;
+			this.setter = setter.asType(MethodType.methodType(void.class, Object.class, valueType));
+		}
+
+		abstract void apply(Object bean, ResultSet rs) throws Throwable;
+	}
+
+	private static final class IntAccessor extends Accessor {
+		IntAccessor(int column, MethodHandle setter) {
+			super(column, setter, int.class);
+		}
+
+		@Override
+		void apply(Object bean, ResultSet rs) throws Throwable {
+			int value = rs.getInt(column);
+			if (!rs.wasNull()) {
+				setter.invokeExact(bean, value);
+			}
+		}
+	}
+
+	private static final class LongAccessor extends Accessor {
+		LongAccessor(int column, MethodHandle setter) {
+			super(column, setter, long.class);
+		}
+
+		@Override
+		void apply(Object bean, ResultSet rs) throws Throwable {
+			long value = rs.getLong(column);
+			if (!rs.wasNull()) {
+				setter.invokeExact(bean, value);
+			}
+		}
+	}
+
+	private static final class ShortAccessor extends Accessor {
+		ShortAccessor(int column, MethodHandle setter) {
+			super(column, setter, short.class);
+		}
+
+		@Override
+		void apply(Object bean, ResultSet rs) throws Throwable {
+			short value = rs.getShort(column);
+			if (!rs.wasNull()) {
+				setter.invokeExact(bean, value);
+			}
+		}
+	}
+
+	private static final class ByteAccessor extends Accessor {
+		ByteAccessor(int column, MethodHandle setter) {
+			super(column, setter, byte.class);
+		}
+
+		@Override
+		void apply(Object bean, ResultSet rs) throws Throwable {
+			byte value = rs.getByte(column);
+			if (!rs.wasNull()) {
+				setter.invokeExact(bean, value);
+			}
+		}
+	}
+
+	private static final class DoubleAccessor extends Accessor {
+		DoubleAccessor(int column, MethodHandle setter) {
+			super(column, setter, double.class);
+		}
+
+		@Override
+		void apply(Object bean, ResultSet rs) throws Throwable {
+			double value = rs.getDouble(column);
+			if (!rs.wasNull()) {
+				setter.invokeExact(bean, value);
+			}
+		}
+	}
+
+	private static final class FloatAccessor extends Accessor {
+		FloatAccessor(int column, MethodHandle setter) {
+			super(column, setter, float.class);
+		}
+
+		@Override
+		void apply(Object bean, ResultSet rs) throws Throwable {
+			float value = rs.getFloat(column);
+			if (!rs.wasNull()) {
+				setter.invokeExact(bean, value);
+			}
+		}
+	}
+
+	private static final class BooleanAccessor extends Accessor {
+		BooleanAccessor(int column, MethodHandle setter) {
+			super(column, setter, boolean.class);
+		}
+
+		@Override
+		void apply(Object bean, ResultSet rs) throws Throwable {
+			boolean value = rs.getBoolean(column);
+			if (!rs.wasNull()) {
+				setter.invokeExact(bean, value);
+			}
+		}
+	}
+
+	/**
+	 * 引用类型的属性，按属性类型选择读取方法，null 也会被设置
+	 */
+	private static final class ObjectAccessor extends Accessor {
+		private final Class<?> type;
+
+		ObjectAccessor(int column, MethodHandle setter, Class<?> type) {
+			super(column, setter, Object.class);
+			this.type = type;
+		}
+
+		@Override
+		void apply(Object bean, ResultSet rs) throws Throwable {
+			Object value;
+			if (type == String.class) {
+				value = rs.getString(column);
+			} else if (type == Timestamp.class || type == java.util.Date.class) {
+				value = rs.getTimestamp(column);
+			} else if (type == java.sql.Date.class) {
+				value = rs.getDate(column);
+			} else if (type == BigDecimal.class) {
+				value = rs.getBigDecimal(column);
+			} else if (type == Integer.class) {
+				int v = rs.getInt(column);
+				value = rs.wasNull() ? null : Integer.valueOf(v);
+			} else if (type == Long.class) {
+				long v = rs.getLong(column);
+				value = rs.wasNull() ? null : Long.valueOf(v);
+			} else if (type == Double.class) {
+				double v = rs.getDouble(column);
+				value = rs.wasNull() ? null : Double.valueOf(v);
+			} else if (type == Boolean.class) {
+				boolean v = rs.getBoolean(column);
+				value = rs.wasNull() ? null : Boolean.valueOf(v);
+			} else {
+				value = rs.getObject(column);
+				if (value != null && !type.isInstance(value)) {
+					value = ConvertUtil.convert(value, type);
+				}
+			}
+			setter.invokeExact(bean, value);
+		}
+	}
+
+	/**
+	 * 一种列组合的映射计划
+	 */
+	private static final class Plan {
+		final Accessor[] accessors;
+
+		Plan(Accessor[] accessors) {
+			this.accessors = accessors;
+		}
+	}
+
+	private final Class<T> type;
+	private final MethodHandle constructor;
+	private final Map<String, PropertyDescriptor> properties = new HashMap<>();
+	private final ConcurrentMap<String, Plan> plans = new ConcurrentHashMap<>();
+
+	private BeanRowMapper(Class<T> type) {
+		this.type = type;
+		try {
+			Constructor<T> ctor = type.getDeclaredConstructor();
+			ctor.setAccessible(true);
+			this.constructor = LOOKUP.unreflectConstructor(ctor).asType(MethodType.methodType(Object.class));
+			BeanInfo beanInfo = Introspector.getBeanInfo(type);
+			for (PropertyDescriptor property : beanInfo.getPropertyDescriptors()) {
+				if (property.getWriteMethod() != null) {
+					properties.put(normalize(property.getName()), property);
+				}
+			}
+		} catch (NoSuchMethodException e) {
+			throw new IllegalArgumentException("Class [" + type.getName() + "] has no no-argument constructor", e);
+		} catch (IllegalAccessException | IntrospectionException e) {
+			throw new IllegalArgumentException("Could not map rows to [" + type.getName() + "]", e);
+		}
+	}
+
+	/**
+	 * 取得 bean 类型的映射器，同一类型共享一个实例
+	 *
+	 * @author Lucifer Wong
+	 * @param type
+	 *            bean 类型，必须有无参构造方法
+	 * @param <T>
+	 *            bean 类型
+	 * @return 映射器
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> BeanRowMapper<T> of(Class<T> type) {
+		BeanRowMapper<?> mapper = MAPPERS.get(type);
+		if (mapper == null) {
+			mapper = new BeanRowMapper<>(type);
+			BeanRowMapper<?> existing = MAPPERS.putIfAbsent(type, mapper);
+			if (existing != null) {
+				mapper = existing;
+			}
+		}
+		return (BeanRowMapper<T>) mapper;
+	}
+
+	/**
+	 * 映射记录集的当前行
+	 *
+	 * @author Lucifer Wong
+	 * @param rs
+	 *            记录集，已定位到某一行
+	 * @return bean
+	 * @throws SQLException
+	 *             读取出错
+	 */
+	public T mapRow(ResultSet rs) throws SQLException {
+		return mapRow(rs, planFor(rs.getMetaData()));
+	}
+
+	/**
+	 * 映射记录集剩余的所有行
+	 *
+	 * @author Lucifer Wong
+	 * @param rs
+	 *            记录集，不会被关闭
+	 * @return bean 列表
+	 * @throws SQLException
+	 *             读取出错
+	 */
+	public List<T> mapAll(ResultSet rs) throws SQLException {
+		Plan plan = planFor(rs.getMetaData());
+		List<T> result = new ArrayList<>();
+		while (rs.next()) {
+			result.add(mapRow(rs, plan));
+		}
+		return result;
+	}
+
+	/**
+	 * 逐行映射已有的记录集
+	 *
+	 * @author Lucifer Wong
+	 * @param rs
+	 *            记录集，关闭游标时关闭
+	 * @return 游标
+	 * @throws SQLException
+	 *             读取元数据出错
+	 */
+	public Cursor<T> iterate(ResultSet rs) throws SQLException {
+		return new Cursor<>(this, rs, null);
+	}
+
+	/**
+	 * 执行查询并逐行映射，驱动每次从数据库取 fetchSize 行
+	 *
+	 * @author Lucifer Wong
+	 * @param conn
+	 *            连接，不会被关闭
+	 * @param sql
+	 *            查询语句
+	 * @param args
+	 *            参数，可以为 null
+	 * @param fetchSize
+	 *            每次取的行数，0 表示使用驱动的默认值
+	 * @return 游标，关闭时关闭记录集和语句
+	 * @throws SQLException
+	 *             执行查询出错
+	 */
+	public Cursor<T> query(Connection conn, String sql, Object[] args, int fetchSize) throws SQLException {
+		PreparedStatement ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		try {
+			ps.setFetchSize(fetchSize);
+			if (args != null) {
+				JdbcUtil.setParamsToStatement(args, ps);
+			}
+			return new Cursor<>(this, ps.executeQuery(), ps);
+		} catch (SQLException | RuntimeException e) {
+			ps.close();
+			throw e;
+		}
+	}
+
+	private T mapRow(ResultSet rs, Plan plan) throws SQLException {
+		Object bean;
+		try {
+			bean = constructor.invokeExact();
+		} catch (Throwable e) {
+			throw new SQLException("Could not instantiate [" + type.getName() + "]", e);
+		}
+		Accessor[] accessors = plan.accessors;
+		for (int i = 0; i < accessors.length; i++) {
+			try {
+				accessors[i].apply(bean, rs);
+			} catch (SQLException e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new SQLException("Could not set column " + accessors[i].column + " of [" + type.getName() + "]",
+						e);
+			}
+		}
+		return type.cast(bean);
+	}
+
+	/**
+	 * 取得列组合对应的映射计划，没有对应属性的列被忽略
+	 */
+	private Plan planFor(ResultSetMetaData meta) throws SQLException {
+		int count = meta.getColumnCount();
+		StringBuilder shape = new StringBuilder(count * 16);
+		for (int i = 1; i <= count; i++) {
+			shape.append(meta.getColumnLabel(i)).append(',');
+		}
+		String key = shape.toString();
+		Plan plan = plans.get(key);
+		if (plan != null) {
+			return plan;
+		}
+
+		List<Accessor> accessors = new ArrayList<>(count);
+		for (int i = 1; i <= count; i++) {
+			PropertyDescriptor property = properties.get(normalize(meta.getColumnLabel(i)));
+			if (property != null) {
+				accessors.add(accessorOf(i, property));
+			}
+		}
+		plan = new Plan(accessors.toArray(new Accessor[accessors.size()]));
+		Plan existing = plans.putIfAbsent(key, plan);
+		return existing != null ? existing : plan;
+	}
+
+	private Accessor accessorOf(int column, PropertyDescriptor property) {
+		Method method = property.getWriteMethod();
+		MethodHandle setter;
+		try {
+			method.setAccessible(true);
+			setter = LOOKUP.unreflect(method);
+		} catch (IllegalAccessException | SecurityException e) {
+			throw new IllegalArgumentException("Could not access setter [" + method + "]", e);
+		}
+		Class<?> propertyType = property.getPropertyType();
+		if (propertyType == int.class) {
+			return new IntAccessor(column, setter);
+		} else if (propertyType == long.class) {
+			return new LongAccessor(column, setter);
+		} else if (propertyType == double.class) {
+			return new DoubleAccessor(column, setter);
+		} else if (propertyType == float.class) {
+			return new FloatAccessor(column, setter);
+		} else if (propertyType == boolean.class) {
+			return new BooleanAccessor(column, setter);
+		} else if (propertyType == short.class) {
+			return new ShortAccessor(column, setter);
+		} else if (propertyType == byte.class) {
+			return new ByteAccessor(column, setter);
+		} else if (propertyType == char.class) {
+			throw new IllegalArgumentException("char property [" + property.getName() + "] is not supported");
+		}
+		return new ObjectAccessor(column, setter, propertyType);
+	}
+
+	private static String normalize(String name) {
+		StringBuilder builder = new StringBuilder(name.length());
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c != '_') {
+				builder.append(Character.toLowerCase(c));
+			}
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * 逐行读取并映射的游标，同时也是只能遍历一次的 {@link Iterable}。读取出错时迭代方法抛出 {@link IllegalStateException}，
+	 * 原因为 {@link SQLException}。用完后必须关闭。
+	 *
+	 * @author Lucifer Wong
+	 * @param <T>
+	 *            bean 类型
+	 */
+	public static final class Cursor<T> implements Iterator<T>, Iterable<T>, AutoCloseable {
+
+		private final BeanRowMapper<T> mapper;
+		private final ResultSet rs;
+		private final Statement statement;
+		private final Plan plan;
+		private boolean fetched;
+		private boolean hasNext;
+		private boolean closed;
+		private long rows;
+
+		Cursor(BeanRowMapper<T> mapper, ResultSet rs, Statement statement) throws SQLException {
+			this.mapper = mapper;
+			this.rs = rs;
+			this.statement = statement;
+			this.plan = mapper.planFor(rs.getMetaData());
+		}
+
+		@Override
+		public Iterator<T> iterator() {
+			return this;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (!fetched) {
+				if (closed) {
+					return false;
+				}
+				try {
+					hasNext = rs.next();
+				} catch (SQLException e) {
+					throw new IllegalStateException("Error occurred while fetching row " + (rows + 1), e);
+				}
+				fetched = true;
+			}
+			return hasNext;
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			fetched = false;
+			rows++;
+			try {
+				return mapper.mapRow(rs, plan);
+			} catch (SQLException e) {
+				throw new IllegalStateException("Error occurred while mapping row " + rows, e);
+			}
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		/**
+		 * @return 已读取的行数
+		 */
+		public long getRows() {
+			return rows;
+		}
+
+		/**
+		 * 关闭记录集，由 {@link BeanRowMapper#query(Connection, String, Object[], int)} 创建时还会关闭语句
+		 *
+		 * @throws SQLException
+		 *             关闭出错
+		 */
+		@Override
+		public void close() throws SQLException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			fetched = true;
+			hasNext = false;
+			try {
+				rs.close();
+			} finally {
+				if (statement != null) {
+					statement.close();
+				}
+			}
+		}
+	}
+}
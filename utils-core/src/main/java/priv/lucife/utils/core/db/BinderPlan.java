@@ -0,0 +1,429 @@
+/**
+ * Copyright (C) 2017 Lucifer Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package priv.lucife.utils.core.db;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import priv.lucife.utils.core.annotation.UBTCompatible;
+
+/**
+ * 预编译语句的参数绑定计划。
+ * <p>
+ * 按参数类型（{@link Types}）为每个参数位置选好专用的设值器，编译一次后缓存。之后每次执行只需按位置调用对应的设值器，不再对类型做
+ * switch，也不分配对象（{@link java.util.Date} 需要转换为 {@link Date}/{@link Timestamp} 时除外）。值的 Java 类型与设值器不符时（如
+ * BIT 参数传入 Integer、SMALLINT 参数传入 String）退回 {@link PreparedStatement#setObject(int, Object)}，由驱动转换。
+ * <p>
+ * 用法：
+ *
+ * <pre>
+ * BinderPlan plan = BinderPlan.compile(&quot;UPDATE t SET name = ? WHERE id = ?&quot;, new int[] { Types.VARCHAR, Types.INTEGER });
+ * for (User user : users) {
+ * 	plan.bind(ps, user.getName(), user.getId());
+ * 	ps.executeUpdate();
+ * }
+ * </pre>
+ *
+ * @author Lucifer Wong
+ */
+@UBTCompatible
+public final class BinderPlan {
+
+	/**
+	 * 单个参数的设值器
+	 */
+	private interface Setter {
+		void set(PreparedStatement ps, int index, Object value) throws SQLException;
+	}
+
+	private static final Setter INT_SETTER = new Setter() {
+		@Override
+		public void set(PreparedStatement ps, int index, Object value) throws SQLException {
+			if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+				ps.setInt(index, ((Number) value).intValue());
+			} else {
+				ps.setObject(index, value);
+			}
+		}
+	};
+
+	private static final Setter LONG_SETTER = new Setter() {
+		@Override
+		public void set(PreparedStatement ps, int index, Object value) throws SQLException {
+			if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+				ps.setLong(index, ((Number) value).longValue());
+			} else {
+				ps.setObject(index, value);
+			}
+		}
+	};
+
+	private static final Setter BOOLEAN_SETTER = new Setter() {
+		@Override
+		public void set(PreparedStatement ps, int index, Object value) throws SQLException {
+			if (value instanceof Boolean) {
+				ps.setBoolean(index, ((Boolean) value).booleanValue());
+			} else {
+				ps.setObject(index, value);
+			}
+		}
+	};
+
+	private static final Setter FLOAT_SETTER = new Setter() {
+		@Override
+		public void set(PreparedStatement ps, int index, Object value) throws SQLException {
+			if (value instanceof Float) {
+				ps.setFloat(index, ((Float) value).floatValue());
+			} else {
+				ps.setObject(index, value);
+			}
+		}
+	};
+
+	private static final Setter DOUBLE_SETTER = new Setter() {
+		@Override
+		public void set(PreparedStatement ps, int index, Object value) throws SQLException {
+			if (value instanceof Double || value instanceof Float) {
+				ps.setDouble(index, ((Number) value).doubleValue());
+			} else {
+				ps.setObject(index, value);
+			}
+		}
+	};
+
+	private static final Setter STRING_SETTER = new Setter() {
+		@Override
+		public void set(PreparedStatement ps, int index, Object value) throws SQLException {
+			if (value instanceof String) {
+				ps.setString(index, (String) value);
+			} else {
+				ps.setObject(index, value);
+			}
+		}
+	};
+
+	private static final Setter DATE_SETTER = new Setter() {
+		@Override
+		public void set(PreparedStatement ps, int index, Object value) throws SQLException {
+			if (value instanceof Date) {
+				ps.setDate(index, (Date) value);
+			} else if (value instanceof java.util.Date) {
+				ps.setDate(index, new Date(((java.util.Date) value).getTime()));
+			} else {
+				ps.setObject(index, value);
+			}
+		}
+	};
+
+	private static final Setter TIMESTAMP_SETTER = new Setter() {
+		@Override
+		public void set(PreparedStatement ps, int index, Object value) throws SQLException {
+			if (value instanceof Timestamp) {
+				ps.setTimestamp(index, (Timestamp) value);
+			} else if (value instanceof java.util.Date) {
+				ps.setTimestamp(index, new Timestamp(((java.util.Date) value).getTime()));
+			} else {
+				ps.setObject(index, value);
+			}
+		}
+	};
+
+	private static final Setter OBJECT_SETTER = new Setter() {
+		@Override
+		public void set(PreparedStatement ps, int index, Object value) throws SQLException {
+			ps.setObject(index, value);
+		}
+	};
+
+	/**
+	 * 未指定类型时使用的设值器，与 {@link JdbcUtil#setParamsToStatement(Object[], PreparedStatement)} 相同，日期按时间戳设置
+	 */
+	private static final Setter UNTYPED_SETTER = new Setter() {
+		@Override
+		public void set(PreparedStatement ps, int index, Object value) throws SQLException {
+			if (value instanceof java.util.Date && !(value instanceof Timestamp)) {
+				value = new Timestamp(((java.util.Date) value).getTime());
+			}
+			ps.setObject(index, value);
+		}
+	};
+
+	/**
+	 * 缓存的最大计划数，超出后新的计划不再缓存
+	 */
+	private static final int CACHE_CAPACITY = 4096;
+
+	private static final ConcurrentMap<Key, BinderPlan> CACHE = new ConcurrentHashMap<>();
+
+	private final String sql;
+	private final int[] types;
+	private final Setter[] setters;
+
+	private BinderPlan(String sql, int[] types) {
+		this.sql = sql;
+		this.types = types;
+		this.setters = new Setter[types.length];
+		for (int i = 0; i < types.length; i++) {
+			setters[i] = setterOf(types[i]);
+		}
+	}
+
+	/**
+	 * 取得语句的绑定计划，相同的 SQL 和参数类型只编译一次
+	 *
+	 * @author Lucifer Wong
+	 * @param sql
+	 *            预编译 SQL，参数个数必须与 argTypes 的长度相同
+	 * @param argTypes
+	 *            各参数的类型，取值为 {@link Types} 中的常量
+	 * @return 绑定计划
+	 * @throws IllegalArgumentException
+	 *             SQL 中的参数个数与类型个数不同
+	 */
+	public static BinderPlan compile(String sql, int[] argTypes) {
+		return lookup(sql, argTypes);
+	}
+
+	/**
+	 * 取得只按参数类型编译的绑定计划，供 {@link JdbcUtil#setSuitedParamsToStatement(Object[], int[], PreparedStatement)} 使用
+	 *
+	 * @author Lucifer Wong
+	 * @param argTypes
+	 *            各参数的类型，取值为 {@link Types} 中的常量
+	 * @return 绑定计划
+	 */
+	public static BinderPlan forTypes(int[] argTypes) {
+		return lookup(null, argTypes);
+	}
+
+	private static BinderPlan lookup(String sql, int[] argTypes) {
+		Key key = new Key(sql, argTypes);
+		BinderPlan plan = CACHE.get(key);
+		if (plan == null) {
+			int[] types = argTypes.clone();
+			if (sql != null) {
+				int count = countParameters(sql);
+				if (count != types.length) {
+					throw new IllegalArgumentException(
+							"SQL has " + count + " parameters but " + types.length + " types were given: " + sql);
+				}
+			}
+			plan = new BinderPlan(sql, types);
+			if (CACHE.size() < CACHE_CAPACITY) {
+				BinderPlan existing = CACHE.putIfAbsent(new Key(sql, types), plan);
+				if (existing != null) {
+					plan = existing;
+				}
+			}
+		}
+		return plan;
+	}
+
+	/**
+	 * 按计划把参数填入预编译语句
+	 *
+	 * @author Lucifer Wong
+	 * @param ps
+	 *            预编译语句
+	 * @param args
+	 *            参数，个数必须与计划的参数个数相同
+	 * @throws SQLException
+	 *             设置参数出错
+	 */
+	public void bind(PreparedStatement ps, Object... args) throws SQLException {
+		bindAt(ps, 1, args);
+	}
+
+	/**
+	 * 按计划把参数填入预编译语句中从 firstIndex 开始的位置，用于一条语句包含多行参数的情况，如多行 VALUES
+	 *
+	 * @author Lucifer Wong
+	 * @param ps
+	 *            预编译语句
+	 * @param firstIndex
+	 *            第一个参数在语句中的位置，从 1 开始
+	 * @param args
+	 *            参数，个数必须与计划的参数个数相同
+	 * @throws SQLException
+	 *             设置参数出错
+	 */
+	public void bindAt(PreparedStatement ps, int firstIndex, Object[] args) throws SQLException {
+		if (args.length != setters.length) {
+			throw new IllegalArgumentException("Expected " + setters.length + " arguments but was " + args.length);
+		}
+		for (int i = 0; i < args.length; i++) {
+			Object value = args[i];
+			if (value == null) {
+				ps.setNull(firstIndex + i, types[i]);
+			} else {
+				setters[i].set(ps, firstIndex + i, value);
+			}
+		}
+	}
+
+	/**
+	 * 不指定类型，把参数填入预编译语句，日期按时间戳设置，不修改 args
+	 *
+	 * @author Lucifer Wong
+	 * @param ps
+	 *            预编译语句
+	 * @param args
+	 *            参数
+	 * @throws SQLException
+	 *             设置参数出错
+	 */
+	public static void bindUntyped(PreparedStatement ps, Object... args) throws SQLException {
+		for (int i = 0; i < args.length; i++) {
+			UNTYPED_SETTER.set(ps, i + 1, args[i]);
+		}
+	}
+
+	/**
+	 * @return 编译时的 SQL，只按类型编译时为 null
+	 */
+	public String getSql() {
+		return sql;
+	}
+
+	/**
+	 * @return 参数个数
+	 */
+	public int getParameterCount() {
+		return types.length;
+	}
+
+	/**
+	 * @return 各参数的类型
+	 */
+	public int[] getArgTypes() {
+		return types.clone();
+	}
+
+	private static Setter setterOf(int type) {
+		switch (type) {
+		case Types.INTEGER:
+		case Types.SMALLINT:
+		case Types.TINYINT:
+			return INT_SETTER;
+		case Types.BIGINT:
+			return LONG_SETTER;
+		case Types.BOOLEAN:
+		case Types.BIT:
+			return BOOLEAN_SETTER;
+		case Types.FLOAT:
+		case Types.REAL:
+			return FLOAT_SETTER;
+		case Types.DOUBLE:
+			return DOUBLE_SETTER;
+		case Types.CHAR:
+		case Types.VARCHAR:
+		case Types.LONGVARCHAR:
+			return STRING_SETTER;
+		case Types.DATE:
+			return DATE_SETTER;
+		case Types.TIMESTAMP:
+			return TIMESTAMP_SETTER;
+		default:
+			return OBJECT_SETTER;
+		}
+	}
+
+	/**
+	 * 统计 SQL 中的参数占位符个数，跳过字符串字面量、引号标识符和注释中的问号
+	 */
+	static int countParameters(String sql) {
+		int count = 0;
+		int length = sql.length();
+		for (int i = 0; i < length; i++) {
+			char c = sql.charAt(i);
+			if (c == '?') {
+				count++;
+			} else {
+				i = skipLiteral(sql, i);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * 若 start 处是字符串字面量、引号标识符或注释的开头，返回其最后一个字符的位置（未结束时为 SQL 的长度），否则返回 start
+	 */
+	static int skipLiteral(String sql, int start) {
+		char c = sql.charAt(start);
+		int length = sql.length();
+		if (c == '\'' || c == '"') {
+			return skipQuoted(sql, start, c);
+		} else if (c == '-' && start + 1 < length && sql.charAt(start + 1) == '-') {
+			int end = sql.indexOf('\n', start);
+			return end == -1 ? length : end;
+		} else if (c == '/' && start + 1 < length && sql.charAt(start + 1) == '*') {
+			int end = sql.indexOf("*/", start + 2);
+			return end == -1 ? length : end + 1;
+		}
+		return start;
+	}
+
+	/**
+	 * 返回从 start 开始的引号内容的结束引号位置，两个连续的引号表示转义
+	 */
+	static int skipQuoted(String sql, int start, char quote) {
+		int length = sql.length();
+		for (int i = start + 1; i < length; i++) {
+			if (sql.charAt(i) == quote) {
+				if (i + 1 < length && sql.charAt(i + 1) == quote) {
+					i++;
+				} else {
+					return i;
+				}
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * 缓存的键：SQL 和参数类型
+	 */
+	private static final class Key {
+		private final String sql;
+		private final int[] types;
+		private final int hash;
+
+		Key(String sql, int[] types) {
+			this.sql = sql;
+			this.types = types;
+			this.hash = (sql == null ? 0 : sql.hashCode()) * 31 + Arrays.hashCode(types);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return hash == other.hash && (sql == null ? other.sql == null : sql.equals(other.sql))
+					&& Arrays.equals(types, other.types);
+		}
+	}
+}
@@ -0,0 +1,953 @@
+/**
+ * Copyright (C) 2017 Lucifer Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package priv.lucife.utils.core.db;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import priv.lucife.utils.core.annotation.UBTCompatible;
+
+/**
+ * 不依赖第三方库的轻量连接池，本身是 {@link DataSource}，可直接交给 {@link InSQLExecutor}、{@link KeysetPager}、{@link CountCache}
+ * 等使用。
+ * <p>
+ * 借出和归还不加锁：空闲连接放在并发双端队列中，后进先出，让最近用过的连接（及其语句缓存）优先被复用；连接总数由信号量控制，池满时借用者排队等待。
+ * 每个连接带一个按最近最少使用淘汰的 {@link PreparedStatement} 缓存，关闭语句只是把它放回缓存。空闲超过一定时间的连接借出前先校验。开启泄漏检测后，
+ * 借出时记录调用栈，持有超过阈值的连接会连同借出位置一起打印出来。
+ * <p>
+ * 归还时会关闭借用期间创建的未缓存语句，回滚未提交的事务，并恢复 autoCommit 和 readOnly。
+ * <p>
+ * 用法：
+ *
+ * <pre>
+ * ConnectionPool pool = new ConnectionPool(&quot;jdbc:h2:mem:test&quot;, &quot;sa&quot;, &quot;&quot;).setMaxSize(20).setLeakDetectionMillis(60000);
+ * try (Connection conn = pool.getConnection()) {
+ * 	// ...
+ * }
+ * </pre>
+ *
+ * @author Lucifer Wong
+ */
+@UBTCompatible
+public final class ConnectionPool implements DataSource, AutoCloseable {
+
+	/**
+	 * 等待时间直方图的桶数，第 0 个桶是不到 1 微秒，第 i 个桶是 [2^(i-1), 2^i) 微秒，最后一个桶包含更长的等待
+	 */
+	public static final int WAIT_HISTOGRAM_BUCKETS = 24;
+
+	private final String url;
+	private final Properties info;
+	private final DataSource source;
+
+	private int maxSize = 10;
+	private long connectionTimeoutMillis = 30000;
+	private long validationIdleNanos = TimeUnit.SECONDS.toNanos(5);
+	private int validationTimeoutSeconds = 5;
+	private int statementCacheSize = 64;
+	private long leakDetectionNanos;
+
+	private final ConcurrentLinkedDeque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+	private final Set<PooledConnection> borrowed = Collections
+			.newSetFromMap(new ConcurrentHashMap<PooledConnection, Boolean>());
+	private volatile Semaphore permits;
+	private volatile boolean closed;
+	private ScheduledExecutorService leakDetector;
+	private PrintWriter logWriter;
+
+	private final AtomicLongArray waitHistogram = new AtomicLongArray(WAIT_HISTOGRAM_BUCKETS);
+	private final AtomicLong borrows = new AtomicLong();
+	private final AtomicLong totalWaitNanos = new AtomicLong();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong created = new AtomicLong();
+	private final AtomicLong discarded = new AtomicLong();
+	private final AtomicLong leaks = new AtomicLong();
+	private final AtomicLong statementHits = new AtomicLong();
+	private final AtomicLong statementMisses = new AtomicLong();
+
+	/**
+	 * 构造方法，通过 {@link DriverManager} 创建连接
+	 *
+	 * @param url
+	 *            数据库 URL
+	 * @param user
+	 *            用户名，可以为 null
+	 * @param password
+	 *            密码，可以为 null
+	 */
+	public ConnectionPool(String url, String user, String password) {
+		this.url = url;
+		this.info = new Properties();
+		if (user != null) {
+			info.put("user", user);
+		}
+		if (password != null) {
+			info.put("password", password);
+		}
+		this.source = null;
+	}
+
+	/**
+	 * 构造方法，从不带池的数据源创建连接
+	 *
+	 * @param source
+	 *            数据源，如驱动自带的 DataSource 实现
+	 */
+	public ConnectionPool(DataSource source) {
+		this.url = null;
+		this.info = null;
+		this.source = source;
+	}
+
+	/**
+	 * 设置最大连接数，默认 10
+	 *
+	 * @param maxSize
+	 *            最大连接数
+	 * @return 本连接池
+	 */
+	public ConnectionPool setMaxSize(int maxSize) {
+		checkNotStarted();
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize must be positive, actual was " + maxSize);
+		}
+		this.maxSize = maxSize;
+		return this;
+	}
+
+	/**
+	 * 设置池满时借用连接的最长等待时间，默认 30 秒
+	 *
+	 * @param millis
+	 *            等待时间（毫秒）
+	 * @return 本连接池
+	 */
+	public ConnectionPool setConnectionTimeoutMillis(long millis) {
+		checkNotStarted();
+		if (millis < 0) {
+			throw new IllegalArgumentException("millis must not be negative, actual was " + millis);
+		}
+		this.connectionTimeoutMillis = millis;
+		return this;
+	}
+
+	/**
+	 * 设置空闲多久的连接在借出前需要校验，默认 5 秒，0 表示每次借出都校验
+	 *
+	 * @param millis
+	 *            空闲时间（毫秒）
+	 * @param timeoutSeconds
+	 *            校验的超时时间（秒），传给 {@link Connection#isValid(int)}
+	 * @return 本连接池
+	 */
+	public ConnectionPool setValidation(long millis, int timeoutSeconds) {
+		checkNotStarted();
+		if (millis < 0 || timeoutSeconds < 0) {
+			throw new IllegalArgumentException("Require millis >= 0 and timeoutSeconds >= 0, actual was " + millis
+					+ ", " + timeoutSeconds);
+		}
+		this.validationIdleNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+		this.validationTimeoutSeconds = timeoutSeconds;
+		return this;
+	}
+
+	/**
+	 * 设置每个连接缓存的预编译语句数，默认 64，0 表示不缓存
+	 *
+	 * @param size
+	 *            缓存的语句数
+	 * @return 本连接池
+	 */
+	public ConnectionPool setStatementCacheSize(int size) {
+		checkNotStarted();
+		if (size < 0) {
+			throw new IllegalArgumentException("size must not be negative, actual was " + size);
+		}
+		this.statementCacheSize = size;
+		return this;
+	}
+
+	/**
+	 * 设置泄漏检测的阈值，连接被持有超过该时间即视为可能泄漏，默认 0，即不检测。开启后每次借出都要记录调用栈。
+	 *
+	 * @param millis
+	 *            阈值（毫秒）
+	 * @return 本连接池
+	 */
+	public ConnectionPool setLeakDetectionMillis(long millis) {
+		checkNotStarted();
+		if (millis < 0) {
+			throw new IllegalArgumentException("millis must not be negative, actual was " + millis);
+		}
+		this.leakDetectionNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+		return this;
+	}
+
+	/**
+	 * 借用连接，关闭连接即归还
+	 *
+	 * @author Lucifer Wong
+	 * @return 连接
+	 * @throws SQLTransientConnectionException
+	 *             等待超时
+	 * @throws SQLException
+	 *             连接池已关闭或创建连接出错
+	 */
+	@Override
+	public Connection getConnection() throws SQLException {
+		Semaphore permits = start();
+		long begin = System.nanoTime();
+		try {
+			if (!permits.tryAcquire() && !permits.tryAcquire(connectionTimeoutMillis, TimeUnit.MILLISECONDS)) {
+				timeouts.incrementAndGet();
+				throw new SQLTransientConnectionException("Timed out after " + connectionTimeoutMillis
+						+ " ms waiting for a connection, active " + borrowed.size() + ", max " + maxSize);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a connection", e);
+		}
+		recordWait(System.nanoTime() - begin);
+
+		PooledConnection pc;
+		try {
+			if (closed) {
+				throw new SQLException("ConnectionPool is closed");
+			}
+			pc = take();
+		} catch (SQLException | RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+		pc.borrowedAt = System.nanoTime();
+		pc.leakReported = false;
+		if (leakDetectionNanos > 0) {
+			pc.borrowStack = new Throwable();
+			pc.borrowThread = Thread.currentThread().getName();
+		}
+		borrowed.add(pc);
+		return new ConnectionHandle(pc).proxy;
+	}
+
+	/**
+	 * 不支持按用户名取连接
+	 */
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		throw new SQLFeatureNotSupportedException("ConnectionPool does not support per-user connections");
+	}
+
+	/**
+	 * 关闭连接池，关闭所有空闲连接，借出的连接在归还时关闭
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		PooledConnection pc;
+		while ((pc = idle.pollFirst()) != null) {
+			discard(pc);
+		}
+		synchronized (this) {
+			if (leakDetector != null) {
+				leakDetector.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * @return 借出的连接数
+	 */
+	public int getActiveCount() {
+		return borrowed.size();
+	}
+
+	/**
+	 * @return 空闲的连接数
+	 */
+	public int getIdleCount() {
+		return idle.size();
+	}
+
+	/**
+	 * @return 打开的物理连接数
+	 */
+	public int getTotalCount() {
+		return (int) (created.get() - discarded.get());
+	}
+
+	/**
+	 * @return 正在等待连接的线程数，估计值
+	 */
+	public int getWaitingCount() {
+		Semaphore permits = this.permits;
+		return permits == null ? 0 : permits.getQueueLength();
+	}
+
+	/**
+	 * 取得借用连接等待时间的直方图，桶的划分见 {@link #WAIT_HISTOGRAM_BUCKETS}
+	 *
+	 * @return 各个桶的借用次数
+	 */
+	public long[] getWaitHistogram() {
+		long[] result = new long[WAIT_HISTOGRAM_BUCKETS];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = waitHistogram.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * @return 成功借用的次数
+	 */
+	public long getBorrowCount() {
+		return borrows.get();
+	}
+
+	/**
+	 * @return 平均等待时间（纳秒）
+	 */
+	public long getMeanWaitNanos() {
+		long count = borrows.get();
+		return count == 0 ? 0 : totalWaitNanos.get() / count;
+	}
+
+	/**
+	 * @return 最长等待时间（纳秒）
+	 */
+	public long getMaxWaitNanos() {
+		return maxWaitNanos.get();
+	}
+
+	/**
+	 * @return 等待超时的次数
+	 */
+	public long getTimeoutCount() {
+		return timeouts.get();
+	}
+
+	/**
+	 * @return 检测到的可能泄漏的次数
+	 */
+	public long getLeakCount() {
+		return leaks.get();
+	}
+
+	/**
+	 * @return 预编译语句缓存命中的次数
+	 */
+	public long getStatementCacheHits() {
+		return statementHits.get();
+	}
+
+	/**
+	 * @return 预编译语句缓存未命中的次数
+	 */
+	public long getStatementCacheMisses() {
+		return statementMisses.get();
+	}
+
+	/**
+	 * 取得当前持有超过泄漏阈值的连接的借出位置
+	 *
+	 * @return 每个连接一个异常，调用栈为借出位置；未开启泄漏检测时为空
+	 */
+	public List<Throwable> getSuspectedLeaks() {
+		List<Throwable> result = new ArrayList<>();
+		if (leakDetectionNanos > 0) {
+			long now = System.nanoTime();
+			for (PooledConnection pc : borrowed) {
+				Throwable leak = leakOf(pc, now);
+				if (leak != null) {
+					result.add(leak);
+				}
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public PrintWriter getLogWriter() {
+		return logWriter;
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) {
+		this.logWriter = out;
+	}
+
+	@Override
+	public void setLoginTimeout(int seconds) {
+		DriverManager.setLoginTimeout(seconds);
+	}
+
+	@Override
+	public int getLoginTimeout() {
+		return DriverManager.getLoginTimeout();
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if (iface.isInstance(this)) {
+			return iface.cast(this);
+		}
+		throw new SQLException("ConnectionPool is not a wrapper for " + iface.getName());
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) {
+		return iface.isInstance(this);
+	}
+
+	private Semaphore start() throws SQLException {
+		Semaphore permits = this.permits;
+		return permits != null && !closed ? permits : startSlow();
+	}
+
+	private synchronized Semaphore startSlow() throws SQLException {
+		if (closed) {
+			throw new SQLException("ConnectionPool is closed");
+		}
+		if (permits == null) {
+			if (leakDetectionNanos > 0) {
+				long period = Math.max(TimeUnit.NANOSECONDS.toMillis(leakDetectionNanos) / 4, 100);
+				leakDetector = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "connection-pool-leak-detector");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+				leakDetector.scheduleWithFixedDelay(new Runnable() {
+					@Override
+					public void run() {
+						detectLeaks();
+					}
+				}, period, period, TimeUnit.MILLISECONDS);
+			}
+			permits = new Semaphore(maxSize);
+		}
+		return permits;
+	}
+
+	private void checkNotStarted() {
+		if (permits != null) {
+			throw new IllegalStateException("ConnectionPool must be configured before the first getConnection");
+		}
+	}
+
+	/**
+	 * 取出一个空闲连接或新建连接，调用者已持有许可
+	 */
+	private PooledConnection take() throws SQLException {
+		PooledConnection pc;
+		while ((pc = idle.pollFirst()) != null) {
+			if (System.nanoTime() - pc.lastUsed < validationIdleNanos || isValid(pc)) {
+				return pc;
+			}
+			discard(pc);
+		}
+		Connection raw = source != null ? source.getConnection() : DriverManager.getConnection(url, info);
+		try {
+			pc = new PooledConnection(raw, statementCacheSize);
+		} catch (SQLException | RuntimeException e) {
+			closeQuietly(raw);
+			throw e;
+		}
+		created.incrementAndGet();
+		return pc;
+	}
+
+	private boolean isValid(PooledConnection pc) {
+		try {
+			return pc.raw.isValid(validationTimeoutSeconds);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * 归还连接，连接状态无法恢复时关闭物理连接
+	 */
+	private void release(PooledConnection pc) {
+		borrowed.remove(pc);
+		pc.borrowStack = null;
+		boolean reusable;
+		try {
+			reusable = pc.reset();
+		} catch (SQLException | RuntimeException e) {
+			reusable = false;
+		}
+		if (reusable && !closed) {
+			pc.lastUsed = System.nanoTime();
+			idle.offerFirst(pc);
+			if (closed && idle.remove(pc)) {
+				discard(pc);
+			}
+		} else {
+			discard(pc);
+		}
+		permits.release();
+	}
+
+	private void discard(PooledConnection pc) {
+		pc.closeStatements();
+		closeQuietly(pc.raw);
+		discarded.incrementAndGet();
+	}
+
+	private void recordWait(long nanos) {
+		borrows.incrementAndGet();
+		totalWaitNanos.addAndGet(nanos);
+		long max;
+		while (nanos > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, nanos)) {
+			// 重试
+		}
+		long micros = nanos / 1000;
+		int bucket = micros == 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+		waitHistogram.incrementAndGet(Math.min(bucket, WAIT_HISTOGRAM_BUCKETS - 1));
+	}
+
+	private void detectLeaks() {
+		long now = System.nanoTime();
+		for (PooledConnection pc : borrowed) {
+			if (!pc.leakReported) {
+				Throwable leak = leakOf(pc, now);
+				if (leak != null) {
+					pc.leakReported = true;
+					leaks.incrementAndGet();
+					PrintWriter writer = logWriter;
+					if (writer != null) {
+						leak.printStackTrace(writer);
+						writer.flush();
+					} else {
+						leak.printStackTrace();
+					}
+				}
+			}
+		}
+	}
+
+	private Throwable leakOf(PooledConnection pc, long now) {
+		Throwable stack = pc.borrowStack;
+		long held = now - pc.borrowedAt;
+		if (stack == null || held < leakDetectionNanos) {
+			return null;
+		}
+		Throwable leak = new Throwable("Possible connection leak: held for " + TimeUnit.NANOSECONDS.toMillis(held)
+				+ " ms by thread " + pc.borrowThread + ", borrowed at");
+		leak.setStackTrace(stack.getStackTrace());
+		return leak;
+	}
+
+	private static void closeQuietly(AutoCloseable closeable) {
+		try {
+			closeable.close();
+		} catch (Exception e) {
+			// 忽略
+		}
+	}
+
+	private static Object delegate(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * 池中的物理连接及其语句缓存。同一时间只有借用者一个线程访问语句缓存。
+	 */
+	private final class PooledConnection {
+
+		final Connection raw;
+		final boolean defaultAutoCommit;
+		final boolean defaultReadOnly;
+		final Map<StatementKey, CachedStatement> statements;
+		volatile long lastUsed = System.nanoTime();
+		volatile long borrowedAt;
+		volatile Throwable borrowStack;
+		volatile String borrowThread;
+		volatile boolean leakReported;
+		boolean autoCommitChanged;
+		boolean readOnlyChanged;
+		/**
+		 * 借用期间创建的未缓存语句，归还时关闭
+		 */
+		final List<Statement> uncached = new ArrayList<>();
+
+		PooledConnection(Connection raw, final int cacheSize) throws SQLException {
+			this.raw = raw;
+			this.defaultAutoCommit = raw.getAutoCommit();
+			this.defaultReadOnly = raw.isReadOnly();
+			this.statements = new LinkedHashMap<StatementKey, CachedStatement>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<StatementKey, CachedStatement> eldest) {
+					if (size() <= cacheSize) {
+						return false;
+					}
+					eldest.getValue().evict(uncached);
+					return true;
+				}
+			};
+		}
+
+		PreparedStatement prepare(Connection handle, String sql, int type, int concurrency) throws SQLException {
+			StatementKey key = new StatementKey(sql, type, concurrency);
+			CachedStatement cached = statements.get(key);
+			if (cached == null || cached.dead) {
+				statementMisses.incrementAndGet();
+				cached = new CachedStatement(raw.prepareStatement(sql, type, concurrency));
+				statements.put(key, cached);
+			} else if (cached.inUse) {
+				// 同一条语句被嵌套使用，另建一条不缓存的
+				statementMisses.incrementAndGet();
+				PreparedStatement ps = raw.prepareStatement(sql, type, concurrency);
+				uncached.add(ps);
+				return ps;
+			} else {
+				statementHits.incrementAndGet();
+			}
+			cached.checkOut(handle);
+			return cached.proxy;
+		}
+
+		/**
+		 * 恢复连接状态
+		 *
+		 * @return 能否放回池中
+		 */
+		boolean reset() throws SQLException {
+			for (Statement statement : uncached) {
+				closeQuietly(statement);
+			}
+			uncached.clear();
+			for (CachedStatement cached : statements.values()) {
+				if (cached.inUse && !cached.checkIn()) {
+					cached.kill();
+				}
+			}
+			if (raw.isClosed()) {
+				return false;
+			}
+			// 连接默认不自动提交时，借用者未提交的事务也要回滚，不能带给下一个借用者
+			if (!raw.getAutoCommit()) {
+				raw.rollback();
+			}
+			if (autoCommitChanged) {
+				raw.setAutoCommit(defaultAutoCommit);
+				autoCommitChanged = false;
+			}
+			if (readOnlyChanged) {
+				raw.setReadOnly(defaultReadOnly);
+				readOnlyChanged = false;
+			}
+			return true;
+		}
+
+		void closeStatements() {
+			for (CachedStatement cached : statements.values()) {
+				closeQuietly(cached.raw);
+			}
+			statements.clear();
+			for (Statement statement : uncached) {
+				closeQuietly(statement);
+			}
+			uncached.clear();
+		}
+	}
+
+	/**
+	 * 借出的连接，每次借出一个，关闭后不能再使用
+	 */
+	private final class ConnectionHandle implements InvocationHandler {
+
+		private final PooledConnection pc;
+		final Connection proxy;
+		private boolean closed;
+
+		ConnectionHandle(PooledConnection pc) {
+			this.pc = pc;
+			this.proxy = (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+					new Class<?>[] { Connection.class }, this);
+		}
+
+		@Override
+		public Object invoke(Object p, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (method.getDeclaringClass() == Object.class) {
+				switch (name) {
+				case "equals":
+					return p == args[0];
+				case "hashCode":
+					return System.identityHashCode(p);
+				default:
+					return "Pooled" + pc.raw;
+				}
+			}
+			switch (name) {
+			case "close":
+				if (!closed) {
+					closed = true;
+					release(pc);
+				}
+				return null;
+			case "isClosed":
+				return closed || pc.raw.isClosed();
+			default:
+				break;
+			}
+			if (closed) {
+				throw new SQLException("Connection is closed");
+			}
+			switch (name) {
+			case "prepareStatement":
+				if (statementCacheSize > 0) {
+					Class<?>[] types = method.getParameterTypes();
+					if (types.length == 1) {
+						return pc.prepare(proxy, (String) args[0], ResultSet.TYPE_FORWARD_ONLY,
+								ResultSet.CONCUR_READ_ONLY);
+					}
+					if (types.length == 3 && types[1] == int.class && types[2] == int.class) {
+						return pc.prepare(proxy, (String) args[0], (Integer) args[1], (Integer) args[2]);
+					}
+				}
+				return track(delegate(pc.raw, method, args));
+			case "createStatement":
+			case "prepareCall":
+				return track(delegate(pc.raw, method, args));
+			case "setAutoCommit":
+				pc.autoCommitChanged = true;
+				break;
+			case "setReadOnly":
+				pc.readOnlyChanged = true;
+				break;
+			default:
+				break;
+			}
+			return delegate(pc.raw, method, args);
+		}
+
+		private Object track(Object statement) {
+			pc.uncached.add((Statement) statement);
+			return statement;
+		}
+	}
+
+	/**
+	 * 缓存的预编译语句，关闭时放回缓存
+	 */
+	private static final class CachedStatement implements InvocationHandler {
+
+		final PreparedStatement raw;
+		final PreparedStatement proxy;
+		boolean inUse;
+		/**
+		 * 物理语句已关闭，缓存中的条目需要替换
+		 */
+		boolean dead;
+		private boolean evicted;
+		private boolean batched;
+		private boolean discard;
+		private Connection connection;
+		private int defaultFetchSize = -1;
+		private int defaultMaxRows = -1;
+		private int defaultQueryTimeout = -1;
+
+		CachedStatement(PreparedStatement raw) {
+			this.raw = raw;
+			this.proxy = (PreparedStatement) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+					new Class<?>[] { PreparedStatement.class }, this);
+		}
+
+		void checkOut(Connection connection) {
+			this.connection = connection;
+			this.inUse = true;
+		}
+
+		/**
+		 * 放回缓存，恢复语句的设置
+		 *
+		 * @return 语句能否继续使用
+		 */
+		boolean checkIn() {
+			inUse = false;
+			connection = null;
+			try {
+				raw.clearParameters();
+				if (batched) {
+					raw.clearBatch();
+					batched = false;
+				}
+				if (defaultFetchSize >= 0) {
+					raw.setFetchSize(defaultFetchSize);
+				}
+				if (defaultMaxRows >= 0) {
+					raw.setMaxRows(defaultMaxRows);
+				}
+				if (defaultQueryTimeout >= 0) {
+					raw.setQueryTimeout(defaultQueryTimeout);
+				}
+				return !discard;
+			} catch (SQLException e) {
+				return false;
+			}
+		}
+
+		void kill() {
+			dead = true;
+			closeQuietly(raw);
+		}
+
+		/**
+		 * 移出缓存，正在使用的语句在用完或归还连接时关闭
+		 */
+		void evict(List<Statement> uncached) {
+			evicted = true;
+			if (inUse) {
+				uncached.add(raw);
+			} else {
+				kill();
+			}
+		}
+
+		@Override
+		public Object invoke(Object p, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (method.getDeclaringClass() == Object.class) {
+				switch (name) {
+				case "equals":
+					return p == args[0];
+				case "hashCode":
+					return System.identityHashCode(p);
+				default:
+					return "Cached" + raw;
+				}
+			}
+			switch (name) {
+			case "close":
+				if (inUse) {
+					if (!checkIn() || evicted) {
+						kill();
+					}
+				}
+				return null;
+			case "isClosed":
+				return !inUse;
+			default:
+				break;
+			}
+			if (!inUse) {
+				throw new SQLException("Statement is closed");
+			}
+			switch (name) {
+			case "getConnection":
+				return connection;
+			case "addBatch":
+				batched = true;
+				break;
+			case "setFetchSize":
+				if (defaultFetchSize < 0) {
+					defaultFetchSize = raw.getFetchSize();
+				}
+				break;
+			case "setMaxRows":
+				if (defaultMaxRows < 0) {
+					defaultMaxRows = raw.getMaxRows();
+				}
+				break;
+			case "setQueryTimeout":
+				if (defaultQueryTimeout < 0) {
+					defaultQueryTimeout = raw.getQueryTimeout();
+				}
+				break;
+			default:
+				if (name.startsWith("set") && method.getParameterTypes().length == 1) {
+					// 其他语句级设置无法可靠恢复，用完后不再缓存
+					discard = true;
+				}
+				break;
+			}
+			return delegate(raw, method, args);
+		}
+	}
+
+	/**
+	 * 语句缓存的键
+	 */
+	private static final class StatementKey {
+		private final String sql;
+		private final int type;
+		private final int concurrency;
+
+		StatementKey(String sql, int type, int concurrency) {
+			this.sql = sql;
+			this.type = type;
+			this.concurrency = concurrency;
+		}
+
+		@Override
+		public int hashCode() {
+			return (sql.hashCode() * 31 + type) * 31 + concurrency;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof StatementKey)) {
+				return false;
+			}
+			StatementKey other = (StatementKey) obj;
+			return type == other.type && concurrency == other.concurrency && sql.equals(other.sql);
+		}
+	}
+}
@@ -0,0 +1,274 @@
+/**
+ * Copyright (C) 2017 Lucifer Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package priv.lucife.utils.core.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import priv.lucife.utils.core.annotation.UBTCompatible;
+
+/**
+ * 查询总数缓存。
+ * <p>
+ * 分页时每一页都执行一次 {@link JdbcUtil#getCountSQL(String)} 会反复扫描全表。本类按规范化后的查询（合并空白）和参数缓存总数，
+ * 在有效期内直接返回缓存值；过期后若提供了刷新线程池，先返回旧值并在后台重新统计，否则同步重新统计。后台统计失败后，下一次访问改为同步统计并抛出异常，
+ * 不会一直返回旧值。同一查询首次统计时并发的调用只执行一次统计。缓存的查询数有上限，按最近最少使用淘汰。
+ *
+ * @author Lucifer Wong
+ */
+@UBTCompatible
+public final class CountCache {
+
+	private static final class Count {
+		volatile long count;
+		volatile long expiresAt;
+		final AtomicBoolean refreshing = new AtomicBoolean();
+		volatile SQLException failure;
+	}
+
+	private final DataSource dataSource;
+	private final long ttlNanos;
+	private final ExecutorService refresher;
+	private final Map<QueryKey, Count> entries;
+	private final ConcurrentMap<QueryKey, FutureTask<Count>> loading = new ConcurrentHashMap<>();
+	private final AtomicLong loads = new AtomicLong();
+	private final AtomicLong refreshFailures = new AtomicLong();
+	private volatile SQLException lastRefreshFailure;
+
+	/**
+	 * 构造方法
+	 *
+	 * @param dataSource
+	 *            连接来源
+	 * @param ttlMillis
+	 *            缓存有效期（毫秒）
+	 * @param maxEntries
+	 *            最多缓存的查询数
+	 * @param refresher
+	 *            后台刷新的线程池，为 null 时过期后同步刷新
+	 */
+	public CountCache(DataSource dataSource, long ttlMillis, final int maxEntries, ExecutorService refresher) {
+		if (ttlMillis <= 0) {
+			throw new IllegalArgumentException("ttlMillis must be positive, actual was " + ttlMillis);
+		}
+		this.dataSource = dataSource;
+		this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+		this.refresher = refresher;
+		this.entries = new LinkedHashMap<QueryKey, Count>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<QueryKey, Count> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * 取得查询的总数
+	 *
+	 * @author Lucifer Wong
+	 * @param sql
+	 *            查询语句，会由 {@link JdbcUtil#getCountSQL(String)} 改写
+	 * @param args
+	 *            参数
+	 * @return 总数，可能是有效期内的缓存值
+	 * @throws SQLException
+	 *             统计出错
+	 */
+	public long count(String sql, Object... args) throws SQLException {
+		final QueryKey key = new QueryKey(sql, args);
+		Count entry;
+		synchronized (entries) {
+			entry = entries.get(key);
+		}
+		long now = System.nanoTime();
+		if (entry == null) {
+			return loadFirst(key).count;
+		}
+		if (now - entry.expiresAt >= 0 && entry.refreshing.compareAndSet(false, true)) {
+			if (refresher == null || entry.failure != null) {
+				refresh(key, entry);
+			} else {
+				final Count stale = entry;
+				try {
+					refresher.execute(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								refresh(key, stale);
+							} catch (SQLException e) {
+								// 保留旧值，下次访问同步重试并把异常抛给调用方
+								refreshFailures.incrementAndGet();
+								lastRefreshFailure = e;
+							}
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					entry.refreshing.set(false);
+				}
+			}
+		}
+		return entry.count;
+	}
+
+	/**
+	 * 同一查询的首次统计只执行一次，并发的调用等待其结果
+	 */
+	private Count loadFirst(final QueryKey key) throws SQLException {
+		FutureTask<Count> task = new FutureTask<>(new Callable<Count>() {
+			@Override
+			public Count call() throws SQLException {
+				synchronized (entries) {
+					// 另一个线程可能刚加载完并移出了 loading
+					Count entry = entries.get(key);
+					if (entry != null) {
+						return entry;
+					}
+				}
+				Count entry = new Count();
+				load(key, entry);
+				synchronized (entries) {
+					entries.put(key, entry);
+				}
+				return entry;
+			}
+		});
+		FutureTask<Count> existing = loading.putIfAbsent(key, task);
+		if (existing == null) {
+			try {
+				task.run();
+			} finally {
+				loading.remove(key, task);
+			}
+			existing = task;
+		}
+		try {
+			return existing.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a concurrent count", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof SQLException) {
+				throw (SQLException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new SQLException(cause);
+		}
+	}
+
+	/**
+	 * 使某个查询的所有缓存失效
+	 *
+	 * @author Lucifer Wong
+	 * @param sql
+	 *            查询语句
+	 */
+	public void invalidate(String sql) {
+		String normalized = QueryKey.normalize(sql);
+		synchronized (entries) {
+			for (Iterator<QueryKey> it = entries.keySet().iterator(); it.hasNext();) {
+				if (it.next().sql.equals(normalized)) {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * 清空缓存
+	 */
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	/**
+	 * @return 执行统计查询的次数
+	 */
+	public long getLoadCount() {
+		return loads.get();
+	}
+
+	/**
+	 * @return 后台刷新失败的次数
+	 */
+	public long getRefreshFailureCount() {
+		return refreshFailures.get();
+	}
+
+	/**
+	 * @return 最近一次后台刷新失败的异常，没有时为 null
+	 */
+	public SQLException getLastRefreshFailure() {
+		return lastRefreshFailure;
+	}
+
+	/**
+	 * @return 缓存的查询数
+	 */
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	private void refresh(QueryKey key, Count entry) throws SQLException {
+		try {
+			load(key, entry);
+			entry.failure = null;
+		} catch (SQLException e) {
+			entry.failure = e;
+			throw e;
+		} finally {
+			entry.refreshing.set(false);
+		}
+	}
+
+	private void load(QueryKey key, Count entry) throws SQLException {
+		loads.incrementAndGet();
+		try (Connection conn = dataSource.getConnection();
+				PreparedStatement ps = conn.prepareStatement(JdbcUtil.getCountSQL(key.sql))) {
+			JdbcUtil.setParamsToStatement(key.args, ps);
+			try (ResultSet rs = ps.executeQuery()) {
+				entry.count = rs.next() ? rs.getLong(1) : 0;
+			}
+		}
+		entry.expiresAt = System.nanoTime() + ttlNanos;
+	}
+}
@@ -0,0 +1,474 @@
+/**
+ * Copyright (C) 2017 Lucifer Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package priv.lucife.utils.core.db;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Calendar;
+
+import priv.lucife.utils.core.annotation.UBTCompatible;
+import priv.lucife.utils.core.file.CompressUtil;
+import priv.lucife.utils.core.file.CompressUtil.CompressHandler;
+
+/**
+ * 把记录集导出为 CSV/TSV 文件。
+ * <p>
+ * 按列类型选好格式化方式后逐行写出：整数、日期、时间直接把数字写入缓冲区，字符串逐字符按 UTF-8 编码，都不创建中间字符串；浮点数和
+ * DECIMAL 使用 {@link Double#toString(double)}、{@link BigDecimal#toPlainString()}。二进制列写为十六进制。日期格式为
+ * yyyy-MM-dd，时间为 HH:mm:ss，时间戳为 yyyy-MM-dd HH:mm:ss，有毫秒时加 .SSS。
+ * <p>
+ * 字段含分隔符、双引号或换行时用双引号括起，内部双引号加倍；与 null 的写法相同的字符串（默认为空字符串）也加引号。输出写入
+ * {@link FileChannel} 的直接缓冲区；需要压缩时通过 {@link CompressUtil#gzCompress(String, CompressHandler)} 写出 gzip 文件。
+ * <p>
+ * 导出器不是线程安全的。
+ *
+ * @author Lucifer Wong
+ */
+@UBTCompatible
+public final class CsvExporter {
+
+	/**
+	 * CSV 分隔符
+	 */
+	public static final char COMMA = ',';
+
+	/**
+	 * TSV 分隔符
+	 */
+	public static final char TAB = '\t';
+
+	private static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+
+	private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+
+	private static final byte[] HEX = "0123456789ABCDEF".getBytes();
+
+	/**
+	 * 一个字符编码后最多的字节数，加上可能的引号
+	 */
+	private static final int MAX_CHAR_BYTES = 8;
+
+	private static final int LONG_DIGITS = 20;
+
+	private final char delimiter;
+	private boolean header = true;
+	private String nullString = "";
+	private int bufferSize = 256 * 1024;
+
+	private final Calendar calendar = Calendar.getInstance();
+	private final byte[] digits = new byte[LONG_DIGITS];
+	private ByteBuffer buffer;
+	private WritableByteChannel channel;
+
+	/**
+	 * 构造方法
+	 *
+	 * @param delimiter
+	 *            字段分隔符，如 {@link #COMMA}、{@link #TAB}，必须是 ASCII 字符
+	 */
+	public CsvExporter(char delimiter) {
+		if (delimiter >= 0x80 || delimiter == '"' || delimiter == '\r' || delimiter == '\n') {
+			throw new IllegalArgumentException("Illegal delimiter: " + (int) delimiter);
+		}
+		this.delimiter = delimiter;
+	}
+
+	/**
+	 * 是否写出列名行，默认 true
+	 *
+	 * @param header
+	 *            是否写出
+	 * @return 本导出器
+	 */
+	public CsvExporter setHeader(boolean header) {
+		this.header = header;
+		return this;
+	}
+
+	/**
+	 * 设置 null 值的写法，默认为空字段。与之相同的字符串值加引号写出，以便导入时区分
+	 *
+	 * @param nullString
+	 *            null 值的写法
+	 * @return 本导出器
+	 */
+	public CsvExporter setNullString(String nullString) {
+		this.nullString = nullString;
+		return this;
+	}
+
+	/**
+	 * 设置写缓冲区大小，默认 256KB
+	 *
+	 * @param bufferSize
+	 *            缓冲区大小（字节）
+	 * @return 本导出器
+	 */
+	public CsvExporter setBufferSize(int bufferSize) {
+		if (bufferSize < 64) {
+			throw new IllegalArgumentException("bufferSize must be at least 64, actual was " + bufferSize);
+		}
+		this.bufferSize = bufferSize;
+		return this;
+	}
+
+	/**
+	 * 把记录集剩余的行导出到文件，文件名以 .gz 结尾时写出 gzip 文件
+	 *
+	 * @author Lucifer Wong
+	 * @param rs
+	 *            记录集，不会被关闭
+	 * @param file
+	 *            目标文件，已存在时覆盖
+	 * @return 导出的行数
+	 * @throws SQLException
+	 *             读取记录集出错
+	 * @throws IOException
+	 *             写文件出错
+	 */
+	public long export(final ResultSet rs, File file) throws SQLException, IOException {
+		if (file.getName().endsWith(".gz")) {
+			final long[] rows = new long[1];
+			try {
+				CompressUtil.gzCompress(file.getPath(), new CompressHandler() {
+					@Override
+					public void handle(OutputStream out) throws IOException {
+						try {
+							rows[0] = export(rs, Channels.newChannel(out), ByteBuffer.allocate(bufferSize));
+						} catch (SQLException e) {
+							throw new IOException(e);
+						}
+					}
+				});
+			} catch (IOException e) {
+				// gzCompress 会再包一层 IOException
+				for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+					if (cause instanceof SQLException) {
+						throw (SQLException) cause;
+					}
+				}
+				throw e;
+			}
+			return rows[0];
+		}
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			return export(rs, out.getChannel(), ByteBuffer.allocateDirect(bufferSize));
+		}
+	}
+
+	/**
+	 * 把记录集剩余的行导出到输出流
+	 *
+	 * @author Lucifer Wong
+	 * @param rs
+	 *            记录集，不会被关闭
+	 * @param out
+	 *            输出流，不会被关闭
+	 * @return 导出的行数
+	 * @throws SQLException
+	 *             读取记录集出错
+	 * @throws IOException
+	 *             写出错
+	 */
+	public long export(ResultSet rs, OutputStream out) throws SQLException, IOException {
+		long rows = export(rs, Channels.newChannel(out), ByteBuffer.allocate(bufferSize));
+		out.flush();
+		return rows;
+	}
+
+	private long export(ResultSet rs, WritableByteChannel channel, ByteBuffer buffer)
+			throws SQLException, IOException {
+		this.channel = channel;
+		this.buffer = buffer;
+		try {
+			ResultSetMetaData md = rs.getMetaData();
+			int columns = md.getColumnCount();
+			int[] types = new int[columns];
+			for (int i = 0; i < columns; i++) {
+				types[i] = md.getColumnType(i + 1);
+			}
+			if (header) {
+				for (int i = 0; i < columns; i++) {
+					if (i > 0) {
+						putAscii(delimiter);
+					}
+					putText(md.getColumnLabel(i + 1));
+				}
+				putAscii('\n');
+			}
+			long rows = 0;
+			while (rs.next()) {
+				for (int i = 0; i < columns; i++) {
+					if (i > 0) {
+						putAscii(delimiter);
+					}
+					putColumn(rs, i + 1, types[i]);
+				}
+				putAscii('\n');
+				rows++;
+			}
+			drain();
+			return rows;
+		} finally {
+			this.channel = null;
+			this.buffer = null;
+		}
+	}
+
+	private void putColumn(ResultSet rs, int column, int type) throws SQLException, IOException {
+		switch (type) {
+		case Types.TINYINT:
+		case Types.SMALLINT:
+		case Types.INTEGER:
+		case Types.BIGINT: {
+			long value = rs.getLong(column);
+			if (rs.wasNull()) {
+				putNull();
+			} else {
+				putLong(value);
+			}
+			return;
+		}
+		case Types.REAL:
+		case Types.FLOAT:
+		case Types.DOUBLE: {
+			double value = rs.getDouble(column);
+			if (rs.wasNull()) {
+				putNull();
+			} else if (value == (long) value && Math.abs(value) < 1e15) {
+				putLong((long) value);
+			} else {
+				putText(Double.toString(value));
+			}
+			return;
+		}
+		case Types.DECIMAL:
+		case Types.NUMERIC: {
+			BigDecimal value = rs.getBigDecimal(column);
+			if (value == null) {
+				putNull();
+			} else if (value.scale() == 0 && value.precision() < 19) {
+				putLong(value.longValue());
+			} else {
+				putText(value.toPlainString());
+			}
+			return;
+		}
+		case Types.BIT:
+		case Types.BOOLEAN: {
+			boolean value = rs.getBoolean(column);
+			if (rs.wasNull()) {
+				putNull();
+			} else {
+				putBytes(value ? TRUE : FALSE);
+			}
+			return;
+		}
+		case Types.DATE: {
+			java.sql.Date value = rs.getDate(column);
+			if (value == null) {
+				putNull();
+			} else {
+				calendar.setTime(value);
+				putDate();
+			}
+			return;
+		}
+		case Types.TIME: {
+			java.sql.Time value = rs.getTime(column);
+			if (value == null) {
+				putNull();
+			} else {
+				calendar.setTime(value);
+				putTime();
+			}
+			return;
+		}
+		case Types.TIMESTAMP: {
+			Timestamp value = rs.getTimestamp(column);
+			if (value == null) {
+				putNull();
+			} else {
+				calendar.setTime(value);
+				putDate();
+				putAscii(' ');
+				putTime();
+				int millis = value.getNanos() / 1000000;
+				if (millis != 0) {
+					putAscii('.');
+					putDigits(millis, 3);
+				}
+			}
+			return;
+		}
+		case Types.BINARY:
+		case Types.VARBINARY:
+		case Types.LONGVARBINARY:
+		case Types.BLOB: {
+			byte[] value = rs.getBytes(column);
+			if (value == null) {
+				putNull();
+			} else {
+				for (byte b : value) {
+					ensure(2);
+					buffer.put(HEX[(b >> 4) & 0xF]).put(HEX[b & 0xF]);
+				}
+			}
+			return;
+		}
+		default: {
+			String value = rs.getString(column);
+			if (value == null) {
+				putNull();
+			} else {
+				putText(value, value.equals(nullString));
+			}
+		}
+		}
+	}
+
+	private void putNull() throws IOException {
+		if (!nullString.isEmpty()) {
+			putText(nullString);
+		}
+	}
+
+	private void putText(String value) throws IOException {
+		putText(value, false);
+	}
+
+	/**
+	 * 写出文本，需要时加引号
+	 *
+	 * @param quote
+	 *            是否一定加引号
+	 */
+	private void putText(String value, boolean quote) throws IOException {
+		int length = value.length();
+		for (int i = 0; i < length && !quote; i++) {
+			char c = value.charAt(i);
+			if (c == delimiter || c == '"' || c == '\n' || c == '\r') {
+				quote = true;
+			}
+		}
+		if (quote) {
+			putAscii('"');
+		}
+		for (int i = 0; i < length; i++) {
+			ensure(MAX_CHAR_BYTES);
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				if (c == '"') {
+					buffer.put((byte) '"');
+				}
+				buffer.put((byte) c);
+			} else if (c < 0x800) {
+				buffer.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, value.charAt(++i));
+				buffer.put((byte) (0xF0 | cp >> 18)).put((byte) (0x80 | cp >> 12 & 0x3F))
+						.put((byte) (0x80 | cp >> 6 & 0x3F)).put((byte) (0x80 | cp & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				buffer.put((byte) '?');
+			} else {
+				buffer.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3F)).put((byte) (0x80 | c & 0x3F));
+			}
+		}
+		if (quote) {
+			putAscii('"');
+		}
+	}
+
+	private void putLong(long value) throws IOException {
+		ensure(LONG_DIGITS);
+		if (value == Long.MIN_VALUE) {
+			putText(Long.toString(value));
+			return;
+		}
+		if (value < 0) {
+			buffer.put((byte) '-');
+			value = -value;
+		}
+		int pos = LONG_DIGITS;
+		do {
+			digits[--pos] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value != 0);
+		buffer.put(digits, pos, LONG_DIGITS - pos);
+	}
+
+	private void putDate() throws IOException {
+		putDigits(calendar.get(Calendar.YEAR), 4);
+		putAscii('-');
+		putDigits(calendar.get(Calendar.MONTH) + 1, 2);
+		putAscii('-');
+		putDigits(calendar.get(Calendar.DAY_OF_MONTH), 2);
+	}
+
+	private void putTime() throws IOException {
+		putDigits(calendar.get(Calendar.HOUR_OF_DAY), 2);
+		putAscii(':');
+		putDigits(calendar.get(Calendar.MINUTE), 2);
+		putAscii(':');
+		putDigits(calendar.get(Calendar.SECOND), 2);
+	}
+
+	private void putDigits(int value, int width) throws IOException {
+		ensure(width);
+		int divisor = 1;
+		for (int i = 1; i < width; i++) {
+			divisor *= 10;
+		}
+		for (; divisor > 0; divisor /= 10) {
+			buffer.put((byte) ('0' + value / divisor % 10));
+		}
+	}
+
+	private void putBytes(byte[] bytes) throws IOException {
+		ensure(bytes.length);
+		buffer.put(bytes);
+	}
+
+	private void putAscii(char c) throws IOException {
+		ensure(1);
+		buffer.put((byte) c);
+	}
+
+	private void ensure(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			drain();
+		}
+	}
+
+	private void drain() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
@@ -0,0 +1,471 @@
+/**
+ * Copyright (C) 2017 Lucifer Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package priv.lucife.utils.core.db;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+import javax.sql.DataSource;
+
+import priv.lucife.utils.core.annotation.UBTCompatible;
+import priv.lucife.utils.core.file.MappedRecordReader;
+
+/**
+ * 把 CSV/TSV 文件导入数据库，与 {@link CsvExporter} 的格式对应。
+ * <p>
+ * 文件按行边界切分为若干段（{@link MappedRecordReader#split(File, byte, int)}），每段在一个线程中解析，借用一个连接，通过
+ * {@link BatchWriter} 批量写入。字段按参数类型转换：整数、浮点数、DECIMAL、布尔、日期（yyyy-MM-dd）、时间（HH:mm:ss）、时间戳
+ * （yyyy-MM-dd HH:mm:ss[.f...]）、十六进制二进制，其他类型按字符串绑定。未加引号的空字段（或 {@link #setNullString(String)}
+ * 指定的写法）为 null，加引号的空字段为空字符串。
+ * <p>
+ * 并行导入时加引号的字段中不能有换行；字段中有换行的文件应使用并行度 1。.gz 文件按流解压，只能单线程导入。
+ * <p>
+ * 各段分别提交，出错时其他段已提交的数据不会回滚。
+ *
+ * @author Lucifer Wong
+ */
+@UBTCompatible
+public final class CsvImporter {
+
+	private final DataSource dataSource;
+	private final String sql;
+	private final int[] argTypes;
+	private final char delimiter;
+	private boolean header = true;
+	private String nullString = "";
+	private int parallelism = 1;
+	private int commitRows = 10000;
+	private boolean multiRowValues;
+	private Dialect dialect;
+
+	/**
+	 * 构造方法
+	 *
+	 * @param dataSource
+	 *            连接来源，每段借用一个连接
+	 * @param sql
+	 *            单行的插入语句，如 INSERT INTO t (a, b) VALUES (?, ?)
+	 * @param argTypes
+	 *            各参数的类型，取值为 {@link Types} 中的常量，个数与文件的列数相同
+	 * @param delimiter
+	 *            字段分隔符，如 {@link CsvExporter#COMMA}、{@link CsvExporter#TAB}
+	 */
+	public CsvImporter(DataSource dataSource, String sql, int[] argTypes, char delimiter) {
+		if (delimiter == '"' || delimiter == '\r' || delimiter == '\n') {
+			throw new IllegalArgumentException("Illegal delimiter: " + (int) delimiter);
+		}
+		this.dataSource = dataSource;
+		this.sql = sql;
+		this.argTypes = argTypes.clone();
+		this.delimiter = delimiter;
+	}
+
+	/**
+	 * 第一行是否为列名行，默认 true
+	 *
+	 * @param header
+	 *            是否有列名行
+	 * @return 本导入器
+	 */
+	public CsvImporter setHeader(boolean header) {
+		this.header = header;
+		return this;
+	}
+
+	/**
+	 * 设置 null 值的写法，默认为空字段
+	 *
+	 * @param nullString
+	 *            null 值的写法
+	 * @return 本导入器
+	 */
+	public CsvImporter setNullString(String nullString) {
+		this.nullString = nullString;
+		return this;
+	}
+
+	/**
+	 * 设置并行度，默认 1
+	 *
+	 * @param parallelism
+	 *            并行解析和写入的段数
+	 * @return 本导入器
+	 */
+	public CsvImporter setParallelism(int parallelism) {
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("parallelism must be positive, actual was " + parallelism);
+		}
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	/**
+	 * 设置每个事务的行数，默认 10000，0 表示沿用连接原有的提交方式，见 {@link BatchWriter#setCommitRows(int)}
+	 *
+	 * @param commitRows
+	 *            每个事务的行数
+	 * @return 本导入器
+	 */
+	public CsvImporter setCommitRows(int commitRows) {
+		if (commitRows < 0) {
+			throw new IllegalArgumentException("commitRows must not be negative, actual was " + commitRows);
+		}
+		this.commitRows = commitRows;
+		return this;
+	}
+
+	/**
+	 * 是否改写为多行 VALUES 语句，见 {@link BatchWriter#setMultiRowValues(boolean)}
+	 *
+	 * @param multiRowValues
+	 *            是否改写
+	 * @return 本导入器
+	 */
+	public CsvImporter setMultiRowValues(boolean multiRowValues) {
+		this.multiRowValues = multiRowValues;
+		return this;
+	}
+
+	/**
+	 * 设置数据库方言，见 {@link BatchWriter#setDialect(Dialect)}
+	 *
+	 * @param dialect
+	 *            数据库方言
+	 * @return 本导入器
+	 */
+	public CsvImporter setDialect(Dialect dialect) {
+		this.dialect = dialect;
+		return this;
+	}
+
+	/**
+	 * 导入文件
+	 *
+	 * @author Lucifer Wong
+	 * @param file
+	 *            文件，以 .gz 结尾时按 gzip 解压
+	 * @return 导入的行数
+	 * @throws IOException
+	 *             读取文件出错或格式错误
+	 * @throws SQLException
+	 *             写入数据库出错
+	 */
+	public long importFile(final File file) throws IOException, SQLException {
+		if (file.getName().endsWith(".gz")) {
+			return importGzip(file);
+		}
+		final long[] bounds = parallelism == 1 ? new long[] { 0, file.length() }
+				: MappedRecordReader.split(file, MappedRecordReader.LINE_FEED, parallelism);
+		if (bounds.length == 2) {
+			return importPart(file, bounds[0], bounds[1], true);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(bounds.length - 1);
+		try {
+			List<Future<Long>> futures = new ArrayList<>();
+			for (int i = 0; i < bounds.length - 1; i++) {
+				final int part = i;
+				futures.add(executor.submit(new Callable<Long>() {
+					@Override
+					public Long call() throws IOException, SQLException {
+						return importPart(file, bounds[part], bounds[part + 1], part == 0);
+					}
+				}));
+			}
+			long total = 0;
+			for (Future<Long> future : futures) {
+				total += future.get();
+			}
+			return total;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while importing [" + file + "]", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof SQLException) {
+				throw (SQLException) cause;
+			}
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException("Error occurred while importing [" + file + "]", cause);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private long importPart(File file, long start, long end, boolean first) throws IOException, SQLException {
+		Parser parser = new Parser();
+		boolean skip = first && header;
+		try (MappedRecordReader reader = new MappedRecordReader(file, MappedRecordReader.LINE_FEED, start, end);
+				Connection conn = dataSource.getConnection();
+				BatchWriter writer = newWriter(conn)) {
+			long position = start;
+			for (MappedRecordReader.Record record; (record = reader.next()) != null;) {
+				if (!parser.inRecord()) {
+					position = record.getPosition();
+				}
+				// 读取器去掉了行尾的 '\r'，按读取位置还原换行符，加引号字段中的 "\r\n" 原样保留
+				int terminator = (int) (reader.getPosition() - record.getPosition() - record.byteLength());
+				if (!parser.parse(record, terminator == 2 ? "\r\n" : "\n")) {
+					continue;
+				}
+				if (skip) {
+					skip = false;
+				} else if (!parser.isBlank()) {
+					writer.add(parser.values(position));
+				}
+			}
+			if (parser.inRecord()) {
+				throw new IOException("Unterminated quoted field at position " + position + " of [" + file
+						+ "], quoted line breaks require parallelism 1");
+			}
+			writer.flush();
+			return writer.getRowsWritten();
+		}
+	}
+
+	private long importGzip(File file) throws IOException, SQLException {
+		Parser parser = new Parser();
+		boolean skip = header;
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(
+				new FileInputStream(file), 64 * 1024), StandardCharsets.UTF_8), 256 * 1024);
+				Connection conn = dataSource.getConnection();
+				BatchWriter writer = newWriter(conn)) {
+			long line = 0;
+			long recordLine = 1;
+			StringBuilder text = new StringBuilder();
+			for (String terminator; (terminator = readLine(reader, text)) != null;) {
+				line++;
+				if (!parser.inRecord()) {
+					recordLine = line;
+				}
+				if (!parser.parse(text, terminator)) {
+					continue;
+				}
+				if (skip) {
+					skip = false;
+				} else if (!parser.isBlank()) {
+					writer.add(parser.values(recordLine));
+				}
+			}
+			if (parser.inRecord()) {
+				throw new IOException("Unterminated quoted field at line " + recordLine + " of [" + file + "]");
+			}
+			writer.flush();
+			return writer.getRowsWritten();
+		}
+	}
+
+	/**
+	 * 读取一行到 line，只按 '\n' 断行，加引号字段中单独的 '\r' 不算换行
+	 *
+	 * @return 行尾的换行符，最后一行没有换行符时为空串，读完时返回 null
+	 */
+	private static String readLine(BufferedReader reader, StringBuilder line) throws IOException {
+		line.setLength(0);
+		for (int c; (c = reader.read()) != -1;) {
+			if (c == '\n') {
+				int last = line.length() - 1;
+				if (last >= 0 && line.charAt(last) == '\r') {
+					line.setLength(last);
+					return "\r\n";
+				}
+				return "\n";
+			}
+			line.append((char) c);
+		}
+		if (line.length() == 0) {
+			return null;
+		}
+		// 与内存映射读取一致，去掉最后一行末尾的 '\r'
+		int last = line.length() - 1;
+		if (line.charAt(last) == '\r') {
+			line.setLength(last);
+		}
+		return "";
+	}
+
+	private BatchWriter newWriter(Connection conn) {
+		BatchWriter writer = new BatchWriter(conn, sql, argTypes).setCommitRows(commitRows)
+				.setMultiRowValues(multiRowValues);
+		if (dialect != null) {
+			writer.setDialect(dialect);
+		}
+		return writer;
+	}
+
+	/**
+	 * 逐行解析字段，加引号的字段可以跨行
+	 */
+	private final class Parser {
+
+		private final List<String> fields = new ArrayList<>(argTypes.length);
+		private final StringBuilder field = new StringBuilder();
+		private boolean inQuotes;
+		private boolean quoted;
+		private boolean emptyLine;
+
+		boolean inRecord() {
+			return inQuotes;
+		}
+
+		/**
+		 * 空行跳过；只有一列时空行表示 null，不跳过
+		 */
+		boolean isBlank() {
+			return emptyLine && argTypes.length > 1;
+		}
+
+		/**
+		 * @param line
+		 *            一行，不包括换行符
+		 * @param terminator
+		 *            行尾的换行符，字段跨行时原样加入字段
+		 * @return 记录是否已完整
+		 */
+		boolean parse(CharSequence line, String terminator) {
+			int length = line.length();
+			if (!inQuotes) {
+				fields.clear();
+				field.setLength(0);
+				quoted = false;
+				emptyLine = length == 0;
+			}
+			for (int i = 0; i < length; i++) {
+				char c = line.charAt(i);
+				if (inQuotes) {
+					if (c != '"') {
+						field.append(c);
+					} else if (i + 1 < length && line.charAt(i + 1) == '"') {
+						field.append('"');
+						i++;
+					} else {
+						inQuotes = false;
+					}
+				} else if (c == delimiter) {
+					endField();
+				} else if (c == '"' && field.length() == 0 && !quoted) {
+					inQuotes = true;
+					quoted = true;
+				} else {
+					field.append(c);
+				}
+			}
+			if (inQuotes) {
+				field.append(terminator);
+				return false;
+			}
+			endField();
+			return true;
+		}
+
+		private void endField() {
+			String value = field.toString();
+			fields.add(!quoted && value.equals(nullString) ? null : value);
+			field.setLength(0);
+			quoted = false;
+		}
+
+		Object[] values(long position) throws IOException {
+			if (fields.size() != argTypes.length) {
+				throw new IOException("Expected " + argTypes.length + " fields but was " + fields.size()
+						+ " at position " + position);
+			}
+			Object[] values = new Object[argTypes.length];
+			for (int i = 0; i < values.length; i++) {
+				String value = fields.get(i);
+				try {
+					values[i] = value == null ? null : convert(value, argTypes[i]);
+				} catch (IllegalArgumentException e) {
+					throw new IOException("Illegal value [" + value + "] in field " + (i + 1) + " at position "
+							+ position, e);
+				}
+			}
+			return values;
+		}
+	}
+
+	private static Object convert(String value, int type) {
+		switch (type) {
+		case Types.TINYINT:
+		case Types.SMALLINT:
+		case Types.INTEGER:
+			return Integer.valueOf(value.trim());
+		case Types.BIGINT:
+			return Long.valueOf(value.trim());
+		case Types.REAL:
+		case Types.FLOAT:
+		case Types.DOUBLE:
+			return Double.valueOf(value);
+		case Types.DECIMAL:
+		case Types.NUMERIC:
+			return new BigDecimal(value.trim());
+		case Types.BIT:
+		case Types.BOOLEAN:
+			return "true".equalsIgnoreCase(value) || "1".equals(value);
+		case Types.DATE:
+			return java.sql.Date.valueOf(value.trim());
+		case Types.TIME:
+			return Time.valueOf(value.trim());
+		case Types.TIMESTAMP:
+			String trimmed = value.trim();
+			return Timestamp.valueOf(trimmed.length() == 10 ? trimmed + " 00:00:00" : trimmed);
+		case Types.BINARY:
+		case Types.VARBINARY:
+		case Types.LONGVARBINARY:
+		case Types.BLOB:
+			return hex(value);
+		default:
+			return value;
+		}
+	}
+
+	private static byte[] hex(String value) {
+		if (value.length() % 2 != 0) {
+			throw new IllegalArgumentException("Odd hex length");
+		}
+		byte[] bytes = new byte[value.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			int high = Character.digit(value.charAt(2 * i), 16);
+			int low = Character.digit(value.charAt(2 * i + 1), 16);
+			if (high < 0 || low < 0) {
+				throw new IllegalArgumentException("Illegal hex digit");
+			}
+			bytes[i] = (byte) (high << 4 | low);
+		}
+		return bytes;
+	}
+}
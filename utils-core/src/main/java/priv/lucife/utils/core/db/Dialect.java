@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2017 Lucifer Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package priv.lucife.utils.core.db;
+
+import priv.lucife.utils.core.annotation.UBTCompatible;
+
+/**
+ * 数据库方言，记录各数据库对 SQL 语句的限制
+ *
+ * @author Lucifer Wong
+ */
+@UBTCompatible
+public enum Dialect {
+
+	/**
+	 * Sybase ASE，每条语句最多 2048 个参数
+	 */
+	ASE(300, 2048),
+
+	/**
+	 * Oracle，IN 列表最多 1000 项
+	 */
+	ORACLE(1000, 65535),
+
+	/**
+	 * SQL Server，每条语句最多 2100 个参数
+	 */
+	SQL_SERVER(2000, 2100),
+
+	/**
+	 * MySQL，每条语句最多 65535 个参数
+	 */
+	MYSQL(1000, 65535),
+
+	/**
+	 * PostgreSQL，每条语句最多 32767 个参数
+	 */
+	POSTGRESQL(1000, 32767),
+
+	/**
+	 * H2、Derby 等嵌入式数据库
+	 */
+	EMBEDDED(1000, 65535);
+
+	private final int maxInArgs;
+
+	private final int maxParameters;
+
+	private Dialect(int maxInArgs, int maxParameters) {
+		this.maxInArgs = maxInArgs;
+		this.maxParameters = maxParameters;
+	}
+
+	/**
+	 * @return IN 子句中建议的最大参数数目
+	 */
+	public int getMaxInArgs() {
+		return maxInArgs;
+	}
+
+	/**
+	 * @return 每条语句最多允许的参数数目
+	 */
+	public int getMaxParameters() {
+		return maxParameters;
+	}
+
+	/**
+	 * 给查询加上返回行数的限制，查询应当带有 ORDER BY
+	 *
+	 * @author Lucifer Wong
+	 * @param sql
+	 *            查询语句
+	 * @param rows
+	 *            最多返回的行数
+	 * @return 加上限制后的查询语句
+	 */
+	public String limit(String sql, int rows) {
+		switch (this) {
+		case ASE:
+			// ASE 只支持 SELECT [DISTINCT] TOP n
+			int index = sql.length() - sql.replaceFirst("(?i)^\\s*select(\\s+distinct)?\\s", "").length();
+			if (index == 0) {
+				throw new IllegalArgumentException("Not a SELECT statement: " + sql);
+			}
+			return sql.substring(0, index) + "TOP " + rows + " " + sql.substring(index);
+		case MYSQL:
+		case POSTGRESQL:
+			return sql + " LIMIT " + rows;
+		case SQL_SERVER:
+			return sql + " OFFSET 0 ROWS FETCH NEXT " + rows + " ROWS ONLY";
+		default:
+			return sql + " FETCH FIRST " + rows + " ROWS ONLY";
+		}
+	}
+}
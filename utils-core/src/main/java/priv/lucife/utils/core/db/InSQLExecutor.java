@@ -0,0 +1,344 @@
+/**
+ * Copyright (C) 2017 Lucifer Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package priv.lucife.utils.core.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.sql.DataSource;
+
+import priv.lucife.utils.core.annotation.UBTCompatible;
+
+/**
+ * 并发执行带 IN 子句的 SQL。
+ * <p>
+ * 与 {@link JdbcUtil#executeInSQL(String, Object[], Object[], InSQLProcessor)} 一样把 IN 参数分批，但各批次由多个工作线程并发执行：
+ * 每个工作线程从 {@link DataSource} 取一个连接，执行完一批立即领取下一批，直到全部执行完才归还连接。结果可以按批次顺序合并，也可以按完成顺序合并。
+ * <p>
+ * 除最后一批外各批次的 SQL 相同，占位符字符串由 {@link JdbcUtil#getInSQL(int)} 缓存，每次执行只拼接两次 SQL。
+ *
+ * @author Lucifer Wong
+ */
+@UBTCompatible
+public final class InSQLExecutor {
+
+	/**
+	 * 执行一批 SQL 的接口，在工作线程中调用
+	 *
+	 * @author Lucifer Wong
+	 * @param <T>
+	 *            结果类型
+	 */
+	public interface InSQLQuery<T> {
+
+		/**
+		 * 执行一批 SQL
+		 *
+		 * @param conn
+		 *            当前工作线程的连接，不要关闭
+		 * @param sql
+		 *            SQL语句
+		 * @param args
+		 *            语句中的参数
+		 * @return 这一批的结果
+		 * @throws SQLException
+		 *             执行出错，所有批次都会停止
+		 */
+		List<T> query(Connection conn, String sql, Object[] args) throws SQLException;
+	}
+
+	private final DataSource dataSource;
+	private final ExecutorService executor;
+	private final int parallelism;
+	private final int inArgsMaxNum;
+	private final boolean ordered;
+
+	/**
+	 * 按方言的 IN 参数限制分批，结果按批次顺序合并
+	 *
+	 * @param dataSource
+	 *            连接来源
+	 * @param executor
+	 *            执行各批次的线程池
+	 * @param parallelism
+	 *            最多同时使用的连接数
+	 * @param dialect
+	 *            数据库方言
+	 */
+	public InSQLExecutor(DataSource dataSource, ExecutorService executor, int parallelism, Dialect dialect) {
+		this(dataSource, executor, parallelism, dialect.getMaxInArgs(), true);
+	}
+
+	/**
+	 * 构造方法
+	 *
+	 * @param dataSource
+	 *            连接来源
+	 * @param executor
+	 *            执行各批次的线程池
+	 * @param parallelism
+	 *            最多同时使用的连接数
+	 * @param inArgsMaxNum
+	 *            每批 IN 子句中的最大参数数目
+	 * @param ordered
+	 *            是否按批次顺序合并结果，false 时按完成顺序合并
+	 */
+	public InSQLExecutor(DataSource dataSource, ExecutorService executor, int parallelism, int inArgsMaxNum,
+			boolean ordered) {
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("parallelism must be positive, actual was " + parallelism);
+		}
+		if (inArgsMaxNum <= 0) {
+			throw new IllegalArgumentException("inArgsMaxNum must be positive, actual was " + inArgsMaxNum);
+		}
+		this.dataSource = dataSource;
+		this.executor = executor;
+		this.parallelism = parallelism;
+		this.inArgsMaxNum = inArgsMaxNum;
+		this.ordered = ordered;
+	}
+
+	/**
+	 * 并发执行并等待全部批次完成
+	 *
+	 * @author Lucifer Wong
+	 * @param inSQL
+	 *            带 "IN" 的 sql 语句, e.g. SELECT * FROM table_name WHERE field_name IN
+	 * @param inArgs
+	 *            IN 子句中的所有参数
+	 * @param otherArgs
+	 *            其他参数，位于 IN 参数之前
+	 * @param query
+	 *            执行每批 SQL 的接口
+	 * @param <T>
+	 *            结果类型
+	 * @return 合并后的结果
+	 * @throws SQLException
+	 *             任一批次执行出错或等待被中断
+	 */
+	public <T> List<T> query(String inSQL, Object[] inArgs, Object[] otherArgs, InSQLQuery<T> query)
+			throws SQLException {
+		Future<List<T>> future = submit(inSQL, inArgs, otherArgs, query);
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while executing [" + inSQL + "]", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof SQLException) {
+				throw (SQLException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new SQLException("Error occurred while executing [" + inSQL + "]", cause);
+		}
+	}
+
+	/**
+	 * 提交并发执行，立即返回。{@link Future#cancel(boolean)} 会停止领取新的批次，参数为 true 时还会中断正在执行的工作线程。
+	 *
+	 * @author Lucifer Wong
+	 * @param inSQL
+	 *            带 "IN" 的 sql 语句, e.g. SELECT * FROM table_name WHERE field_name IN
+	 * @param inArgs
+	 *            IN 子句中的所有参数
+	 * @param otherArgs
+	 *            其他参数，位于 IN 参数之前
+	 * @param query
+	 *            执行每批 SQL 的接口
+	 * @param <T>
+	 *            结果类型
+	 * @return 合并后的结果
+	 */
+	public <T> Future<List<T>> submit(String inSQL, final Object[] inArgs, final Object[] otherArgs,
+			final InSQLQuery<T> query) {
+		final int total = inArgs == null ? 0 : inArgs.length;
+		final int chunks = total == 0 ? 0 : JdbcUtil.getInChunkCount(total, inArgsMaxNum);
+		final String fullSQL = inSQL + JdbcUtil.getInSQL(inArgsMaxNum);
+		final String tailSQL = inSQL + JdbcUtil.getInSQL(total - inArgsMaxNum * (chunks - 1));
+		final Task<T> task = new Task<>(chunks, ordered);
+
+		int workers = Math.min(parallelism, chunks);
+		try {
+			for (int w = 0; w < workers; w++) {
+				task.workers.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						Connection conn = null;
+						try {
+							for (int i; !task.stopped.get() && (i = task.next.getAndIncrement()) < chunks;) {
+								if (Thread.currentThread().isInterrupted()) {
+									throw new InterruptedException();
+								}
+								if (conn == null) {
+									conn = dataSource.getConnection();
+								}
+								boolean last = i == chunks - 1;
+								int start = inArgsMaxNum * i;
+								Object[] args = JdbcUtil.getInChunkArgs(inArgs, otherArgs, start,
+										last ? total - start : inArgsMaxNum);
+								task.complete(i, query.query(conn, last ? tailSQL : fullSQL, args));
+							}
+							return null;
+						} catch (Exception e) {
+							task.stopped.set(true);
+							throw e;
+						} finally {
+							if (conn != null) {
+								conn.close();
+							}
+						}
+					}
+				}));
+			}
+		} catch (RejectedExecutionException e) {
+			task.cancel(true);
+			throw e;
+		}
+		return task;
+	}
+
+	/**
+	 * 由各工作线程的 Future 组成的整体结果
+	 */
+	private static final class Task<T> implements Future<List<T>> {
+
+		final List<Future<Void>> workers = new ArrayList<>();
+		final AtomicInteger next = new AtomicInteger();
+		final AtomicBoolean stopped = new AtomicBoolean();
+		private final AtomicReferenceArray<List<T>> chunkResults;
+		private final List<T> unordered;
+		private volatile boolean cancelled;
+		private List<T> result;
+
+		Task(int chunks, boolean ordered) {
+			chunkResults = ordered ? new AtomicReferenceArray<List<T>>(chunks) : null;
+			unordered = ordered ? null : new ArrayList<T>();
+		}
+
+		void complete(int chunk, List<T> rows) {
+			if (rows == null) {
+				rows = Collections.emptyList();
+			}
+			if (chunkResults != null) {
+				chunkResults.set(chunk, rows);
+			} else {
+				synchronized (unordered) {
+					unordered.addAll(rows);
+				}
+			}
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			if (isDone()) {
+				return false;
+			}
+			cancelled = true;
+			stopped.set(true);
+			for (Future<Void> worker : workers) {
+				worker.cancel(mayInterruptIfRunning);
+			}
+			return true;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		@Override
+		public boolean isDone() {
+			for (Future<Void> worker : workers) {
+				if (!worker.isDone()) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public List<T> get() throws InterruptedException, ExecutionException {
+			for (Future<Void> worker : workers) {
+				checkCancelled();
+				try {
+					worker.get();
+				} catch (ExecutionException e) {
+					// 一批失败时停止其余批次
+					stopped.set(true);
+					throw e;
+				}
+			}
+			return merge();
+		}
+
+		@Override
+		public List<T> get(long timeout, TimeUnit unit)
+				throws InterruptedException, ExecutionException, TimeoutException {
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+			for (Future<Void> worker : workers) {
+				checkCancelled();
+				try {
+					worker.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+				} catch (ExecutionException e) {
+					stopped.set(true);
+					throw e;
+				}
+			}
+			return merge();
+		}
+
+		private void checkCancelled() {
+			if (cancelled) {
+				throw new CancellationException();
+			}
+		}
+
+		private synchronized List<T> merge() {
+			checkCancelled();
+			if (result == null) {
+				if (chunkResults != null) {
+					int size = 0;
+					for (int i = 0; i < chunkResults.length(); i++) {
+						size += chunkResults.get(i).size();
+					}
+					result = new ArrayList<>(size);
+					for (int i = 0; i < chunkResults.length(); i++) {
+						result.addAll(chunkResults.get(i));
+					}
+				} else {
+					result = unordered;
+				}
+			}
+			return result;
+		}
+	}
+}
@@ -13,19 +13,20 @@
  */
 package priv.lucife.utils.core.db;
 
-import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import priv.lucife.utils.core.annotation.UBTCompatible;
 import priv.lucife.utils.core.base.StringUtil;
 import priv.lucife.utils.core.base.ValidatorUtil;
-import priv.lucife.utils.core.date.DateUtil;
 
 /**
  * JDBC 工具类,
@@ -55,19 +56,40 @@ public abstract class JdbcUtil {
 	}
 
 	/**
-	 * 动态查询 SQL 语句生成工具类
+	 * 动态查询 SQL 语句生成工具类。
+	 * <p>
+	 * 添加条件时只记录用到的片段，{@link #getSQL()} 时才拼接；相同原始 sql 和相同片段序列（即相同的查询形状）拼接出的 sql
+	 * 会被缓存，再次出现时直接返回。调用 {@link #reset()} 后可以复用同一实例生成下一条查询。
 	 * 
 	 * @author Lucifer Wong
 	 */
 	@UBTCompatible
-	public final class SqlCreator {
+	public static final class SqlCreator {
+
+		/**
+		 * 缓存的最大查询形状数，超出后新的形状不再缓存
+		 */
+		private static final int SHAPE_CACHE_CAPACITY = 4096;
+
+		private static final ConcurrentMap<Shape, String> SHAPE_CACHE = new ConcurrentHashMap<>();
+
+		/**
+		 * 片段类型标记
+		 */
+		private static final Object EXPRESSION = new Object();
+		private static final Object IN = new Object();
+		private static final Object GROUP_BY = new Object();
+		private static final Object ORDER_BY = new Object();
+		private static final Object ORDER_BY_DESC = new Object();
 
 		private final List<Object> args;
 		private final List<Integer> argTypes;
-		private boolean hasOrderBy = false;
-		private boolean hasWhere = true;
-		private boolean isFirst = true;
-		private final StringBuilder sql;
+		private final String baseSQL;
+		private final boolean hasWhere;
+		private final boolean endsWithWhere;
+		private Object[] fragments = new Object[16];
+		private int size;
+		private String sql;
 
 		/**
 		 * 构造方法。
@@ -96,9 +118,50 @@ public abstract class JdbcUtil {
 
 			args = new ArrayList<Object>();
 			argTypes = new ArrayList<Integer>();
-			sql = new StringBuilder();
-			sql.append(baseSQL.trim());
+			this.baseSQL = baseSQL.trim();
 			this.hasWhere = hasWhere;
+			this.endsWithWhere = this.baseSQL.regionMatches(true, this.baseSQL.length() - 5, "where", 0, 5);
+		}
+
+		/**
+		 * 创建 SqlCreator。
+		 * 
+		 * @author Lucifer Wong
+		 * @param baseSQL
+		 *            带有 WHERE 关键字的原始 sql
+		 * @return SqlCreator
+		 */
+		public static SqlCreator create(String baseSQL) {
+			return new SqlCreator(baseSQL, true);
+		}
+
+		/**
+		 * 创建 SqlCreator。
+		 * 
+		 * @author Lucifer Wong
+		 * @param baseSQL
+		 *            原始 sql
+		 * @param hasWhere
+		 *            原始 sql 是否带有 WHERE 关键字
+		 * @return SqlCreator
+		 */
+		public static SqlCreator create(String baseSQL, boolean hasWhere) {
+			return new SqlCreator(baseSQL, hasWhere);
+		}
+
+		/**
+		 * 清除已添加的条件、排序和参数，回到刚创建时的状态，以便复用。
+		 * 
+		 * @author Lucifer Wong
+		 */
+		public void reset() {
+			args.clear();
+			argTypes.clear();
+			for (int i = 0; i < size; i++) {
+				fragments[i] = null;
+			}
+			size = 0;
+			sql = null;
 		}
 
 		/**
@@ -150,20 +213,7 @@ public abstract class JdbcUtil {
 		 */
 		public void addExpression(String operator, String expression, Object arg, int argType, boolean precondition) {
 			if (precondition) {
-				if (isFirst) {
-					if (hasWhere) {
-						if (!sql.toString().toLowerCase().endsWith("where")) {
-							sql.append(" " + operator);
-						}
-					} else {
-						sql.append(" WHERE");
-					}
-					isFirst = false;
-				} else {
-					sql.append(" " + operator);
-				}
-
-				sql.append(" " + expression);
+				record(EXPRESSION, operator, expression);
 
 				if (arg != null) {
 					args.add(arg);
@@ -235,23 +285,7 @@ public abstract class JdbcUtil {
 		 */
 		public void andIn(String columnName, Object[] args, int argType, boolean precondition) {
 			if (precondition && args.length > 0) {
-				if (isFirst) {
-					if (hasWhere) {
-						if (!sql.toString().toLowerCase().endsWith("where")) {
-							sql.append(" AND");
-						}
-					} else {
-						sql.append(" WHERE");
-					}
-					sql.append(" ");
-					isFirst = false;
-				} else {
-					sql.append(" AND ");
-				}
-
-				sql.append(columnName);
-				sql.append(" IN ");
-				sql.append(JdbcUtil.getInSQL(args.length));
+				record(IN, columnName, Integer.valueOf(args.length));
 				for (int i = 0; i < args.length; i++) {
 					this.args.add(args[i]);
 					argTypes.add(argType);
@@ -276,22 +310,31 @@ public abstract class JdbcUtil {
 		 * @return 所有参数的类型数组
 		 */
 		public int[] getArgTypes() {
-			Integer[] objectTypes = argTypes.toArray(new Integer[argTypes.size()]);
-			int[] intTypes = new int[objectTypes.length];
-			for (int i = 0; i < objectTypes.length; i++) {
-				intTypes[i] = objectTypes[i].intValue();
+			int[] intTypes = new int[argTypes.size()];
+			for (int i = 0; i < intTypes.length; i++) {
+				intTypes[i] = argTypes.get(i).intValue();
 			}
 			return intTypes;
 		}
 
 		/**
-		 * 取得最后生成查询sql
+		 * 取得最后生成查询sql，相同形状的查询直接返回缓存的结果
 		 * 
 		 * @author Lucifer Wong
 		 * @return 查询sql
 		 */
 		public String getSQL() {
-			return sql.toString();
+			if (sql == null) {
+				Shape lookup = new Shape(baseSQL, hasWhere, fragments, size);
+				sql = SHAPE_CACHE.get(lookup);
+				if (sql == null) {
+					sql = build();
+					if (SHAPE_CACHE.size() < SHAPE_CACHE_CAPACITY) {
+						SHAPE_CACHE.putIfAbsent(lookup.copy(), sql);
+					}
+				}
+			}
+			return sql;
 		}
 
 		/**
@@ -306,11 +349,10 @@ public abstract class JdbcUtil {
 				return;
 			}
 
-			sql.append(" GROUP BY ");
+			record(GROUP_BY, Integer.valueOf(columnNames.length));
 			for (String columnName : columnNames) {
-				sql.append(columnName).append(", ");
+				record(columnName);
 			}
-			sql.delete(sql.length() - 2, sql.length() - 1);
 		}
 
 		/**
@@ -379,18 +421,7 @@ public abstract class JdbcUtil {
 		 *            是否降序
 		 */
 		public void orderBy(String columnName, boolean isDesc) {
-			if (!hasOrderBy) {
-				sql.append(" ORDER BY ");
-			} else {
-				sql.append(", ");
-			}
-
-			sql.append(columnName);
-			if (isDesc) {
-				sql.append(" DESC");
-			}
-
-			hasOrderBy = true;
+			record(isDesc ? ORDER_BY_DESC : ORDER_BY, columnName);
 		}
 
 		/**
@@ -404,8 +435,135 @@ public abstract class JdbcUtil {
 			orderBy(columnName, true);
 		}
 
+		private void record(Object... parts) {
+			if (size + parts.length > fragments.length) {
+				fragments = Arrays.copyOf(fragments, Math.max(fragments.length * 2, size + parts.length));
+			}
+			for (Object part : parts) {
+				fragments[size++] = part;
+			}
+			sql = null;
+		}
+
+		/**
+		 * 按记录的片段拼接 sql
+		 */
+		private String build() {
+			StringBuilder builder = new StringBuilder(baseSQL.length() + size * 16);
+			builder.append(baseSQL);
+			boolean isFirst = true;
+			boolean hasOrderBy = false;
+			for (int i = 0; i < size;) {
+				Object kind = fragments[i++];
+				if (kind == EXPRESSION || kind == IN) {
+					String operator = kind == IN ? "AND" : (String) fragments[i++];
+					if (isFirst) {
+						if (hasWhere) {
+							if (!endsWithWhere) {
+								builder.append(' ').append(operator);
+							}
+						} else {
+							builder.append(" WHERE");
+						}
+						isFirst = false;
+					} else {
+						builder.append(' ').append(operator);
+					}
+					builder.append(' ');
+					if (kind == IN) {
+						builder.append((String) fragments[i++]).append(" IN ")
+								.append(getInSQL(((Integer) fragments[i++]).intValue()));
+					} else {
+						builder.append((String) fragments[i++]);
+					}
+				} else if (kind == GROUP_BY) {
+					int count = ((Integer) fragments[i++]).intValue();
+					builder.append(" GROUP BY ");
+					for (int j = 0; j < count; j++) {
+						builder.append((String) fragments[i++]).append(j + 1 < count ? ", " : " ");
+					}
+				} else {
+					builder.append(hasOrderBy ? ", " : " ORDER BY ").append((String) fragments[i++]);
+					if (kind == ORDER_BY_DESC) {
+						builder.append(" DESC");
+					}
+					hasOrderBy = true;
+				}
+			}
+			return builder.toString();
+		}
+
+		/**
+		 * 查询形状：原始 sql 和片段序列。片段多为字符串常量，比较时先比较引用。
+		 */
+		private static final class Shape {
+			private final String baseSQL;
+			private final boolean hasWhere;
+			private final Object[] fragments;
+			private final int size;
+			private final int hash;
+
+			Shape(String baseSQL, boolean hasWhere, Object[] fragments, int size) {
+				this.baseSQL = baseSQL;
+				this.hasWhere = hasWhere;
+				this.fragments = fragments;
+				this.size = size;
+				int h = baseSQL.hashCode() * 31 + (hasWhere ? 1 : 0);
+				for (int i = 0; i < size; i++) {
+					Object fragment = fragments[i];
+					h = h * 31 + (fragment instanceof String || fragment instanceof Integer ? fragment.hashCode()
+							: System.identityHashCode(fragment));
+				}
+				this.hash = h;
+			}
+
+			Shape copy() {
+				return new Shape(baseSQL, hasWhere, Arrays.copyOf(fragments, size), size);
+			}
+
+			@Override
+			public int hashCode() {
+				return hash;
+			}
+
+			@Override
+			public boolean equals(Object obj) {
+				if (!(obj instanceof Shape)) {
+					return false;
+				}
+				Shape other = (Shape) obj;
+				if (hash != other.hash || size != other.size || hasWhere != other.hasWhere
+						|| !baseSQL.equals(other.baseSQL)) {
+					return false;
+				}
+				for (int i = 0; i < size; i++) {
+					Object a = fragments[i];
+					Object b = other.fragments[i];
+					if (a != b && (a == null || !a.equals(b))) {
+						return false;
+					}
+				}
+				return true;
+			}
+		}
+
 	}
 
+	/**
+	 * 默认的 IN 子句最大参数数目（ASE 最大限制数）
+	 */
+	public static final int DEFAULT_IN_ARGS_MAX_NUM = 300;
+
+	/**
+	 * 缓存的 IN 子句占位符的最大参数数目
+	 */
+	private static final int IN_SQL_CACHE_SIZE = 2048;
+
+	/**
+	 * 按参数个数缓存的 IN 子句占位符，String 不可变，并发填充是安全的
+	 */
+	private static final String[] IN_SQL_CACHE = new String[IN_SQL_CACHE_SIZE + 1];
+
 	/**
 	 * 控制带 IN 子句的 SQL 语句中 IN 子句参数数目最多为 300 个（ASE 最大限制数），若超出就分批执行。<br>
 	 * 用于解决带 IN 子句的 SQL 中 IN 子句参数数目超出最大限制数时出错的问题。
@@ -422,19 +580,39 @@ public abstract class JdbcUtil {
 	 *            处理每次 SQL 执行结果的接口，例如实现中可获取每次查询结果，然后将它们累加
 	 */
 	public static void executeInSQL(String inSQL, Object[] inArgs, Object[] otherArgs, InSQLProcessor processor) {
+		executeInSQL(inSQL, inArgs, otherArgs, DEFAULT_IN_ARGS_MAX_NUM, processor);
+	}
+
+	/**
+	 * 控制带 IN 子句的 SQL 语句中 IN 子句参数数目最多为 inArgsMaxNum 个，若超出就分批执行。并发执行各批次使用 {@link InSQLExecutor}。
+	 * 
+	 * @author Lucifer Wong
+	 * @param inSQL
+	 *            带 "IN" 的 sql 语句, e.g. SELECT * FROM table_name WHERE
+	 *            field_name IN
+	 * @param inArgs
+	 *            IN 子句中的所有参数
+	 * @param otherArgs
+	 *            其他参数
+	 * @param inArgsMaxNum
+	 *            IN 子句中最多允许的参数数目，比如 {@link Dialect#getMaxInArgs()}
+	 * @param processor
+	 *            处理每次 SQL 执行结果的接口，例如实现中可获取每次查询结果，然后将它们累加
+	 */
+	public static void executeInSQL(String inSQL, Object[] inArgs, Object[] otherArgs, int inArgsMaxNum,
+			InSQLProcessor processor) {
 		if (inArgs == null || inArgs.length == 0) {
 			return;
 		}
-
-		// IN子句中最多允许的参数数目
-		int inArgsMaxNum = 300;
-
-		// 其他参数数目
-		int otherArgsNum = (otherArgs == null) ? 0 : otherArgs.length;
+		if (inArgsMaxNum <= 0) {
+			throw new IllegalArgumentException("inArgsMaxNum must be positive, actual was " + inArgsMaxNum);
+		}
 
 		// 查询执行的次数
-		int execNum = (inArgs.length % inArgsMaxNum == 0) ? inArgs.length / inArgsMaxNum
-				: inArgs.length / inArgsMaxNum + 1;
+		int execNum = getInChunkCount(inArgs.length, inArgsMaxNum);
+
+		// 除最后一批外的 sql 都相同
+		String fullSQL = inSQL + getInSQL(inArgsMaxNum);
 
 		// 分批执行SQL
 		for (int i = 0; i < execNum; i++) {
@@ -442,27 +620,31 @@ public abstract class JdbcUtil {
 			// 如果是最后一次执行的SQL, 参数计算有区别
 			int inArgsNum = ((i + 1) == execNum) ? inArgs.length - inArgsMaxNum * i : inArgsMaxNum;
 
-			String sql = inSQL + JdbcUtil.getInSQL(inArgsNum); // 产生sql语句
+			String sql = inArgsNum == inArgsMaxNum ? fullSQL : inSQL + getInSQL(inArgsNum); // 产生sql语句
 
-			int count = inArgsNum + otherArgsNum; // 每次执行时总的参数数目
-			Object[] args = new Object[count]; // 总的参数
-
-			// 初始化其他参数
-			for (int j = 0; j < otherArgsNum; j++) {
-				args[j] = otherArgs[j];
-			}
-
-			// 每次执行时IN子句中第一个参数在数组中的索引
-			int startParamIndex = inArgsMaxNum * i;
+			processor.executeSQL(sql, getInChunkArgs(inArgs, otherArgs, inArgsMaxNum * i, inArgsNum)); // Call back
+		}
+	}
 
-			// 初始化IN子句参数
-			for (int j = otherArgsNum; j < count; j++) {
-				// 注意索引
-				args[j] = inArgs[startParamIndex + j - otherArgsNum];
-			}
+	/**
+	 * 分批执行的次数
+	 */
+	static int getInChunkCount(int inArgsNum, int inArgsMaxNum) {
+		return (inArgsNum % inArgsMaxNum == 0) ? inArgsNum / inArgsMaxNum : inArgsNum / inArgsMaxNum + 1;
+	}
 
-			processor.executeSQL(sql, args); // Call back
+	/**
+	 * 一批的全部参数：其他参数在前，IN 子句参数在后
+	 */
+	static Object[] getInChunkArgs(Object[] inArgs, Object[] otherArgs, int start, int inArgsNum) {
+		// 其他参数数目
+		int otherArgsNum = (otherArgs == null) ? 0 : otherArgs.length;
+		Object[] args = new Object[otherArgsNum + inArgsNum];
+		if (otherArgsNum > 0) {
+			System.arraycopy(otherArgs, 0, args, 0, otherArgsNum);
 		}
+		System.arraycopy(inArgs, start, args, otherArgsNum, inArgsNum);
+		return args;
 	}
 
 	/**
@@ -486,9 +668,9 @@ public abstract class JdbcUtil {
 		case Types.BOOLEAN:
 			return Boolean.valueOf(rs.getBoolean(columnIndex));
 		case Types.FLOAT:
-			return new Float(rs.getFloat(columnIndex));
+			return Float.valueOf(rs.getFloat(columnIndex));
 		case Types.DOUBLE:
-			return new Double(rs.getDouble(columnIndex));
+			return Double.valueOf(rs.getDouble(columnIndex));
 		case Types.CHAR:
 		case Types.VARCHAR:
 			return rs.getString(columnIndex);
@@ -533,7 +715,7 @@ public abstract class JdbcUtil {
 	}
 
 	/**
-	 * 根据参数个数生成IN括弧里面的部分sql，包含括弧
+	 * 根据参数个数生成IN括弧里面的部分sql，包含括弧。2048 个参数以内的结果会被缓存。
 	 * 
 	 * @author Lucifer Wong
 	 * @param size
@@ -541,7 +723,19 @@ public abstract class JdbcUtil {
 	 * @return IN括弧里面的部分sql
 	 */
 	public static String getInSQL(int size) {
-		StringBuilder inSQL = new StringBuilder();
+		if (size >= 0 && size <= IN_SQL_CACHE_SIZE) {
+			String cached = IN_SQL_CACHE[size];
+			if (cached == null) {
+				cached = buildInSQL(size);
+				IN_SQL_CACHE[size] = cached;
+			}
+			return cached;
+		}
+		return buildInSQL(size);
+	}
+
+	private static String buildInSQL(int size) {
+		StringBuilder inSQL = new StringBuilder(size * 2 + 2);
 
 		inSQL.append("(");
 		for (int i = 0; i < size; i++) {
@@ -557,7 +751,7 @@ public abstract class JdbcUtil {
 	}
 
 	/**
-	 * 取得填充参数后的sql
+	 * 取得填充参数后的sql，用于日志。字符串字面量和注释中的问号不会被替换，字符串参数中的单引号会被转义
 	 * 
 	 * @author Lucifer Wong
 	 * @param preparedSQL
@@ -567,43 +761,52 @@ public abstract class JdbcUtil {
 	 * @return 填充参数后的sql
 	 */
 	public static String getSQL(String preparedSQL, Object[] args) {
-		if (args == null || args.length == 0) {
-			return preparedSQL;
-		}
-
-		StringBuilder sql = new StringBuilder();
-
-		int index = 0;
-		int parameterIndex = 0;
-
-		while ((index = preparedSQL.indexOf('?')) > 0) {
-			sql.append(preparedSQL.substring(0, index));
-			preparedSQL = preparedSQL.substring(index + 1);
-
-			Object arg = args[parameterIndex++];
+		return getSQL(preparedSQL, args, -1);
+	}
 
-			if (arg == null) {
-				sql.append("null");
-			} else if (arg instanceof String) {
-				sql.append("'");
-				sql.append(arg);
-				sql.append("'");
-			} else if (arg instanceof java.util.Date) {
-				sql.append("'");
-				sql.append(DateUtil.date2String((java.util.Date) arg));
-				sql.append("'");
-			} else {
-				sql.append(arg);
-			}
+	/**
+	 * 取得填充参数后的sql，超过 maxLength 个字符时截断并以 "..." 结尾
+	 * 
+	 * @author Lucifer Wong
+	 * @param preparedSQL
+	 *            预编译sql
+	 * @param args
+	 *            参数数组
+	 * @param maxLength
+	 *            最大长度（不含截断标记），小于 0 表示不限
+	 * @return 填充参数后的sql
+	 */
+	public static String getSQL(String preparedSQL, Object[] args, int maxLength) {
+		if (args == null || args.length == 0) {
+			return maxLength < 0 || preparedSQL.length() <= maxLength ? preparedSQL
+					: preparedSQL.substring(0, maxLength) + SqlInliner.ELLIPSIS;
 		}
-
-		sql.append(preparedSQL);
-
+		int capacity = preparedSQL.length() + args.length * 16;
+		StringBuilder sql = new StringBuilder(maxLength < 0 ? capacity : Math.min(capacity, maxLength + 3));
+		SqlInliner.inline(sql, preparedSQL, args, maxLength);
 		return sql.toString();
 	}
 
 	/**
-	 * 将参数以Object类型填入预制式sql语句中.
+	 * 把填充参数后的sql追加到 out，out 可以在多次调用之间复用（先 setLength(0)），慢查询日志等高频场景不必每次分配
+	 * 
+	 * @author Lucifer Wong
+	 * @param out
+	 *            输出
+	 * @param preparedSQL
+	 *            预编译sql
+	 * @param args
+	 *            参数数组，可以为 null
+	 * @param maxLength
+	 *            最多追加的字符数（不含截断标记），小于 0 表示不限
+	 * @return 是否被截断
+	 */
+	public static boolean appendSQL(StringBuilder out, String preparedSQL, Object[] args, int maxLength) {
+		return SqlInliner.inline(out, preparedSQL, args, maxLength);
+	}
+
+	/**
+	 * 将参数以Object类型填入预制式sql语句中，日期以 {@link Timestamp} 设置，不修改 args.
 	 * 
 	 * @author Lucifer Wong
 	 * @param args
@@ -614,18 +817,12 @@ public abstract class JdbcUtil {
 	 *             空指针 或者 失败转化
 	 */
 	public static void setParamsToStatement(Object[] args, PreparedStatement ps) throws SQLException {
-		// Set the parameters
-		for (int i = 0, index; i < args.length; i++) {
-			index = i + 1;
-			if (args[i] instanceof java.util.Date) {
-				args[i] = new Timestamp(((java.util.Date) args[i]).getTime());
-			}
-			ps.setObject(index, args[i]);
-		}
+		BinderPlan.bindUntyped(ps, args);
 	}
 
 	/**
-	 * 将参数以合适的类型填入预制式sql语句中.
+	 * 将参数以合适的类型填入预制式sql语句中. 按 argTypes 缓存的 {@link BinderPlan} 绑定，重复执行同一语句时可直接持有
+	 * {@link BinderPlan#compile(String, int[])} 的结果.
 	 * 
 	 * @author Lucifer Wong
 	 * @param args
@@ -639,44 +836,7 @@ public abstract class JdbcUtil {
 	 */
 	public static void setSuitedParamsToStatement(Object[] args, int[] argTypes, PreparedStatement ps)
 			throws SQLException {
-		for (int i = 0, index; i < args.length; i++) {
-			index = i + 1;
-
-			if (args[i] == null) {
-				ps.setNull(index, argTypes[i]);
-				continue;
-			}
-
-			switch (argTypes[i]) {
-
-			case Types.INTEGER:
-				ps.setInt(index, ((Integer) args[i]).intValue());
-				break;
-			case Types.BOOLEAN:
-				ps.setBoolean(index, ((Boolean) args[i]).booleanValue());
-				break;
-			case Types.FLOAT:
-				ps.setFloat(index, ((Float) args[i]).floatValue());
-				break;
-			case Types.DOUBLE:
-				ps.setDouble(index, ((Double) args[i]).doubleValue());
-				break;
-			case Types.CHAR:
-			case Types.VARCHAR:
-				ps.setString(index, (String) args[i]);
-				break;
-			case Types.DATE:
-				ps.setDate(index, new Date(((java.util.Date) args[i]).getTime()));
-				break;
-			case Types.TIMESTAMP:
-				ps.setTimestamp(index, new Timestamp(((java.util.Date) args[i]).getTime()));
-				break;
-
-			default:
-				ps.setObject(index, args[i]);
-				break;
-			}
-		}
+		BinderPlan.forTypes(argTypes).bind(ps, args);
 	}
 
 }
@@ -0,0 +1,491 @@
+/**
+ * Copyright (C) 2017 Lucifer Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package priv.lucife.utils.core.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.sql.DataSource;
+
+import priv.lucife.utils.core.annotation.UBTCompatible;
+
+/**
+ * 键集分页（keyset / seek 分页）。
+ * <p>
+ * OFFSET 分页每翻一页数据库都要跳过前面所有行，越往后越慢。键集分页记住上一页最后一行的排序键，下一页用
+ * <code>(k1 &gt; ?) OR (k1 = ? AND k2 &gt; ?)</code> 这样的条件直接定位，每页的代价与页码无关。排序键组合必须唯一（通常以主键结尾），且不能为
+ * null。
+ * <p>
+ * 用法：
+ *
+ * <pre>
+ * KeysetPager pager = new KeysetPager(&quot;SELECT * FROM orders WHERE status = ?&quot;, true, Dialect.MYSQL, &quot;created DESC&quot;, &quot;id&quot;);
+ * try (KeysetPager.PageCursor&lt;Order&gt; cursor = pager.stream(dataSource, new Object[] { 1 }, 1000,
+ * 		BeanRowMapper.of(Order.class), executor)) {
+ * 	for (Order order : cursor) {
+ * 		// ...
+ * 	}
+ * }
+ * </pre>
+ *
+ * @author Lucifer Wong
+ */
+@UBTCompatible
+public final class KeysetPager {
+
+	private static final Pattern WHERE = Pattern.compile("where\\b", Pattern.CASE_INSENSITIVE);
+
+	private static final Pattern ORDER_BY = Pattern.compile("order\\s+by\\b", Pattern.CASE_INSENSITIVE);
+
+	private final String baseSQL;
+	private final boolean hasWhere;
+	private final Dialect dialect;
+	private final String[] columns;
+	private final String[] labels;
+	private final boolean[] descending;
+	private final String orderBy;
+	private final String seekPredicate;
+
+	/**
+	 * 构造方法
+	 *
+	 * @param baseSQL
+	 *            基础查询，末尾的 ORDER BY 会被去掉，查询中不能有 GROUP BY、UNION。已有的 WHERE 条件会整体加上括号，再与定位条件 AND
+	 * @param hasWhere
+	 *            基础查询是否已有 WHERE 子句，与查询不符时抛出 IllegalArgumentException
+	 * @param dialect
+	 *            数据库方言，用于生成行数限制
+	 * @param orderKeys
+	 *            排序键，如 "id"、"t.created DESC"，组合必须唯一
+	 */
+	public KeysetPager(String baseSQL, boolean hasWhere, Dialect dialect, String... orderKeys) {
+		if (orderKeys.length == 0) {
+			throw new IllegalArgumentException("At least one order key is required");
+		}
+		int where = -1;
+		int orderBy = -1;
+		int depth = 0;
+		for (int i = 0; i < baseSQL.length(); i++) {
+			char c = baseSQL.charAt(i);
+			int end = BinderPlan.skipLiteral(baseSQL, i);
+			if (end != i) {
+				i = end;
+			} else if (c == '(') {
+				depth++;
+			} else if (c == ')') {
+				depth--;
+			} else if (depth == 0 && (c == 'w' || c == 'W' || c == 'o' || c == 'O')
+					&& (i == 0 || !isIdentifierPart(baseSQL.charAt(i - 1)))) {
+				// 只认子查询、窗口函数括号之外的 WHERE 和 ORDER BY
+				if (lookingAt(WHERE, baseSQL, i)) {
+					if (where != -1 || orderBy != -1) {
+						throw new IllegalArgumentException("Unsupported base query: " + baseSQL);
+					}
+					where = i;
+				} else if (lookingAt(ORDER_BY, baseSQL, i)) {
+					orderBy = i;
+				}
+			}
+		}
+		if (depth != 0) {
+			throw new IllegalArgumentException("Unbalanced parentheses in base query: " + baseSQL);
+		}
+		if (hasWhere != (where != -1)) {
+			throw new IllegalArgumentException((hasWhere ? "No" : "Unexpected") + " WHERE clause in base query: "
+					+ baseSQL);
+		}
+		String base = orderBy == -1 ? baseSQL : baseSQL.substring(0, orderBy);
+		if (hasWhere) {
+			// 原条件中的 OR 不能与定位条件混在一起
+			String condition = base.substring(where + 5).trim();
+			// 条件可能以行注释结尾
+			base = base.substring(0, where + 5) + " (" + condition + (condition.contains("--") ? "\n)" : ")");
+		} else {
+			base = base.trim();
+		}
+		this.baseSQL = base;
+		this.hasWhere = hasWhere;
+		this.dialect = dialect;
+		this.columns = new String[orderKeys.length];
+		this.labels = new String[orderKeys.length];
+		this.descending = new boolean[orderKeys.length];
+
+		StringBuilder order = new StringBuilder(" ORDER BY ");
+		for (int i = 0; i < orderKeys.length; i++) {
+			String[] parts = orderKeys[i].trim().split("\\s+");
+			if (parts.length > 2 || parts.length == 2 && !parts[1].equalsIgnoreCase("asc")
+					&& !parts[1].equalsIgnoreCase("desc")) {
+				throw new IllegalArgumentException("Illegal order key: " + orderKeys[i]);
+			}
+			columns[i] = parts[0];
+			labels[i] = parts[0].substring(parts[0].lastIndexOf('.') + 1);
+			descending[i] = parts.length == 2 && parts[1].equalsIgnoreCase("desc");
+			if (i > 0) {
+				order.append(", ");
+			}
+			order.append(columns[i]).append(descending[i] ? " DESC" : " ASC");
+		}
+		this.orderBy = order.toString();
+
+		StringBuilder seek = new StringBuilder(hasWhere ? " AND (" : " WHERE (");
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0) {
+				seek.append(" OR ");
+			}
+			seek.append('(');
+			for (int j = 0; j < i; j++) {
+				seek.append(columns[j]).append(" = ? AND ");
+			}
+			seek.append(columns[i]).append(descending[i] ? " < ?" : " > ?").append(')');
+		}
+		this.seekPredicate = seek.append(')').toString();
+	}
+
+	private static boolean lookingAt(Pattern pattern, String sql, int index) {
+		Matcher matcher = pattern.matcher(sql);
+		matcher.region(index, sql.length());
+		return matcher.lookingAt();
+	}
+
+	private static boolean isIdentifierPart(char c) {
+		return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+	}
+
+	/**
+	 * 生成第一页的查询
+	 *
+	 * @author Lucifer Wong
+	 * @param pageSize
+	 *            每页行数
+	 * @return 查询语句，参数与基础查询相同
+	 */
+	public String firstPageSQL(int pageSize) {
+		return dialect.limit(baseSQL + orderBy, pageSize);
+	}
+
+	/**
+	 * 生成后续页的查询
+	 *
+	 * @author Lucifer Wong
+	 * @param pageSize
+	 *            每页行数
+	 * @return 查询语句，参数由 {@link #nextPageArgs(Object[], Object[])} 生成
+	 */
+	public String nextPageSQL(int pageSize) {
+		return dialect.limit(baseSQL + seekPredicate + orderBy, pageSize);
+	}
+
+	/**
+	 * 生成后续页查询的参数
+	 *
+	 * @author Lucifer Wong
+	 * @param baseArgs
+	 *            基础查询的参数，可以为 null
+	 * @param lastKeys
+	 *            上一页最后一行的排序键，顺序与构造时相同
+	 * @return 参数
+	 */
+	public Object[] nextPageArgs(Object[] baseArgs, Object[] lastKeys) {
+		if (lastKeys.length != columns.length) {
+			throw new IllegalArgumentException("Expected " + columns.length + " keys but was " + lastKeys.length);
+		}
+		int baseLength = baseArgs == null ? 0 : baseArgs.length;
+		Object[] args = new Object[baseLength + columns.length * (columns.length + 1) / 2];
+		if (baseLength > 0) {
+			System.arraycopy(baseArgs, 0, args, 0, baseLength);
+		}
+		int index = baseLength;
+		for (int i = 0; i < columns.length; i++) {
+			for (int j = 0; j <= i; j++) {
+				args[index++] = lastKeys[j];
+			}
+		}
+		return args;
+	}
+
+	/**
+	 * 读取一页
+	 *
+	 * @author Lucifer Wong
+	 * @param conn
+	 *            连接，不会被关闭
+	 * @param baseArgs
+	 *            基础查询的参数，可以为 null
+	 * @param afterKeys
+	 *            上一页最后一行的排序键，为 null 时读取第一页
+	 * @param pageSize
+	 *            每页行数
+	 * @param mapper
+	 *            行映射器
+	 * @param <T>
+	 *            bean 类型
+	 * @return 一页数据
+	 * @throws SQLException
+	 *             查询出错
+	 */
+	public <T> Page<T> fetch(Connection conn, Object[] baseArgs, Object[] afterKeys, int pageSize,
+			BeanRowMapper<T> mapper) throws SQLException {
+		if (pageSize <= 0) {
+			throw new IllegalArgumentException("pageSize must be positive, actual was " + pageSize);
+		}
+		// 多取一行判断是否还有下一页，避免最后多查一次空页
+		String sql = afterKeys == null ? firstPageSQL(pageSize + 1) : nextPageSQL(pageSize + 1);
+		Object[] args = afterKeys == null ? baseArgs : nextPageArgs(baseArgs, afterKeys);
+		try (PreparedStatement ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+				ResultSet.CONCUR_READ_ONLY)) {
+			ps.setFetchSize(pageSize + 1);
+			if (args != null) {
+				JdbcUtil.setParamsToStatement(args, ps);
+			}
+			ResultSet rs = ps.executeQuery();
+			try (BeanRowMapper.Cursor<T> cursor = mapper.iterate(rs)) {
+				List<T> rows = new ArrayList<>(pageSize);
+				Object[] lastKeys = null;
+				while (rows.size() < pageSize && cursor.hasNext()) {
+					rows.add(cursor.next());
+					// 再次调用 hasNext 会移动到下一行，排序键必须在当前行读取
+					lastKeys = readKeys(rs);
+				}
+				return new Page<>(rows, lastKeys, rows.size() == pageSize && cursor.hasNext());
+			}
+		}
+	}
+
+	private Object[] readKeys(ResultSet rs) throws SQLException {
+		Object[] keys = new Object[labels.length];
+		for (int i = 0; i < labels.length; i++) {
+			keys[i] = rs.getObject(labels[i]);
+			if (keys[i] == null) {
+				throw new IllegalStateException("Order key " + columns[i] + " must not be null");
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 * 逐行遍历所有页，每取到一页就在 prefetcher 中预取下一页，每页借用一次连接
+	 *
+	 * @author Lucifer Wong
+	 * @param dataSource
+	 *            连接来源
+	 * @param baseArgs
+	 *            基础查询的参数，可以为 null
+	 * @param pageSize
+	 *            每页行数
+	 * @param mapper
+	 *            行映射器
+	 * @param prefetcher
+	 *            预取下一页的线程池，为 null 时在调用线程中按需读取
+	 * @param <T>
+	 *            bean 类型
+	 * @return 游标
+	 */
+	public <T> PageCursor<T> stream(DataSource dataSource, Object[] baseArgs, int pageSize, BeanRowMapper<T> mapper,
+			ExecutorService prefetcher) {
+		return new PageCursor<>(this, dataSource, baseArgs, pageSize, mapper, prefetcher);
+	}
+
+	/**
+	 * 一页数据
+	 *
+	 * @param <T>
+	 *            bean 类型
+	 */
+	public static final class Page<T> {
+
+		private final List<T> rows;
+		private final Object[] lastKeys;
+		private final boolean hasMore;
+
+		Page(List<T> rows, Object[] lastKeys, boolean hasMore) {
+			this.rows = Collections.unmodifiableList(rows);
+			this.lastKeys = lastKeys;
+			this.hasMore = hasMore;
+		}
+
+		/**
+		 * @return 本页的行
+		 */
+		public List<T> getRows() {
+			return rows;
+		}
+
+		/**
+		 * @return 本页最后一行的排序键，用于读取下一页，空页时为 null
+		 */
+		public Object[] getLastKeys() {
+			return lastKeys == null ? null : lastKeys.clone();
+		}
+
+		/**
+		 * @return 是否还有下一页
+		 */
+		public boolean hasMore() {
+			return hasMore;
+		}
+	}
+
+	/**
+	 * 跨页的游标，不是线程安全的
+	 *
+	 * @param <T>
+	 *            bean 类型
+	 */
+	public static final class PageCursor<T> implements Iterator<T>, Iterable<T>, AutoCloseable {
+
+		private final KeysetPager pager;
+		private final DataSource dataSource;
+		private final Object[] baseArgs;
+		private final int pageSize;
+		private final BeanRowMapper<T> mapper;
+		private final ExecutorService prefetcher;
+		private Future<Page<T>> pending;
+		private Object[] nextKeys;
+		private Iterator<T> current = Collections.<T> emptyList().iterator();
+		private boolean last;
+		private boolean closed;
+		private long pages;
+		private long rows;
+
+		PageCursor(KeysetPager pager, DataSource dataSource, Object[] baseArgs, int pageSize,
+				BeanRowMapper<T> mapper, ExecutorService prefetcher) {
+			if (pageSize <= 0) {
+				throw new IllegalArgumentException("pageSize must be positive, actual was " + pageSize);
+			}
+			this.pager = pager;
+			this.dataSource = dataSource;
+			this.baseArgs = baseArgs;
+			this.pageSize = pageSize;
+			this.mapper = mapper;
+			this.prefetcher = prefetcher;
+			request(null);
+		}
+
+		@Override
+		public Iterator<T> iterator() {
+			return this;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (!current.hasNext()) {
+				if (last || closed) {
+					return false;
+				}
+				Page<T> page = take();
+				pages++;
+				current = page.getRows().iterator();
+				if (page.hasMore()) {
+					request(page.lastKeys);
+				} else {
+					last = true;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			rows++;
+			return current.next();
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		/**
+		 * @return 已读取的页数
+		 */
+		public long getPages() {
+			return pages;
+		}
+
+		/**
+		 * @return 已返回的行数
+		 */
+		public long getRows() {
+			return rows;
+		}
+
+		/**
+		 * 关闭游标，取消尚未完成的预取
+		 */
+		@Override
+		public void close() {
+			closed = true;
+			current = Collections.<T> emptyList().iterator();
+			if (pending != null) {
+				pending.cancel(false);
+				pending = null;
+			}
+		}
+
+		private void request(final Object[] afterKeys) {
+			if (prefetcher == null) {
+				nextKeys = afterKeys;
+				return;
+			}
+			pending = prefetcher.submit(new Callable<Page<T>>() {
+				@Override
+				public Page<T> call() throws SQLException {
+					return load(afterKeys);
+				}
+			});
+		}
+
+		private Page<T> take() {
+			if (prefetcher == null) {
+				try {
+					return load(nextKeys);
+				} catch (SQLException e) {
+					throw new IllegalStateException("Error occurred while fetching page " + (pages + 1), e);
+				}
+			}
+			try {
+				return pending.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while fetching page " + (pages + 1), e);
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("Error occurred while fetching page " + (pages + 1), e.getCause());
+			} finally {
+				pending = null;
+			}
+		}
+
+		private Page<T> load(Object[] afterKeys) throws SQLException {
+			try (Connection conn = dataSource.getConnection()) {
+				return pager.fetch(conn, baseArgs, afterKeys, pageSize, mapper);
+			}
+		}
+	}
+}
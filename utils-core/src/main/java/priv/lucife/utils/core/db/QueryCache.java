@@ -0,0 +1,634 @@
+/**
+ * Copyright (C) 2017 Lucifer Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package priv.lucife.utils.core.db;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.sql.DataSource;
+
+import priv.lucife.utils.core.annotation.UBTCompatible;
+
+/**
+ * 查询结果缓存，适合反复执行的参考数据查询。
+ * <p>
+ * 以规范化后的 SQL（合并空白）和参数为键，缓存查询返回的行列表。每个条目有自己的有效期；缓存按估算的字节数限制大小，超出时按最近最少使用淘汰。
+ * 同一个键同时未命中时只有一个线程查询数据库，其他线程等待并共享结果。
+ * <p>
+ * 缓存时从 SQL 中解析出 FROM、JOIN、INTO、UPDATE 后的表名（去掉 schema 和引号，小写），写入某张表后调用
+ * {@link #invalidateTable(String)} 使相关条目失效。失效时正在加载的结果仍会返回给调用者，但不会放入缓存。
+ * <p>
+ * 返回的列表不可修改，列表中的对象被所有调用者共享，不应修改。
+ *
+ * @author Lucifer Wong
+ */
+@UBTCompatible
+public final class QueryCache {
+
+	private static final String NAME = "(?:[A-Za-z_][\\w$]*|\"[^\"]+\"|`[^`]+`|\\[[^\\]]+\\])";
+
+	private static final String IDENT = NAME + "(?:\\." + NAME + ")*";
+
+	private static final Pattern TABLE = Pattern.compile("(?i)\\b(?:from|join|into|update)\\s+(" + IDENT + ")");
+
+	/**
+	 * FROM a x, b y 中逗号之后的表
+	 */
+	private static final Pattern NEXT_TABLE = Pattern.compile("(?i)(?:\\s+(?:as\\s+)?(?!(?:where|join|inner|left"
+			+ "|right|full|cross|natural|on|using|group|order|having|union|limit|set|values|select)\\b)"
+			+ "[A-Za-z_][\\w$]*)?\\s*,\\s*(" + IDENT + ")");
+
+	private static final ClassValue<Layout> LAYOUTS = new ClassValue<Layout>() {
+		@Override
+		protected Layout computeValue(Class<?> type) {
+			return new Layout(type);
+		}
+	};
+
+	private static final class Entry {
+		final QueryKey key;
+		final List<?> rows;
+		final long bytes;
+		final long expiresAt;
+		final String[] tables;
+
+		Entry(QueryKey key, List<?> rows, long bytes, long expiresAt, String[] tables) {
+			this.key = key;
+			this.rows = rows;
+			this.bytes = bytes;
+			this.expiresAt = expiresAt;
+			this.tables = tables;
+		}
+	}
+
+	private final DataSource dataSource;
+	private final long maxBytes;
+	private final long defaultTtlMillis;
+
+	private final Object lock = new Object();
+	private final LinkedHashMap<QueryKey, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+	private final Map<String, Set<QueryKey>> byTable = new HashMap<>();
+	private long totalBytes;
+	/**
+	 * 每次失效加一，加载开始后发生过失效的结果不放入缓存
+	 */
+	private long generation;
+
+	private final ConcurrentMap<QueryKey, FutureTask<List<?>>> loading = new ConcurrentHashMap<>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong loads = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * 构造方法
+	 *
+	 * @param dataSource
+	 *            未命中时借用连接的数据源，只使用 {@link #cached(InSQLExecutor.InSQLQuery)} 时可以为 null
+	 * @param maxBytes
+	 *            缓存结果估算大小的上限（字节）
+	 * @param defaultTtlMillis
+	 *            默认有效期（毫秒）
+	 */
+	public QueryCache(DataSource dataSource, long maxBytes, long defaultTtlMillis) {
+		if (maxBytes <= 0 || defaultTtlMillis <= 0) {
+			throw new IllegalArgumentException("maxBytes and defaultTtlMillis must be positive, actual was "
+					+ maxBytes + ", " + defaultTtlMillis);
+		}
+		this.dataSource = dataSource;
+		this.maxBytes = maxBytes;
+		this.defaultTtlMillis = defaultTtlMillis;
+	}
+
+	/**
+	 * 读取缓存，未命中时借用连接执行查询，使用默认有效期
+	 *
+	 * @author Lucifer Wong
+	 * @param sql
+	 *            查询语句
+	 * @param args
+	 *            参数，可以为 null
+	 * @param query
+	 *            执行查询
+	 * @param <T>
+	 *            行类型
+	 * @return 不可修改的行列表
+	 * @throws SQLException
+	 *             查询出错
+	 */
+	public <T> List<T> query(String sql, Object[] args, InSQLExecutor.InSQLQuery<T> query) throws SQLException {
+		return get(null, sql, args, defaultTtlMillis, query);
+	}
+
+	/**
+	 * 读取缓存，未命中时借用连接执行查询
+	 *
+	 * @author Lucifer Wong
+	 * @param sql
+	 *            查询语句
+	 * @param args
+	 *            参数，可以为 null
+	 * @param ttlMillis
+	 *            这一条目的有效期（毫秒）
+	 * @param query
+	 *            执行查询
+	 * @param <T>
+	 *            行类型
+	 * @return 不可修改的行列表
+	 * @throws SQLException
+	 *             查询出错
+	 */
+	public <T> List<T> query(String sql, Object[] args, long ttlMillis, InSQLExecutor.InSQLQuery<T> query)
+			throws SQLException {
+		return get(null, sql, args, ttlMillis, query);
+	}
+
+	/**
+	 * 读取缓存，未命中时借用连接执行查询并用 mapper 映射，使用默认有效期
+	 *
+	 * @author Lucifer Wong
+	 * @param sql
+	 *            查询语句
+	 * @param args
+	 *            参数，可以为 null
+	 * @param mapper
+	 *            行映射器
+	 * @param <T>
+	 *            bean 类型
+	 * @return 不可修改的 bean 列表
+	 * @throws SQLException
+	 *             查询出错
+	 */
+	public <T> List<T> query(String sql, Object[] args, final BeanRowMapper<T> mapper) throws SQLException {
+		return get(null, sql, args, defaultTtlMillis, new InSQLExecutor.InSQLQuery<T>() {
+			@Override
+			public List<T> query(Connection conn, String sql, Object[] args) throws SQLException {
+				try (PreparedStatement ps = conn.prepareStatement(sql)) {
+					if (args != null) {
+						JdbcUtil.setParamsToStatement(args, ps);
+					}
+					try (ResultSet rs = ps.executeQuery()) {
+						return mapper.mapAll(rs);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * 包装一个查询，使其先读缓存，未命中时用调用方传入的连接执行。可交给 {@link InSQLExecutor} 使用，分批的 IN 查询每批分别缓存。
+	 *
+	 * @author Lucifer Wong
+	 * @param query
+	 *            执行查询
+	 * @param <T>
+	 *            行类型
+	 * @return 带缓存的查询
+	 */
+	public <T> InSQLExecutor.InSQLQuery<T> cached(final InSQLExecutor.InSQLQuery<T> query) {
+		return new InSQLExecutor.InSQLQuery<T>() {
+			@Override
+			public List<T> query(Connection conn, String sql, Object[] args) throws SQLException {
+				return get(conn, sql, args, defaultTtlMillis, query);
+			}
+		};
+	}
+
+	/**
+	 * 使引用了某张表的所有条目失效
+	 *
+	 * @author Lucifer Wong
+	 * @param table
+	 *            表名，可以带 schema，不区分大小写
+	 * @return 失效的条目数
+	 */
+	public int invalidateTable(String table) {
+		String name = tableName(table);
+		synchronized (lock) {
+			generation++;
+			Set<QueryKey> keys = byTable.get(name);
+			if (keys == null) {
+				return 0;
+			}
+			int count = 0;
+			for (QueryKey key : new ArrayList<>(keys)) {
+				Entry entry = entries.get(key);
+				if (entry != null) {
+					remove(entry);
+					count++;
+				}
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * 使某条查询（所有参数）的条目失效
+	 *
+	 * @author Lucifer Wong
+	 * @param sql
+	 *            查询语句
+	 * @return 失效的条目数
+	 */
+	public int invalidate(String sql) {
+		String normalized = QueryKey.normalize(sql);
+		synchronized (lock) {
+			generation++;
+			List<Entry> matched = new ArrayList<>();
+			for (Entry entry : entries.values()) {
+				if (entry.key.sql.equals(normalized)) {
+					matched.add(entry);
+				}
+			}
+			for (Entry entry : matched) {
+				remove(entry);
+			}
+			return matched.size();
+		}
+	}
+
+	/**
+	 * 清空缓存
+	 */
+	public void clear() {
+		synchronized (lock) {
+			generation++;
+			entries.clear();
+			byTable.clear();
+			totalBytes = 0;
+		}
+	}
+
+	/**
+	 * @return 条目数
+	 */
+	public int size() {
+		synchronized (lock) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * @return 缓存结果的估算大小（字节）
+	 */
+	public long getEstimatedBytes() {
+		synchronized (lock) {
+			return totalBytes;
+		}
+	}
+
+	/**
+	 * @return 命中次数
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * @return 未命中次数，包括等待其他线程加载的次数
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * @return 实际查询数据库的次数
+	 */
+	public long getLoadCount() {
+		return loads.get();
+	}
+
+	/**
+	 * @return 因大小超限被淘汰的条目数
+	 */
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> List<T> get(final Connection conn, final String sql, final Object[] args, final long ttlMillis,
+			final InSQLExecutor.InSQLQuery<T> query) throws SQLException {
+		final QueryKey key = new QueryKey(sql, args);
+		synchronized (lock) {
+			Entry entry = entries.get(key);
+			if (entry != null) {
+				if (System.nanoTime() - entry.expiresAt < 0) {
+					hits.incrementAndGet();
+					return (List<T>) entry.rows;
+				}
+				remove(entry);
+			}
+		}
+		misses.incrementAndGet();
+
+		FutureTask<List<?>> task = new FutureTask<>(new Callable<List<?>>() {
+			@Override
+			public List<?> call() throws SQLException {
+				return load(conn, key, sql, args, ttlMillis, query);
+			}
+		});
+		FutureTask<List<?>> existing = loading.putIfAbsent(key, task);
+		if (existing == null) {
+			try {
+				task.run();
+			} finally {
+				loading.remove(key, task);
+			}
+			existing = task;
+		}
+		try {
+			return (List<T>) existing.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a concurrent load", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof SQLException) {
+				throw (SQLException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new SQLException(cause);
+		}
+	}
+
+	private <T> List<T> load(Connection conn, QueryKey key, String sql, Object[] args, long ttlMillis,
+			InSQLExecutor.InSQLQuery<T> query) throws SQLException {
+		long startGeneration;
+		synchronized (lock) {
+			// 另一个线程可能刚加载完并移出了 loading
+			Entry entry = entries.get(key);
+			if (entry != null && System.nanoTime() - entry.expiresAt < 0) {
+				@SuppressWarnings("unchecked")
+				List<T> rows = (List<T>) entry.rows;
+				return rows;
+			}
+			startGeneration = generation;
+		}
+		loads.incrementAndGet();
+		List<T> rows;
+		if (conn != null) {
+			rows = query.query(conn, sql, args);
+		} else {
+			try (Connection borrowed = dataSource.getConnection()) {
+				rows = query.query(borrowed, sql, args);
+			}
+		}
+		rows = Collections.unmodifiableList(new ArrayList<>(rows));
+
+		long bytes = 128 + estimate(key.args, 0) + 2L * key.sql.length() + estimate(rows, 0);
+		if (bytes <= maxBytes) {
+			Entry entry = new Entry(key, rows, bytes, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis),
+					tables(key.sql));
+			synchronized (lock) {
+				if (generation == startGeneration) {
+					put(entry);
+				}
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * 加入条目，超出大小时淘汰最久未用的条目，调用者持有 lock
+	 */
+	private void put(Entry entry) {
+		Entry old = entries.get(entry.key);
+		if (old != null) {
+			remove(old);
+		}
+		entries.put(entry.key, entry);
+		totalBytes += entry.bytes;
+		for (String table : entry.tables) {
+			Set<QueryKey> keys = byTable.get(table);
+			if (keys == null) {
+				keys = new HashSet<>();
+				byTable.put(table, keys);
+			}
+			keys.add(entry.key);
+		}
+		Iterator<Entry> it = entries.values().iterator();
+		while (totalBytes > maxBytes && it.hasNext()) {
+			Entry eldest = it.next();
+			it.remove();
+			unindex(eldest);
+			evictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * 移除条目，调用者持有 lock
+	 */
+	private void remove(Entry entry) {
+		entries.remove(entry.key);
+		unindex(entry);
+	}
+
+	private void unindex(Entry entry) {
+		totalBytes -= entry.bytes;
+		for (String table : entry.tables) {
+			Set<QueryKey> keys = byTable.get(table);
+			if (keys != null) {
+				keys.remove(entry.key);
+				if (keys.isEmpty()) {
+					byTable.remove(table);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 解析 SQL 中引用的表名
+	 */
+	static String[] tables(String sql) {
+		Set<String> tables = new LinkedHashSet<>();
+		Matcher matcher = TABLE.matcher(sql);
+		Matcher next = NEXT_TABLE.matcher(sql);
+		while (matcher.find()) {
+			tables.add(tableName(matcher.group(1)));
+			next.region(matcher.end(), sql.length());
+			while (next.lookingAt()) {
+				tables.add(tableName(next.group(1)));
+				next.region(next.end(), sql.length());
+			}
+		}
+		return tables.toArray(new String[tables.size()]);
+	}
+
+	/**
+	 * 去掉 schema 和引号，转为小写
+	 */
+	static String tableName(String identifier) {
+		String name = identifier.trim();
+		int dot = -1;
+		char quote = 0;
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (quote != 0) {
+				if (c == quote) {
+					quote = 0;
+				}
+			} else if (c == '"' || c == '`') {
+				quote = c;
+			} else if (c == '[') {
+				quote = ']';
+			} else if (c == '.') {
+				dot = i;
+			}
+		}
+		name = name.substring(dot + 1);
+		if (name.length() >= 2 && "\"`[".indexOf(name.charAt(0)) >= 0) {
+			name = name.substring(1, name.length() - 1);
+		}
+		return name.toLowerCase();
+	}
+
+	/**
+	 * 估算对象占用的字节数，按 64 位 JVM 开启指针压缩粗略计算，bean 最多向下展开 3 层
+	 */
+	static long estimate(Object value, int depth) {
+		if (value == null) {
+			return 0;
+		}
+		if (value instanceof String) {
+			return 40 + 2L * ((String) value).length();
+		}
+		if (value instanceof Integer || value instanceof Float || value instanceof Short || value instanceof Byte
+				|| value instanceof Character || value instanceof Boolean) {
+			return 16;
+		}
+		if (value instanceof Long || value instanceof Double || value instanceof java.util.Date) {
+			return 24;
+		}
+		if (value instanceof BigDecimal || value instanceof BigInteger) {
+			return 64;
+		}
+		if (value instanceof byte[]) {
+			return 16 + ((byte[]) value).length;
+		}
+		if (value instanceof char[]) {
+			return 16 + 2L * ((char[]) value).length;
+		}
+		if (value instanceof Object[]) {
+			Object[] array = (Object[]) value;
+			long bytes = 16 + 4L * array.length;
+			for (Object element : array) {
+				bytes += estimate(element, depth + 1);
+			}
+			return bytes;
+		}
+		if (value instanceof Collection) {
+			Collection<?> collection = (Collection<?>) value;
+			long bytes = 40 + 8L * collection.size();
+			for (Object element : collection) {
+				bytes += estimate(element, depth + 1);
+			}
+			return bytes;
+		}
+		if (value instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) value;
+			long bytes = 48 + 40L * map.size();
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				bytes += estimate(entry.getKey(), depth + 1) + estimate(entry.getValue(), depth + 1);
+			}
+			return bytes;
+		}
+		Layout layout = LAYOUTS.get(value.getClass());
+		long bytes = layout.shallowBytes;
+		if (depth < 3) {
+			for (Field field : layout.references) {
+				try {
+					bytes += estimate(field.get(value), depth + 1);
+				} catch (IllegalAccessException e) {
+					// 按浅层大小估算
+				}
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * 类的浅层大小和可展开的引用字段
+	 */
+	private static final class Layout {
+		final long shallowBytes;
+		final Field[] references;
+
+		Layout(Class<?> type) {
+			long bytes = 12;
+			List<Field> fields = new ArrayList<>();
+			boolean expand = !type.getName().startsWith("java.");
+			for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+				for (Field field : c.getDeclaredFields()) {
+					if (Modifier.isStatic(field.getModifiers())) {
+						continue;
+					}
+					Class<?> fieldType = field.getType();
+					if (fieldType == long.class || fieldType == double.class) {
+						bytes += 8;
+					} else if (fieldType == int.class || fieldType == float.class) {
+						bytes += 4;
+					} else if (fieldType == short.class || fieldType == char.class) {
+						bytes += 2;
+					} else if (fieldType == byte.class || fieldType == boolean.class) {
+						bytes += 1;
+					} else {
+						bytes += 4;
+						if (expand) {
+							try {
+								field.setAccessible(true);
+								fields.add(field);
+							} catch (RuntimeException e) {
+								// 无法访问的字段只计引用本身
+							}
+						}
+					}
+				}
+			}
+			this.shallowBytes = (bytes + 7) & ~7L;
+			this.references = fields.toArray(new Field[fields.size()]);
+		}
+	}
+}
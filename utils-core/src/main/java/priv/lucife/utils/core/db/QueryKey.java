@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2017 Lucifer Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package priv.lucife.utils.core.db;
+
+import java.util.Arrays;
+
+import priv.lucife.utils.core.annotation.UBTCompatible;
+
+/**
+ * 查询缓存的键：规范化后的 SQL 和参数，供 {@link CountCache}、{@link QueryCache} 使用
+ *
+ * @author Lucifer Wong
+ */
+@UBTCompatible
+final class QueryKey {
+
+	final String sql;
+	final Object[] args;
+	private final int hash;
+
+	/**
+	 * @param sql
+	 *            SQL，会被规范化
+	 * @param args
+	 *            参数，会复制一份
+	 */
+	QueryKey(String sql, Object[] args) {
+		this.sql = normalize(sql);
+		this.args = args == null ? new Object[0] : args.clone();
+		this.hash = this.sql.hashCode() * 31 + Arrays.deepHashCode(this.args);
+	}
+
+	/**
+	 * 合并字符串字面量以外的连续空白，去掉首尾空白
+	 */
+	static String normalize(String sql) {
+		StringBuilder builder = new StringBuilder(sql.length());
+		boolean space = false;
+		int length = sql.length();
+		for (int i = 0; i < length; i++) {
+			char c = sql.charAt(i);
+			if (c == '\'' || c == '"') {
+				int end = Math.min(BinderPlan.skipQuoted(sql, i, c), length - 1);
+				if (space && builder.length() > 0) {
+					builder.append(' ');
+				}
+				space = false;
+				builder.append(sql, i, end + 1);
+				i = end;
+			} else if (Character.isWhitespace(c)) {
+				space = true;
+			} else {
+				if (space && builder.length() > 0) {
+					builder.append(' ');
+				}
+				space = false;
+				builder.append(c);
+			}
+		}
+		return builder.toString();
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof QueryKey)) {
+			return false;
+		}
+		QueryKey other = (QueryKey) obj;
+		return hash == other.hash && sql.equals(other.sql) && Arrays.deepEquals(args, other.args);
+	}
+}
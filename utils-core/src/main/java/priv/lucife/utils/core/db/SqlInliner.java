@@ -0,0 +1,202 @@
+/**
+ * Copyright (C) 2017 Lucifer Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package priv.lucife.utils.core.db;
+
+import java.math.BigDecimal;
+import java.util.Calendar;
+
+import priv.lucife.utils.core.annotation.UBTCompatible;
+
+/**
+ * 把参数值填入预编译 SQL，供 {@link JdbcUtil#getSQL(String, Object[])} 等日志用途使用。
+ * <p>
+ * 一次扫描完成：字符串字面量、引号标识符和注释原样复制，其中的问号不当作占位符；字符串值中的单引号加倍转义；日期按
+ * yyyy-MM-dd HH:mm:ss 直接写出数字，不创建 SimpleDateFormat。输出超过长度上限时截断并以 "..." 结尾，超长的参数值不会被整体复制。
+ *
+ * @author Lucifer Wong
+ */
+@UBTCompatible
+final class SqlInliner {
+
+	/**
+	 * 截断时追加的标记
+	 */
+	static final String ELLIPSIS = "...";
+
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	private static final ThreadLocal<Calendar> CALENDAR = new ThreadLocal<Calendar>() {
+		@Override
+		protected Calendar initialValue() {
+			return Calendar.getInstance();
+		}
+	};
+
+	private final StringBuilder out;
+	private final int limit;
+	private boolean truncated;
+
+	private SqlInliner(StringBuilder out, int maxLength) {
+		this.out = out;
+		int start = out.length();
+		this.limit = maxLength < 0 || maxLength > Integer.MAX_VALUE - start ? Integer.MAX_VALUE : start + maxLength;
+	}
+
+	/**
+	 * 把填充参数后的 SQL 追加到 out
+	 *
+	 * @param out
+	 *            输出
+	 * @param preparedSQL
+	 *            预编译 SQL
+	 * @param args
+	 *            参数，多余的忽略，不足时保留问号
+	 * @param maxLength
+	 *            最多追加的字符数（不含截断标记），小于 0 表示不限
+	 * @return 是否被截断
+	 */
+	static boolean inline(StringBuilder out, String preparedSQL, Object[] args, int maxLength) {
+		SqlInliner inliner = new SqlInliner(out, maxLength);
+		inliner.scan(preparedSQL, args == null ? new Object[0] : args);
+		if (inliner.truncated) {
+			out.append(ELLIPSIS);
+		}
+		return inliner.truncated;
+	}
+
+	private void scan(String sql, Object[] args) {
+		int length = sql.length();
+		int copied = 0;
+		int parameterIndex = 0;
+		for (int i = 0; i < length; i++) {
+			char c = sql.charAt(i);
+			if (c == '?') {
+				if (parameterIndex == args.length) {
+					continue;
+				}
+				if (!append(sql, copied, i)) {
+					return;
+				}
+				copied = i + 1;
+				if (!value(args[parameterIndex++])) {
+					return;
+				}
+			} else if (c == '\'' || c == '"') {
+				i = BinderPlan.skipQuoted(sql, i, c);
+			} else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+				int end = sql.indexOf('\n', i);
+				i = end == -1 ? length : end;
+			} else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+				int end = sql.indexOf("*/", i + 2);
+				i = end == -1 ? length : end + 1;
+			}
+		}
+		append(sql, copied, length);
+	}
+
+	/**
+	 * 追加 s 的 [start, end)，超出上限时只追加能放下的部分
+	 */
+	private boolean append(CharSequence s, int start, int end) {
+		int room = limit - out.length();
+		if (end - start > room) {
+			out.append(s, start, start + room);
+			truncated = true;
+			return false;
+		}
+		out.append(s, start, end);
+		return true;
+	}
+
+	private boolean append(char c) {
+		if (out.length() >= limit) {
+			truncated = true;
+			return false;
+		}
+		out.append(c);
+		return true;
+	}
+
+	private boolean value(Object arg) {
+		if (arg == null) {
+			return append("null", 0, 4);
+		}
+		if (arg instanceof Number || arg instanceof Boolean) {
+			String s = arg instanceof BigDecimal ? ((BigDecimal) arg).toPlainString() : arg.toString();
+			return append(s, 0, s.length());
+		}
+		if (arg instanceof java.util.Date) {
+			return date((java.util.Date) arg);
+		}
+		if (arg instanceof byte[]) {
+			return bytes((byte[]) arg);
+		}
+		CharSequence s = arg instanceof CharSequence ? (CharSequence) arg : arg.toString();
+		if (!append('\'')) {
+			return false;
+		}
+		int length = s.length();
+		int copied = 0;
+		for (int i = 0; i < length; i++) {
+			if (s.charAt(i) == '\'') {
+				if (!append(s, copied, i + 1) || !append('\'')) {
+					return false;
+				}
+				copied = i + 1;
+			}
+		}
+		return append(s, copied, length) && append('\'');
+	}
+
+	private boolean date(java.util.Date date) {
+		if (limit - out.length() < 21) {
+			truncated = true;
+			return false;
+		}
+		Calendar calendar = CALENDAR.get();
+		calendar.setTime(date);
+		out.append('\'');
+		digits(calendar.get(Calendar.YEAR), 4);
+		out.append('-');
+		digits(calendar.get(Calendar.MONTH) + 1, 2);
+		out.append('-');
+		digits(calendar.get(Calendar.DAY_OF_MONTH), 2);
+		out.append(' ');
+		digits(calendar.get(Calendar.HOUR_OF_DAY), 2);
+		out.append(':');
+		digits(calendar.get(Calendar.MINUTE), 2);
+		out.append(':');
+		digits(calendar.get(Calendar.SECOND), 2);
+		out.append('\'');
+		return true;
+	}
+
+	private void digits(int value, int width) {
+		for (int divisor = width == 4 ? 1000 : 10; divisor > 0; divisor /= 10) {
+			out.append((char) ('0' + value / divisor % 10));
+		}
+	}
+
+	private boolean bytes(byte[] bytes) {
+		if (!append('X') || !append('\'')) {
+			return false;
+		}
+		for (byte b : bytes) {
+			if (!append(HEX[(b >> 4) & 0xF]) || !append(HEX[b & 0xF])) {
+				return false;
+			}
+		}
+		return append('\'');
+	}
+}
@@ -32,26 +32,39 @@ public abstract class AESUtil {
 	protected static final String KEY = "NOPO3nzMD3dndwS0MccuMeXCHgVlGOoYyFwLdS24Im2e7YyhB0wrUsyYf0";
 
 	private static String aesDecryptByBytes(byte[] encryptBytes, String decryptKey) throws Exception {
-		KeyGenerator kgen = KeyGenerator.getInstance("AES");
-		kgen.init(128, new SecureRandom(decryptKey.getBytes()));
-
 		Cipher cipher = Cipher.getInstance("AES");
-		cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(kgen.generateKey().getEncoded(), "AES"));
+		cipher.init(Cipher.DECRYPT_MODE, generateKey(decryptKey));
 		byte[] decryptBytes = cipher.doFinal(encryptBytes);
 
 		return new String(decryptBytes);
 	}
 
 	private static byte[] aesEncryptToBytes(String content, String encryptKey) throws Exception {
-		KeyGenerator kgen = KeyGenerator.getInstance("AES");
-		kgen.init(128, new SecureRandom(encryptKey.getBytes()));
-
 		Cipher cipher = Cipher.getInstance("AES");
-		cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(kgen.generateKey().getEncoded(), "AES"));
+		cipher.init(Cipher.ENCRYPT_MODE, generateKey(encryptKey));
 
 		return cipher.doFinal(content.getBytes("utf-8"));
 	}
 
+	/**
+	 * 由秘钥字符串生成128位 AES 密钥。显式使用以秘钥为种子的 SHA1PRNG，相同秘钥在任何 JVM 上都得到相同的密钥；
+	 * {@code new SecureRandom(seed)} 在 Linux 上是 NativePRNG，会忽略种子。
+	 * 
+	 * @author Lucifer Wong
+	 * @param key
+	 *            秘钥
+	 * @return AES 密钥
+	 * @throws Exception
+	 *             生成失败
+	 */
+	static SecretKeySpec generateKey(String key) throws Exception {
+		KeyGenerator kgen = KeyGenerator.getInstance("AES");
+		SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
+		random.setSeed(key.getBytes());
+		kgen.init(128, random);
+		return new SecretKeySpec(kgen.generateKey().getEncoded(), "AES");
+	}
+
 	private static byte[] base64Decode(String base64Code) throws Exception {
 		return base64Code == null ? null : Base64Util.decrypt(base64Code);
 	}
@@ -0,0 +1,647 @@
+/**
+ * Copyright (C) 2017 Lucifer Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package priv.lucife.utils.core.encrypt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import priv.lucife.utils.core.annotation.UBTCompatible;
+
+/**
+ * 线程安全的加解密服务。
+ * <p>
+ * 算法通过 {@link Algorithm} 插件注册，内置 AES、DES 和 BASE64。每个（算法, 秘钥）对应的上下文（例如派生出的 AES
+ * 密钥）只在第一次使用时创建，之后缓存复用，超过容量时按 LRU 淘汰。批量接口只解析一次上下文，可选在线程池上并行执行。
+ * 每个算法的调用次数、失败次数、耗时与处理字节数都有统计，见 {@link #getStats(String)}。
+ * <p>
+ * 与 {@link EncryptAndDecryptUtil} 不同，失败时抛出 {@link IllegalStateException}，不会返回 null。
+ *
+ * @author Lucifer Wong
+ */
+@UBTCompatible
+public final class CryptoService {
+
+	/**
+	 * 加解密算法插件。实现类必须是线程安全的，上下文会被多个线程同时使用。
+	 *
+	 * @author Lucifer Wong
+	 * @param <C>
+	 *            由秘钥创建的上下文类型
+	 */
+	public interface Algorithm<C> {
+
+		/**
+		 * @return 算法名称，注册时作为唯一标识
+		 */
+		String getName();
+
+		/**
+		 * 由秘钥创建上下文，结果会被缓存。
+		 *
+		 * @param key
+		 *            秘钥，不需要秘钥的算法可能为 null
+		 * @return 上下文
+		 * @throws Exception
+		 *             创建失败
+		 */
+		C createContext(String key) throws Exception;
+
+		/**
+		 * 加密
+		 *
+		 * @param context
+		 *            上下文
+		 * @param value
+		 *            明文
+		 * @return 密文
+		 * @throws Exception
+		 *             加密失败
+		 */
+		String encrypt(C context, String value) throws Exception;
+
+		/**
+		 * 解密
+		 *
+		 * @param context
+		 *            上下文
+		 * @param value
+		 *            密文
+		 * @return 明文
+		 * @throws Exception
+		 *             解密失败
+		 */
+		String decrypt(C context, String value) throws Exception;
+	}
+
+	/**
+	 * 单个算法的调用统计，数值实时更新。
+	 *
+	 * @author Lucifer Wong
+	 */
+	public static final class Stats {
+
+		private final AtomicLong invocations = new AtomicLong();
+		private final AtomicLong failures = new AtomicLong();
+		private final AtomicLong totalNanos = new AtomicLong();
+		private final AtomicLong maxNanos = new AtomicLong();
+		private final AtomicLong bytes = new AtomicLong();
+		private volatile long startNanos = System.nanoTime();
+
+		private void record(long nanos, int length, boolean failed) {
+			invocations.incrementAndGet();
+			if (failed) {
+				failures.incrementAndGet();
+			}
+			totalNanos.addAndGet(nanos);
+			bytes.addAndGet(length);
+			long max;
+			while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+				// retry
+			}
+		}
+
+		private void reset() {
+			invocations.set(0);
+			failures.set(0);
+			totalNanos.set(0);
+			maxNanos.set(0);
+			bytes.set(0);
+			startNanos = System.nanoTime();
+		}
+
+		/**
+		 * @return 调用次数（加密和解密）
+		 */
+		public long getInvocations() {
+			return invocations.get();
+		}
+
+		/**
+		 * @return 失败次数
+		 */
+		public long getFailures() {
+			return failures.get();
+		}
+
+		/**
+		 * @return 累计耗时（纳秒）
+		 */
+		public long getTotalNanos() {
+			return totalNanos.get();
+		}
+
+		/**
+		 * @return 单次最大耗时（纳秒）
+		 */
+		public long getMaxNanos() {
+			return maxNanos.get();
+		}
+
+		/**
+		 * @return 累计处理的输入字符数
+		 */
+		public long getBytes() {
+			return bytes.get();
+		}
+
+		/**
+		 * @return 平均单次耗时（纳秒）
+		 */
+		public double getMeanNanos() {
+			long count = invocations.get();
+			return count == 0 ? 0 : (double) totalNanos.get() / count;
+		}
+
+		/**
+		 * @return 从创建或上次重置起平均每秒调用次数
+		 */
+		public double getInvocationsPerSecond() {
+			long elapsed = System.nanoTime() - startNanos;
+			return elapsed <= 0 ? 0 : invocations.get() * 1e9 / elapsed;
+		}
+
+		@Override
+		public String toString() {
+			return "Stats[invocations=" + getInvocations() + ", failures=" + getFailures() + ", meanNanos="
+					+ (long) getMeanNanos() + ", maxNanos=" + getMaxNanos() + ", bytes=" + getBytes() + "]";
+		}
+	}
+
+	/**
+	 * AES 算法，与 {@link AESUtil} 的结果兼容。上下文是派生出的密钥，{@link Cipher} 按线程缓存。
+	 */
+	private static class AesAlgorithm implements Algorithm<SecretKeySpec> {
+
+		private final ThreadLocal<Cipher> ciphers = new ThreadLocal<Cipher>();
+
+		@Override
+		public String getName() {
+			return AES;
+		}
+
+		@Override
+		public SecretKeySpec createContext(String key) throws Exception {
+			return AESUtil.generateKey(key == null ? AESUtil.KEY : key);
+		}
+
+		@Override
+		public String encrypt(SecretKeySpec context, String value) throws Exception {
+			Cipher cipher = cipher();
+			cipher.init(Cipher.ENCRYPT_MODE, context);
+			return Base64Util.encrypt(cipher.doFinal(value.getBytes("utf-8")));
+		}
+
+		@Override
+		public String decrypt(SecretKeySpec context, String value) throws Exception {
+			Cipher cipher = cipher();
+			cipher.init(Cipher.DECRYPT_MODE, context);
+			return new String(cipher.doFinal(Base64Util.decrypt(value)));
+		}
+
+		private Cipher cipher() throws Exception {
+			Cipher cipher = ciphers.get();
+			if (cipher == null) {
+				cipher = Cipher.getInstance("AES");
+				ciphers.set(cipher);
+			}
+			return cipher;
+		}
+	}
+
+	/**
+	 * DES 算法，委托给 {@link DESUtil}。
+	 */
+	private static class DesAlgorithm implements Algorithm<String> {
+
+		@Override
+		public String getName() {
+			return DES;
+		}
+
+		@Override
+		public String createContext(String key) {
+			return key == null ? DESUtil.CONST_DES_KEY_1 : key;
+		}
+
+		@Override
+		public String encrypt(String context, String value) {
+			return DESUtil.encrypt(value, context);
+		}
+
+		@Override
+		public String decrypt(String context, String value) {
+			return DESUtil.decrypt(value, context);
+		}
+	}
+
+	/**
+	 * BASE64 编码，不需要秘钥。
+	 */
+	private static class Base64Algorithm implements Algorithm<Object> {
+
+		private static final Object NO_CONTEXT = new Object();
+
+		@Override
+		public String getName() {
+			return BASE64;
+		}
+
+		@Override
+		public Object createContext(String key) {
+			return NO_CONTEXT;
+		}
+
+		@Override
+		public String encrypt(Object context, String value) {
+			return Base64Util.encrypt(value.getBytes());
+		}
+
+		@Override
+		public String decrypt(Object context, String value) throws Exception {
+			return new String(Base64Util.decrypt(value));
+		}
+	}
+
+	private static class DefaultHolder {
+		static final CryptoService INSTANCE = new CryptoService(DEFAULT_MAX_CONTEXTS);
+	}
+
+	/**
+	 * AES 算法名
+	 */
+	public static final String AES = "AES";
+
+	/**
+	 * DES 算法名
+	 */
+	public static final String DES = "DES";
+
+	/**
+	 * BASE64 算法名
+	 */
+	public static final String BASE64 = "BASE64";
+
+	/**
+	 * 默认缓存的上下文数量
+	 */
+	public static final int DEFAULT_MAX_CONTEXTS = 256;
+
+	/**
+	 * 取得共享的默认实例，{@link EncryptAndDecryptUtil} 也使用该实例。
+	 *
+	 * @author Lucifer Wong
+	 * @return 默认实例
+	 */
+	public static CryptoService getDefault() {
+		return DefaultHolder.INSTANCE;
+	}
+
+	private final Map<String, Algorithm<?>> algorithms = new ConcurrentHashMap<>();
+
+	private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+
+	private final Map<String, Object> contexts;
+
+	/**
+	 * 创建服务并注册内置算法。
+	 *
+	 * @param maxContexts
+	 *            最多缓存的上下文数量，超出时淘汰最久未使用的
+	 */
+	public CryptoService(final int maxContexts) {
+		if (maxContexts <= 0) {
+			throw new IllegalArgumentException("maxContexts must be positive, actual was " + maxContexts);
+		}
+		this.contexts = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+				return size() > maxContexts;
+			}
+		};
+		register(new AesAlgorithm());
+		register(new DesAlgorithm());
+		register(new Base64Algorithm());
+	}
+
+	/**
+	 * 注册算法，同名算法会被替换，相关的缓存上下文和统计会被清除。
+	 *
+	 * @author Lucifer Wong
+	 * @param algorithm
+	 *            算法
+	 * @return 当前服务
+	 */
+	public CryptoService register(Algorithm<?> algorithm) {
+		String name = algorithm.getName();
+		algorithms.put(name, algorithm);
+		stats.put(name, new Stats());
+		synchronized (contexts) {
+			contexts.keySet().removeAll(contextKeys(name));
+		}
+		return this;
+	}
+
+	/**
+	 * 加密
+	 *
+	 * @author Lucifer Wong
+	 * @param algorithm
+	 *            算法名
+	 * @param key
+	 *            秘钥
+	 * @param value
+	 *            明文
+	 * @return 密文
+	 */
+	public String encrypt(String algorithm, String key, String value) {
+		return execute(algorithm(algorithm), context(algorithm, key), value, true);
+	}
+
+	/**
+	 * 解密
+	 *
+	 * @author Lucifer Wong
+	 * @param algorithm
+	 *            算法名
+	 * @param key
+	 *            秘钥
+	 * @param value
+	 *            密文
+	 * @return 明文
+	 */
+	public String decrypt(String algorithm, String key, String value) {
+		return execute(algorithm(algorithm), context(algorithm, key), value, false);
+	}
+
+	/**
+	 * 批量加密，只解析一次上下文，在当前线程顺序执行。
+	 *
+	 * @author Lucifer Wong
+	 * @param algorithm
+	 *            算法名
+	 * @param key
+	 *            秘钥
+	 * @param values
+	 *            明文列表
+	 * @return 密文列表，与 values 一一对应
+	 */
+	public List<String> encryptAll(String algorithm, String key, List<String> values) {
+		return executeAll(algorithm, key, values, true, null);
+	}
+
+	/**
+	 * 批量加密，把列表分段后在线程池上并行执行。
+	 *
+	 * @author Lucifer Wong
+	 * @param algorithm
+	 *            算法名
+	 * @param key
+	 *            秘钥
+	 * @param values
+	 *            明文列表
+	 * @param executor
+	 *            线程池，为 null 时在当前线程执行
+	 * @return 密文列表，与 values 一一对应
+	 */
+	public List<String> encryptAll(String algorithm, String key, List<String> values, ExecutorService executor) {
+		return executeAll(algorithm, key, values, true, executor);
+	}
+
+	/**
+	 * 批量解密，只解析一次上下文，在当前线程顺序执行。
+	 *
+	 * @author Lucifer Wong
+	 * @param algorithm
+	 *            算法名
+	 * @param key
+	 *            秘钥
+	 * @param values
+	 *            密文列表
+	 * @return 明文列表，与 values 一一对应
+	 */
+	public List<String> decryptAll(String algorithm, String key, List<String> values) {
+		return executeAll(algorithm, key, values, false, null);
+	}
+
+	/**
+	 * 批量解密，把列表分段后在线程池上并行执行。
+	 *
+	 * @author Lucifer Wong
+	 * @param algorithm
+	 *            算法名
+	 * @param key
+	 *            秘钥
+	 * @param values
+	 *            密文列表
+	 * @param executor
+	 *            线程池，为 null 时在当前线程执行
+	 * @return 明文列表，与 values 一一对应
+	 */
+	public List<String> decryptAll(String algorithm, String key, List<String> values, ExecutorService executor) {
+		return executeAll(algorithm, key, values, false, executor);
+	}
+
+	/**
+	 * 清空缓存的上下文
+	 *
+	 * @author Lucifer Wong
+	 */
+	public void evictAll() {
+		synchronized (contexts) {
+			contexts.clear();
+		}
+	}
+
+	/**
+	 * @return 当前缓存的上下文数量
+	 */
+	public int getContextCount() {
+		synchronized (contexts) {
+			return contexts.size();
+		}
+	}
+
+	/**
+	 * 取得指定算法的统计
+	 *
+	 * @author Lucifer Wong
+	 * @param algorithm
+	 *            算法名
+	 * @return 统计，算法未注册时返回 null
+	 */
+	public Stats getStats(String algorithm) {
+		return stats.get(algorithm);
+	}
+
+	/**
+	 * @return 全部算法的统计
+	 */
+	public Map<String, Stats> getStats() {
+		return Collections.unmodifiableMap(new HashMap<>(stats));
+	}
+
+	/**
+	 * 重置全部统计
+	 *
+	 * @author Lucifer Wong
+	 */
+	public void resetStats() {
+		for (Stats s : stats.values()) {
+			s.reset();
+		}
+	}
+
+	private Algorithm<?> algorithm(String name) {
+		Algorithm<?> algorithm = algorithms.get(name);
+		if (algorithm == null) {
+			throw new IllegalArgumentException("Unknown crypto algorithm [" + name + "]");
+		}
+		return algorithm;
+	}
+
+	private Object context(String name, String key) {
+		String cacheKey = name + '\u0000' + (key == null ? "" : key);
+		Object context;
+		synchronized (contexts) {
+			context = contexts.get(cacheKey);
+		}
+		if (context != null) {
+			return context;
+		}
+
+		// 在锁外创建，派生密钥可能较慢；并发创建时以先放入的为准
+		try {
+			context = algorithm(name).createContext(key);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalStateException("Could not create " + name + " context", e);
+		}
+		synchronized (contexts) {
+			Object existing = contexts.get(cacheKey);
+			if (existing != null) {
+				return existing;
+			}
+			contexts.put(cacheKey, context);
+		}
+		return context;
+	}
+
+	private List<String> contextKeys(String name) {
+		List<String> keys = new ArrayList<>();
+		String prefix = name + '\u0000';
+		for (String key : contexts.keySet()) {
+			if (key.startsWith(prefix)) {
+				keys.add(key);
+			}
+		}
+		return keys;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <C> String execute(Algorithm<C> algorithm, Object context, String value, boolean encrypt) {
+		Stats s = stats.get(algorithm.getName());
+		long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			String result = encrypt ? algorithm.encrypt((C) context, value) : algorithm.decrypt((C) context, value);
+			failed = false;
+			return result;
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalStateException(
+					"Could not " + (encrypt ? "encrypt" : "decrypt") + " with " + algorithm.getName(), e);
+		} finally {
+			if (s != null) {
+				s.record(System.nanoTime() - start, value == null ? 0 : value.length(), failed);
+			}
+		}
+	}
+
+	private List<String> executeAll(String name, String key, final List<String> values, final boolean encrypt,
+			ExecutorService executor) {
+		final Algorithm<?> algorithm = algorithm(name);
+		final Object context = context(name, key);
+		final String[] results = new String[values.size()];
+
+		int parallelism = executor == null ? 1
+				: Math.min(Runtime.getRuntime().availableProcessors(), values.size());
+		if (parallelism <= 1) {
+			for (int i = 0; i < results.length; i++) {
+				results[i] = execute(algorithm, context, values.get(i), encrypt);
+			}
+			return toList(results);
+		}
+
+		int slice = (results.length + parallelism - 1) / parallelism;
+		List<Future<Void>> futures = new ArrayList<>(parallelism);
+		for (int from = 0; from < results.length; from += slice) {
+			final int start = from;
+			final int end = Math.min(from + slice, results.length);
+			futures.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					for (int i = start; i < end; i++) {
+						results[i] = execute(algorithm, context, values.get(i), encrypt);
+					}
+					return null;
+				}
+			}));
+		}
+		try {
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			cancel(futures);
+			throw new IllegalStateException("Interrupted while executing " + name + " batch", e);
+		} catch (ExecutionException e) {
+			cancel(futures);
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException("Could not execute " + name + " batch", e.getCause());
+		}
+		return toList(results);
+	}
+
+	private static void cancel(List<Future<Void>> futures) {
+		for (Future<Void> future : futures) {
+			future.cancel(true);
+		}
+	}
+
+	private static List<String> toList(String[] results) {
+		List<String> list = new ArrayList<>(results.length);
+		Collections.addAll(list, results);
+		return list;
+	}
+}
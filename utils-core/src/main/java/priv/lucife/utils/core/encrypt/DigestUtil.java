@@ -0,0 +1,489 @@
+/**
+ * Copyright (C) 2017 Lucifer Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package priv.lucife.utils.core.encrypt;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import priv.lucife.utils.core.annotation.UBTCompatible;
+import priv.lucife.utils.core.base.HexByteUtil;
+import priv.lucife.utils.core.io.BufferPool;
+
+/**
+ * 消息摘要工具类，统一 MD5、SHA-1、SHA-256 等摘要算法的计算。
+ * <p>
+ * 单次计算使用线程内缓存的 {@link MessageDigest}，避免每次调用都执行
+ * {@link MessageDigest#getInstance(String)}；需要增量计算或一次读取同时计算多种摘要时使用 {@link Digester}。
+ *
+ * @author Lucifer Wong
+ */
+@UBTCompatible
+public abstract class DigestUtil {
+
+	/**
+	 * 增量摘要计算器，可同时计算多种摘要算法，数据只需读取一遍。
+	 * <p>
+	 * 实例不是线程安全的，调用 {@link #reset()} 之后可以重复使用。
+	 *
+	 * <pre>
+	 * Digester digester = DigestUtil.digester(DigestUtil.MD5, DigestUtil.SHA_256);
+	 * digester.update(new File(&quot;foo.dat&quot;));
+	 * String md5 = digester.hex(DigestUtil.MD5);
+	 * String sha256 = digester.hex(DigestUtil.SHA_256);
+	 * </pre>
+	 *
+	 * @author Lucifer Wong
+	 */
+	public static final class Digester {
+
+		private final String[] algorithms;
+
+		private final MessageDigest[] digests;
+
+		private byte[][] results;
+
+		private Digester(String[] algorithms) {
+			if (algorithms == null || algorithms.length == 0) {
+				throw new IllegalArgumentException("at least one digest algorithm is required");
+			}
+			this.algorithms = algorithms.clone();
+			this.digests = new MessageDigest[algorithms.length];
+			for (int i = 0; i < algorithms.length; i++) {
+				digests[i] = newDigest(algorithms[i]);
+			}
+		}
+
+		/**
+		 * 使用已有的 MessageDigest，如线程内缓存的实例
+		 */
+		private Digester(String algorithm, MessageDigest digest) {
+			this.algorithms = new String[] { algorithm };
+			this.digests = new MessageDigest[] { digest };
+		}
+
+		/**
+		 * 取得指定算法的摘要结果，第一次调用时结束计算。
+		 *
+		 * @author Lucifer Wong
+		 * @param algorithm
+		 *            摘要算法
+		 * @return 摘要字节
+		 */
+		public byte[] digest(String algorithm) {
+			finish();
+			return results[indexOf(algorithm)].clone();
+		}
+
+		/**
+		 * 取得指定算法的小写16进制摘要结果。
+		 *
+		 * @author Lucifer Wong
+		 * @param algorithm
+		 *            摘要算法
+		 * @return 16进制摘要字符串
+		 */
+		public String hex(String algorithm) {
+			finish();
+			return toHex(results[indexOf(algorithm)], false);
+		}
+
+		/**
+		 * 取得全部算法的小写16进制摘要结果，按创建时指定的算法顺序排列。
+		 *
+		 * @author Lucifer Wong
+		 * @return 算法名到16进制摘要字符串的映射
+		 */
+		public Map<String, String> hexAll() {
+			finish();
+			Map<String, String> map = new LinkedHashMap<>();
+			for (int i = 0; i < algorithms.length; i++) {
+				map.put(algorithms[i], toHex(results[i], false));
+			}
+			return map;
+		}
+
+		/**
+		 * 重置计算器以便重复使用。
+		 *
+		 * @author Lucifer Wong
+		 * @return 当前计算器
+		 */
+		public Digester reset() {
+			for (MessageDigest md : digests) {
+				md.reset();
+			}
+			results = null;
+			return this;
+		}
+
+		/**
+		 * 追加字节数组。
+		 *
+		 * @author Lucifer Wong
+		 * @param bytes
+		 *            字节数组
+		 * @return 当前计算器
+		 */
+		public Digester update(byte[] bytes) {
+			return update(bytes, 0, bytes.length);
+		}
+
+		/**
+		 * 追加字节数组的一部分。
+		 *
+		 * @author Lucifer Wong
+		 * @param bytes
+		 *            字节数组
+		 * @param offset
+		 *            起始位置
+		 * @param length
+		 *            长度
+		 * @return 当前计算器
+		 */
+		public Digester update(byte[] bytes, int offset, int length) {
+			checkState();
+			for (MessageDigest md : digests) {
+				md.update(bytes, offset, length);
+			}
+			return this;
+		}
+
+		/**
+		 * 追加 {@link ByteBuffer} 中 position 到 limit 之间的内容，计算完成后 position 移动到 limit。
+		 *
+		 * @author Lucifer Wong
+		 * @param buffer
+		 *            缓冲区，可以是堆内、直接或内存映射缓冲区
+		 * @return 当前计算器
+		 */
+		public Digester update(ByteBuffer buffer) {
+			checkState();
+			if (digests.length == 1) {
+				digests[0].update(buffer);
+				return this;
+			}
+			int position = buffer.position();
+			int limit = buffer.limit();
+			for (MessageDigest md : digests) {
+				buffer.limit(limit).position(position);
+				md.update(buffer);
+			}
+			return this;
+		}
+
+		/**
+		 * 读取输入流直到结束，输入流不会被关闭。
+		 *
+		 * @author Lucifer Wong
+		 * @param in
+		 *            输入流
+		 * @return 当前计算器
+		 * @throws IOException
+		 *             读取出错
+		 */
+		public Digester update(InputStream in) throws IOException {
+			byte[] buffer = BufferPool.getDefault().acquire(BUFFER_SIZE);
+			try {
+				for (int len = 0; (len = in.read(buffer)) != -1;) {
+					update(buffer, 0, len);
+				}
+			} finally {
+				BufferPool.getDefault().release(buffer);
+			}
+			return this;
+		}
+
+		/**
+		 * 从通道的当前位置读取到文件末尾。超过 {@value DigestUtil#MAP_THRESHOLD} 字节的部分按窗口做内存映射读取，
+		 * 其余情况使用直接缓冲区读取。通道不会被关闭。
+		 *
+		 * @author Lucifer Wong
+		 * @param channel
+		 *            文件通道
+		 * @return 当前计算器
+		 * @throws IOException
+		 *             读取出错
+		 */
+		public Digester update(FileChannel channel) throws IOException {
+			long position = channel.position();
+			long size = channel.size();
+
+			if (size - position >= MAP_THRESHOLD) {
+				while (position < size) {
+					long window = Math.min(MAP_WINDOW, size - position);
+					MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, window);
+					update(mapped);
+					position += window;
+				}
+				channel.position(position);
+				return this;
+			}
+
+			ByteBuffer buffer = BufferPool.getDefault().acquireDirect(BUFFER_SIZE);
+			try {
+				while (channel.read(buffer) != -1) {
+					buffer.flip();
+					update(buffer);
+					buffer.clear();
+				}
+			} finally {
+				BufferPool.getDefault().releaseDirect(buffer);
+			}
+			return this;
+		}
+
+		/**
+		 * 读取整个文件。
+		 *
+		 * @author Lucifer Wong
+		 * @param file
+		 *            文件
+		 * @return 当前计算器
+		 * @throws IOException
+		 *             读取出错
+		 */
+		public Digester update(File file) throws IOException {
+			try (FileInputStream in = new FileInputStream(file)) {
+				return update(in.getChannel());
+			}
+		}
+
+		private void checkState() {
+			if (results != null) {
+				throw new IllegalStateException("digest already finished, call reset() before updating");
+			}
+		}
+
+		private void finish() {
+			if (results == null) {
+				results = new byte[digests.length][];
+				for (int i = 0; i < digests.length; i++) {
+					results[i] = digests[i].digest();
+				}
+			}
+		}
+
+		private int indexOf(String algorithm) {
+			for (int i = 0; i < algorithms.length; i++) {
+				if (algorithms[i].equalsIgnoreCase(algorithm)) {
+					return i;
+				}
+			}
+			throw new IllegalArgumentException("algorithm [" + algorithm + "] is not computed by this digester");
+		}
+	}
+
+	/**
+	 * MD5 算法
+	 */
+	public static final String MD5 = "MD5";
+
+	/**
+	 * SHA-1 算法
+	 */
+	public static final String SHA_1 = "SHA-1";
+
+	/**
+	 * SHA-256 算法
+	 */
+	public static final String SHA_256 = "SHA-256";
+
+	/**
+	 * SHA-512 算法
+	 */
+	public static final String SHA_512 = "SHA-512";
+
+	private static final int BUFFER_SIZE = 65536;
+
+	/**
+	 * 文件剩余长度达到该值时改用内存映射读取
+	 */
+	private static final long MAP_THRESHOLD = 4 * 1024 * 1024;
+
+	private static final long MAP_WINDOW = 64 * 1024 * 1024;
+
+	private static final ThreadLocal<Map<String, MessageDigest>> DIGESTS = new ThreadLocal<Map<String, MessageDigest>>() {
+		@Override
+		protected Map<String, MessageDigest> initialValue() {
+			return new HashMap<>();
+		}
+	};
+
+	/**
+	 * 计算字节数组的摘要。
+	 *
+	 * @author Lucifer Wong
+	 * @param algorithm
+	 *            摘要算法，如 MD5、SHA-1
+	 * @param bytes
+	 *            源字节数组
+	 * @return 摘要字节
+	 */
+	public static byte[] digest(String algorithm, byte[] bytes) {
+		MessageDigest md = getDigest(algorithm);
+		try {
+			return md.digest(bytes);
+		} finally {
+			md.reset();
+		}
+	}
+
+	/**
+	 * 计算字节数组的摘要并返回16进制字符串。
+	 *
+	 * @author Lucifer Wong
+	 * @param algorithm
+	 *            摘要算法，如 MD5、SHA-1
+	 * @param bytes
+	 *            源字节数组
+	 * @param upperCase
+	 *            是否使用大写字母
+	 * @return 16进制摘要字符串
+	 */
+	public static String digestHex(String algorithm, byte[] bytes, boolean upperCase) {
+		return toHex(digest(algorithm, bytes), upperCase);
+	}
+
+	/**
+	 * 一次读取文件，同时计算多种摘要。
+	 *
+	 * @author Lucifer Wong
+	 * @param file
+	 *            文件
+	 * @param algorithms
+	 *            摘要算法
+	 * @return 算法名到小写16进制摘要字符串的映射
+	 * @throws IOException
+	 *             读取出错
+	 */
+	public static Map<String, String> digestHex(File file, String... algorithms) throws IOException {
+		return digester(algorithms).update(file).hexAll();
+	}
+
+	/**
+	 * 创建一个增量摘要计算器。
+	 *
+	 * @author Lucifer Wong
+	 * @param algorithms
+	 *            需要同时计算的摘要算法
+	 * @return 增量摘要计算器
+	 */
+	public static Digester digester(String... algorithms) {
+		return new Digester(algorithms);
+	}
+
+	/**
+	 * 取得当前线程缓存的 {@link MessageDigest}，使用前会被重置。
+	 * <p>
+	 * 返回的实例只能在当前线程中使用，并且在下一次对同一算法调用本方法之前应当用完。
+	 *
+	 * @author Lucifer Wong
+	 * @param algorithm
+	 *            摘要算法
+	 * @return 线程内缓存的 MessageDigest
+	 */
+	public static MessageDigest getDigest(String algorithm) {
+		Map<String, MessageDigest> cache = DIGESTS.get();
+		MessageDigest md = cache.get(algorithm);
+		if (md == null) {
+			md = newDigest(algorithm);
+			cache.put(algorithm, md);
+		} else {
+			md.reset();
+		}
+		return md;
+	}
+
+	/**
+	 * 计算字节数组的 MD5 摘要，返回小写16进制字符串。
+	 *
+	 * @author Lucifer Wong
+	 * @param bytes
+	 *            源字节数组
+	 * @return 32位16进制字符串
+	 */
+	public static String md5Hex(byte[] bytes) {
+		return digestHex(MD5, bytes, false);
+	}
+
+	/**
+	 * 计算文件的 MD5 摘要，返回小写16进制字符串。
+	 *
+	 * @author Lucifer Wong
+	 * @param file
+	 *            文件
+	 * @return 32位16进制字符串
+	 * @throws IOException
+	 *             读取出错
+	 */
+	public static String md5Hex(File file) throws IOException {
+		return new Digester(MD5, getDigest(MD5)).update(file).hex(MD5);
+	}
+
+	/**
+	 * 计算字节数组的 SHA-1 摘要，返回小写16进制字符串。
+	 *
+	 * @author Lucifer Wong
+	 * @param bytes
+	 *            源字节数组
+	 * @return 40位16进制字符串
+	 */
+	public static String sha1Hex(byte[] bytes) {
+		return digestHex(SHA_1, bytes, false);
+	}
+
+	/**
+	 * 计算字节数组的 SHA-256 摘要，返回小写16进制字符串。
+	 *
+	 * @author Lucifer Wong
+	 * @param bytes
+	 *            源字节数组
+	 * @return 64位16进制字符串
+	 */
+	public static String sha256Hex(byte[] bytes) {
+		return digestHex(SHA_256, bytes, false);
+	}
+
+	/**
+	 * 将摘要字节编码为16进制字符串。
+	 *
+	 * @author Lucifer Wong
+	 * @param bytes
+	 *            摘要字节
+	 * @param upperCase
+	 *            是否使用大写字母
+	 * @return 16进制字符串
+	 */
+	public static String toHex(byte[] bytes, boolean upperCase) {
+		return HexByteUtil.encode(bytes, upperCase);
+	}
+
+	private static MessageDigest newDigest(String algorithm) {
+		try {
+			return MessageDigest.getInstance(algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalArgumentException("Unsupported digest algorithm [" + algorithm + "]", e);
+		}
+	}
+}
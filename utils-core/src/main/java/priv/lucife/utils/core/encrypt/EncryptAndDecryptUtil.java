@@ -18,6 +18,7 @@ import priv.lucife.utils.core.annotation.UBTCompatible;
 /**
  * 加解密工具类<br>
  * 工具类包括：MD5加密、SHA加密、Base64加解密、DES加解密、AES加解密<br>
+ * AES、DES、Base64 通过 {@link CryptoService#getDefault()} 执行，秘钥派生结果会被缓存复用<br>
  *
  * @author Lucifer Wong
  *
@@ -41,7 +42,7 @@ public abstract class EncryptAndDecryptUtil {
 		try {
 			if (value != null && !"".equals(value.trim())) { // value is not
 																// null
-				result = AESUtil.decrypt(value, key);
+				result = CryptoService.getDefault().decrypt(CryptoService.AES, key, value);
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -66,7 +67,7 @@ public abstract class EncryptAndDecryptUtil {
 		try {
 			if (value != null && !"".equals(value.trim())) { // value is not
 																// null
-				result = AESUtil.encrypt(value, key);
+				result = CryptoService.getDefault().encrypt(CryptoService.AES, key, value);
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -87,8 +88,7 @@ public abstract class EncryptAndDecryptUtil {
 		String result = null;
 		try {
 			if (value != null && !"".equals(value.trim())) {
-				byte[] bytes = Base64Util.decrypt(value);
-				result = new String(bytes);
+				result = CryptoService.getDefault().decrypt(CryptoService.BASE64, null, value);
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -107,7 +107,7 @@ public abstract class EncryptAndDecryptUtil {
 	public static String base64Encrypt(String value) {
 		String result = null;
 		if (value != null && !"".equals(value.trim())) {
-			result = Base64Util.encrypt(value.getBytes());
+			result = CryptoService.getDefault().encrypt(CryptoService.BASE64, null, value);
 		}
 		return result;
 
@@ -129,7 +129,7 @@ public abstract class EncryptAndDecryptUtil {
 
 		try {
 			if (value != null && !"".equals(value.trim())) {
-				result = DESUtil.decrypt(value, key);
+				result = CryptoService.getDefault().decrypt(CryptoService.DES, key, value);
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -153,7 +153,7 @@ public abstract class EncryptAndDecryptUtil {
 
 		try {
 			if (value != null && !"".equals(value.trim())) {
-				result = DESUtil.encrypt(value, key);
+				result = CryptoService.getDefault().encrypt(CryptoService.DES, key, value);
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -13,15 +13,15 @@
  */
 package priv.lucife.utils.core.encrypt;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ThreadLocalRandom;
 
 import priv.lucife.utils.core.annotation.UBTCompatible;
-import priv.lucife.utils.core.base.StringUtil;
 
 /**
  * 加解密工具类
- * 
+ * <p>
+ * 36进制编码和自身混淆编码直接在 byte/char 数组上查表完成，不产生中间字符串；对 long 型 ID 的编码结果与先转换为十进制字符串再编码完全一致。
+ *
  * @author Lucifer Wong
  */
 @UBTCompatible
@@ -30,51 +30,110 @@ public abstract class SecurityUtil {
 	private static final char[] chs = { 'L', 'K', 'J', '4', 'D', 'G', 'F', 'V', 'R', 'T', 'Y', 'B', 'N', 'U', 'P', 'W',
 			'3', 'E', '5', 'H', 'M', '7', 'Q', '9', 'S', 'A', 'Z', 'X', '8', 'C', '6', '2' };
 
+	/**
+	 * 36进制数字，与 {@link Long#toString(long, int)} 的输出一致
+	 */
+	private static final char[] RADIX36_DIGITS = "0123456789abcdefghijklmnopqrstuvwxyz".toCharArray();
+
+	/**
+	 * 36进制字符到数值的反向表，非法字符为 -1
+	 */
+	private static final byte[] RADIX36_VALUES = new byte[128];
+
+	/**
+	 * 混淆字符到 {@link #chs} 下标的反向表，非法字符为 0
+	 */
+	private static final byte[] SELF_VALUES = new byte[128];
+
+	/**
+	 * 36进制编码时每组的字节数
+	 */
+	private static final int RADIX36_GROUP_BYTES = 7;
+
+	/**
+	 * 36进制编码时每组的字符数
+	 */
+	private static final int RADIX36_GROUP_CHARS = 11;
+
+	/**
+	 * 自身混淆编码的密文长度
+	 */
+	private static final int SELF_LENGTH = 64;
+
+	/**
+	 * 自身混淆编码单个分组的长度
+	 */
+	private static final int SELF_GROUP = 30;
+
+	/**
+	 * long 的十进制表示最多 20 个字符
+	 */
+	private static final int LONG_DIGITS = 20;
+
+	static {
+		for (int i = 0; i < RADIX36_VALUES.length; i++) {
+			RADIX36_VALUES[i] = -1;
+		}
+		for (int i = 0; i < RADIX36_DIGITS.length; i++) {
+			RADIX36_VALUES[RADIX36_DIGITS[i]] = (byte) i;
+			RADIX36_VALUES[Character.toUpperCase(RADIX36_DIGITS[i])] = (byte) i;
+		}
+		for (int i = 0; i < chs.length; i++) {
+			SELF_VALUES[chs[i]] = (byte) i;
+		}
+	}
+
 	/**
 	 * 使用36进制解码。
-	 * 
+	 *
 	 * @author Lucifer Wong
 	 * @param str
 	 *            编码的字符串
 	 * @return 解码后字符串
 	 */
 	public static String decodeBy36Radix(String str) {
-		int length = str.length();
+		byte[] bytes = new byte[decodedLength36(str.length())];
+		int length = decode36(str, bytes);
+		return new String(bytes, 0, length);
+	}
 
-		byte[] bytes = null;
-		if (length % 11 == 0) {
-			bytes = new byte[length / 11 * 7];
-		} else {
-			bytes = new byte[(length / 11 + 1) * 7];
+	/**
+	 * 使用36进制解码为字节数组。
+	 *
+	 * @author Lucifer Wong
+	 * @param str
+	 *            编码的字符串
+	 * @return 解码后的字节数组
+	 */
+	public static byte[] decodeBy36RadixToBytes(CharSequence str) {
+		byte[] bytes = new byte[decodedLength36(str.length())];
+		int length = decode36(str, bytes);
+		if (length == bytes.length) {
+			return bytes;
 		}
+		byte[] result = new byte[length];
+		System.arraycopy(bytes, 0, result, 0, length);
+		return result;
+	}
 
-		int index = 0;
-		int offset = 0;
-		do {
-			String sub = null;
-			if (index + 11 < length) {
-				sub = str.substring(index, index + 11);
-			} else {
-				sub = str.substring(index);
-			}
-
-			long l = Long.parseLong(sub, 36);
-			for (int i = 0; i < 7; i++) {
-				byte b = (byte) (l >> ((6 - i) * 8));
-
-				if (b != 0) {
-					bytes[offset++] = b;
-				}
-			}
-			index += 11;
-		} while (index < length);
-
-		return new String(bytes, 0, offset);
+	/**
+	 * 将 {@link #encodeBy36Radix(long)} 编码的 ID 解码为 long。
+	 *
+	 * @author Lucifer Wong
+	 * @param str
+	 *            编码的字符串
+	 * @return ID
+	 * @throws NumberFormatException
+	 *             解码结果不是合法的十进制整数
+	 */
+	public static long decodeBy36RadixToLong(CharSequence str) {
+		byte[] bytes = new byte[decodedLength36(str.length())];
+		return parseLong(bytes, decode36(str, bytes));
 	}
 
 	/**
 	 * 自身混淆解密。如果不是合法的加密串（长度不是64个字节），会直接返回原字符串。
-	 * 
+	 *
 	 * @author Lucifer Wong
 	 * @param str
 	 *            加密的字符串
@@ -82,134 +141,156 @@ public abstract class SecurityUtil {
 	 */
 	public static String decodeBySelf(String str) {
 		// 如果不是合法的加密串，则直接返回
-		if (str == null || str.length() != 64) {
+		if (str == null || str.length() != SELF_LENGTH) {
 			return str;
 		}
 
-		byte[] bb = new byte[str.length()];
-		byte[] sb = str.getBytes();
+		byte[] oldb = new byte[SELF_GROUP];
+		int length = decodeSelf(str, oldb);
+		return new String(oldb, 0, length);
+	}
 
-		for (int i = 0; i < sb.length; i++) {
-			for (int j = 0; j < 32; j++) {
-				if (((byte) chs[j]) == sb[i]) {
-					bb[i] = (byte) j;
-					break;
-				}
-			}
+	/**
+	 * 将 {@link #encodeBySelf(long)} 加密的 ID 解密为 long。
+	 *
+	 * @author Lucifer Wong
+	 * @param str
+	 *            加密的字符串
+	 * @return ID
+	 * @throws NumberFormatException
+	 *             不是合法的加密串，或解密结果不是合法的十进制整数
+	 */
+	public static long decodeBySelfToLong(CharSequence str) {
+		if (str == null || str.length() != SELF_LENGTH) {
+			throw new NumberFormatException("Illegal self encoded id [" + str + "]");
 		}
+		byte[] oldb = new byte[SELF_GROUP];
+		return parseLong(oldb, decodeSelf(str, oldb));
+	}
 
-		int sl = bb[bb.length - 2];
-		int p1 = bb[0];
-		int p2 = bb[1];
-
-		byte[] bb1 = new byte[30];
-		byte[] bb2 = new byte[30];
-
-		int bb2l;
-		if (sl % 2 == 0) {
-			bb2l = sl;
-		} else {
-			bb2l = sl - 1;
-		}
+	/**
+	 * 使用36进制对字节数组进行编码。
+	 *
+	 * @author Lucifer Wong
+	 * @param bytes
+	 *            源字节数组
+	 * @return 编码后字符串
+	 */
+	public static String encodeBy36Radix(byte[] bytes) {
+		char[] chars = new char[encodedLength36(bytes.length)];
+		int length = encode36(bytes, 0, bytes.length, chars);
+		return new String(chars, 0, length);
+	}
 
-		System.arraycopy(bb, 2, bb1, 0, bb1.length);
-		System.arraycopy(bb, 2 + bb1.length, bb2, 0, bb2.length);
+	/**
+	 * 使用36进制对 ID 进行编码，结果与 {@code encodeBy36Radix(String.valueOf(id))} 相同。
+	 *
+	 * @author Lucifer Wong
+	 * @param id
+	 *            ID
+	 * @return 编码后字符串
+	 */
+	public static String encodeBy36Radix(long id) {
+		byte[] digits = new byte[LONG_DIGITS];
+		char[] chars = new char[encodedLength36(LONG_DIGITS)];
+		return encode36(id, digits, chars);
+	}
 
-		unsort(bb1, p1);
-		unsort(bb2, p2);
-		byte[] oldb = new byte[sl];
-		for (int i = 0; i < sl; i += 2) {
-			oldb[i] = (byte) (getIntFrom32(bb1[i], bb1[i + 1]) / 4);
-			if (i + 1 < bb2l) {
-				oldb[i + 1] = (byte) (getIntFrom32(bb2[i], bb2[i + 1]) / 4);
-			}
+	/**
+	 * 批量使用36进制对 ID 进行编码，编码过程中复用同一组缓冲区。
+	 *
+	 * @author Lucifer Wong
+	 * @param ids
+	 *            ID 数组
+	 * @return 编码后字符串数组，与 ids 一一对应
+	 */
+	public static String[] encodeBy36Radix(long[] ids) {
+		byte[] digits = new byte[LONG_DIGITS];
+		char[] chars = new char[encodedLength36(LONG_DIGITS)];
+		String[] result = new String[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			result[i] = encode36(ids[i], digits, chars);
 		}
-
-		return new String(oldb);
+		return result;
 	}
 
 	/**
 	 * 使用36进制进行编码。
-	 * 
+	 *
 	 * @author Lucifer Wong
 	 * @param str
 	 *            源字符串
 	 * @return 编码后字符串
 	 */
 	public static String encodeBy36Radix(String str) {
-		byte[] bytes = str.getBytes();
-		int index = 0;
-		StringBuilder StringBuilder = new StringBuilder();
-		boolean isSeven = true;
-
-		do {
-			byte[] longBytes = new byte[8];
-
-			if (index + 7 < bytes.length) {
-				System.arraycopy(bytes, index, longBytes, 1, 7);
-			} else {
-				int i = bytes.length - index;
-				System.arraycopy(bytes, index, longBytes, 8 - i, i);
-				isSeven = false;
-			}
-
-			long longval = toLong(longBytes);
-
-			if (isSeven) {
-				StringBuilder.append(StringUtil.enoughZero(Long.toString(longval, 36), 11));
-			} else {
-				StringBuilder.append(Long.toString(longval, 36));
-			}
-
-			index += 7;
-		} while (index < bytes.length);
-
-		return StringBuilder.toString();
+		return encodeBy36Radix(str.getBytes());
 	}
 
 	/**
 	 * 使用 MD5 对字节数组加密。
-	 * 
+	 *
 	 * @author Lucifer Wong
 	 * @param bytes
 	 *            源字符 byte 数组
 	 * @return 加密后字符串
 	 */
 	public static String encodeByMD5(byte[] bytes) {
-		try {
-			MessageDigest md = MessageDigest.getInstance("MD5");
-			md.update(bytes);
-			return StringUtil.toHexString(md.digest());
-		} catch (NoSuchAlgorithmException e) {
-			throw new RuntimeException("Could not encodeByMD5", e);
-		}
+		return DigestUtil.md5Hex(bytes);
 	}
 
 	/**
 	 * 使用 MD5 对字符串加密。
-	 * 
+	 *
 	 * @author Lucifer Wong
 	 * @param str
 	 *            源字符串
 	 * @return 加密后字符串
 	 */
 	public static String encodeByMD5(String str) {
-		try {
-			MessageDigest md = MessageDigest.getInstance("MD5");
-			md.update(str.getBytes());
-			return StringUtil.toHexString(md.digest());
-		} catch (NoSuchAlgorithmException e) {
-			throw new RuntimeException("Could not encodeByMD5", e);
+		return DigestUtil.md5Hex(str.getBytes());
+	}
+
+	/**
+	 * 自身混淆加密 ID，结果可以用 {@link #decodeBySelf(String)} 或 {@link #decodeBySelfToLong(CharSequence)} 解密。
+	 *
+	 * @author Lucifer Wong
+	 * @param id
+	 *            ID
+	 * @return 加密后字符串
+	 */
+	public static String encodeBySelf(long id) {
+		byte[] digits = new byte[LONG_DIGITS];
+		byte[] scratch = new byte[SELF_GROUP * 2];
+		char[] chars = new char[SELF_LENGTH];
+		return encodeSelf(id, digits, scratch, chars);
+	}
+
+	/**
+	 * 批量自身混淆加密 ID，加密过程中复用同一组缓冲区。
+	 *
+	 * @author Lucifer Wong
+	 * @param ids
+	 *            ID 数组
+	 * @return 加密后字符串数组，与 ids 一一对应
+	 */
+	public static String[] encodeBySelf(long[] ids) {
+		byte[] digits = new byte[LONG_DIGITS];
+		byte[] scratch = new byte[SELF_GROUP * 2];
+		char[] chars = new char[SELF_LENGTH];
+		String[] result = new String[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			result[i] = encodeSelf(ids[i], digits, scratch, chars);
 		}
+		return result;
 	}
 
 	/**
 	 * 自身混淆加密，最多只能加密 30 个字节长度的字符串。
-	 * 
+	 *
 	 * <p>
 	 * <b>对同一个字符串，加密后的密文可能是不相同的，所以在判断密码是否相等时，不能采用密文进行比对，必须采用明文比对。</b>
 	 * </p>
-	 * 
+	 *
 	 * @author Lucifer Wong
 	 * @param source
 	 *            源字符串
@@ -220,74 +301,215 @@ public abstract class SecurityUtil {
 			throw new NullPointerException("source can't be null");
 		}
 
-		if (source.length() > 30) {
+		if (source.length() > SELF_GROUP) {
 			throw new IllegalArgumentException(
 					"the length of source must be less than 31, actual was " + source.length());
 		}
 
-		String plainText = source;
-		byte[] plainTextBytes = plainText.getBytes();
+		byte[] plainTextBytes = source.getBytes();
+		char[] chars = new char[SELF_LENGTH];
+		encodeSelf(plainTextBytes, 0, plainTextBytes.length, source.length(), new byte[SELF_GROUP * 2], chars);
+		return new String(chars);
+	}
 
-		byte[] encodedBytes1 = new byte[30];
-		byte[] encodedBytes2 = new byte[30];
+	/**
+	 * 使用 SHA1 加密。
+	 *
+	 * @author Lucifer Wong
+	 * @param str
+	 *            源字符串
+	 * @return 加密后字符串
+	 */
+	public static String encodeBySHA1(String str) {
+		return DigestUtil.sha1Hex(str.getBytes());
+	}
 
-		int n1 = 0, n2 = 0;
-		for (int i = 0; i < plainTextBytes.length; i++) {
-			if ((i + 1) % 2 != 0) { // 奇数位
-				encodedBytes1[n1++] = (byte) get32Hi(plainTextBytes[i] * 4);
-				encodedBytes1[n1++] = (byte) get32Low(plainTextBytes[i] * 4);
-			} else { // 偶数位
-				encodedBytes2[n2++] = (byte) get32Hi(plainTextBytes[i] * 4);
-				encodedBytes2[n2++] = (byte) get32Low(plainTextBytes[i] * 4);
+	/**
+	 * 把每组11个36进制字符还原为7个字节，值为0的字节会被丢弃。
+	 *
+	 * @author Lucifer Wong
+	 * @param str
+	 *            编码的字符串
+	 * @param bytes
+	 *            目标数组
+	 * @return 写入的字节数
+	 */
+	private static int decode36(CharSequence str, byte[] bytes) {
+		int length = str.length();
+		int index = 0;
+		int offset = 0;
+		do {
+			int end = Math.min(index + RADIX36_GROUP_CHARS, length);
+			long l = parseRadix36(str, index, end);
+			for (int i = 0; i < RADIX36_GROUP_BYTES; i++) {
+				byte b = (byte) (l >> ((6 - i) * 8));
+
+				if (b != 0) {
+					bytes[offset++] = b;
+				}
 			}
-		}
+			index += RADIX36_GROUP_CHARS;
+		} while (index < length);
+		return offset;
+	}
 
-		while (n1 < 30) {
-			encodedBytes1[n1++] = (byte) getRandom(32);
-		}
+	/**
+	 * 自身混淆解密的核心实现，直接按下标还原两个分组的旋转，不复制中间数组。
+	 *
+	 * @author Lucifer Wong
+	 * @param str
+	 *            64位加密串
+	 * @param oldb
+	 *            目标数组
+	 * @return 写入的字节数
+	 */
+	private static int decodeSelf(CharSequence str, byte[] oldb) {
+		int sl = selfValue(str.charAt(SELF_LENGTH - 2));
+		int p1 = selfValue(str.charAt(0));
+		int p2 = selfValue(str.charAt(1));
 
-		while (n2 < 30) {
-			encodedBytes2[n2++] = (byte) getRandom(32);
+		int bb2l;
+		if (sl % 2 == 0) {
+			bb2l = sl;
+		} else {
+			bb2l = sl - 1;
 		}
 
-		int pos1 = getRandom(plainTextBytes.length);
-		int pos2 = getRandom(plainTextBytes.length);
-		sort(encodedBytes1, pos1);
-		sort(encodedBytes2, pos2);
-		int check = (sumSqual(encodedBytes1) + sumSqual(encodedBytes2)) % 32;
-
-		byte[] encodedArray = new byte[64];
-		encodedArray[0] = (byte) pos1;
-		encodedArray[1] = (byte) pos2;
-		System.arraycopy(encodedBytes1, 0, encodedArray, 2, encodedBytes1.length);
-		System.arraycopy(encodedBytes2, 0, encodedArray, 2 + encodedBytes1.length, encodedBytes2.length);
-		encodedArray[encodedArray.length - 2] = (byte) plainText.length();
-		encodedArray[encodedArray.length - 1] = (byte) check;
-		byte[] ps = new byte[encodedArray.length];
-
-		for (int i = 0; i < encodedArray.length; i++) {
-			ps[i] = (byte) chs[encodedArray[i]];
+		for (int i = 0; i < sl; i += 2) {
+			oldb[i] = (byte) (getIntFrom32(selfValue(str, 2, i, p1), selfValue(str, 2, i + 1, p1)) / 4);
+			if (i + 1 < bb2l) {
+				oldb[i + 1] = (byte) (getIntFrom32(selfValue(str, 2 + SELF_GROUP, i, p2),
+						selfValue(str, 2 + SELF_GROUP, i + 1, p2)) / 4);
+			}
 		}
+		return sl;
+	}
 
-		return new String(ps);
+	private static int decodedLength36(int length) {
+		return (length + RADIX36_GROUP_CHARS - 1) / RADIX36_GROUP_CHARS * RADIX36_GROUP_BYTES
+				+ (length == 0 ? RADIX36_GROUP_BYTES : 0);
 	}
 
 	/**
-	 * 使用 SHA1 加密。
-	 * 
+	 * 36进制编码的核心实现：每7个字节作为一个 long 转为36进制，除最后一组外都左补0到11位。
+	 *
 	 * @author Lucifer Wong
-	 * @param str
-	 *            源字符串
-	 * @return 加密后字符串
+	 * @param bytes
+	 *            源字节数组
+	 * @param offset
+	 *            起始位置
+	 * @param count
+	 *            字节数
+	 * @param chars
+	 *            目标数组
+	 * @return 写入的字符数
 	 */
-	public static String encodeBySHA1(String str) {
-		try {
-			MessageDigest md = MessageDigest.getInstance("SHA-1");
-			md.update(str.getBytes());
-			return StringUtil.toHexString(md.digest());
-		} catch (NoSuchAlgorithmException e) {
-			throw new RuntimeException("Could not encodeBySHA1", e);
+	private static int encode36(byte[] bytes, int offset, int count, char[] chars) {
+		int index = 0;
+		int pos = 0;
+		do {
+			int n = Math.min(RADIX36_GROUP_BYTES, count - index);
+			long longval = 0;
+			for (int i = 0; i < n; i++) {
+				longval = (longval << 8) | (bytes[offset + index + i] & 0xff);
+			}
+
+			int start = pos;
+			pos += RADIX36_GROUP_CHARS;
+			int p = pos;
+			do {
+				chars[--p] = RADIX36_DIGITS[(int) (longval % 36)];
+				longval /= 36;
+			} while (longval != 0);
+
+			if (index + RADIX36_GROUP_BYTES < count) {
+				while (p > start) {
+					chars[--p] = '0';
+				}
+			} else if (p > start) {
+				// 最后一组不补0，把数字移到分组开头
+				System.arraycopy(chars, p, chars, start, pos - p);
+				pos = start + (pos - p);
+			}
+
+			index += RADIX36_GROUP_BYTES;
+		} while (index < count);
+		return pos;
+	}
+
+	private static String encode36(long id, byte[] digits, char[] chars) {
+		int start = toDecimalBytes(id, digits);
+		int length = encode36(digits, start, digits.length - start, chars);
+		return new String(chars, 0, length);
+	}
+
+	private static int encodedLength36(int length) {
+		return Math.max(1, (length + RADIX36_GROUP_BYTES - 1) / RADIX36_GROUP_BYTES) * RADIX36_GROUP_CHARS;
+	}
+
+	/**
+	 * 自身混淆加密的核心实现，两个分组的旋转直接在写出时按下标完成。
+	 *
+	 * @author Lucifer Wong
+	 * @param plainTextBytes
+	 *            明文字节
+	 * @param offset
+	 *            起始位置
+	 * @param count
+	 *            字节数
+	 * @param textLength
+	 *            写入密文的明文长度
+	 * @param scratch
+	 *            60个字节的临时数组，前后30个分别为两个分组
+	 * @param chars
+	 *            64位目标数组
+	 */
+	private static void encodeSelf(byte[] plainTextBytes, int offset, int count, int textLength, byte[] scratch,
+			char[] chars) {
+		int n1 = 0, n2 = SELF_GROUP;
+		for (int i = 0; i < count; i++) {
+			int value = plainTextBytes[offset + i] * 4;
+			if ((i + 1) % 2 != 0) { // 奇数位
+				scratch[n1++] = (byte) get32Hi(value);
+				scratch[n1++] = (byte) get32Low(value);
+			} else { // 偶数位
+				scratch[n2++] = (byte) get32Hi(value);
+				scratch[n2++] = (byte) get32Low(value);
+			}
+		}
+
+		while (n1 < SELF_GROUP) {
+			scratch[n1++] = (byte) getRandom(32);
+		}
+
+		while (n2 < SELF_GROUP * 2) {
+			scratch[n2++] = (byte) getRandom(32);
 		}
+
+		int pos1 = getRandom(count);
+		int pos2 = getRandom(count);
+
+		int check = 0;
+		for (int i = 0; i < SELF_GROUP * 2; i++) {
+			check += scratch[i] * scratch[i];
+		}
+		check %= 32;
+
+		chars[0] = chs[pos1];
+		chars[1] = chs[pos2];
+		for (int i = 0; i < SELF_GROUP; i++) {
+			chars[2 + i] = chs[scratch[(i + pos1) % SELF_GROUP]];
+			chars[2 + SELF_GROUP + i] = chs[scratch[SELF_GROUP + (i + pos2) % SELF_GROUP]];
+		}
+		chars[SELF_LENGTH - 2] = chs[textLength];
+		chars[SELF_LENGTH - 1] = chs[check];
+	}
+
+	private static String encodeSelf(long id, byte[] digits, byte[] scratch, char[] chars) {
+		int start = toDecimalBytes(id, digits);
+		int count = digits.length - start;
+		encodeSelf(digits, start, count, count, scratch, chars);
+		return new String(chars);
 	}
 
 	/**
@@ -324,55 +546,109 @@ public abstract class SecurityUtil {
 	 * @return
 	 */
 	private static int getRandom(int max) {
-		return (int) (Math.random() * max);
+		return max <= 0 ? 0 : ThreadLocalRandom.current().nextInt(max);
 	}
 
 	/**
+	 * 把十进制 ASCII 数字解析为 long，行为与 {@link Long#parseLong(String)} 一致。
+	 *
 	 * @author Lucifer Wong
-	 * @param b
-	 * @param pos
+	 * @param bytes
+	 *            数字字节
+	 * @param length
+	 *            长度
+	 * @return long 值
 	 */
-	private static void sort(byte[] b, int pos) {
-		byte[] tmp = new byte[pos];
-		System.arraycopy(b, 0, tmp, 0, pos);
-		System.arraycopy(b, pos, b, 0, b.length - pos);
-		System.arraycopy(tmp, 0, b, b.length - pos, pos);
+	private static long parseLong(byte[] bytes, int length) {
+		if (length == 0) {
+			throw new NumberFormatException("For input string: \"\"");
+		}
+		boolean negative = bytes[0] == '-';
+		int i = negative || bytes[0] == '+' ? 1 : 0;
+		if (i == length) {
+			throw new NumberFormatException("For input string: \"" + new String(bytes, 0, length) + "\"");
+		}
+		long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long result = 0;
+		for (; i < length; i++) {
+			int digit = bytes[i] - '0';
+			// 以负数累加，避免 Long.MIN_VALUE 溢出
+			if (digit < 0 || digit > 9 || result < (limit + digit) / 10) {
+				throw new NumberFormatException("For input string: \"" + new String(bytes, 0, length) + "\"");
+			}
+			result = result * 10 - digit;
+		}
+		return negative ? result : -result;
 	}
 
 	/**
+	 * 解析 [from, to) 之间的36进制字符，遇到表外字符时交给 {@link Long#parseLong(String, int)} 处理。
+	 *
 	 * @author Lucifer Wong
-	 * @param b
-	 * @return
 	 */
-	private static int sumSqual(byte[] b) {
-		int sum = 0;
-		for (int i = 0; i < b.length; i++) {
-			sum += (int) Math.pow(b[i], 2);
+	private static long parseRadix36(CharSequence str, int from, int to) {
+		long value = 0;
+		for (int i = from; i < to; i++) {
+			char c = str.charAt(i);
+			int digit = c < 128 ? RADIX36_VALUES[c] : -1;
+			if (digit < 0) {
+				return Long.parseLong(str.subSequence(from, to).toString(), 36);
+			}
+			value = value * 36 + digit;
 		}
-		return sum;
+		if (from == to) {
+			throw new NumberFormatException("For input string: \"\"");
+		}
+		return value;
+	}
+
+	private static int selfValue(char c) {
+		return c < 128 ? SELF_VALUES[c] : 0;
 	}
 
 	/**
+	 * 取得分组在还原旋转之后第 index 位的值。
+	 *
 	 * @author Lucifer Wong
-	 * @param bytes
-	 * @return
+	 * @param str
+	 *            加密串
+	 * @param groupStart
+	 *            分组在加密串中的起始位置
+	 * @param index
+	 *            还原后的下标
+	 * @param pos
+	 *            旋转位数
+	 * @return 值
 	 */
-	private static long toLong(byte[] bytes) {
-		return ((((long) bytes[0] & 0xff) << 56) | (((long) bytes[1] & 0xff) << 48) | (((long) bytes[2] & 0xff) << 40)
-				| (((long) bytes[3] & 0xff) << 32) | (((long) bytes[4] & 0xff) << 24) | (((long) bytes[5] & 0xff) << 16)
-				| (((long) bytes[6] & 0xff) << 8) | (((long) bytes[7] & 0xff) << 0));
+	private static int selfValue(CharSequence str, int groupStart, int index, int pos) {
+		return selfValue(str.charAt(groupStart + ((index - pos) % SELF_GROUP + SELF_GROUP) % SELF_GROUP));
 	}
 
 	/**
+	 * 把 long 的十进制 ASCII 表示从后往前写入数组。
+	 *
 	 * @author Lucifer Wong
-	 * @param b
-	 * @param pos
+	 * @param value
+	 *            long 值
+	 * @param digits
+	 *            20个字节的数组
+	 * @return 第一个数字所在的下标
 	 */
-	private static void unsort(byte[] b, int pos) {
-		byte[] tmp = new byte[pos];
-		System.arraycopy(b, b.length - pos, tmp, 0, pos);
-		System.arraycopy(b, 0, b, pos, b.length - pos);
-		System.arraycopy(tmp, 0, b, 0, pos);
+	private static int toDecimalBytes(long value, byte[] digits) {
+		int pos = digits.length;
+		boolean negative = value < 0;
+		if (!negative) {
+			value = -value;
+		}
+		// 以负数计算，兼容 Long.MIN_VALUE
+		do {
+			digits[--pos] = (byte) ('0' - (value % 10));
+			value /= 10;
+		} while (value != 0);
+		if (negative) {
+			digits[--pos] = '-';
+		}
+		return pos;
 	}
 
 }
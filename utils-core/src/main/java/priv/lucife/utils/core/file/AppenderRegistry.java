@@ -0,0 +1,284 @@
+/**
+ * Copyright (C) 2017 Lucifer Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package priv.lucife.utils.core.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link FileUtil#appendString(String, String)} 使用的按路径共享的 {@link AsyncFileAppender}，空闲超时后由后台线程关闭，JVM 退出时写完剩余内容。
+ * 关闭和刷盘都在锁外进行，一个文件写得慢不影响其他文件。
+ *
+ * @author Lucifer Wong
+ */
+final class AppenderRegistry {
+
+	/**
+	 * 追加器空闲多久后自动关闭（毫秒）
+	 */
+	static final long IDLE_MILLIS = 60000;
+
+	private static class DefaultHolder {
+		private static final AppenderRegistry INSTANCE = new AppenderRegistry(IDLE_MILLIS);
+
+		static {
+			Runtime.getRuntime().addShutdownHook(new Thread("file-util-appenders-shutdown") {
+				@Override
+				public void run() {
+					INSTANCE.closeAll();
+				}
+			});
+			ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "file-util-appenders-reaper");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			reaper.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					INSTANCE.closeIdle();
+				}
+			}, IDLE_MILLIS / 2, IDLE_MILLIS / 2, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * @return FileUtil 使用的全局实例，第一次调用时启动回收线程
+	 */
+	static AppenderRegistry getDefault() {
+		return DefaultHolder.INSTANCE;
+	}
+
+	/**
+	 * 共享的追加器，记录正在追加的线程数，没有线程追加时才能关闭
+	 */
+	private static final class Shared {
+		final AsyncFileAppender appender;
+		/**
+		 * 低位是正在追加的线程数，符号位表示已封住，不再接受新的追加
+		 */
+		final AtomicInteger users = new AtomicInteger();
+		/**
+		 * 关闭并移出注册表后打开，同一路径的新追加器要等旧的写完
+		 */
+		final CountDownLatch closed = new CountDownLatch(1);
+		volatile long lastUsed = System.nanoTime();
+
+		Shared(AsyncFileAppender appender) {
+			this.appender = appender;
+		}
+
+		boolean acquire() {
+			while (true) {
+				int n = users.get();
+				if (n < 0) {
+					return false;
+				}
+				if (users.compareAndSet(n, n + 1)) {
+					return true;
+				}
+			}
+		}
+
+		void release() {
+			lastUsed = System.nanoTime();
+			users.decrementAndGet();
+		}
+
+		/**
+		 * 没有线程在追加时封住
+		 */
+		boolean sealIfIdle() {
+			return users.compareAndSet(0, Integer.MIN_VALUE);
+		}
+
+		/**
+		 * 封住，不等待正在进行的追加
+		 *
+		 * @return 是否由本次调用封住
+		 */
+		boolean seal() {
+			while (true) {
+				int n = users.get();
+				if (n < 0) {
+					return false;
+				}
+				if (users.compareAndSet(n, n | Integer.MIN_VALUE)) {
+					return true;
+				}
+			}
+		}
+
+		void awaitUsers() {
+			while (users.get() != Integer.MIN_VALUE) {
+				Thread.yield();
+			}
+		}
+	}
+
+	private final long idleNanos;
+
+	private final ConcurrentMap<String, Shared> appenders = new ConcurrentHashMap<>();
+
+	AppenderRegistry(long idleMillis) {
+		this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+	}
+
+	/**
+	 * 追加字符串，写入失败的追加器被关闭，下次追加时重新打开
+	 */
+	void append(String path, String str) {
+		String key = new File(path).getAbsolutePath();
+		while (true) {
+			Shared shared = appenders.get(key);
+			if (shared == null) {
+				try {
+					shared = new Shared(new AsyncFileAppender(new File(key)));
+				} catch (IOException e) {
+					throw new RuntimeException("Could not open appender[" + path + "]", e);
+				}
+				Shared existing = appenders.putIfAbsent(key, shared);
+				if (existing != null) {
+					// 另一个线程先打开了，这个还没写过，直接关闭
+					FileUtil.close(shared.appender);
+					shared = existing;
+				}
+			}
+			if (!shared.acquire()) {
+				awaitClosed(shared);
+				continue;
+			}
+			boolean failed = false;
+			try {
+				shared.appender.append(str);
+				return;
+			} catch (IllegalStateException e) {
+				// 持有期间不会被关闭，这里是写入失败
+				failed = true;
+				throw e;
+			} finally {
+				shared.release();
+				if (failed && shared.seal()) {
+					closeQuietly(key, shared);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 写完并关闭某个路径的追加器
+	 *
+	 * @return 是否有打开的追加器
+	 */
+	boolean close(String path) throws IOException {
+		String key = new File(path).getAbsolutePath();
+		Shared shared = appenders.get(key);
+		if (shared == null) {
+			return false;
+		}
+		if (shared.seal()) {
+			close(key, shared);
+			return true;
+		}
+		// 正由其他线程关闭
+		awaitClosed(shared);
+		return true;
+	}
+
+	/**
+	 * 等待已追加的内容全部写入文件
+	 */
+	void flush() {
+		for (Map.Entry<String, Shared> entry : appenders.entrySet()) {
+			try {
+				entry.getValue().appender.flush();
+			} catch (IOException e) {
+				throw new RuntimeException("Could not flush appender[" + entry.getKey() + "]", e);
+			}
+		}
+	}
+
+	/**
+	 * 关闭空闲超时的追加器
+	 */
+	void closeIdle() {
+		long now = System.nanoTime();
+		for (Map.Entry<String, Shared> entry : appenders.entrySet()) {
+			Shared shared = entry.getValue();
+			if (now - shared.lastUsed >= idleNanos && shared.sealIfIdle()) {
+				closeQuietly(entry.getKey(), shared);
+			}
+		}
+	}
+
+	/**
+	 * 关闭全部追加器
+	 */
+	void closeAll() {
+		for (Map.Entry<String, Shared> entry : appenders.entrySet()) {
+			if (entry.getValue().seal()) {
+				closeQuietly(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * @return 打开的追加器数
+	 */
+	int size() {
+		return appenders.size();
+	}
+
+	/**
+	 * 关闭已封住的追加器，等待正在进行的追加完成后在锁外写完、刷盘，再移出注册表
+	 */
+	private void close(String key, Shared shared) throws IOException {
+		try {
+			shared.awaitUsers();
+			shared.appender.close();
+		} finally {
+			appenders.remove(key, shared);
+			shared.closed.countDown();
+		}
+	}
+
+	private void closeQuietly(String key, Shared shared) {
+		try {
+			close(key, shared);
+		} catch (IOException e) {
+			// 忽略
+		}
+	}
+
+	private static void awaitClosed(Shared shared) {
+		try {
+			shared.closed.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the previous appender to close", e);
+		}
+	}
+}
@@ -0,0 +1,445 @@
+/**
+ * Copyright (C) 2017 Lucifer Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package priv.lucife.utils.core.file;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import priv.lucife.utils.core.annotation.UBTCompatible;
+
+/**
+ * 异步批量追加写文件。
+ * <p>
+ * {@link #append(String)} 只把字符串放入无锁的环形队列；后台写线程每次取出一批，用 {@link FileChannel#write(ByteBuffer[])}
+ * 一次性聚集写入，省去每次写入打开、关闭文件的系统调用。是否以及何时调用 {@link FileChannel#force(boolean)} 由 {@link ForcePolicy}
+ * 决定。队列满时 {@link #append(String)} 阻塞等待（背压），{@link #tryAppend(String)} 直接返回 false。
+ * <p>
+ * 用完后必须调用 {@link #close()}，否则队列中未写入的内容会丢失。
+ *
+ * @author Lucifer Wong
+ */
+@UBTCompatible
+public final class AsyncFileAppender implements Closeable {
+
+	/**
+	 * 刷盘策略
+	 *
+	 * @author Lucifer Wong
+	 */
+	public enum ForcePolicy {
+		/**
+		 * 不主动刷盘，由操作系统决定
+		 */
+		NONE,
+		/**
+		 * 每隔固定时间刷盘一次
+		 */
+		INTERVAL,
+		/**
+		 * 每写完一批刷盘一次
+		 */
+		EVERY_BATCH
+	}
+
+	/**
+	 * 默认队列容量
+	 */
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	/**
+	 * 每批最多写入的条数
+	 */
+	private static final int MAX_BATCH = 1024;
+
+	/**
+	 * 队列为空时写线程的最长等待时间
+	 */
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private final File file;
+	private final Charset charset;
+	private final ForcePolicy forcePolicy;
+	private final long forceIntervalNanos;
+	private final FileChannel channel;
+
+	private final AtomicReferenceArray<String> slots;
+	private final int mask;
+	/**
+	 * 下一个可占用的序号。关闭时置上符号位封住队尾，之后的占位一律失败，封住之前占到的序号都会被写入
+	 */
+	private final AtomicLong tail = new AtomicLong();
+	private volatile long head;
+
+	private final Thread writer;
+	private volatile boolean closed;
+	private volatile boolean idle;
+	private volatile IOException failure;
+	private final Object flushLock = new Object();
+
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong blocked = new AtomicLong();
+	private volatile long bytes;
+	private volatile long batches;
+	private volatile long totalFlushNanos;
+	private volatile long maxFlushNanos;
+	private volatile long lastFlushNanos;
+
+	/**
+	 * 以默认字符集、默认容量、每秒刷盘一次创建
+	 *
+	 * @param file
+	 *            目标文件，不存在时创建
+	 * @throws IOException
+	 *             打开文件出错
+	 */
+	public AsyncFileAppender(File file) throws IOException {
+		this(file, Charset.defaultCharset(), DEFAULT_CAPACITY, ForcePolicy.INTERVAL, 1000);
+	}
+
+	/**
+	 * 创建
+	 *
+	 * @param file
+	 *            目标文件，不存在时创建
+	 * @param charset
+	 *            字符集
+	 * @param capacity
+	 *            队列容量，向上取整为 2 的幂
+	 * @param forcePolicy
+	 *            刷盘策略
+	 * @param forceIntervalMillis
+	 *            {@link ForcePolicy#INTERVAL} 的刷盘间隔（毫秒）
+	 * @throws IOException
+	 *             打开文件出错
+	 */
+	@SuppressWarnings("resource")
+	public AsyncFileAppender(File file, Charset charset, int capacity, ForcePolicy forcePolicy,
+			long forceIntervalMillis) throws IOException {
+		if (capacity <= 0 || capacity > (1 << 30)) {
+			throw new IllegalArgumentException("capacity must be in (0, 2^30], actual was " + capacity);
+		}
+		int size = Integer.highestOneBit(capacity - 1) << 1;
+		if (capacity == 1) {
+			size = 1;
+		}
+		this.file = file;
+		this.charset = charset;
+		this.forcePolicy = forcePolicy;
+		this.forceIntervalNanos = TimeUnit.MILLISECONDS.toNanos(forceIntervalMillis);
+		this.slots = new AtomicReferenceArray<>(size);
+		this.mask = size - 1;
+		this.channel = new FileOutputStream(file, true).getChannel();
+		this.writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drainLoop();
+			}
+		}, "async-file-appender-" + file.getName());
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * 追加字符串，队列满时阻塞直到有空位
+	 *
+	 * @author Lucifer Wong
+	 * @param str
+	 *            字符串
+	 * @throws IllegalStateException
+	 *             已关闭或写入已失败
+	 */
+	public void append(String str) {
+		if (offer(str)) {
+			return;
+		}
+		blocked.incrementAndGet();
+		while (!offer(str)) {
+			LockSupport.unpark(writer);
+			LockSupport.parkNanos(50000);
+		}
+	}
+
+	/**
+	 * 尝试追加字符串，队列满时立即返回
+	 *
+	 * @author Lucifer Wong
+	 * @param str
+	 *            字符串
+	 * @return 是否已放入队列
+	 * @throws IllegalStateException
+	 *             已关闭或写入已失败
+	 */
+	public boolean tryAppend(String str) {
+		if (offer(str)) {
+			return true;
+		}
+		rejected.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * 等待调用前追加的内容全部写入文件
+	 *
+	 * @author Lucifer Wong
+	 * @throws IOException
+	 *             写入失败或等待被中断
+	 */
+	public void flush() throws IOException {
+		long target = tail.get() & Long.MAX_VALUE;
+		LockSupport.unpark(writer);
+		synchronized (flushLock) {
+			while (written.get() < target && failure == null && writer.isAlive()) {
+				try {
+					flushLock.wait(10);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while flushing [" + file + "]", e);
+				}
+			}
+		}
+		checkFailure();
+	}
+
+	/**
+	 * 写入全部内容、刷盘并关闭文件。关闭后不能再追加；与关闭并发的追加要么被写入，要么抛出 IllegalStateException。
+	 *
+	 * @throws IOException
+	 *             写入或关闭出错
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		while (true) {
+			long t = tail.get();
+			if (t < 0 || tail.compareAndSet(t, t | Long.MIN_VALUE)) {
+				break;
+			}
+		}
+		LockSupport.unpark(writer);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while closing [" + file + "]", e);
+		} finally {
+			if (channel.isOpen()) {
+				try {
+					channel.force(false);
+				} finally {
+					channel.close();
+				}
+			}
+		}
+		checkFailure();
+	}
+
+	/**
+	 * @return 队列中等待写入的条数
+	 */
+	public long getQueueDepth() {
+		return (tail.get() & Long.MAX_VALUE) - head;
+	}
+
+	/**
+	 * @return 已写入的条数
+	 */
+	public long getWritten() {
+		return written.get();
+	}
+
+	/**
+	 * @return 已写入的字节数
+	 */
+	public long getBytesWritten() {
+		return bytes;
+	}
+
+	/**
+	 * @return 写入的批次数
+	 */
+	public long getBatches() {
+		return batches;
+	}
+
+	/**
+	 * @return {@link #tryAppend(String)} 因队列满被拒绝的次数
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * @return {@link #append(String)} 因队列满而阻塞的次数
+	 */
+	public long getBlocked() {
+		return blocked.get();
+	}
+
+	/**
+	 * @return 每批写入（包括刷盘）的平均耗时（纳秒）
+	 */
+	public long getMeanFlushNanos() {
+		long n = batches;
+		return n == 0 ? 0 : totalFlushNanos / n;
+	}
+
+	/**
+	 * @return 每批写入（包括刷盘）的最大耗时（纳秒）
+	 */
+	public long getMaxFlushNanos() {
+		return maxFlushNanos;
+	}
+
+	/**
+	 * @return 最近一批写入（包括刷盘）的耗时（纳秒）
+	 */
+	public long getLastFlushNanos() {
+		return lastFlushNanos;
+	}
+
+	private boolean offer(String str) {
+		if (str == null) {
+			throw new IllegalArgumentException("str must not be null");
+		}
+		if (failure != null) {
+			throw new IllegalStateException("Appender of [" + file + "] has failed", failure);
+		}
+		while (true) {
+			long t = tail.get();
+			if (t < 0) {
+				// 队尾已被 close 封住，写线程不会再等这一条
+				throw new IllegalStateException("Appender of [" + file + "] is closed");
+			}
+			if (t - head > mask) {
+				return false;
+			}
+			if (tail.compareAndSet(t, t + 1)) {
+				slots.lazySet((int) (t & mask), str);
+				if (idle) {
+					LockSupport.unpark(writer);
+				}
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * 写线程：取出已发布的连续条目，聚集写入
+	 */
+	private void drainLoop() {
+		ByteBuffer[] buffers = new ByteBuffer[MAX_BATCH];
+		long nextForce = System.nanoTime() + forceIntervalNanos;
+		boolean dirty = false;
+		try {
+			while (true) {
+				int count = 0;
+				long total = 0;
+				long h = head;
+				while (count < MAX_BATCH) {
+					int index = (int) (h & mask);
+					String str = slots.get(index);
+					if (str == null) {
+						break;
+					}
+					slots.lazySet(index, null);
+					h++;
+					head = h;
+					buffers[count] = ByteBuffer.wrap(str.getBytes(charset));
+					total += buffers[count].remaining();
+					count++;
+				}
+
+				long now = System.nanoTime();
+				if (count > 0) {
+					long start = now;
+					long remaining = total;
+					while (remaining > 0) {
+						remaining -= channel.write(buffers, 0, count);
+					}
+					dirty = true;
+					if (forcePolicy == ForcePolicy.EVERY_BATCH) {
+						channel.force(false);
+						dirty = false;
+					}
+					now = System.nanoTime();
+					record(now - start, total);
+					for (int i = 0; i < count; i++) {
+						buffers[i] = null;
+					}
+					written.addAndGet(count);
+					synchronized (flushLock) {
+						flushLock.notifyAll();
+					}
+				}
+				if (dirty && forcePolicy == ForcePolicy.INTERVAL && now - nextForce >= 0) {
+					channel.force(false);
+					dirty = false;
+					nextForce = now + forceIntervalNanos;
+				}
+
+				if (count == 0) {
+					long t = tail.get();
+					if (t < 0 && head == (t & Long.MAX_VALUE)) {
+						// 封住队尾之前占位的条目都已写入
+						return;
+					}
+					idle = true;
+					if (head == (t & Long.MAX_VALUE) && !closed) {
+						LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+					} else {
+						// 已占位但尚未发布的条目
+						Thread.yield();
+					}
+					idle = false;
+				}
+			}
+		} catch (IOException e) {
+			failure = e;
+		} finally {
+			synchronized (flushLock) {
+				flushLock.notifyAll();
+			}
+		}
+	}
+
+	private void record(long nanos, long size) {
+		// 只有写线程修改
+		bytes += size;
+		batches++;
+		totalFlushNanos += nanos;
+		lastFlushNanos = nanos;
+		if (nanos > maxFlushNanos) {
+			maxFlushNanos = nanos;
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		if (failure != null) {
+			throw new IOException("Error occurred while appending to [" + file + "]", failure);
+		}
+	}
+}
@@ -13,6 +13,7 @@
  */
 package priv.lucife.utils.core.file;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -21,6 +22,9 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
@@ -28,6 +32,7 @@ import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
 import priv.lucife.utils.core.annotation.UBTCompatible;
+import priv.lucife.utils.core.io.BufferPool;
 
 /**
  * 对文件、输出流提供压缩、解压操作的工具类
@@ -60,6 +65,11 @@ public abstract class CompressUtil {
 
 	private static final int BUFFER_SIZE = 8192;
 
+	/**
+	 * 并行 gzip 压缩的默认块大小，128KB
+	 */
+	public static final int DEFAULT_GZIP_BLOCK_SIZE = 128 * 1024;
+
 	/**
 	 * 释放资源，关闭输入输出流。
 	 * 
@@ -188,9 +198,13 @@ public abstract class CompressUtil {
 			fis = new FileInputStream(srcFile);
 			gzos = new GZIPOutputStream(fos);
 
-			byte[] buffer = new byte[BUFFER_SIZE];
-			for (int len = 0; (len = fis.read(buffer)) != -1;) {
-				gzos.write(buffer, 0, len);
+			byte[] buffer = BufferPool.getDefault().acquire(BUFFER_SIZE);
+			try {
+				for (int len = 0; (len = fis.read(buffer)) != -1;) {
+					gzos.write(buffer, 0, len);
+				}
+			} finally {
+				BufferPool.getDefault().release(buffer);
 			}
 		} catch (IOException e) {
 			throw new IOException("Error occurred while compressing [" + srcFile + "] into [" + dstFile + "].", e);
@@ -199,6 +213,74 @@ public abstract class CompressUtil {
 		}
 	}
 
+	/**
+	 * 对指定的文件以 GZip 方式进行多线程压缩，块大小为 {@value #DEFAULT_GZIP_BLOCK_SIZE} 字节。
+	 * <strong>注意：如果目标文件已经存在，则会覆盖已有文件的内容。</strong>
+	 * 
+	 * @author Lucifer Wong
+	 * @param srcFile
+	 *            源文件，即待压缩的文件
+	 * @param dstFile
+	 *            目标文件，即压缩后的文件
+	 * @param threads
+	 *            压缩线程数
+	 * @throws IOException
+	 *             当源文件不存在、压缩过程中发生错误等情况下抛出此异常
+	 * @see #gzCompress(String, String, int, int)
+	 */
+	public static void gzCompress(String srcFile, String dstFile, int threads) throws IOException {
+		gzCompress(srcFile, dstFile, threads, DEFAULT_GZIP_BLOCK_SIZE);
+	}
+
+	/**
+	 * 对指定的文件以 GZip 方式进行多线程压缩。<strong>注意：如果目标文件已经存在，则会覆盖已有文件的内容。</strong>
+	 * <p>
+	 * 输入按 blockSize 分块，各块以前 32KB 的内容为字典并行压缩，再按顺序拼接为一个标准的单成员 gzip 文件，可以用
+	 * {@link #gzDecompress(String, String)} 或 gunzip 解压。压缩率与单线程接近，每块多出约 5 个字节；同时在内存中的块数为线程数的两倍。
+	 * 
+	 * @author Lucifer Wong
+	 * @param srcFile
+	 *            源文件，即待压缩的文件
+	 * @param dstFile
+	 *            目标文件，即压缩后的文件
+	 * @param threads
+	 *            压缩线程数
+	 * @param blockSize
+	 *            块大小（字节），块越大压缩率越高、占用内存越多
+	 * @throws IOException
+	 *             当源文件不存在、压缩过程中发生错误等情况下抛出此异常
+	 */
+	public static void gzCompress(String srcFile, String dstFile, int threads, int blockSize) throws IOException {
+		File file2Compress = new File(srcFile);
+		if (!file2Compress.exists()) {
+			throw new IOException("The file to compress named [" + srcFile + "] does not exist.");
+		}
+
+		if (!dstFile.endsWith(".gz")) {
+			dstFile = dstFile + ".gz";
+		}
+
+		FileInputStream fis = null;
+		FileOutputStream fos = null;
+		FileChannel channel = null;
+		FileLock lock = null;
+
+		try {
+			fos = new FileOutputStream(dstFile);
+
+			// 取得文件锁，保证在写文件过程中不会被其他进程读到不完整的数据
+			channel = fos.getChannel();
+			lock = channel.lock();
+
+			fis = new FileInputStream(srcFile);
+			ParallelGzipWriter.write(fis, fos, threads, blockSize, Deflater.DEFAULT_COMPRESSION);
+		} catch (IOException e) {
+			throw new IOException("Error occurred while compressing [" + srcFile + "] into [" + dstFile + "].", e);
+		} finally {
+			clean(fis, fos, lock, channel);
+		}
+	}
+
 	/**
 	 * 对指定的文件以 GZip 方式进行解压缩。<strong>注意：如果目标文件已经存在，则会覆盖已有文件的内容。</strong>
 	 * 
@@ -223,9 +305,13 @@ public abstract class CompressUtil {
 			gzis = new GZIPInputStream(new FileInputStream(srcFile));
 			fos = new FileOutputStream(dstFile);
 
-			byte[] buffer = new byte[BUFFER_SIZE];
-			for (int len = 0; (len = gzis.read(buffer)) != -1;) {
-				fos.write(buffer, 0, len);
+			byte[] buffer = BufferPool.getDefault().acquire(BUFFER_SIZE);
+			try {
+				for (int len = 0; (len = gzis.read(buffer)) != -1;) {
+					fos.write(buffer, 0, len);
+				}
+			} finally {
+				BufferPool.getDefault().release(buffer);
 			}
 		} catch (IOException e) {
 			throw new IOException("Error occurred while decompressing [" + srcFile + "] into [" + dstFile + "].", e);
@@ -235,7 +321,8 @@ public abstract class CompressUtil {
 	}
 
 	/**
-	 * 对指定的文件以 Zip 方式进行压缩，目前只支持单个文件，不支持对目录进行压缩操作。
+	 * 对指定的文件以 Zip 方式进行压缩，只支持单个文件，压缩目录或多个文件使用 {@link #zipDirectory(String, String)} 和
+	 * {@link #zipFiles(String, int, File...)}。
 	 * <p>
 	 * <strong>注意：如果目标文件已经存在，则会覆盖已有文件的内容。</strong>
 	 * 
@@ -270,24 +357,28 @@ public abstract class CompressUtil {
 			fis = new FileInputStream(srcFile);
 			zos = new ZipOutputStream(fos);
 
+			// 压缩后的大小由 ZipOutputStream 计算，不能预先设置
 			ZipEntry entry = new ZipEntry(file2Compress.getName());
-			entry.setCompressedSize(file2Compress.length());
 			entry.setTime(file2Compress.lastModified());
 			zos.putNextEntry(entry);
 
-			byte[] buffer = new byte[BUFFER_SIZE];
-			for (int len = 0; (len = fis.read(buffer)) != -1;) {
-				zos.write(buffer, 0, len);
+			byte[] buffer = BufferPool.getDefault().acquire(BUFFER_SIZE);
+			try {
+				for (int len = 0; (len = fis.read(buffer)) != -1;) {
+					zos.write(buffer, 0, len);
+				}
+			} finally {
+				BufferPool.getDefault().release(buffer);
 			}
 		} catch (IOException e) {
-			throw new IOException("Error occurred while compressing [" + srcFile + "] into [" + dstFile + "].");
+			throw new IOException("Error occurred while compressing [" + srcFile + "] into [" + dstFile + "].", e);
 		} finally {
 			clean(fis, zos, lock, channel);
 		}
 	}
 
 	/**
-	 * 对指定的文件以 Zip 方式进行解压缩。目前只支持单个文件，不支持对目录进行解压操作。
+	 * 对指定的文件以 Zip 方式进行解压缩，只解压第一个条目，解压全部条目使用 {@link #zipDecompressAll(String, String)}。
 	 * <p>
 	 * <strong>注意：如果目标文件已经存在，则会覆盖已有文件的内容。</strong>
 	 * 
@@ -317,15 +408,183 @@ public abstract class CompressUtil {
 				throw new IOException("The file to decompress named [" + srcFile + "] has no zip entry.");
 			}
 
-			byte[] buffer = new byte[BUFFER_SIZE];
-			for (int len = 0; (len = zis.read(buffer)) != -1;) {
-				fos.write(buffer, 0, len);
+			byte[] buffer = BufferPool.getDefault().acquire(BUFFER_SIZE);
+			try {
+				for (int len = 0; (len = zis.read(buffer)) != -1;) {
+					fos.write(buffer, 0, len);
+				}
+			} finally {
+				BufferPool.getDefault().release(buffer);
 			}
 		} catch (IOException e) {
-			throw new IOException("Error occurred while decompressing [" + srcFile + "] into [" + dstFile + "].");
+			throw new IOException("Error occurred while decompressing [" + srcFile + "] into [" + dstFile + "].", e);
 		} finally {
 			clean(zis, fos);
 		}
 	}
 
+	/**
+	 * 把目录下的所有文件和子目录压缩为 zip 文件，条目名称相对于该目录，使用与 CPU 核数相同的线程并行压缩。
+	 * <p>
+	 * <strong>注意：如果目标文件已经存在，则会覆盖已有文件的内容。</strong>
+	 * 
+	 * @author Lucifer Wong
+	 * @param srcDir
+	 *            源目录
+	 * @param dstFile
+	 *            目标文件，即压缩后的文件
+	 * @throws IOException
+	 *             当源目录不存在、压缩过程中发生错误等情况下抛出此异常
+	 */
+	public static void zipDirectory(String srcDir, String dstFile) throws IOException {
+		zipDirectory(srcDir, dstFile, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * 把目录下的所有文件和子目录压缩为 zip 文件，条目名称相对于该目录。
+	 * <p>
+	 * 每个文件在工作线程中单独压缩，再按顺序写入目标文件，同时在途的条目数为线程数的两倍，内存占用有界。
+	 * <p>
+	 * <strong>注意：如果目标文件已经存在，则会覆盖已有文件的内容。</strong>
+	 * 
+	 * @author Lucifer Wong
+	 * @param srcDir
+	 *            源目录
+	 * @param dstFile
+	 *            目标文件，即压缩后的文件
+	 * @param parallelism
+	 *            压缩线程数
+	 * @throws IOException
+	 *             当源目录不存在、压缩过程中发生错误等情况下抛出此异常
+	 */
+	public static void zipDirectory(String srcDir, String dstFile, int parallelism) throws IOException {
+		File dir = new File(srcDir);
+		if (!dir.isDirectory()) {
+			throw new IOException("The directory to compress named [" + srcDir + "] does not exist.");
+		}
+		List<ZipArchiveWriter.Entry> entries = new ArrayList<>();
+		collectEntries(dir, "", entries);
+		writeZip(entries, dstFile, parallelism);
+	}
+
+	/**
+	 * 把多个文件或目录压缩为一个 zip 文件，每个文件或目录以自己的名称作为顶层条目，目录递归包含其内容。
+	 * <p>
+	 * <strong>注意：如果目标文件已经存在，则会覆盖已有文件的内容。</strong>
+	 * 
+	 * @author Lucifer Wong
+	 * @param dstFile
+	 *            目标文件，即压缩后的文件
+	 * @param parallelism
+	 *            压缩线程数
+	 * @param files
+	 *            待压缩的文件或目录
+	 * @throws IOException
+	 *             当源文件不存在、压缩过程中发生错误等情况下抛出此异常
+	 */
+	public static void zipFiles(String dstFile, int parallelism, File... files) throws IOException {
+		List<ZipArchiveWriter.Entry> entries = new ArrayList<>();
+		for (File file : files) {
+			if (!file.exists()) {
+				throw new IOException("The file to compress named [" + file + "] does not exist.");
+			}
+			if (file.isDirectory()) {
+				String name = file.getName() + "/";
+				entries.add(new ZipArchiveWriter.Entry(name, null));
+				collectEntries(file, name, entries);
+			} else {
+				entries.add(new ZipArchiveWriter.Entry(file.getName(), file));
+			}
+		}
+		writeZip(entries, dstFile, parallelism);
+	}
+
+	/**
+	 * 解压 zip 文件中的全部条目到目标目录，逐个条目流式写出，内存占用与文件大小无关。
+	 * <p>
+	 * <strong>注意：如果目标文件已经存在，则会覆盖已有文件的内容。</strong>
+	 * 
+	 * @author Lucifer Wong
+	 * @param srcFile
+	 *            源文件，即待解压的文件
+	 * @param dstDir
+	 *            目标目录，不存在时创建
+	 * @throws IOException
+	 *             当源文件不存在、条目路径超出目标目录、解压缩过程中发生错误等情况下抛出此异常
+	 */
+	public static void zipDecompressAll(String srcFile, String dstDir) throws IOException {
+		File compressedFile = new File(srcFile);
+		if (!compressedFile.exists()) {
+			throw new IOException("The file to decompress named [" + srcFile + "] does not exist.");
+		}
+		File root = new File(dstDir).getCanonicalFile();
+		String rootPath = root.getPath() + File.separator;
+
+		byte[] buffer = BufferPool.getDefault().acquire(BUFFER_SIZE);
+		try (ZipInputStream zis = new ZipInputStream(new BufferedInputStream(new FileInputStream(srcFile), 65536))) {
+			for (ZipEntry entry; (entry = zis.getNextEntry()) != null;) {
+				File target = new File(root, entry.getName()).getCanonicalFile();
+				if (!target.getPath().startsWith(rootPath)) {
+					throw new IOException("Zip entry [" + entry.getName() + "] is outside of [" + dstDir + "].");
+				}
+				if (entry.isDirectory()) {
+					target.mkdirs();
+					continue;
+				}
+				target.getParentFile().mkdirs();
+				try (OutputStream out = new FileOutputStream(target)) {
+					for (int len = 0; (len = zis.read(buffer)) != -1;) {
+						out.write(buffer, 0, len);
+					}
+				}
+				if (entry.getTime() != -1) {
+					target.setLastModified(entry.getTime());
+				}
+			}
+		} catch (IOException e) {
+			throw new IOException("Error occurred while decompressing [" + srcFile + "] into [" + dstDir + "].", e);
+		} finally {
+			BufferPool.getDefault().release(buffer);
+		}
+	}
+
+	private static void collectEntries(File dir, String prefix, List<ZipArchiveWriter.Entry> entries) {
+		File[] children = dir.listFiles();
+		if (children == null) {
+			return;
+		}
+		for (File child : children) {
+			if (child.isDirectory()) {
+				String name = prefix + child.getName() + "/";
+				entries.add(new ZipArchiveWriter.Entry(name, null));
+				collectEntries(child, name, entries);
+			} else {
+				entries.add(new ZipArchiveWriter.Entry(prefix + child.getName(), child));
+			}
+		}
+	}
+
+	private static void writeZip(List<ZipArchiveWriter.Entry> entries, String dstFile, int parallelism)
+			throws IOException {
+		if (!dstFile.endsWith(".zip")) {
+			dstFile = dstFile + ".zip";
+		}
+
+		FileOutputStream fos = null;
+		FileChannel channel = null;
+		FileLock lock = null;
+
+		try {
+			fos = new FileOutputStream(dstFile);
+			channel = fos.getChannel();
+			lock = channel.lock();
+
+			ZipArchiveWriter.write(entries, fos, parallelism, Deflater.DEFAULT_COMPRESSION);
+		} catch (IOException e) {
+			throw new IOException("Error occurred while compressing into [" + dstFile + "].", e);
+		} finally {
+			clean(null, fos, lock, channel);
+		}
+	}
+
 }
@@ -0,0 +1,441 @@
+/**
+ * Copyright (C) 2017 Lucifer Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package priv.lucife.utils.core.file;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import priv.lucife.utils.core.annotation.UBTCompatible;
+
+/**
+ * 基于 NIO {@link Files#walkFileTree} 的目录树操作：并行复制、并行删除和惰性遍历。
+ * <p>
+ * 目录树由调用线程遍历，文件的复制和删除分发到有界的工作线程池，队列满时由调用线程自己执行，避免百万级文件的目录一次性堆积任务。
+ *
+ * @author Lucifer Wong
+ */
+@UBTCompatible
+public abstract class FileTreeUtil {
+
+	/**
+	 * 进度回调，在工作线程中调用，实现必须是线程安全的
+	 *
+	 * @author Lucifer Wong
+	 */
+	public interface Progress {
+
+		/**
+		 * 一个文件处理完成
+		 *
+		 * @param file
+		 *            源文件
+		 * @param bytes
+		 *            文件大小
+		 * @param completedFiles
+		 *            已完成的文件数
+		 * @param completedBytes
+		 *            已完成的字节数
+		 */
+		void fileCompleted(Path file, long bytes, long completedFiles, long completedBytes);
+	}
+
+	/**
+	 * 惰性遍历目录树得到的文件序列，使用完后必须关闭
+	 *
+	 * @author Lucifer Wong
+	 */
+	public static final class Listing implements Iterable<Path>, Closeable {
+
+		private final Deque<DirectoryStream<Path>> streams = new ArrayDeque<>();
+		private final Deque<Iterator<Path>> iterators = new ArrayDeque<>();
+		private Path next;
+		private boolean iterated;
+
+		private Listing(Path root) throws IOException {
+			push(root);
+		}
+
+		@Override
+		public Iterator<Path> iterator() {
+			if (iterated) {
+				throw new IllegalStateException("Listing can only be iterated once");
+			}
+			iterated = true;
+			return new Iterator<Path>() {
+				@Override
+				public boolean hasNext() {
+					return advance();
+				}
+
+				@Override
+				public Path next() {
+					if (!advance()) {
+						throw new NoSuchElementException();
+					}
+					Path result = next;
+					next = null;
+					return result;
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+
+		@Override
+		public void close() throws IOException {
+			IOException failure = null;
+			while (!streams.isEmpty()) {
+				try {
+					streams.pop().close();
+				} catch (IOException e) {
+					failure = e;
+				}
+			}
+			iterators.clear();
+			if (failure != null) {
+				throw failure;
+			}
+		}
+
+		private void push(Path dir) throws IOException {
+			DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+			streams.push(stream);
+			iterators.push(stream.iterator());
+		}
+
+		private boolean advance() {
+			while (next == null && !iterators.isEmpty()) {
+				Iterator<Path> it = iterators.peek();
+				if (!it.hasNext()) {
+					iterators.pop();
+					FileUtil.close(streams.pop());
+					continue;
+				}
+				Path path = it.next();
+				if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+					try {
+						push(path);
+					} catch (IOException e) {
+						throw new IllegalStateException("Could not list directory[" + path + "]", e);
+					}
+				} else {
+					next = path;
+				}
+			}
+			return next != null;
+		}
+	}
+
+	/**
+	 * 惰性遍历目录下的所有文件（不包括目录），按深度优先顺序逐个产生，不会一次性读入整个目录树。
+	 *
+	 * <pre>
+	 * try (FileTreeUtil.Listing files = FileTreeUtil.list(root)) {
+	 * 	for (Path file : files) {
+	 * 		// ...
+	 * 	}
+	 * }
+	 * </pre>
+	 *
+	 * @author Lucifer Wong
+	 * @param root
+	 *            根目录
+	 * @return 文件序列，遍历中遇到无法读取的子目录时抛出 IllegalStateException
+	 * @throws IOException
+	 *             根目录无法读取
+	 */
+	public static Listing list(Path root) throws IOException {
+		return new Listing(root);
+	}
+
+	/**
+	 * 使用与 CPU 核数相同的线程复制目录树
+	 *
+	 * @author Lucifer Wong
+	 * @param source
+	 *            源目录
+	 * @param target
+	 *            目标目录
+	 * @param overwrite
+	 *            是否覆盖已存在的文件，否则跳过
+	 * @param preserveAttributes
+	 *            是否保留文件属性（修改时间、权限等）
+	 * @param progress
+	 *            进度回调，可以为 null
+	 * @throws IOException
+	 *             复制出错
+	 */
+	public static void copyTree(Path source, Path target, boolean overwrite, boolean preserveAttributes,
+			Progress progress) throws IOException {
+		copyTree(source, target, overwrite, preserveAttributes, Runtime.getRuntime().availableProcessors(),
+				progress);
+	}
+
+	/**
+	 * 复制目录树。目录在遍历时创建，文件复制分发到工作线程，符号链接复制为链接本身。
+	 *
+	 * @author Lucifer Wong
+	 * @param source
+	 *            源目录
+	 * @param target
+	 *            目标目录
+	 * @param overwrite
+	 *            是否覆盖已存在的文件，否则跳过
+	 * @param preserveAttributes
+	 *            是否保留文件属性（修改时间、权限等），目录的修改时间在全部文件复制完成后设置
+	 * @param parallelism
+	 *            工作线程数
+	 * @param progress
+	 *            进度回调，可以为 null
+	 * @throws IOException
+	 *             复制出错，其他文件的错误作为 suppressed 附加
+	 */
+	public static void copyTree(final Path source, final Path target, boolean overwrite,
+			final boolean preserveAttributes, int parallelism, final Progress progress) throws IOException {
+		List<CopyOption> options = new ArrayList<>();
+		options.add(LinkOption.NOFOLLOW_LINKS);
+		if (overwrite) {
+			options.add(StandardCopyOption.REPLACE_EXISTING);
+		}
+		if (preserveAttributes) {
+			options.add(StandardCopyOption.COPY_ATTRIBUTES);
+		}
+		final CopyOption[] copyOptions = options.toArray(new CopyOption[options.size()]);
+		final boolean skipExisting = !overwrite;
+		final List<Path> directories = new ArrayList<>();
+		final Tasks tasks = new Tasks(parallelism, progress);
+		try {
+			Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+					Path dst = target.resolve(source.relativize(dir).toString());
+					Files.createDirectories(dst);
+					if (preserveAttributes) {
+						directories.add(dir);
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+					final Path dst = target.resolve(source.relativize(file).toString());
+					tasks.submit(file, attrs.size(), new IOTask() {
+						@Override
+						public void run() throws IOException {
+							if (skipExisting && Files.exists(dst, LinkOption.NOFOLLOW_LINKS)) {
+								return;
+							}
+							Files.copy(file, dst, copyOptions);
+						}
+					});
+					return FileVisitResult.CONTINUE;
+				}
+			});
+			tasks.await();
+			// 子目录先于父目录设置，文件都已写完，修改时间不会再被改变
+			for (int i = directories.size() - 1; i >= 0; i--) {
+				Path dir = directories.get(i);
+				Path dst = target.resolve(source.relativize(dir).toString());
+				Files.setLastModifiedTime(dst, Files.getLastModifiedTime(dir));
+			}
+		} finally {
+			tasks.shutdown();
+		}
+	}
+
+	/**
+	 * 使用与 CPU 核数相同的线程删除目录树
+	 *
+	 * @author Lucifer Wong
+	 * @param root
+	 *            根目录或文件，不存在时直接返回
+	 * @param progress
+	 *            进度回调，可以为 null
+	 * @throws IOException
+	 *             删除出错
+	 */
+	public static void deleteTree(Path root, Progress progress) throws IOException {
+		deleteTree(root, Runtime.getRuntime().availableProcessors(), progress);
+	}
+
+	/**
+	 * 删除目录树。文件删除分发到工作线程，全部完成后再由内到外删除目录，符号链接只删除链接本身。某个文件或目录删除失败时继续删除其他的。
+	 *
+	 * @author Lucifer Wong
+	 * @param root
+	 *            根目录或文件，不存在时直接返回
+	 * @param parallelism
+	 *            工作线程数
+	 * @param progress
+	 *            进度回调，可以为 null
+	 * @throws IOException
+	 *             全部处理完后抛出第一个错误，其他错误作为 suppressed 附加
+	 */
+	public static void deleteTree(Path root, int parallelism, Progress progress) throws IOException {
+		if (!Files.exists(root, LinkOption.NOFOLLOW_LINKS)) {
+			return;
+		}
+		final List<Path> directories = new ArrayList<>();
+		final List<IOException> failures = new ArrayList<>();
+		final Tasks tasks = new Tasks(parallelism, progress);
+		try {
+			Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(final Path file, BasicFileAttributes attrs) {
+					tasks.submit(file, attrs.size(), new IOTask() {
+						@Override
+						public void run() throws IOException {
+							Files.deleteIfExists(file);
+						}
+					});
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException e) {
+					failures.add(e);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+					if (e != null) {
+						// 没能列完的目录删不掉
+						failures.add(e);
+					} else {
+						directories.add(dir);
+					}
+					return FileVisitResult.CONTINUE;
+				}
+			});
+			try {
+				tasks.await();
+			} catch (IOException e) {
+				failures.add(e);
+			}
+			for (Path dir : directories) {
+				try {
+					Files.delete(dir);
+				} catch (NoSuchFileException ignored) {
+					// 已被删除
+				} catch (IOException e) {
+					failures.add(e);
+				}
+			}
+		} finally {
+			tasks.shutdown();
+		}
+		if (!failures.isEmpty()) {
+			IOException first = failures.get(0);
+			for (int i = 1; i < failures.size(); i++) {
+				first.addSuppressed(failures.get(i));
+			}
+			throw first;
+		}
+	}
+
+	private interface IOTask {
+		void run() throws IOException;
+	}
+
+	/**
+	 * 有界线程池上的一组文件任务，记录进度和第一个错误
+	 */
+	private static final class Tasks {
+
+		private final ThreadPoolExecutor executor;
+		private final Progress progress;
+		private final AtomicLong completedFiles = new AtomicLong();
+		private final AtomicLong completedBytes = new AtomicLong();
+		private final List<IOException> failures = new ArrayList<>();
+
+		Tasks(int parallelism, Progress progress) {
+			if (parallelism <= 0) {
+				throw new IllegalArgumentException("parallelism must be positive, actual was " + parallelism);
+			}
+			this.progress = progress;
+			this.executor = new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<Runnable>(parallelism * 4), new ThreadPoolExecutor.CallerRunsPolicy());
+		}
+
+		void submit(final Path file, final long size, final IOTask task) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						task.run();
+					} catch (IOException e) {
+						synchronized (failures) {
+							failures.add(e);
+						}
+						return;
+					}
+					long files = completedFiles.incrementAndGet();
+					long bytes = completedBytes.addAndGet(size);
+					if (progress != null) {
+						progress.fileCompleted(file, size, files, bytes);
+					}
+				}
+			});
+		}
+
+		void await() throws IOException {
+			executor.shutdown();
+			try {
+				while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+					// 等待所有任务完成
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for file tasks", e);
+			}
+			synchronized (failures) {
+				if (!failures.isEmpty()) {
+					IOException first = failures.get(0);
+					for (int i = 1; i < failures.size(); i++) {
+						first.addSuppressed(failures.get(i));
+					}
+					throw first;
+				}
+			}
+		}
+
+		void shutdown() {
+			executor.shutdownNow();
+		}
+	}
+}
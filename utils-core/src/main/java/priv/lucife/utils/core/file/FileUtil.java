@@ -25,8 +25,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
-import java.math.BigInteger;
-import java.security.MessageDigest;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -37,6 +36,9 @@ import java.util.Properties;
 import priv.lucife.utils.core.annotation.UBTCompatible;
 import priv.lucife.utils.core.base.ValidatorUtil;
 import priv.lucife.utils.core.date.DateUtil;
+import priv.lucife.utils.core.encrypt.DigestUtil;
+import priv.lucife.utils.core.io.BufferPool;
+import priv.lucife.utils.core.io.IOUtil;
 import priv.lucife.utils.core.math.MathUtil;
 import priv.lucife.utils.core.math.RandomUtil;
 
@@ -49,14 +51,17 @@ import priv.lucife.utils.core.math.RandomUtil;
 public abstract class FileUtil {
 	private static class Recursiver {
 
-		private static ArrayList<File> files = new ArrayList<File>();
+		private final List<File> files = new ArrayList<File>();
 
 		public List<File> getFileList(File file) {
 			File children[] = file.listFiles();
+			if (children == null) {
+				return files;
+			}
 
 			for (int i = 0; i < children.length; i++) {
 				if (children[i].isDirectory()) {
-					new Recursiver().getFileList(children[i]);
+					getFileList(children[i]);
 				} else {
 					files.add(children[i]);
 				}
@@ -245,10 +250,30 @@ public abstract class FileUtil {
 	 *             当发生 I/O 异常时抛出
 	 */
 	public static void copy(File inputFile, File outputFile, boolean isOverWrite) throws IOException {
+		copy(inputFile, outputFile, isOverWrite, null);
+	}
+
+	/**
+	 * 复制文件或者文件夹，文件内容通过 {@link IOUtil#transfer(File, File, IOUtil.TransferCallback)} 零拷贝复制
+	 * 
+	 * @author Lucifer Wong
+	 * @param inputFile
+	 *            源文件
+	 * @param outputFile
+	 *            目的文件
+	 * @param isOverWrite
+	 *            是否覆盖文件
+	 * @param cb
+	 *            进度回调，每复制一块调用一次，可以为 null
+	 * @throws java.io.IOException
+	 *             当发生 I/O 异常时抛出
+	 */
+	public static void copy(File inputFile, File outputFile, boolean isOverWrite, IOUtil.TransferCallback cb)
+			throws IOException {
 		if (!inputFile.exists()) {
 			throw new RuntimeException(inputFile.getPath() + "源目录不存在!");
 		}
-		copyPri(inputFile, outputFile, isOverWrite);
+		copyPri(inputFile, outputFile, isOverWrite, cb);
 	}
 
 	/**
@@ -261,25 +286,28 @@ public abstract class FileUtil {
 	 *            目的文件
 	 * @param isOverWrite
 	 *            是否覆盖文件
+	 * @param cb
+	 *            进度回调
 	 * @throws java.io.IOException
 	 *             当发生 I/O 异常时抛出
 	 */
-	private static void copyPri(File inputFile, File outputFile, boolean isOverWrite) throws IOException {
+	private static void copyPri(File inputFile, File outputFile, boolean isOverWrite, IOUtil.TransferCallback cb)
+			throws IOException {
 		if (inputFile.isFile()) { // 文件
-			copySimpleFile(inputFile, outputFile, isOverWrite);
+			copySimpleFile(inputFile, outputFile, isOverWrite, cb);
 		} else {
 			if (!outputFile.exists()) { // 文件夹
 				outputFile.mkdirs();
 			}
 			// 循环子文件夹
 			for (File child : inputFile.listFiles()) {
-				copy(child, new File(outputFile.getPath() + "/" + child.getName()), isOverWrite);
+				copy(child, new File(outputFile.getPath() + "/" + child.getName()), isOverWrite, cb);
 			}
 		}
 	}
 
 	/**
-	 * 复制单个文件
+	 * 复制单个文件，覆盖时直接截断原文件，不先删除
 	 * 
 	 * @author Lucifer Wong
 	 * @param inputFile
@@ -288,29 +316,18 @@ public abstract class FileUtil {
 	 *            目的文件
 	 * @param isOverWrite
 	 *            是否覆盖
+	 * @param cb
+	 *            进度回调
 	 * @throws java.io.IOException
 	 *             当发生 I/O 异常时抛出
 	 */
-	private static void copySimpleFile(File inputFile, File outputFile, boolean isOverWrite) throws IOException {
-		if (outputFile.exists()) {
-			if (isOverWrite) { // 可以覆盖
-				if (!outputFile.delete()) {
-					throw new RuntimeException(outputFile.getPath() + "无法覆盖！");
-				}
-			} else {
-				// 不允许覆盖
-				return;
-			}
+	private static void copySimpleFile(File inputFile, File outputFile, boolean isOverWrite,
+			IOUtil.TransferCallback cb) throws IOException {
+		if (outputFile.exists() && !isOverWrite) {
+			// 不允许覆盖
+			return;
 		}
-		InputStream in = new FileInputStream(inputFile);
-		OutputStream out = new FileOutputStream(outputFile);
-		byte[] buffer = new byte[1024];
-		int read = 0;
-		while ((read = in.read(buffer)) != -1) {
-			out.write(buffer, 0, read);
-		}
-		in.close();
-		out.close();
+		IOUtil.transfer(inputFile, outputFile, cb);
 	}
 
 	/**
@@ -355,7 +372,7 @@ public abstract class FileUtil {
 	}
 
 	/**
-	 * 获取文件的MD5
+	 * 获取文件的MD5，结果为32位小写16进制字符串
 	 * 
 	 * @author Lucifer Wong
 	 * @param file
@@ -366,23 +383,33 @@ public abstract class FileUtil {
 		if (!file.exists() || !file.isFile()) {
 			return null;
 		}
-		MessageDigest digest = null;
-		FileInputStream in = null;
-		byte buffer[] = new byte[1024];
-		int len;
 		try {
-			digest = MessageDigest.getInstance("MD5");
-			in = new FileInputStream(file);
-			while ((len = in.read(buffer, 0, 1024)) != -1) {
-				digest.update(buffer, 0, len);
-			}
-			in.close();
-		} catch (Exception e) {
+			return DigestUtil.md5Hex(file);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * 以分块并行的方式计算大文件的树形摘要（tree hash），与 {@link #getFileMD5(File)} 的结果不兼容。
+	 * 
+	 * @author Lucifer Wong
+	 * @param file
+	 *            文件
+	 * @return 16进制根摘要
+	 * @see TreeHashManifest
+	 */
+	public static String getFileTreeHash(File file) {
+		if (!file.exists() || !file.isFile()) {
+			return null;
+		}
+		try {
+			return TreeHashManifest.create(file).getRootHex();
+		} catch (IOException e) {
 			e.printStackTrace();
 			return null;
 		}
-		BigInteger bigInt = new BigInteger(1, digest.digest());
-		return bigInt.toString(16);
 	}
 
 	/**
@@ -479,7 +506,7 @@ public abstract class FileUtil {
 	}
 
 	/**
-	 * 递归取得某个目录下所有的文件
+	 * 递归取得某个目录下所有的文件，文件很多时使用 {@link FileTreeUtil#list(java.nio.file.Path)} 逐个遍历
 	 * 
 	 * @author Lucifer Wong
 	 * @param path
@@ -679,10 +706,14 @@ public abstract class FileUtil {
 		try {
 			out = new ByteArrayOutputStream();
 
-			byte[] buffer = new byte[BUFFER_SIZE];
-			int length;
-			while ((length = in.read(buffer)) != -1) {
-				out.write(buffer, 0, length);
+			byte[] buffer = BufferPool.getDefault().acquire(BUFFER_SIZE);
+			try {
+				int length;
+				while ((length = in.read(buffer)) != -1) {
+					out.write(buffer, 0, length);
+				}
+			} finally {
+				BufferPool.getDefault().release(buffer);
 			}
 			return new String(out.toByteArray());
 		} catch (IOException e) {
@@ -694,7 +725,7 @@ public abstract class FileUtil {
 	}
 
 	/**
-	 * 从文件中读取字符串，使用默认字符集
+	 * 从文件中读取字符串，使用默认字符集。大文件按行或按记录扫描时使用 {@link MappedRecordReader}
 	 * 
 	 * @author Lucifer Wong
 	 * @param path
@@ -709,10 +740,14 @@ public abstract class FileUtil {
 			in = new FileInputStream(path);
 			out = new ByteArrayOutputStream();
 
-			byte[] buffer = new byte[BUFFER_SIZE];
-			int length;
-			while ((length = in.read(buffer)) != -1) {
-				out.write(buffer, 0, length);
+			byte[] buffer = BufferPool.getDefault().acquire(BUFFER_SIZE);
+			try {
+				int length;
+				while ((length = in.read(buffer)) != -1) {
+					out.write(buffer, 0, length);
+				}
+			} finally {
+				BufferPool.getDefault().release(buffer);
 			}
 			return new String(out.toByteArray());
 		} catch (IOException e) {
@@ -773,7 +808,49 @@ public abstract class FileUtil {
 	}
 
 	/**
-	 * 把字符串写到文件中
+	 * 异步追加字符串到文件末尾。同一路径共用一个 {@link AsyncFileAppender}，批量写入并每秒刷盘一次，JVM 退出时写完剩余内容。
+	 * 需要等待写入完成时调用 {@link #flushAppenders()}。
+	 * <p>
+	 * 每个路径的追加器占用一个写线程和一个文件句柄，空闲一分钟后自动关闭，下次追加时重新打开；
+	 * 确定不再写某个文件时（如按日期滚动的日志）可以调用 {@link #closeAppender(String)} 立即释放。写入失败的追加器被丢弃，下次追加时重新打开。
+	 * 
+	 * @author Lucifer Wong
+	 * @param path
+	 *            文件路径
+	 * @param str
+	 *            字符串
+	 * @throws IllegalStateException
+	 *             之前追加的内容写入失败
+	 */
+	public static void appendString(String path, String str) {
+		AppenderRegistry.getDefault().append(path, str);
+	}
+
+	/**
+	 * 写完 {@link #appendString(String, String)} 向某个文件追加的内容，关闭对应的追加器并释放其线程和文件句柄。之后再追加时重新打开。
+	 * 
+	 * @author Lucifer Wong
+	 * @param path
+	 *            文件路径
+	 * @return 是否有打开的追加器
+	 * @throws IOException
+	 *             写入或关闭出错
+	 */
+	public static boolean closeAppender(String path) throws IOException {
+		return AppenderRegistry.getDefault().close(path);
+	}
+
+	/**
+	 * 等待 {@link #appendString(String, String)} 追加的内容全部写入文件
+	 * 
+	 * @author Lucifer Wong
+	 */
+	public static void flushAppenders() {
+		AppenderRegistry.getDefault().flush();
+	}
+
+	/**
+	 * 把字符串写到文件中，每次调用都会打开和关闭文件，频繁追加时使用 {@link #appendString(String, String)}
 	 * 
 	 * @author Lucifer Wong
 	 * @param path
@@ -796,29 +873,16 @@ public abstract class FileUtil {
 	}
 
 	/**
-	 * 删除所有文件，包括文件夹
+	 * 删除所有文件，包括文件夹，文件由多个线程并行删除。删除失败的文件和目录被跳过，其余的照常删除，错误全部打印
 	 * 
 	 * @author Lucifer Wong
 	 * @param dirpath
 	 *            目标文件
 	 */
 	public void deleteAll(String dirpath) {
-		File path = new File(dirpath);
 		try {
-			if (!path.exists())
-				return;// 目录不存在退出
-			if (path.isFile()) // 如果是文件删除
-			{
-				path.delete();
-				return;
-			}
-			File[] files = path.listFiles();// 如果目录中有文件递归删除文件
-			for (int i = 0; i < files.length; i++) {
-				deleteAll(files[i].getAbsolutePath());
-			}
-			path.delete();
-
-		} catch (Exception e) {
+			FileTreeUtil.deleteTree(Paths.get(dirpath), null);
+		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
@@ -0,0 +1,481 @@
+/**
+ * Copyright (C) 2017 Lucifer Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package priv.lucife.utils.core.file;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import priv.lucife.utils.core.annotation.UBTCompatible;
+
+/**
+ * 基于内存映射的记录读取器，按分隔符（默认换行）逐条读取大文件，不会把整个文件读入内存。
+ * <p>
+ * 文件按窗口映射，超过 2GB 的文件会随读取进度重新映射。每条记录是映射缓冲区上的 {@link Record} 视图，只有在按字符访问时才做 UTF-8
+ * 解码，纯 ASCII 的记录不解码。分隔符为 {@code '\n'} 时，记录末尾的 {@code '\r'} 会被去掉。
+ * <p>
+ * 多核扫描时，用 {@link #split(File, byte, int)} 按记录边界切分文件，每段用一个读取器，或者直接使用
+ * {@link #forEach(File, byte, int, RecordHandler)}。
+ * <p>
+ * 读取器不是线程安全的。
+ *
+ * @author Lucifer Wong
+ */
+@UBTCompatible
+public final class MappedRecordReader implements Iterable<MappedRecordReader.Record>, Closeable {
+
+	/**
+	 * 换行符
+	 */
+	public static final byte LINE_FEED = '\n';
+
+	/**
+	 * 默认映射窗口大小，128MB
+	 */
+	public static final int DEFAULT_WINDOW = 128 * 1024 * 1024;
+
+	/**
+	 * 记录处理器，并行读取时在多个线程中调用，实现必须是线程安全的
+	 *
+	 * @author Lucifer Wong
+	 */
+	public interface RecordHandler {
+
+		/**
+		 * 处理一条记录
+		 *
+		 * @param record
+		 *            记录
+		 * @throws IOException
+		 *             处理出错，会中止读取
+		 */
+		void handle(Record record) throws IOException;
+	}
+
+	/**
+	 * 映射缓冲区上的一条记录，不包括分隔符。按字符访问时按 UTF-8 解码并缓存结果。
+	 *
+	 * @author Lucifer Wong
+	 */
+	public static final class Record implements CharSequence {
+
+		private final ByteBuffer buffer;
+		private final int offset;
+		private final int length;
+		private final long position;
+		private int ascii = -1;
+		private String decoded;
+
+		Record(ByteBuffer buffer, int offset, int length, long position) {
+			this.buffer = buffer;
+			this.offset = offset;
+			this.length = length;
+			this.position = position;
+		}
+
+		/**
+		 * @return 记录在文件中的起始位置
+		 */
+		public long getPosition() {
+			return position;
+		}
+
+		/**
+		 * @return 记录的字节数
+		 */
+		public int byteLength() {
+			return length;
+		}
+
+		/**
+		 * 读取记录中的一个字节，不解码
+		 *
+		 * @param index
+		 *            下标
+		 * @return 字节
+		 */
+		public byte byteAt(int index) {
+			if (index < 0 || index >= length) {
+				throw new IndexOutOfBoundsException("index: " + index + ", length: " + length);
+			}
+			return buffer.get(offset + index);
+		}
+
+		/**
+		 * @return 记录内容的只读视图，不复制
+		 */
+		public ByteBuffer bytes() {
+			ByteBuffer view = buffer.duplicate();
+			view.limit(offset + length);
+			view.position(offset);
+			return view.slice().asReadOnlyBuffer();
+		}
+
+		/**
+		 * @return 记录内容的副本
+		 */
+		public byte[] toByteArray() {
+			byte[] bytes = new byte[length];
+			bytes().get(bytes);
+			return bytes;
+		}
+
+		/**
+		 * @return 记录是否只包含 ASCII 字符
+		 */
+		public boolean isAscii() {
+			if (ascii < 0) {
+				ascii = 1;
+				for (int i = offset, end = offset + length; i < end; i++) {
+					if (buffer.get(i) < 0) {
+						ascii = 0;
+						break;
+					}
+				}
+			}
+			return ascii == 1;
+		}
+
+		@Override
+		public int length() {
+			return isAscii() ? length : toString().length();
+		}
+
+		@Override
+		public char charAt(int index) {
+			return isAscii() ? (char) byteAt(index) : toString().charAt(index);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			if (!isAscii()) {
+				return toString().subSequence(start, end);
+			}
+			if (start < 0 || end > length || start > end) {
+				throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", length: " + length);
+			}
+			Record sub = new Record(buffer, offset + start, end - start, position + start);
+			sub.ascii = 1;
+			return sub;
+		}
+
+		@Override
+		public String toString() {
+			if (decoded == null) {
+				decoded = new String(toByteArray(), isAscii() ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+			}
+			return decoded;
+		}
+	}
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final byte delimiter;
+	private final long end;
+	private int windowSize;
+	private MappedByteBuffer window;
+	private long windowStart;
+	private long windowEnd;
+	private long position;
+	private boolean iterated;
+
+	/**
+	 * 按行读取整个文件
+	 *
+	 * @param file
+	 *            文件
+	 * @throws IOException
+	 *             打开文件出错
+	 */
+	public MappedRecordReader(File file) throws IOException {
+		this(file, LINE_FEED);
+	}
+
+	/**
+	 * 按指定分隔符读取整个文件
+	 *
+	 * @param file
+	 *            文件
+	 * @param delimiter
+	 *            分隔符
+	 * @throws IOException
+	 *             打开文件出错
+	 */
+	public MappedRecordReader(File file, byte delimiter) throws IOException {
+		this(file, delimiter, 0, Long.MAX_VALUE);
+	}
+
+	/**
+	 * 读取文件的 [start, end) 区间，区间的边界应当落在记录边界上，见 {@link #split(File, byte, int)}
+	 *
+	 * @param file
+	 *            文件
+	 * @param delimiter
+	 *            分隔符
+	 * @param start
+	 *            起始位置
+	 * @param end
+	 *            结束位置，超过文件长度时取文件长度
+	 * @throws IOException
+	 *             打开文件出错
+	 */
+	public MappedRecordReader(File file, byte delimiter, long start, long end) throws IOException {
+		this(file, delimiter, start, end, DEFAULT_WINDOW);
+	}
+
+	MappedRecordReader(File file, byte delimiter, long start, long end, int windowSize) throws IOException {
+		this.file = new RandomAccessFile(file, "r");
+		this.channel = this.file.getChannel();
+		this.delimiter = delimiter;
+		this.end = Math.min(end, channel.size());
+		this.position = start;
+		this.windowSize = windowSize;
+	}
+
+	/**
+	 * 读取下一条记录
+	 *
+	 * @author Lucifer Wong
+	 * @return 记录，读完时返回 null
+	 * @throws IOException
+	 *             读取出错
+	 */
+	public Record next() throws IOException {
+		if (position >= end) {
+			return null;
+		}
+		while (true) {
+			if (window == null || position < windowStart || position >= windowEnd) {
+				map(position);
+			}
+			int from = (int) (position - windowStart);
+			int limit = (int) (windowEnd - windowStart);
+			for (int i = from; i < limit; i++) {
+				if (window.get(i) == delimiter) {
+					position = windowStart + i + 1;
+					return record(from, i);
+				}
+			}
+			if (windowEnd >= end) {
+				// 最后一条记录没有分隔符
+				position = end;
+				return record(from, limit);
+			}
+			if (from == 0) {
+				// 单条记录比窗口还大
+				if (windowSize == Integer.MAX_VALUE) {
+					throw new IOException("Record at position " + position + " is larger than 2GB");
+				}
+				windowSize = (int) Math.min(Integer.MAX_VALUE, windowSize * 2L);
+			}
+			map(position);
+		}
+	}
+
+	@Override
+	public Iterator<Record> iterator() {
+		if (iterated) {
+			throw new IllegalStateException("Reader can only be iterated once");
+		}
+		iterated = true;
+		return new Iterator<Record>() {
+			private Record next;
+
+			@Override
+			public boolean hasNext() {
+				if (next == null) {
+					try {
+						next = MappedRecordReader.this.next();
+					} catch (IOException e) {
+						throw new IllegalStateException("Could not read record at position " + position, e);
+					}
+				}
+				return next != null;
+			}
+
+			@Override
+			public Record next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Record result = next;
+				next = null;
+				return result;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * @return 下一条记录在文件中的位置
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		file.close();
+	}
+
+	private void map(long start) throws IOException {
+		windowStart = start;
+		windowEnd = Math.min(end, start + windowSize);
+		window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart);
+	}
+
+	private Record record(int from, int to) {
+		long recordPosition = windowStart + from;
+		if (delimiter == LINE_FEED && to > from && window.get(to - 1) == '\r') {
+			to--;
+		}
+		return new Record(window, from, to - from, recordPosition);
+	}
+
+	/**
+	 * 把文件按记录边界切分为若干段，每段的起点紧跟在一个分隔符之后
+	 *
+	 * @author Lucifer Wong
+	 * @param file
+	 *            文件
+	 * @param delimiter
+	 *            分隔符
+	 * @param parts
+	 *            期望的段数，文件较小或记录很长时实际段数可能更少
+	 * @return 各段的边界，第 i 段为 [bounds[i], bounds[i + 1])
+	 * @throws IOException
+	 *             读取出错
+	 */
+	public static long[] split(File file, byte delimiter, int parts) throws IOException {
+		if (parts <= 0) {
+			throw new IllegalArgumentException("parts must be positive, actual was " + parts);
+		}
+		List<Long> bounds = new ArrayList<>();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			bounds.add(0L);
+			ByteBuffer buffer = ByteBuffer.allocate(8192);
+			for (int i = 1; i < parts; i++) {
+				long target = Math.max(size * i / parts, bounds.get(bounds.size() - 1));
+				long boundary = nextBoundary(channel, buffer, target, size, delimiter);
+				if (boundary > bounds.get(bounds.size() - 1) && boundary < size) {
+					bounds.add(boundary);
+				}
+			}
+			bounds.add(size);
+		}
+		long[] result = new long[bounds.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = bounds.get(i);
+		}
+		return result;
+	}
+
+	private static long nextBoundary(FileChannel channel, ByteBuffer buffer, long from, long size, byte delimiter)
+			throws IOException {
+		long position = from;
+		while (position < size) {
+			buffer.clear();
+			int read = channel.read(buffer, position);
+			if (read <= 0) {
+				break;
+			}
+			for (int i = 0; i < read; i++) {
+				if (buffer.get(i) == delimiter) {
+					return position + i + 1;
+				}
+			}
+			position += read;
+		}
+		return size;
+	}
+
+	/**
+	 * 把文件切分为 parallelism 段并行读取，每条记录交给 handler 处理
+	 *
+	 * @author Lucifer Wong
+	 * @param file
+	 *            文件
+	 * @param delimiter
+	 *            分隔符
+	 * @param parallelism
+	 *            并行度
+	 * @param handler
+	 *            记录处理器，必须是线程安全的
+	 * @return 记录总数
+	 * @throws IOException
+	 *             读取或处理出错
+	 */
+	public static long forEach(final File file, final byte delimiter, int parallelism, final RecordHandler handler)
+			throws IOException {
+		final long[] bounds = split(file, delimiter, parallelism);
+		ExecutorService executor = Executors.newFixedThreadPool(bounds.length - 1);
+		try {
+			List<Future<Long>> futures = new ArrayList<>();
+			for (int i = 0; i < bounds.length - 1; i++) {
+				final int part = i;
+				futures.add(executor.submit(new Callable<Long>() {
+					@Override
+					public Long call() throws IOException {
+						long count = 0;
+						try (MappedRecordReader reader = new MappedRecordReader(file, delimiter, bounds[part],
+								bounds[part + 1])) {
+							for (Record record; (record = reader.next()) != null;) {
+								handler.handle(record);
+								count++;
+							}
+						}
+						return count;
+					}
+				}));
+			}
+			long total = 0;
+			for (Future<Long> future : futures) {
+				total += future.get();
+			}
+			return total;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading [" + file + "]", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException("Error occurred while reading [" + file + "]", cause);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,283 @@
+/**
+ * Copyright (C) 2017 Lucifer Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package priv.lucife.utils.core.file;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import priv.lucife.utils.core.io.BufferPool;
+
+/**
+ * 分块并行的 gzip 写入器，做法与 pigz 相同。
+ * <p>
+ * 输入按固定大小分块，每块在工作线程中独立压缩为原始 deflate 数据，并以前面 32KB 的输入作为预置字典，压缩率与单线程接近。
+ * 除最后的结束块外，每块都以 {@link Deflater#SYNC_FLUSH} 结尾，对齐到字节边界，所以各块的输出可以直接拼接成一个 deflate 流。
+ * 各块的 CRC32 也在工作线程中计算，写入时合并。输出是标准的单成员 gzip 文件。
+ *
+ * @author Lucifer Wong
+ */
+final class ParallelGzipWriter {
+
+	/**
+	 * 压缩完成、等待写入的块
+	 */
+	private static final class Block {
+		byte[] input;
+		int length;
+		byte[] data;
+		long crc;
+	}
+
+	/**
+	 * deflate 的窗口大小，也是预置字典的最大长度
+	 */
+	private static final int DICTIONARY_SIZE = 32768;
+
+	private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+	private ParallelGzipWriter() {
+	}
+
+	/**
+	 * 并行压缩输入流并写出 gzip 数据
+	 *
+	 * @param in
+	 *            输入流，不会被关闭
+	 * @param out
+	 *            输出流，不会被关闭
+	 * @param threads
+	 *            压缩线程数
+	 * @param blockSize
+	 *            块大小（字节）
+	 * @param level
+	 *            压缩级别
+	 * @throws IOException
+	 *             读取、压缩或写入出错
+	 */
+	static void write(InputStream in, OutputStream out, int threads, int blockSize, final int level)
+			throws IOException {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("threads must be positive, actual was " + threads);
+		}
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException("blockSize must be positive, actual was " + blockSize);
+		}
+		OutputStream buffered = new BufferedOutputStream(out, 65536);
+		buffered.write(HEADER);
+
+		long crc = 0;
+		long total = 0;
+		byte[] dictionary = new byte[0];
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		Deque<Future<Block>> window = new ArrayDeque<>();
+		try {
+			while (true) {
+				final Block block = new Block();
+				block.input = BufferPool.getDefault().acquire(blockSize);
+				block.length = fill(in, block.input, blockSize);
+				if (block.length == 0) {
+					BufferPool.getDefault().release(block.input);
+					break;
+				}
+				final byte[] preset = dictionary;
+				dictionary = slide(dictionary, block.input, block.length);
+				window.add(executor.submit(new Callable<Block>() {
+					@Override
+					public Block call() {
+						return compress(block, preset, level);
+					}
+				}));
+				if (window.size() >= threads * 2) {
+					Block done = take(window.poll());
+					crc = crc32Combine(crc, done.crc, done.length);
+					total += done.length;
+					buffered.write(done.data);
+				}
+			}
+			while (!window.isEmpty()) {
+				Block done = take(window.poll());
+				crc = crc32Combine(crc, done.crc, done.length);
+				total += done.length;
+				buffered.write(done.data);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		// 结束块：空的最后一个块
+		Deflater deflater = new Deflater(level, true);
+		try {
+			deflater.finish();
+			byte[] buffer = new byte[16];
+			while (!deflater.finished()) {
+				buffered.write(buffer, 0, deflater.deflate(buffer));
+			}
+		} finally {
+			deflater.end();
+		}
+		writeInt(buffered, crc);
+		writeInt(buffered, total);
+		buffered.flush();
+	}
+
+	private static Block compress(Block block, byte[] dictionary, int level) {
+		CRC32 crc = new CRC32();
+		crc.update(block.input, 0, block.length);
+		block.crc = crc.getValue();
+
+		ByteArrayOutputStream sink = new ByteArrayOutputStream(Math.max(64, block.length / 2));
+		Deflater deflater = new Deflater(level, true);
+		byte[] buffer = BufferPool.getDefault().acquire(65536);
+		try {
+			if (dictionary.length > 0) {
+				deflater.setDictionary(dictionary);
+			}
+			deflater.setInput(block.input, 0, block.length);
+			while (true) {
+				int len = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+				sink.write(buffer, 0, len);
+				if (len < buffer.length && deflater.needsInput()) {
+					break;
+				}
+			}
+		} finally {
+			deflater.end();
+			BufferPool.getDefault().release(buffer);
+		}
+		block.data = sink.toByteArray();
+		return block;
+	}
+
+	private static Block take(Future<Block> future) throws IOException {
+		Block block;
+		try {
+			block = future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while compressing", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Error occurred while compressing", e.getCause());
+		}
+		BufferPool.getDefault().release(block.input);
+		block.input = null;
+		return block;
+	}
+
+	/**
+	 * 读满 length 字节或到达流末尾
+	 */
+	private static int fill(InputStream in, byte[] buffer, int length) throws IOException {
+		int count = 0;
+		while (count < length) {
+			int len = in.read(buffer, count, length - count);
+			if (len == -1) {
+				break;
+			}
+			count += len;
+		}
+		return count;
+	}
+
+	/**
+	 * 返回 dictionary 后接 block 的数据中最后 {@value #DICTIONARY_SIZE} 字节
+	 */
+	private static byte[] slide(byte[] dictionary, byte[] block, int length) {
+		if (length >= DICTIONARY_SIZE) {
+			byte[] result = new byte[DICTIONARY_SIZE];
+			System.arraycopy(block, length - DICTIONARY_SIZE, result, 0, DICTIONARY_SIZE);
+			return result;
+		}
+		int keep = Math.min(dictionary.length, DICTIONARY_SIZE - length);
+		byte[] result = new byte[keep + length];
+		System.arraycopy(dictionary, dictionary.length - keep, result, 0, keep);
+		System.arraycopy(block, 0, result, keep, length);
+		return result;
+	}
+
+	private static void writeInt(OutputStream out, long value) throws IOException {
+		out.write((int) value & 0xff);
+		out.write((int) (value >>> 8) & 0xff);
+		out.write((int) (value >>> 16) & 0xff);
+		out.write((int) (value >>> 24) & 0xff);
+	}
+
+	/**
+	 * 合并两段数据的 CRC32：已知前一段的 crc1、后一段的 crc2 和长度 len2，求整体的 CRC32。算法与 zlib 的 crc32_combine 相同，
+	 * 把追加 len2 个零字节看作 GF(2) 上的矩阵运算，用平方法在 O(log len2) 次矩阵乘法内完成。
+	 */
+	static long crc32Combine(long crc1, long crc2, long len2) {
+		if (len2 <= 0) {
+			return crc1;
+		}
+		long[] even = new long[32];
+		long[] odd = new long[32];
+
+		// 追加一个零位的运算矩阵
+		odd[0] = 0xedb88320L;
+		long row = 1;
+		for (int n = 1; n < 32; n++) {
+			odd[n] = row;
+			row <<= 1;
+		}
+		// 两个零位、四个零位
+		gf2MatrixSquare(even, odd);
+		gf2MatrixSquare(odd, even);
+
+		// 每轮平方一次，得到追加 1、2、4... 个零字节的矩阵
+		do {
+			gf2MatrixSquare(even, odd);
+			if ((len2 & 1) != 0) {
+				crc1 = gf2MatrixTimes(even, crc1);
+			}
+			len2 >>>= 1;
+			if (len2 == 0) {
+				break;
+			}
+			gf2MatrixSquare(odd, even);
+			if ((len2 & 1) != 0) {
+				crc1 = gf2MatrixTimes(odd, crc1);
+			}
+			len2 >>>= 1;
+		} while (len2 != 0);
+		return (crc1 ^ crc2) & 0xffffffffL;
+	}
+
+	private static long gf2MatrixTimes(long[] mat, long vec) {
+		long sum = 0;
+		for (int i = 0; vec != 0; i++, vec >>>= 1) {
+			if ((vec & 1) != 0) {
+				sum ^= mat[i];
+			}
+		}
+		return sum;
+	}
+
+	private static void gf2MatrixSquare(long[] square, long[] mat) {
+		for (int n = 0; n < 32; n++) {
+			square[n] = gf2MatrixTimes(mat, mat[n]);
+		}
+	}
+}
@@ -0,0 +1,413 @@
+/**
+ * Copyright (C) 2017 Lucifer Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package priv.lucife.utils.core.file;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import priv.lucife.utils.core.annotation.UBTCompatible;
+import priv.lucife.utils.core.base.HexByteUtil;
+import priv.lucife.utils.core.encrypt.DigestUtil;
+
+/**
+ * 大文件分块树形摘要（tree hash）及其清单。
+ * <p>
+ * 文件按固定大小切分成块，各块通过内存映射在 {@link ForkJoinPool} 上并行计算摘要，再对按顺序拼接的块摘要计算一次摘要得到根摘要。
+ * 清单记录了算法、块大小、文件长度、根摘要以及每一块的摘要，文件只有个别块变化时可以单独校验这些块。
+ * <p>
+ * 清单为 UTF-8 文本格式：
+ *
+ * <pre>
+ * # tree-hash v1
+ * algorithm=SHA-256
+ * chunkSize=67108864
+ * length=214748364800
+ * root=9f86d0...
+ * 0 2c26b4...
+ * 1 fcde2b...
+ * </pre>
+ *
+ * 注意根摘要与整个文件的普通摘要不同，需要与普通摘要兼容时请继续使用 {@link FileUtil#getFileMD5(File)}。
+ *
+ * @author Lucifer Wong
+ */
+@UBTCompatible
+public final class TreeHashManifest {
+
+	/**
+	 * 对一段连续的块计算摘要，包含多个块时一分为二并行执行。
+	 *
+	 * @author Lucifer Wong
+	 */
+	private static class ChunkHashTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final FileChannel channel;
+		private final String algorithm;
+		private final long chunkSize;
+		private final long length;
+		private final int from;
+		private final int to;
+		private final byte[][] digests;
+
+		ChunkHashTask(FileChannel channel, String algorithm, long chunkSize, long length, int from, int to,
+				byte[][] digests) {
+			this.channel = channel;
+			this.algorithm = algorithm;
+			this.chunkSize = chunkSize;
+			this.length = length;
+			this.from = from;
+			this.to = to;
+			this.digests = digests;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= 1) {
+				for (int i = from; i < to; i++) {
+					try {
+						digests[i] = hashChunk(channel, algorithm, chunkSize, length, i);
+					} catch (IOException e) {
+						throw new RuntimeException("Could not hash chunk[" + i + "]", e);
+					}
+				}
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new ChunkHashTask(channel, algorithm, chunkSize, length, from, middle, digests),
+					new ChunkHashTask(channel, algorithm, chunkSize, length, middle, to, digests));
+		}
+	}
+
+	/**
+	 * 延迟创建的共享线程池，线程数为处理器数量
+	 */
+	private static class PoolHolder {
+		static final ForkJoinPool POOL = new ForkJoinPool();
+	}
+
+	/**
+	 * 默认摘要算法
+	 */
+	public static final String DEFAULT_ALGORITHM = DigestUtil.SHA_256;
+
+	/**
+	 * 默认块大小：64MB
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+
+	private static final String HEADER = "# tree-hash v1";
+
+	/**
+	 * 使用默认算法和块大小生成文件的清单。
+	 *
+	 * @author Lucifer Wong
+	 * @param file
+	 *            文件
+	 * @return 清单
+	 * @throws IOException
+	 *             读取出错
+	 */
+	public static TreeHashManifest create(File file) throws IOException {
+		return create(file, DEFAULT_ALGORITHM, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * 生成文件的清单，块摘要在共享线程池上并行计算。
+	 *
+	 * @author Lucifer Wong
+	 * @param file
+	 *            文件
+	 * @param algorithm
+	 *            摘要算法
+	 * @param chunkSize
+	 *            块大小
+	 * @return 清单
+	 * @throws IOException
+	 *             读取出错
+	 */
+	public static TreeHashManifest create(File file, String algorithm, int chunkSize) throws IOException {
+		return create(file, algorithm, chunkSize, PoolHolder.POOL);
+	}
+
+	/**
+	 * 生成文件的清单，块摘要在指定线程池上并行计算。
+	 *
+	 * @author Lucifer Wong
+	 * @param file
+	 *            文件
+	 * @param algorithm
+	 *            摘要算法
+	 * @param chunkSize
+	 *            块大小
+	 * @param pool
+	 *            线程池
+	 * @return 清单
+	 * @throws IOException
+	 *             读取出错
+	 */
+	public static TreeHashManifest create(File file, String algorithm, int chunkSize, ForkJoinPool pool)
+			throws IOException {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("chunkSize must be positive, actual was " + chunkSize);
+		}
+		if (!file.isFile()) {
+			throw new IOException("The file to hash named [" + file + "] does not exist.");
+		}
+
+		try (FileInputStream in = new FileInputStream(file)) {
+			FileChannel channel = in.getChannel();
+			long length = channel.size();
+			int count = chunkCount(length, chunkSize);
+			byte[][] digests = new byte[count][];
+			try {
+				pool.invoke(new ChunkHashTask(channel, algorithm, chunkSize, length, 0, count, digests));
+			} catch (RuntimeException e) {
+				// 在其他工作线程中失败时，invoke 抛出的是包装异常的副本，IOException 在更深的 cause 中
+				for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+					if (cause instanceof IOException) {
+						throw new IOException("Error occurred while hashing [" + file + "].", cause);
+					}
+				}
+				throw e;
+			}
+			return new TreeHashManifest(algorithm, chunkSize, length, digests);
+		}
+	}
+
+	/**
+	 * 读取清单文件。
+	 *
+	 * @author Lucifer Wong
+	 * @param manifestFile
+	 *            清单文件
+	 * @return 清单
+	 * @throws IOException
+	 *             读取出错或格式不正确
+	 */
+	public static TreeHashManifest read(File manifestFile) throws IOException {
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(manifestFile), "UTF-8"))) {
+			if (!HEADER.equals(reader.readLine())) {
+				throw new IOException("[" + manifestFile + "] is not a tree hash manifest.");
+			}
+			String algorithm = value(reader.readLine(), "algorithm");
+			int chunkSize = Integer.parseInt(value(reader.readLine(), "chunkSize"));
+			long length = Long.parseLong(value(reader.readLine(), "length"));
+			byte[] root = HexByteUtil.decode(value(reader.readLine(), "root"));
+
+			int count = chunkCount(length, chunkSize);
+			byte[][] digests = new byte[count][];
+			for (int i = 0; i < count; i++) {
+				String line = reader.readLine();
+				int space = line == null ? -1 : line.indexOf(' ');
+				if (space < 0 || Integer.parseInt(line.substring(0, space)) != i) {
+					throw new IOException("Missing chunk[" + i + "] in manifest [" + manifestFile + "].");
+				}
+				digests[i] = HexByteUtil.decode(line.substring(space + 1));
+			}
+
+			TreeHashManifest manifest = new TreeHashManifest(algorithm, chunkSize, length, digests);
+			if (!Arrays.equals(root, manifest.root)) {
+				throw new IOException("Root digest of manifest [" + manifestFile + "] does not match its chunks.");
+			}
+			return manifest;
+		} catch (NumberFormatException e) {
+			throw new IOException("Malformed manifest [" + manifestFile + "].", e);
+		}
+	}
+
+	private static int chunkCount(long length, long chunkSize) {
+		long count = (length + chunkSize - 1) / chunkSize;
+		if (count > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("chunkSize " + chunkSize + " is too small for length " + length);
+		}
+		return (int) count;
+	}
+
+	private static byte[] hashChunk(FileChannel channel, String algorithm, long chunkSize, long length, int index)
+			throws IOException {
+		long position = index * chunkSize;
+		long size = Math.min(chunkSize, length - position);
+		MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+		MessageDigest md = DigestUtil.getDigest(algorithm);
+		md.update(mapped);
+		return md.digest();
+	}
+
+	private static String value(String line, String key) throws IOException {
+		if (line == null || !line.startsWith(key + "=")) {
+			throw new IOException("Expected manifest entry [" + key + "] but was [" + line + "].");
+		}
+		return line.substring(key.length() + 1);
+	}
+
+	private final String algorithm;
+
+	private final int chunkSize;
+
+	private final long length;
+
+	private final byte[][] digests;
+
+	private final byte[] root;
+
+	private TreeHashManifest(String algorithm, int chunkSize, long length, byte[][] digests) {
+		this.algorithm = algorithm;
+		this.chunkSize = chunkSize;
+		this.length = length;
+		this.digests = digests;
+
+		MessageDigest md = DigestUtil.getDigest(algorithm);
+		for (byte[] digest : digests) {
+			md.update(digest);
+		}
+		this.root = md.digest();
+	}
+
+	/**
+	 * @return 摘要算法
+	 */
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * @return 块数量
+	 */
+	public int getChunkCount() {
+		return digests.length;
+	}
+
+	/**
+	 * @return 块大小
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * @param index
+	 *            块序号
+	 * @return 指定块的16进制摘要
+	 */
+	public String getChunkHex(int index) {
+		return DigestUtil.toHex(digests[index], false);
+	}
+
+	/**
+	 * @return 文件长度
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * @return 16进制根摘要
+	 */
+	public String getRootHex() {
+		return DigestUtil.toHex(root, false);
+	}
+
+	/**
+	 * 并行校验整个文件，返回摘要不一致的块序号。文件长度改变时，超出原长度或缺失的块也视为不一致。
+	 *
+	 * @author Lucifer Wong
+	 * @param file
+	 *            待校验的文件
+	 * @return 不一致的块序号，全部一致时返回空列表
+	 * @throws IOException
+	 *             读取出错
+	 */
+	public List<Integer> verify(File file) throws IOException {
+		TreeHashManifest actual = create(file, algorithm, chunkSize);
+		List<Integer> mismatches = new ArrayList<>();
+		int count = Math.max(digests.length, actual.digests.length);
+		for (int i = 0; i < count; i++) {
+			if (i >= digests.length || i >= actual.digests.length || !Arrays.equals(digests[i], actual.digests[i])) {
+				mismatches.add(i);
+			}
+		}
+		return mismatches;
+	}
+
+	/**
+	 * 单独校验一个块，只读取该块所在的区域。文件长度改变使该块的范围变化时（截断，或在最后一块追加内容）视为不一致，与
+	 * {@link #verify(File)} 的结果相同。
+	 *
+	 * @author Lucifer Wong
+	 * @param file
+	 *            待校验的文件
+	 * @param index
+	 *            块序号
+	 * @return 一致返回 true
+	 * @throws IOException
+	 *             读取出错
+	 */
+	public boolean verifyChunk(File file, int index) throws IOException {
+		if (index < 0 || index >= digests.length) {
+			throw new IndexOutOfBoundsException("chunk index " + index + " out of [0, " + digests.length + ")");
+		}
+		try (FileInputStream in = new FileInputStream(file)) {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			long limit = (long) (index + 1) * chunkSize;
+			long end = Math.min(limit, length);
+			if (Math.min(limit, size) != end) {
+				// 文件被截断或在该块内追加了内容
+				return false;
+			}
+			return Arrays.equals(digests[index], hashChunk(channel, algorithm, chunkSize, end, index));
+		}
+	}
+
+	/**
+	 * 把清单写到文件中，会覆盖已有文件。
+	 *
+	 * @author Lucifer Wong
+	 * @param manifestFile
+	 *            清单文件
+	 * @throws IOException
+	 *             写入出错
+	 */
+	public void write(File manifestFile) throws IOException {
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(manifestFile), "UTF-8")) {
+			writer.write(HEADER);
+			writer.write('\n');
+			writer.write("algorithm=" + algorithm + "\n");
+			writer.write("chunkSize=" + chunkSize + "\n");
+			writer.write("length=" + length + "\n");
+			writer.write("root=" + getRootHex() + "\n");
+			for (int i = 0; i < digests.length; i++) {
+				writer.write(i + " " + getChunkHex(i) + "\n");
+			}
+			writer.flush();
+		}
+	}
+}
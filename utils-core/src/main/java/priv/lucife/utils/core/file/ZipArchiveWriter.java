@@ -0,0 +1,402 @@
+/**
+ * Copyright (C) 2017 Lucifer Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package priv.lucife.utils.core.file;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import priv.lucife.utils.core.io.BufferPool;
+import priv.lucife.utils.core.io.IOUtil;
+
+/**
+ * 并行压缩的 zip 写入器。
+ * <p>
+ * 每个条目在工作线程中独立压缩为原始 deflate 数据（小文件放在内存中，大文件放在临时文件中），再由调用线程按顺序写入 zip 文件。
+ * 同时在途的条目数有上限，内存占用有界。{@link java.util.zip.ZipOutputStream} 不能写入预先压缩好的数据，所以这里直接按 zip
+ * 格式写出本地文件头、数据和中央目录，需要时使用 ZIP64 扩展。
+ *
+ * @author Lucifer Wong
+ */
+final class ZipArchiveWriter {
+
+	/**
+	 * 要写入的条目，file 为 null 时表示目录
+	 */
+	static final class Entry {
+		final String name;
+		final File file;
+
+		Entry(String name, File file) {
+			this.name = name;
+			this.file = file;
+		}
+	}
+
+	/**
+	 * 压缩完成、等待写入的条目
+	 */
+	private static final class Compressed {
+		String name;
+		long time;
+		int method;
+		long crc;
+		long size;
+		long compressedSize;
+		byte[] data;
+		File spill;
+		long offset;
+	}
+
+	/**
+	 * 超过此大小的条目压缩到临时文件
+	 */
+	private static final long IN_MEMORY_LIMIT = 8L * 1024 * 1024;
+
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+	private static final int UTF8_FLAG = 0x0800;
+	private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+	private ZipArchiveWriter() {
+	}
+
+	/**
+	 * 并行压缩并写入 zip 文件
+	 *
+	 * @param entries
+	 *            条目
+	 * @param out
+	 *            输出流，不会被关闭
+	 * @param parallelism
+	 *            压缩线程数
+	 * @param level
+	 *            压缩级别
+	 * @throws IOException
+	 *             压缩或写入出错
+	 */
+	static void write(List<Entry> entries, OutputStream out, int parallelism, final int level) throws IOException {
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("parallelism must be positive, actual was " + parallelism);
+		}
+		CountingOutputStream counting = new CountingOutputStream(new BufferedOutputStream(out, 65536));
+		List<Compressed> written = new ArrayList<>(entries.size());
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+		Deque<Future<Compressed>> window = new ArrayDeque<>();
+		final AtomicBoolean aborted = new AtomicBoolean();
+		try {
+			for (final Entry entry : entries) {
+				window.add(executor.submit(new Callable<Compressed>() {
+					@Override
+					public Compressed call() throws IOException {
+						Compressed compressed = compress(entry, level);
+						if (aborted.get()) {
+							// 写入已中止，结果不会再被取走
+							deleteSpill(compressed);
+						}
+						return compressed;
+					}
+				}));
+				if (window.size() >= parallelism * 2) {
+					written.add(writeEntry(counting, window.poll()));
+				}
+			}
+			while (!window.isEmpty()) {
+				written.add(writeEntry(counting, window.poll()));
+			}
+			writeCentralDirectory(counting, written);
+			counting.flush();
+		} finally {
+			aborted.set(true);
+			executor.shutdownNow();
+			try {
+				// 等待正在压缩的条目完成，之后所有临时文件都能在下面删除
+				while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+					// 继续等待
+				}
+			} catch (InterruptedException e) {
+				// 来不及完成的条目由任务自己删除临时文件
+				Thread.currentThread().interrupt();
+			}
+			for (Future<Compressed> future : window) {
+				if (future.isDone() && !future.isCancelled()) {
+					try {
+						deleteSpill(future.get());
+					} catch (Exception ignored) {
+						// 压缩失败的条目没有临时文件
+					}
+				}
+			}
+		}
+	}
+
+	private static Compressed compress(Entry entry, int level) throws IOException {
+		Compressed result = new Compressed();
+		result.name = entry.name;
+		if (entry.file == null) {
+			result.time = System.currentTimeMillis();
+			result.method = STORED;
+			result.data = new byte[0];
+			return result;
+		}
+		result.time = entry.file.lastModified();
+		result.method = DEFLATED;
+
+		OutputStream sink;
+		ByteArrayOutputStream memory = null;
+		if (entry.file.length() > IN_MEMORY_LIMIT) {
+			result.spill = File.createTempFile("zip-entry", ".deflate");
+			sink = new BufferedOutputStream(new FileOutputStream(result.spill), 65536);
+		} else {
+			memory = new ByteArrayOutputStream((int) Math.max(64, entry.file.length() / 2));
+			sink = memory;
+		}
+
+		CRC32 crc = new CRC32();
+		Deflater deflater = new Deflater(level, true);
+		byte[] buffer = BufferPool.getDefault().acquire(65536);
+		try (InputStream in = new FileInputStream(entry.file)) {
+			DeflaterOutputStream deflating = new DeflaterOutputStream(sink, deflater, 65536);
+			long size = 0;
+			for (int len = 0; (len = in.read(buffer)) != -1;) {
+				crc.update(buffer, 0, len);
+				deflating.write(buffer, 0, len);
+				size += len;
+			}
+			deflating.finish();
+			deflating.close();
+			result.crc = crc.getValue();
+			result.size = size;
+			result.compressedSize = deflater.getBytesWritten();
+		} catch (IOException e) {
+			IOUtil.close(sink);
+			deleteSpill(result);
+			throw new IOException("Error occurred while compressing [" + entry.file + "]", e);
+		} finally {
+			deflater.end();
+			BufferPool.getDefault().release(buffer);
+		}
+		if (memory != null) {
+			result.data = memory.toByteArray();
+		}
+		return result;
+	}
+
+	private static Compressed writeEntry(CountingOutputStream out, Future<Compressed> future) throws IOException {
+		Compressed entry;
+		try {
+			entry = future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while compressing zip entries", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Error occurred while compressing zip entry", e.getCause());
+		}
+
+		try {
+			entry.offset = out.count;
+			byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+			boolean zip64 = entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC;
+			writeInt(out, 0x04034b50L);
+			writeShort(out, zip64 ? 45 : 20);
+			writeShort(out, UTF8_FLAG);
+			writeShort(out, entry.method);
+			writeInt(out, dosTime(entry.time));
+			writeInt(out, entry.crc);
+			writeInt(out, zip64 ? ZIP64_MAGIC : entry.compressedSize);
+			writeInt(out, zip64 ? ZIP64_MAGIC : entry.size);
+			writeShort(out, name.length);
+			writeShort(out, zip64 ? 20 : 0);
+			out.write(name);
+			if (zip64) {
+				writeShort(out, 0x0001);
+				writeShort(out, 16);
+				writeLong(out, entry.size);
+				writeLong(out, entry.compressedSize);
+			}
+			if (entry.spill != null) {
+				IOUtil.transfer(entry.spill, out);
+			} else {
+				out.write(entry.data);
+			}
+		} finally {
+			deleteSpill(entry);
+			entry.data = null;
+		}
+		return entry;
+	}
+
+	private static void writeCentralDirectory(CountingOutputStream out, List<Compressed> entries) throws IOException {
+		long start = out.count;
+		for (Compressed entry : entries) {
+			byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+			boolean bigSize = entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC;
+			boolean bigOffset = entry.offset >= ZIP64_MAGIC;
+			int extra = (bigSize ? 16 : 0) + (bigOffset ? 8 : 0);
+			writeInt(out, 0x02014b50L);
+			writeShort(out, extra > 0 ? 45 : 20);
+			writeShort(out, extra > 0 ? 45 : 20);
+			writeShort(out, UTF8_FLAG);
+			writeShort(out, entry.method);
+			writeInt(out, dosTime(entry.time));
+			writeInt(out, entry.crc);
+			writeInt(out, bigSize ? ZIP64_MAGIC : entry.compressedSize);
+			writeInt(out, bigSize ? ZIP64_MAGIC : entry.size);
+			writeShort(out, name.length);
+			writeShort(out, extra > 0 ? extra + 4 : 0);
+			writeShort(out, 0);
+			writeShort(out, 0);
+			writeShort(out, 0);
+			// 目录的 MS-DOS 目录属性
+			writeInt(out, entry.name.endsWith("/") ? 0x10 : 0);
+			writeInt(out, bigOffset ? ZIP64_MAGIC : entry.offset);
+			out.write(name);
+			if (extra > 0) {
+				writeShort(out, 0x0001);
+				writeShort(out, extra);
+				if (bigSize) {
+					writeLong(out, entry.size);
+					writeLong(out, entry.compressedSize);
+				}
+				if (bigOffset) {
+					writeLong(out, entry.offset);
+				}
+			}
+		}
+		long end = out.count;
+		long count = entries.size();
+		long size = end - start;
+
+		if (count >= 0xFFFF || size >= ZIP64_MAGIC || start >= ZIP64_MAGIC) {
+			// ZIP64 end of central directory record 和 locator
+			writeInt(out, 0x06064b50L);
+			writeLong(out, 44);
+			writeShort(out, 45);
+			writeShort(out, 45);
+			writeInt(out, 0);
+			writeInt(out, 0);
+			writeLong(out, count);
+			writeLong(out, count);
+			writeLong(out, size);
+			writeLong(out, start);
+			writeInt(out, 0x07064b50L);
+			writeInt(out, 0);
+			writeLong(out, end);
+			writeInt(out, 1);
+		}
+		writeInt(out, 0x06054b50L);
+		writeShort(out, 0);
+		writeShort(out, 0);
+		writeShort(out, (int) Math.min(count, 0xFFFF));
+		writeShort(out, (int) Math.min(count, 0xFFFF));
+		writeInt(out, Math.min(size, ZIP64_MAGIC));
+		writeInt(out, Math.min(start, ZIP64_MAGIC));
+		writeShort(out, 0);
+	}
+
+	private static void deleteSpill(Compressed entry) {
+		if (entry != null && entry.spill != null) {
+			entry.spill.delete();
+			entry.spill = null;
+		}
+	}
+
+	/**
+	 * 转换为 MS-DOS 格式的日期时间，1980 年之前的时间按 1980-01-01 处理
+	 */
+	private static long dosTime(long time) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(time);
+		int year = calendar.get(Calendar.YEAR);
+		if (year < 1980) {
+			return (1 << 21) | (1 << 16);
+		}
+		return ((long) (year - 1980) << 25) | ((calendar.get(Calendar.MONTH) + 1) << 21)
+				| (calendar.get(Calendar.DAY_OF_MONTH) << 16) | (calendar.get(Calendar.HOUR_OF_DAY) << 11)
+				| (calendar.get(Calendar.MINUTE) << 5) | (calendar.get(Calendar.SECOND) >> 1);
+	}
+
+	private static void writeShort(OutputStream out, int value) throws IOException {
+		out.write(value & 0xFF);
+		out.write((value >>> 8) & 0xFF);
+	}
+
+	private static void writeInt(OutputStream out, long value) throws IOException {
+		writeShort(out, (int) (value & 0xFFFF));
+		writeShort(out, (int) ((value >>> 16) & 0xFFFF));
+	}
+
+	private static void writeLong(OutputStream out, long value) throws IOException {
+		writeInt(out, value & 0xFFFFFFFFL);
+		writeInt(out, value >>> 32);
+	}
+
+	/**
+	 * 记录已写入字节数（即当前偏移）的输出流
+	 */
+	private static final class CountingOutputStream extends OutputStream {
+		private final OutputStream out;
+		long count;
+
+		CountingOutputStream(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+}
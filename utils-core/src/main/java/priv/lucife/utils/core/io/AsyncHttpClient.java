@@ -0,0 +1,760 @@
+/**
+ * Copyright (C) 2017 Lucifer Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package priv.lucife.utils.core.io;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import priv.lucife.utils.core.annotation.UBTCompatible;
+
+/**
+ * 异步 http 客户端。
+ * <p>
+ * 基于 {@link HttpURLConnection} 实现：响应体读完并关闭后，连接由 JDK 的 keep-alive 缓存按主机复用（每个主机缓存的空闲连接数由系统属性
+ * {@code http.maxConnections} 控制）。请求在内部线程池上执行，总并发数和每个主机的并发数都有上限；结果以 {@link Future} 返回，
+ * 也可以通过 {@link Callback} 得到通知。响应体交给 {@link BodyHandler} 以流的方式处理，不必整体读入内存。主机并发已满时，
+ * 异步请求在该主机的队列中等待，不占用线程，其他主机的请求不受影响。
+ * <p>
+ * {@link HttpURLConnection} 不支持 HTTP/1.1 管线化，{@link #sendAll(List, BodyHandler)}
+ * 的做法是把同一主机的请求分到若干条通道上，每条通道在同一个持久连接上依次发送。
+ *
+ * @author Lucifer Wong
+ */
+@UBTCompatible
+public final class AsyncHttpClient implements Closeable {
+
+	/**
+	 * 响应体处理器，以流的方式读取响应体。
+	 *
+	 * @author Lucifer Wong
+	 * @param <T>
+	 *            处理结果类型
+	 */
+	public interface BodyHandler<T> {
+
+		/**
+		 * 处理响应体，不需要关闭输入流；未读完的部分不超过 64KB 时读完丢弃，以便连接可以复用，否则断开连接。
+		 *
+		 * @param status
+		 *            响应码
+		 * @param headers
+		 *            响应头
+		 * @param body
+		 *            响应体输入流，已按 Content-Encoding 解压
+		 * @return 处理结果
+		 * @throws IOException
+		 *             读取出错
+		 */
+		T handle(int status, Map<String, List<String>> headers, InputStream body) throws IOException;
+	}
+
+	/**
+	 * 异步请求完成时的回调，在执行请求的线程中调用。
+	 *
+	 * @author Lucifer Wong
+	 * @param <T>
+	 *            响应体处理结果类型
+	 */
+	public interface Callback<T> {
+
+		/**
+		 * 请求成功
+		 *
+		 * @param response
+		 *            响应
+		 */
+		void completed(Response<T> response);
+
+		/**
+		 * 请求失败
+		 *
+		 * @param e
+		 *            异常
+		 */
+		void failed(Exception e);
+	}
+
+	/**
+	 * http 请求
+	 *
+	 * @author Lucifer Wong
+	 */
+	public static final class Request {
+
+		private final String method;
+		private final URL url;
+		private final byte[] body;
+		private final Map<String, String> headers = new LinkedHashMap<>();
+		private int connectTimeout = DEFAULT_TIMEOUT;
+		private int readTimeout = DEFAULT_TIMEOUT;
+
+		private Request(String method, String url, byte[] body) throws IOException {
+			this.method = method;
+			this.url = new URL(url);
+			this.body = body;
+		}
+
+		/**
+		 * 创建 GET 请求
+		 *
+		 * @param url
+		 *            请求地址
+		 * @return 请求
+		 * @throws IOException
+		 *             地址格式错误
+		 */
+		public static Request get(String url) throws IOException {
+			return new Request("GET", url, null);
+		}
+
+		/**
+		 * 创建 POST 请求
+		 *
+		 * @param url
+		 *            请求地址
+		 * @param body
+		 *            请求体
+		 * @return 请求
+		 * @throws IOException
+		 *             地址格式错误
+		 */
+		public static Request post(String url, byte[] body) throws IOException {
+			return new Request("POST", url, body);
+		}
+
+		/**
+		 * 设置请求头
+		 *
+		 * @param name
+		 *            名称
+		 * @param value
+		 *            值
+		 * @return 当前请求
+		 */
+		public Request header(String name, String value) {
+			headers.put(name, value);
+			return this;
+		}
+
+		/**
+		 * 设置连接和读取超时
+		 *
+		 * @param connectMillis
+		 *            连接超时（毫秒）
+		 * @param readMillis
+		 *            读取超时（毫秒）
+		 * @return 当前请求
+		 */
+		public Request timeout(int connectMillis, int readMillis) {
+			this.connectTimeout = connectMillis;
+			this.readTimeout = readMillis;
+			return this;
+		}
+
+		/**
+		 * @return 请求方法
+		 */
+		public String getMethod() {
+			return method;
+		}
+
+		/**
+		 * @return 请求地址
+		 */
+		public URL getUrl() {
+			return url;
+		}
+
+		@Override
+		public String toString() {
+			return method + " " + url;
+		}
+	}
+
+	/**
+	 * http 响应
+	 *
+	 * @author Lucifer Wong
+	 * @param <T>
+	 *            响应体处理结果类型
+	 */
+	public static final class Response<T> {
+
+		private final int status;
+		private final Map<String, List<String>> headers;
+		private final T body;
+
+		private Response(int status, Map<String, List<String>> headers, T body) {
+			this.status = status;
+			this.headers = headers;
+			this.body = body;
+		}
+
+		/**
+		 * @return 响应码
+		 */
+		public int getStatus() {
+			return status;
+		}
+
+		/**
+		 * @return 响应头
+		 */
+		public Map<String, List<String>> getHeaders() {
+			return headers;
+		}
+
+		/**
+		 * @return 响应体处理结果
+		 */
+		public T getBody() {
+			return body;
+		}
+	}
+
+	/**
+	 * 默认超时：60秒
+	 */
+	public static final int DEFAULT_TIMEOUT = 60000;
+
+	/**
+	 * 默认总并发数
+	 */
+	public static final int DEFAULT_MAX_CONCURRENCY = 64;
+
+	/**
+	 * 默认每个主机的并发数
+	 */
+	public static final int DEFAULT_MAX_PER_HOST = 8;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * 处理器返回后最多读完并丢弃的剩余字节数
+	 */
+	private static final int MAX_DRAIN = 64 * 1024;
+
+	/**
+	 * 以默认字符集把响应体读成字符串
+	 *
+	 * @author Lucifer Wong
+	 * @return 响应体处理器
+	 */
+	public static BodyHandler<String> ofString() {
+		return ofString(Charset.defaultCharset());
+	}
+
+	/**
+	 * 以指定字符集把响应体读成字符串
+	 *
+	 * @author Lucifer Wong
+	 * @param charset
+	 *            字符集
+	 * @return 响应体处理器
+	 */
+	public static BodyHandler<String> ofString(final Charset charset) {
+		return new BodyHandler<String>() {
+			@Override
+			public String handle(int status, Map<String, List<String>> headers, InputStream body) throws IOException {
+				Reader reader = new InputStreamReader(body, charset);
+				StringBuilder sb = new StringBuilder();
+				char[] buffer = new char[BUFFER_SIZE];
+				for (int len = 0; (len = reader.read(buffer)) != -1;) {
+					sb.append(buffer, 0, len);
+				}
+				return sb.toString();
+			}
+		};
+	}
+
+	/**
+	 * 把响应体读成字节数组
+	 *
+	 * @author Lucifer Wong
+	 * @return 响应体处理器
+	 */
+	public static BodyHandler<byte[]> ofBytes() {
+		return new BodyHandler<byte[]>() {
+			@Override
+			public byte[] handle(int status, Map<String, List<String>> headers, InputStream body) throws IOException {
+				return IOUtil.inputStreamToBytes(body);
+			}
+		};
+	}
+
+	/**
+	 * 把响应体流式写入文件
+	 *
+	 * @author Lucifer Wong
+	 * @param file
+	 *            目标文件，已存在时覆盖
+	 * @return 响应体处理器
+	 */
+	public static BodyHandler<File> ofFile(final File file) {
+		return new BodyHandler<File>() {
+			@Override
+			public File handle(int status, Map<String, List<String>> headers, InputStream body) throws IOException {
+				try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+					IOUtil.transfer(body, out);
+				}
+				return file;
+			}
+		};
+	}
+
+	/**
+	 * 丢弃响应体，只关心响应码和响应头。响应体较大时断开连接，不会读完
+	 *
+	 * @author Lucifer Wong
+	 * @return 响应体处理器
+	 */
+	public static BodyHandler<Void> discarding() {
+		return new BodyHandler<Void>() {
+			@Override
+			public Void handle(int status, Map<String, List<String>> headers, InputStream body) {
+				return null;
+			}
+		};
+	}
+
+	private final ThreadPoolExecutor executor;
+
+	private final Semaphore concurrency;
+
+	private final int maxPerHost;
+
+	private final ConcurrentMap<String, Host> hosts = new ConcurrentHashMap<>();
+
+	/**
+	 * 一个主机的并发许可和等待许可的异步任务
+	 */
+	private static final class Host {
+		final Semaphore permits;
+		final Queue<HostTask> pending = new ArrayDeque<>();
+
+		Host(int maxPerHost) {
+			permits = new Semaphore(maxPerHost);
+		}
+	}
+
+	/**
+	 * 持有一个主机许可、依次执行的一组请求。执行完后把许可直接交给该主机下一个等待的任务，在同一线程上继续执行
+	 */
+	private static final class HostTask implements Runnable {
+		final Host host;
+		final List<? extends FutureTask<?>> tasks;
+
+		HostTask(Host host, List<? extends FutureTask<?>> tasks) {
+			this.host = host;
+			this.tasks = tasks;
+		}
+
+		@Override
+		public void run() {
+			HostTask current = this;
+			while (current != null) {
+				for (FutureTask<?> task : current.tasks) {
+					task.run();
+				}
+				synchronized (host) {
+					current = host.pending.poll();
+					if (current == null) {
+						host.permits.release();
+					}
+				}
+			}
+		}
+
+		void cancel() {
+			for (FutureTask<?> task : tasks) {
+				task.cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * 使用默认并发数创建客户端
+	 */
+	public AsyncHttpClient() {
+		this(DEFAULT_MAX_CONCURRENCY, DEFAULT_MAX_PER_HOST);
+	}
+
+	/**
+	 * 创建客户端
+	 *
+	 * @param maxConcurrency
+	 *            总并发数，同时也是内部线程池的线程数
+	 * @param maxPerHost
+	 *            每个主机的并发数
+	 */
+	public AsyncHttpClient(int maxConcurrency, int maxPerHost) {
+		if (maxConcurrency <= 0 || maxPerHost <= 0) {
+			throw new IllegalArgumentException(
+					"concurrency must be positive, actual was " + maxConcurrency + "/" + maxPerHost);
+		}
+		this.concurrency = new Semaphore(maxConcurrency);
+		this.maxPerHost = maxPerHost;
+		this.executor = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "async-http-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * 在当前线程同步发送请求，同样受并发数限制。
+	 *
+	 * @author Lucifer Wong
+	 * @param request
+	 *            请求
+	 * @param handler
+	 *            响应体处理器
+	 * @return 响应
+	 * @throws IOException
+	 *             请求失败
+	 */
+	public <T> Response<T> send(Request request, BodyHandler<T> handler) throws IOException {
+		// 先取主机许可再取总许可，等待慢主机时不占用总并发
+		Host host = host(request);
+		acquire(host.permits, request);
+		try {
+			return sendWithHostPermit(request, handler);
+		} finally {
+			host.permits.release();
+			drain(host);
+		}
+	}
+
+	private <T> Response<T> sendWithHostPermit(Request request, BodyHandler<T> handler) throws IOException {
+		acquire(concurrency, request);
+		try {
+			return execute(request, handler);
+		} finally {
+			concurrency.release();
+		}
+	}
+
+	private static void acquire(Semaphore permits, Request request) throws IOException {
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting to send " + request, e);
+		}
+	}
+
+	/**
+	 * 异步发送请求
+	 *
+	 * @author Lucifer Wong
+	 * @param request
+	 *            请求
+	 * @param handler
+	 *            响应体处理器
+	 * @return 响应的 Future
+	 */
+	public <T> Future<Response<T>> sendAsync(Request request, BodyHandler<T> handler) {
+		return sendAsync(request, handler, null);
+	}
+
+	/**
+	 * 异步发送请求，完成后调用回调
+	 *
+	 * @author Lucifer Wong
+	 * @param request
+	 *            请求
+	 * @param handler
+	 *            响应体处理器
+	 * @param callback
+	 *            回调，可以为 null
+	 * @return 响应的 Future
+	 */
+	public <T> Future<Response<T>> sendAsync(final Request request, final BodyHandler<T> handler,
+			final Callback<T> callback) {
+		FutureTask<Response<T>> task = newTask(request, handler, callback);
+		dispatch(new HostTask(host(request), Collections.singletonList(task)));
+		return task;
+	}
+
+	/**
+	 * 批量发送请求。同一主机的请求最多分为 maxPerHost 条通道，每条通道依次复用同一个持久连接。
+	 *
+	 * @author Lucifer Wong
+	 * @param requests
+	 *            请求列表
+	 * @param handler
+	 *            响应体处理器
+	 * @return 与 requests 一一对应的 Future
+	 */
+	public <T> List<Future<Response<T>>> sendAll(List<Request> requests, BodyHandler<T> handler) {
+		List<Future<Response<T>>> futures = new ArrayList<>(requests.size());
+		Map<String, List<FutureTask<Response<T>>>> byHost = new LinkedHashMap<>();
+		if (executor.isShutdown()) {
+			throw new RejectedExecutionException("Client is closed");
+		}
+		for (Request request : requests) {
+			FutureTask<Response<T>> task = newTask(request, handler, null);
+			futures.add(task);
+			String host = hostKey(request);
+			List<FutureTask<Response<T>>> tasks = byHost.get(host);
+			if (tasks == null) {
+				tasks = new ArrayList<>();
+				byHost.put(host, tasks);
+			}
+			tasks.add(task);
+		}
+
+		for (Map.Entry<String, List<FutureTask<Response<T>>>> entry : byHost.entrySet()) {
+			List<FutureTask<Response<T>>> tasks = entry.getValue();
+			Host host = host(entry.getKey());
+			int lanes = Math.min(maxPerHost, tasks.size());
+			for (int lane = 0; lane < lanes; lane++) {
+				List<FutureTask<Response<T>>> laneTasks = new ArrayList<>();
+				for (int i = lane; i < tasks.size(); i += lanes) {
+					laneTasks.add(tasks.get(i));
+				}
+				dispatch(new HostTask(host, laneTasks));
+			}
+		}
+		return futures;
+	}
+
+	/**
+	 * @return 正在执行的请求数
+	 */
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	/**
+	 * @return 排队等待执行的请求数
+	 */
+	public int getQueuedCount() {
+		int queued = executor.getQueue().size();
+		for (Host host : hosts.values()) {
+			synchronized (host) {
+				for (HostTask task : host.pending) {
+					queued += task.tasks.size();
+				}
+			}
+		}
+		return queued;
+	}
+
+	/**
+	 * 关闭客户端，已提交的请求会继续执行完
+	 */
+	@Override
+	public void close() {
+		executor.shutdown();
+	}
+
+	private <T> FutureTask<Response<T>> newTask(final Request request, final BodyHandler<T> handler,
+			final Callback<T> callback) {
+		return new FutureTask<Response<T>>(new Callable<Response<T>>() {
+			@Override
+			public Response<T> call() throws Exception {
+				Response<T> response;
+				try {
+					// 由 HostTask 持有主机许可
+					response = sendWithHostPermit(request, handler);
+				} catch (Exception e) {
+					if (callback != null) {
+						callback.failed(e);
+					}
+					throw e;
+				}
+				if (callback != null) {
+					callback.completed(response);
+				}
+				return response;
+			}
+		});
+	}
+
+	private <T> Response<T> execute(Request request, BodyHandler<T> handler) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) request.url.openConnection();
+		conn.setRequestMethod(request.method);
+		conn.setConnectTimeout(request.connectTimeout);
+		conn.setReadTimeout(request.readTimeout);
+		conn.setInstanceFollowRedirects(true);
+		for (Map.Entry<String, String> header : request.headers.entrySet()) {
+			conn.setRequestProperty(header.getKey(), header.getValue());
+		}
+
+		if (request.body != null) {
+			conn.setDoOutput(true);
+			conn.setFixedLengthStreamingMode(request.body.length);
+			try (OutputStream out = conn.getOutputStream()) {
+				out.write(request.body);
+			}
+		}
+
+		int status = conn.getResponseCode();
+		Map<String, List<String>> headers = conn.getHeaderFields();
+		InputStream in;
+		if (status >= HttpURLConnection.HTTP_BAD_REQUEST) {
+			in = conn.getErrorStream();
+		} else {
+			in = IOUtil.getInputStream(conn);
+		}
+		if (in == null) {
+			return new Response<T>(status, headers, handler.handle(status, headers, emptyStream()));
+		}
+		try {
+			T body = handler.handle(status, headers, in);
+			if (!drain(in)) {
+				// 剩余内容太多，断开连接，不占用工作线程继续读
+				conn.disconnect();
+			}
+			return new Response<T>(status, headers, body);
+		} catch (IOException e) {
+			// 读取失败的连接不能再复用
+			conn.disconnect();
+			throw new IOException("Error occurred while reading response of " + request, e);
+		} finally {
+			IOUtil.close(in);
+		}
+	}
+
+	private Host host(Request request) {
+		return host(hostKey(request));
+	}
+
+	private Host host(String key) {
+		Host host = hosts.get(key);
+		if (host == null) {
+			Host created = new Host(maxPerHost);
+			host = hosts.putIfAbsent(key, created);
+			if (host == null) {
+				host = created;
+			}
+		}
+		return host;
+	}
+
+	/**
+	 * 能取到主机许可时交给线程池执行，否则在主机队列中等待
+	 */
+	private void dispatch(HostTask task) {
+		if (executor.isShutdown()) {
+			throw new RejectedExecutionException("Client is closed");
+		}
+		synchronized (task.host) {
+			if (!task.host.permits.tryAcquire()) {
+				task.host.pending.add(task);
+				return;
+			}
+		}
+		submit(task);
+	}
+
+	/**
+	 * 同步请求归还主机许可后，把许可交给等待中的异步任务
+	 */
+	private void drain(Host host) {
+		List<HostTask> ready = new ArrayList<>();
+		synchronized (host) {
+			while (!host.pending.isEmpty() && host.permits.tryAcquire()) {
+				ready.add(host.pending.poll());
+			}
+		}
+		for (HostTask task : ready) {
+			try {
+				submit(task);
+			} catch (RejectedExecutionException e) {
+				// 客户端已关闭，任务已取消
+			}
+		}
+	}
+
+	private void submit(HostTask task) {
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			task.host.permits.release();
+			task.cancel();
+			throw e;
+		}
+	}
+
+	private static String hostKey(Request request) {
+		URL url = request.url;
+		return url.getProtocol() + "://" + url.getHost() + ":" + (url.getPort() < 0 ? url.getDefaultPort() : url.getPort());
+	}
+
+	/**
+	 * 读完剩余的响应体，使连接可以放回 keep-alive 缓存。与 JDK 的 keep-alive 缓存一样只回收少量剩余数据，超过 {@link #MAX_DRAIN}
+	 * 字节时放弃
+	 *
+	 * @return 是否已读完
+	 */
+	private static boolean drain(InputStream in) throws IOException {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		long total = 0;
+		int count;
+		while ((count = in.read(buffer)) != -1) {
+			total += count;
+			if (total > MAX_DRAIN) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static InputStream emptyStream() {
+		return new InputStream() {
+			@Override
+			public int read() {
+				return -1;
+			}
+		};
+	}
+}
@@ -0,0 +1,419 @@
+/**
+ * Copyright (C) 2017 Lucifer Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package priv.lucife.utils.core.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import priv.lucife.utils.core.annotation.UBTCompatible;
+
+/**
+ * 按大小分级的缓冲区池，提供堆内 byte[] 和直接内存 {@link ByteBuffer} 两种缓冲区。
+ * <p>
+ * 缓冲区大小按 2 的幂次从 {@value #MIN_SIZE} 字节分级到 {@value #MAX_SIZE} 字节，申请时向上取整到所在级别，超出最大级别的申请直接分配且不回收。
+ * 不超过 {@value #LOCAL_MAX_SIZE} 字节的级别，每个线程先从自己的本地缓存取，取不到再从共享池取；更大的级别只走共享池。每个级别在共享池中保留的字节数有上限，超出的缓冲区交给
+ * GC。
+ * <p>
+ * 用法：
+ *
+ * <pre>
+ * byte[] buffer = BufferPool.getDefault().acquire(8192);
+ * try {
+ * 	// 使用 buffer，长度可能大于申请的大小
+ * } finally {
+ * 	BufferPool.getDefault().release(buffer);
+ * }
+ * </pre>
+ * <p>
+ * 释放后不能再使用缓冲区，同一缓冲区也不能释放两次。调试模式（系统属性 {@code priv.lucife.utils.core.bufferPool.debug=true} 或
+ * {@link #setDebug(boolean)}）下会记录每个未归还缓冲区的申请位置，并在重复释放时抛出异常，用于排查泄漏。
+ *
+ * @author Lucifer Wong
+ */
+@UBTCompatible
+public final class BufferPool {
+
+	/**
+	 * 最小级别，4KB
+	 */
+	public static final int MIN_SIZE = 4096;
+
+	/**
+	 * 最大级别，1MB
+	 */
+	public static final int MAX_SIZE = 1024 * 1024;
+
+	/**
+	 * 调试模式的系统属性
+	 */
+	public static final String DEBUG_PROPERTY = "priv.lucife.utils.core.bufferPool.debug";
+
+	private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+
+	private static final int CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SHIFT + 1;
+
+	/**
+	 * 每个线程每个级别缓存的缓冲区数
+	 */
+	private static final int LOCAL_CAPACITY = 4;
+
+	/**
+	 * 线程本地缓存的最大级别，32KB。本地缓存不计入共享池上限，也不会随线程空闲而释放，只缓存小级别，每个线程每种缓冲区最多占用 240KB
+	 */
+	private static final int LOCAL_MAX_SIZE = 32 * 1024;
+
+	private static final int LOCAL_CLASSES = Integer.numberOfTrailingZeros(LOCAL_MAX_SIZE) - MIN_SHIFT + 1;
+
+	/**
+	 * 默认每个级别在共享池中保留的字节数
+	 */
+	private static final int DEFAULT_SHARED_BYTES_PER_CLASS = 2 * 1024 * 1024;
+
+	private static class DefaultHolder {
+		private static final BufferPool INSTANCE = new BufferPool(DEFAULT_SHARED_BYTES_PER_CLASS);
+	}
+
+	/**
+	 * 获取全局共享的缓冲区池，IOUtil、CompressUtil、FileUtil 等工具类都从这里取缓冲区
+	 *
+	 * @author Lucifer Wong
+	 * @return 缓冲区池
+	 */
+	public static BufferPool getDefault() {
+		return DefaultHolder.INSTANCE;
+	}
+
+	/**
+	 * 一种缓冲区（堆内或直接内存）的分级存储
+	 */
+	private abstract static class Arena<B> {
+
+		private final Queue<B>[] shared;
+		private final AtomicInteger[] sharedCounts;
+		private final int[] sharedCapacity;
+		private final ThreadLocal<Object[][]> local = new ThreadLocal<Object[][]>() {
+			@Override
+			protected Object[][] initialValue() {
+				return new Object[LOCAL_CLASSES][LOCAL_CAPACITY];
+			}
+		};
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		Arena(int sharedBytesPerClass) {
+			shared = new Queue[CLASSES];
+			sharedCounts = new AtomicInteger[CLASSES];
+			sharedCapacity = new int[CLASSES];
+			for (int i = 0; i < CLASSES; i++) {
+				shared[i] = new ConcurrentLinkedQueue<B>();
+				sharedCounts[i] = new AtomicInteger();
+				sharedCapacity[i] = Math.max(1, sharedBytesPerClass / sizeOf(i));
+			}
+		}
+
+		abstract B allocate(int size);
+
+		abstract int capacity(B buffer);
+
+		/**
+		 * 从池中取出，没有时返回 null
+		 */
+		@SuppressWarnings("unchecked")
+		B poll(int index) {
+			if (index < LOCAL_CLASSES) {
+				Object[] cache = local.get()[index];
+				for (int i = cache.length - 1; i >= 0; i--) {
+					if (cache[i] != null) {
+						B buffer = (B) cache[i];
+						cache[i] = null;
+						return buffer;
+					}
+				}
+			}
+			B buffer = shared[index].poll();
+			if (buffer != null) {
+				sharedCounts[index].decrementAndGet();
+			}
+			return buffer;
+		}
+
+		void offer(int index, B buffer) {
+			if (index < LOCAL_CLASSES) {
+				Object[] cache = local.get()[index];
+				for (int i = 0; i < cache.length; i++) {
+					if (cache[i] == null) {
+						cache[i] = buffer;
+						return;
+					}
+				}
+			}
+			if (sharedCounts[index].incrementAndGet() <= sharedCapacity[index]) {
+				shared[index].offer(buffer);
+			} else {
+				sharedCounts[index].decrementAndGet();
+			}
+		}
+
+		void clear() {
+			local.remove();
+			for (int i = 0; i < CLASSES; i++) {
+				while (shared[i].poll() != null) {
+					sharedCounts[i].decrementAndGet();
+				}
+			}
+		}
+	}
+
+	private final Arena<byte[]> heap;
+
+	private final Arena<ByteBuffer> direct;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong outstanding = new AtomicLong();
+
+	private final AtomicLong bytesInUse = new AtomicLong();
+
+	private volatile boolean debug = Boolean.getBoolean(DEBUG_PROPERTY);
+
+	private final Map<Object, Throwable> allocations = Collections
+			.synchronizedMap(new IdentityHashMap<Object, Throwable>());
+
+	/**
+	 * 创建缓冲区池
+	 *
+	 * @param sharedBytesPerClass
+	 *            每个级别在共享池中保留的最大字节数
+	 */
+	public BufferPool(int sharedBytesPerClass) {
+		heap = new Arena<byte[]>(sharedBytesPerClass) {
+			@Override
+			byte[] allocate(int size) {
+				return new byte[size];
+			}
+
+			@Override
+			int capacity(byte[] buffer) {
+				return buffer.length;
+			}
+		};
+		direct = new Arena<ByteBuffer>(sharedBytesPerClass) {
+			@Override
+			ByteBuffer allocate(int size) {
+				return ByteBuffer.allocateDirect(size);
+			}
+
+			@Override
+			int capacity(ByteBuffer buffer) {
+				return buffer.capacity();
+			}
+		};
+	}
+
+	/**
+	 * 申请堆内缓冲区
+	 *
+	 * @author Lucifer Wong
+	 * @param minSize
+	 *            最小长度
+	 * @return 缓冲区，长度不小于 minSize，内容未清零
+	 */
+	public byte[] acquire(int minSize) {
+		return acquire(heap, minSize);
+	}
+
+	/**
+	 * 归还堆内缓冲区
+	 *
+	 * @author Lucifer Wong
+	 * @param buffer
+	 *            由 {@link #acquire(int)} 申请的缓冲区，可以为 null
+	 */
+	public void release(byte[] buffer) {
+		release(heap, buffer);
+	}
+
+	/**
+	 * 申请直接内存缓冲区
+	 *
+	 * @author Lucifer Wong
+	 * @param minSize
+	 *            最小容量
+	 * @return 已 clear 的缓冲区，容量不小于 minSize
+	 */
+	public ByteBuffer acquireDirect(int minSize) {
+		ByteBuffer buffer = acquire(direct, minSize);
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * 归还直接内存缓冲区
+	 *
+	 * @author Lucifer Wong
+	 * @param buffer
+	 *            由 {@link #acquireDirect(int)} 申请的缓冲区，可以为 null
+	 */
+	public void releaseDirect(ByteBuffer buffer) {
+		release(direct, buffer);
+	}
+
+	private <B> B acquire(Arena<B> arena, int minSize) {
+		if (minSize < 0) {
+			throw new IllegalArgumentException("size must not be negative, actual was " + minSize);
+		}
+		int index = indexOf(minSize);
+		B buffer = null;
+		if (index >= 0) {
+			buffer = arena.poll(index);
+		}
+		if (buffer != null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+			buffer = arena.allocate(index >= 0 ? sizeOf(index) : minSize);
+		}
+		outstanding.incrementAndGet();
+		bytesInUse.addAndGet(arena.capacity(buffer));
+		if (debug) {
+			allocations.put(buffer, new Throwable("Buffer acquired here"));
+		}
+		return buffer;
+	}
+
+	private <B> void release(Arena<B> arena, B buffer) {
+		if (buffer == null) {
+			return;
+		}
+		if (debug && allocations.remove(buffer) == null) {
+			throw new IllegalStateException("Buffer released twice or not acquired from this pool");
+		}
+		int capacity = arena.capacity(buffer);
+		outstanding.decrementAndGet();
+		bytesInUse.addAndGet(-capacity);
+		if (capacity >= MIN_SIZE && capacity <= MAX_SIZE && Integer.bitCount(capacity) == 1) {
+			arena.offer(indexOf(capacity), buffer);
+		}
+	}
+
+	/**
+	 * 开启或关闭调试模式。开启前申请的缓冲区不在跟踪范围内。
+	 *
+	 * @author Lucifer Wong
+	 * @param debug
+	 *            是否开启
+	 */
+	public void setDebug(boolean debug) {
+		this.debug = debug;
+		if (!debug) {
+			allocations.clear();
+		}
+	}
+
+	/**
+	 * @return 是否为调试模式
+	 */
+	public boolean isDebug() {
+		return debug;
+	}
+
+	/**
+	 * 调试模式下，返回所有未归还缓冲区的申请位置
+	 *
+	 * @author Lucifer Wong
+	 * @return 申请位置的堆栈，非调试模式下为空
+	 */
+	public List<Throwable> getOutstandingAllocations() {
+		synchronized (allocations) {
+			return new ArrayList<>(allocations.values());
+		}
+	}
+
+	/**
+	 * @return 从池中取到缓冲区的次数
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return 新分配缓冲区的次数
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return 命中率，0 到 1
+	 */
+	public double getHitRate() {
+		long h = hits.get();
+		long total = h + misses.get();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	/**
+	 * @return 已申请未归还的缓冲区数
+	 */
+	public long getOutstanding() {
+		return outstanding.get();
+	}
+
+	/**
+	 * @return 已申请未归还的缓冲区总字节数
+	 */
+	public long getBytesInUse() {
+		return bytesInUse.get();
+	}
+
+	/**
+	 * 清空共享池和当前线程的本地缓存，统计不变
+	 */
+	public void clear() {
+		heap.clear();
+		direct.clear();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("BufferPool[hits=%d, misses=%d, hitRate=%.2f, outstanding=%d, bytesInUse=%d]", getHits(),
+				getMisses(), getHitRate(), getOutstanding(), getBytesInUse());
+	}
+
+	/**
+	 * 返回能容纳 size 字节的级别，超出最大级别时返回 -1
+	 */
+	private static int indexOf(int size) {
+		if (size > MAX_SIZE) {
+			return -1;
+		}
+		if (size <= MIN_SIZE) {
+			return 0;
+		}
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+	}
+
+	private static int sizeOf(int index) {
+		return 1 << (index + MIN_SHIFT);
+	}
+}
@@ -0,0 +1,561 @@
+/**
+ * Copyright (C) 2017 Lucifer Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package priv.lucife.utils.core.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import priv.lucife.utils.core.annotation.UBTCompatible;
+
+/**
+ * 批量并发抓取 URL 内容，按主机限制并发并共享 cookie，每个 URL 完成时回调 {@link Listener}，结束后返回吞吐量和延迟统计。
+ *
+ * @author Lucifer Wong
+ */
+@UBTCompatible
+public final class BulkUrlFetcher {
+
+	/**
+	 * 抓取结果回调。在执行抓取的线程中调用，实现必须是线程安全的。
+	 *
+	 * @author Lucifer Wong
+	 */
+	public interface Listener {
+
+		/**
+		 * 抓取成功
+		 *
+		 * @param url
+		 *            URL
+		 * @param content
+		 *            内容
+		 * @param nanos
+		 *            耗时（纳秒）
+		 */
+		void onSuccess(String url, byte[] content, long nanos);
+
+		/**
+		 * 抓取失败
+		 *
+		 * @param url
+		 *            URL
+		 * @param e
+		 *            异常
+		 * @param nanos
+		 *            耗时（纳秒）
+		 */
+		void onFailure(String url, Exception e, long nanos);
+	}
+
+	/**
+	 * 以 2 的幂次划分桶的延迟直方图，第 i 个桶记录 [2^(i-1), 2^i) 毫秒的请求，第 0 个桶记录 1 毫秒以内的请求。
+	 *
+	 * @author Lucifer Wong
+	 */
+	public static final class LatencyHistogram {
+
+		private static final int BUCKETS = 32;
+
+		private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong totalNanos = new AtomicLong();
+		private final AtomicLong maxNanos = new AtomicLong();
+
+		void record(long nanos) {
+			long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+			int bucket = millis == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+			counts.incrementAndGet(bucket);
+			count.incrementAndGet();
+			totalNanos.addAndGet(nanos);
+			long max;
+			while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+				// retry
+			}
+		}
+
+		/**
+		 * @return 记录数
+		 */
+		public long getCount() {
+			return count.get();
+		}
+
+		/**
+		 * @return 平均延迟（毫秒）
+		 */
+		public double getMeanMillis() {
+			long n = count.get();
+			return n == 0 ? 0 : totalNanos.get() / 1e6 / n;
+		}
+
+		/**
+		 * @return 最大延迟（毫秒）
+		 */
+		public double getMaxMillis() {
+			return maxNanos.get() / 1e6;
+		}
+
+		/**
+		 * 估算百分位延迟，返回所在桶的上界
+		 *
+		 * @param percentile
+		 *            百分位，0 到 100
+		 * @return 延迟上界（毫秒）
+		 */
+		public long getPercentileMillis(double percentile) {
+			long n = count.get();
+			if (n == 0) {
+				return 0;
+			}
+			long threshold = (long) Math.ceil(n * percentile / 100);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += counts.get(i);
+				if (seen >= threshold) {
+					return 1L << i;
+				}
+			}
+			return 1L << (BUCKETS - 1);
+		}
+
+		/**
+		 * @return 各个桶的计数
+		 */
+		public long[] getBuckets() {
+			long[] buckets = new long[BUCKETS];
+			for (int i = 0; i < BUCKETS; i++) {
+				buckets[i] = counts.get(i);
+			}
+			return buckets;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(String.format("count=%d mean=%.2fms p50<=%dms p90<=%dms p99<=%dms max=%.2fms", getCount(),
+					getMeanMillis(), getPercentileMillis(50), getPercentileMillis(90), getPercentileMillis(99),
+					getMaxMillis()));
+			for (int i = 0; i < BUCKETS; i++) {
+				long c = counts.get(i);
+				if (c > 0) {
+					sb.append(String.format("%n  <%6dms %d", 1L << i, c));
+				}
+			}
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * 一个批次的统计
+	 *
+	 * @author Lucifer Wong
+	 */
+	public static final class Stats {
+
+		private final AtomicLong succeeded = new AtomicLong();
+		private final AtomicLong failed = new AtomicLong();
+		private final AtomicLong bytes = new AtomicLong();
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private volatile long elapsedNanos;
+
+		/**
+		 * @return 成功数
+		 */
+		public long getSucceeded() {
+			return succeeded.get();
+		}
+
+		/**
+		 * @return 失败数
+		 */
+		public long getFailed() {
+			return failed.get();
+		}
+
+		/**
+		 * @return 读取的总字节数
+		 */
+		public long getBytes() {
+			return bytes.get();
+		}
+
+		/**
+		 * @return 批次总耗时（毫秒）
+		 */
+		public long getElapsedMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+		}
+
+		/**
+		 * @return 每秒完成的请求数
+		 */
+		public double getRequestsPerSecond() {
+			return elapsedNanos == 0 ? 0 : (succeeded.get() + failed.get()) * 1e9 / elapsedNanos;
+		}
+
+		/**
+		 * @return 每秒读取的字节数
+		 */
+		public double getBytesPerSecond() {
+			return elapsedNanos == 0 ? 0 : bytes.get() * 1e9 / elapsedNanos;
+		}
+
+		/**
+		 * @return 延迟直方图，包括失败的请求
+		 */
+		public LatencyHistogram getLatency() {
+			return latency;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("succeeded=%d failed=%d bytes=%d elapsed=%dms %.1f req/s %.1f KB/s%nlatency: %s",
+					getSucceeded(), getFailed(), getBytes(), getElapsedMillis(), getRequestsPerSecond(),
+					getBytesPerSecond() / 1024, latency);
+		}
+	}
+
+	/**
+	 * 默认总并发数
+	 */
+	public static final int DEFAULT_MAX_CONCURRENCY = 256;
+
+	/**
+	 * 默认每个主机的并发数
+	 */
+	public static final int DEFAULT_MAX_PER_HOST = 4;
+
+	private final int maxConcurrency;
+
+	private final int maxPerHost;
+
+	private boolean allowAllCerts = true;
+
+	private final ConcurrentMap<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+	/**
+	 * 有主机许可释放时通知等待的批次
+	 */
+	private final Object released = new Object();
+
+	private final ConcurrentMap<String, Map<String, Map<?, ?>>> hostCookies = new ConcurrentHashMap<>();
+
+	/**
+	 * 使用默认并发数创建
+	 */
+	public BulkUrlFetcher() {
+		this(DEFAULT_MAX_CONCURRENCY, DEFAULT_MAX_PER_HOST);
+	}
+
+	/**
+	 * 创建
+	 *
+	 * @param maxConcurrency
+	 *            总并发数
+	 * @param maxPerHost
+	 *            每个主机的并发数
+	 */
+	public BulkUrlFetcher(int maxConcurrency, int maxPerHost) {
+		if (maxConcurrency <= 0 || maxPerHost <= 0) {
+			throw new IllegalArgumentException(
+					"concurrency must be positive, actual was " + maxConcurrency + "/" + maxPerHost);
+		}
+		this.maxConcurrency = maxConcurrency;
+		this.maxPerHost = maxPerHost;
+	}
+
+	/**
+	 * 是否信任所有证书，默认为 true，与 {@link URLUtil#getContentFromUrl(String)} 一致
+	 *
+	 * @param allowAllCerts
+	 *            是否信任所有证书
+	 * @return 当前对象
+	 */
+	public BulkUrlFetcher setAllowAllCerts(boolean allowAllCerts) {
+		this.allowAllCerts = allowAllCerts;
+		return this;
+	}
+
+	/**
+	 * 获取某个主机的 cookie 存储，批次之间保留
+	 *
+	 * @param host
+	 *            主机名
+	 * @return cookie 存储，不存在时返回 null
+	 */
+	public Map<String, Map<?, ?>> getCookies(String host) {
+		return hostCookies.get(host);
+	}
+
+	/**
+	 * 清空所有主机的 cookie
+	 */
+	public void clearCookies() {
+		hostCookies.clear();
+	}
+
+	/**
+	 * 抓取一批 URL，阻塞直到全部完成。每个 URL 完成后立即回调 listener。
+	 *
+	 * @author Lucifer Wong
+	 * @param urls
+	 *            URL 列表
+	 * @param listener
+	 *            结果回调
+	 * @return 批次统计
+	 * @throws InterruptedException
+	 *             等待时被中断，未开始的 URL 不会再抓取
+	 */
+	public Stats fetch(Collection<String> urls, Listener listener) throws InterruptedException {
+		Stats stats = new Stats();
+		CountDownLatch done = new CountDownLatch(urls.size());
+		Semaphore concurrency = new Semaphore(maxConcurrency);
+		Map<String, Deque<String>> queues = new LinkedHashMap<>();
+		for (String url : urls) {
+			String host = hostOf(url);
+			Deque<String> queue = queues.get(host);
+			if (queue == null) {
+				queue = new ArrayDeque<>();
+				queues.put(host, queue);
+			}
+			queue.add(url);
+		}
+		ExecutorService executor = newExecutor();
+		long start = System.nanoTime();
+		try {
+			while (!queues.isEmpty()) {
+				concurrency.acquire();
+				Task task = null;
+				try {
+					task = next(queues, listener, stats, concurrency, done);
+					executor.execute(task);
+				} catch (InterruptedException | RuntimeException e) {
+					if (task != null) {
+						task.cancel();
+					} else {
+						concurrency.release();
+					}
+					throw e;
+				}
+			}
+			done.await();
+		} finally {
+			stats.elapsedNanos = System.nanoTime() - start;
+			for (Runnable task : executor.shutdownNow()) {
+				((Task) task).cancel();
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * 按主机轮流取出下一个 URL，等到某个有排队 URL 的主机有空闲许可为止。取到的主机移到队尾。
+	 */
+	private Task next(Map<String, Deque<String>> queues, Listener listener, Stats stats, Semaphore concurrency,
+			CountDownLatch done) throws InterruptedException {
+		synchronized (released) {
+			for (;;) {
+				for (Iterator<Map.Entry<String, Deque<String>>> it = queues.entrySet().iterator(); it.hasNext();) {
+					Map.Entry<String, Deque<String>> entry = it.next();
+					Semaphore permits = permits(entry.getKey());
+					if (permits.tryAcquire()) {
+						Deque<String> queue = entry.getValue();
+						String url = queue.poll();
+						it.remove();
+						if (!queue.isEmpty()) {
+							queues.put(entry.getKey(), queue);
+						}
+						return new Task(url, listener, stats, permits, concurrency, done);
+					}
+				}
+				released.wait();
+			}
+		}
+	}
+
+	/**
+	 * 一个 URL 的抓取，提交前已拿到总许可和主机许可，结束或取消时释放
+	 */
+	private final class Task implements Runnable {
+		private final String url;
+		private final Listener listener;
+		private final Stats stats;
+		private final Semaphore permits;
+		private final Semaphore concurrency;
+		private final CountDownLatch done;
+
+		Task(String url, Listener listener, Stats stats, Semaphore permits, Semaphore concurrency,
+				CountDownLatch done) {
+			this.url = url;
+			this.listener = listener;
+			this.stats = stats;
+			this.permits = permits;
+			this.concurrency = concurrency;
+			this.done = done;
+		}
+
+		@Override
+		public void run() {
+			try {
+				fetchOne(url, listener, stats);
+			} finally {
+				cancel();
+				done.countDown();
+			}
+		}
+
+		void cancel() {
+			permits.release();
+			concurrency.release();
+			synchronized (released) {
+				released.notifyAll();
+			}
+		}
+	}
+
+	private static String hostOf(String spec) {
+		try {
+			return URLUtil.getActualUrl(spec).getHost();
+		} catch (Exception e) {
+			// 无效的 URL 在抓取时报告失败
+			return "";
+		}
+	}
+
+	private void fetchOne(String spec, Listener listener, Stats stats) {
+		long start = System.nanoTime();
+		byte[] content;
+		try {
+			content = fetchContent(URLUtil.getActualUrl(spec));
+		} catch (Exception e) {
+			long nanos = System.nanoTime() - start;
+			stats.failed.incrementAndGet();
+			stats.latency.record(nanos);
+			listener.onFailure(spec, e, nanos);
+			return;
+		}
+		long nanos = System.nanoTime() - start;
+		stats.succeeded.incrementAndGet();
+		stats.bytes.addAndGet(content.length);
+		stats.latency.record(nanos);
+		listener.onSuccess(spec, content, nanos);
+	}
+
+	private byte[] fetchContent(URL url) throws IOException {
+		Map<String, Map<?, ?>> cookies = cookies(url.getHost());
+		URLConnection c = null;
+		try {
+			synchronized (cookies) {
+				c = URLUtil.getConnection(url, cookies, true, false, false, allowAllCerts);
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream(16384);
+			try (InputStream in = IOUtil.getInputStream(c)) {
+				IOUtil.transfer(in, out);
+			}
+			synchronized (cookies) {
+				URLUtil.getCookies(c, cookies);
+			}
+			// 不断开连接，读完的连接由 keep-alive 缓存复用
+			return out.toByteArray();
+		} catch (IOException e) {
+			if (c instanceof HttpURLConnection) {
+				drainErrorStream((HttpURLConnection) c);
+			}
+			throw e;
+		}
+	}
+
+	private Semaphore permits(String host) {
+		Semaphore permits = hostPermits.get(host);
+		if (permits == null) {
+			Semaphore created = new Semaphore(maxPerHost);
+			permits = hostPermits.putIfAbsent(host, created);
+			if (permits == null) {
+				permits = created;
+			}
+		}
+		return permits;
+	}
+
+	private Map<String, Map<?, ?>> cookies(String host) {
+		Map<String, Map<?, ?>> cookies = hostCookies.get(host);
+		if (cookies == null) {
+			Map<String, Map<?, ?>> created = new HashMap<>();
+			cookies = hostCookies.putIfAbsent(host, created);
+			if (cookies == null) {
+				cookies = created;
+			}
+		}
+		return cookies;
+	}
+
+	private static void drainErrorStream(HttpURLConnection c) {
+		InputStream in = c.getErrorStream();
+		if (in == null) {
+			return;
+		}
+		try {
+			byte[] buffer = new byte[8192];
+			while (in.read(buffer) != -1) {
+				// discard
+			}
+		} catch (IOException ignored) {
+			// 连接不会被复用
+		} finally {
+			IOUtil.close(in);
+		}
+	}
+
+	/**
+	 * JDK 21+ 使用虚拟线程，否则使用固定大小的守护线程池
+	 */
+	private ExecutorService newExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (Exception e) {
+			return Executors.newFixedThreadPool(maxConcurrency, new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "bulk-url-fetcher-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+	}
+}
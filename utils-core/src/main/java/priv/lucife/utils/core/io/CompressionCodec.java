@@ -0,0 +1,778 @@
+/**
+ * Copyright (C) 2017 Lucifer Wong
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package priv.lucife.utils.core.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import priv.lucife.utils.core.annotation.UBTCompatible;
+
+/**
+ * 字节数组的压缩编解码器。
+ * <p>
+ * 内置 {@link #GZIP}、{@link #ZLIB} 和原始 {@link #DEFLATE} 三种格式，压缩级别和策略可配置。内置实现按实例缓存 {@link Deflater} 和
+ * {@link Inflater}，避免每次调用都分配、释放本地内存，所以应当创建一次后重复使用，不要每次调用都新建。
+ * <p>
+ * 其他格式可以继承本类并通过 {@link #register(CompressionCodec)} 注册，之后用 {@link #forName(String)} 按名称取得，或用
+ * {@link #detect(byte[])} 按数据头识别。本类的实现必须是线程安全的。
+ *
+ * @author Lucifer Wong
+ */
+@UBTCompatible
+public abstract class CompressionCodec {
+
+	/**
+	 * gzip 格式（RFC 1952）
+	 */
+	public static final String GZIP = "gzip";
+
+	/**
+	 * zlib 格式（RFC 1950）
+	 */
+	public static final String ZLIB = "zlib";
+
+	/**
+	 * 原始 deflate 格式（RFC 1951），没有头部和校验
+	 */
+	public static final String DEFLATE = "deflate";
+
+	private static final Map<String, CompressionCodec> REGISTRY = new ConcurrentHashMap<>();
+
+	private static final CompressionCodec GZIP_CODEC = new DeflateCodec(GZIP, Deflater.DEFAULT_COMPRESSION,
+			Deflater.DEFAULT_STRATEGY);
+
+	private static final CompressionCodec ZLIB_CODEC = new DeflateCodec(ZLIB, Deflater.DEFAULT_COMPRESSION,
+			Deflater.DEFAULT_STRATEGY);
+
+	private static final CompressionCodec DEFLATE_CODEC = new DeflateCodec(DEFLATE, Deflater.DEFAULT_COMPRESSION,
+			Deflater.DEFAULT_STRATEGY);
+
+	static {
+		register(GZIP_CODEC);
+		register(ZLIB_CODEC);
+		register(DEFLATE_CODEC);
+	}
+
+	/**
+	 * 子类构造方法
+	 */
+	protected CompressionCodec() {
+	}
+
+	/**
+	 * @return 默认级别的 gzip 编解码器
+	 */
+	public static CompressionCodec gzip() {
+		return GZIP_CODEC;
+	}
+
+	/**
+	 * @return 默认级别的 zlib 编解码器
+	 */
+	public static CompressionCodec zlib() {
+		return ZLIB_CODEC;
+	}
+
+	/**
+	 * @return 默认级别的原始 deflate 编解码器
+	 */
+	public static CompressionCodec deflate() {
+		return DEFLATE_CODEC;
+	}
+
+	/**
+	 * 创建 gzip 编解码器
+	 *
+	 * @author Lucifer Wong
+	 * @param level
+	 *            压缩级别，0-9 或 {@link Deflater#DEFAULT_COMPRESSION}
+	 * @param strategy
+	 *            压缩策略，如 {@link Deflater#FILTERED}、{@link Deflater#HUFFMAN_ONLY}
+	 * @return 编解码器
+	 */
+	public static CompressionCodec gzip(int level, int strategy) {
+		return new DeflateCodec(GZIP, level, strategy);
+	}
+
+	/**
+	 * 创建 zlib 编解码器
+	 *
+	 * @author Lucifer Wong
+	 * @param level
+	 *            压缩级别，0-9 或 {@link Deflater#DEFAULT_COMPRESSION}
+	 * @param strategy
+	 *            压缩策略，如 {@link Deflater#FILTERED}、{@link Deflater#HUFFMAN_ONLY}
+	 * @return 编解码器
+	 */
+	public static CompressionCodec zlib(int level, int strategy) {
+		return new DeflateCodec(ZLIB, level, strategy);
+	}
+
+	/**
+	 * 创建原始 deflate 编解码器
+	 *
+	 * @author Lucifer Wong
+	 * @param level
+	 *            压缩级别，0-9 或 {@link Deflater#DEFAULT_COMPRESSION}
+	 * @param strategy
+	 *            压缩策略，如 {@link Deflater#FILTERED}、{@link Deflater#HUFFMAN_ONLY}
+	 * @return 编解码器
+	 */
+	public static CompressionCodec deflate(int level, int strategy) {
+		return new DeflateCodec(DEFLATE, level, strategy);
+	}
+
+	/**
+	 * 注册编解码器，同名的已有编解码器会被替换
+	 *
+	 * @author Lucifer Wong
+	 * @param codec
+	 *            编解码器
+	 */
+	public static void register(CompressionCodec codec) {
+		REGISTRY.put(codec.getName().toLowerCase(), codec);
+	}
+
+	/**
+	 * 按名称取得已注册的编解码器
+	 *
+	 * @author Lucifer Wong
+	 * @param name
+	 *            名称，不区分大小写
+	 * @return 编解码器
+	 * @throws IllegalArgumentException
+	 *             没有该名称的编解码器
+	 */
+	public static CompressionCodec forName(String name) {
+		CompressionCodec codec = REGISTRY.get(name.toLowerCase());
+		if (codec == null) {
+			throw new IllegalArgumentException("Unknown compression codec [" + name + "]");
+		}
+		return codec;
+	}
+
+	/**
+	 * 按数据头识别压缩格式。原始 deflate 没有头部，无法识别；zlib 头部只有两个字节，普通数据也可能碰巧符合，结果仅供参考。
+	 *
+	 * @author Lucifer Wong
+	 * @param bytes
+	 *            数据
+	 * @return 匹配的已注册编解码器，gzip 优先；都不匹配时返回 null
+	 */
+	public static CompressionCodec detect(byte[] bytes) {
+		CompressionCodec gzip = forName(GZIP);
+		if (gzip.matches(bytes)) {
+			return gzip;
+		}
+		for (CompressionCodec codec : REGISTRY.values()) {
+			if (codec.matches(bytes)) {
+				return codec;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return 编解码器名称
+	 */
+	public abstract String getName();
+
+	/**
+	 * 判断数据是否以本格式的头部开始
+	 *
+	 * @param bytes
+	 *            数据
+	 * @return 是否匹配，没有头部的格式总是返回 false
+	 */
+	public abstract boolean matches(byte[] bytes);
+
+	/**
+	 * 压缩
+	 *
+	 * @param bytes
+	 *            数据
+	 * @param off
+	 *            起始位置
+	 * @param len
+	 *            长度
+	 * @return 压缩后的数据
+	 */
+	public abstract byte[] compress(byte[] bytes, int off, int len);
+
+	/**
+	 * 解压
+	 *
+	 * @param bytes
+	 *            压缩数据
+	 * @param off
+	 *            起始位置
+	 * @param len
+	 *            长度
+	 * @return 解压后的数据
+	 * @throws IOException
+	 *             数据格式错误或不完整
+	 */
+	public abstract byte[] decompress(byte[] bytes, int off, int len) throws IOException;
+
+	/**
+	 * 把 src 中剩余的数据压缩写入 dst。成功后 src 的 position 移到 limit，dst 的 position 后移写入的字节数。
+	 *
+	 * @param src
+	 *            数据
+	 * @param dst
+	 *            目标缓冲区，剩余空间不小于 {@link #maxCompressedLength(int)} 时一定能放下
+	 * @return 写入 dst 的字节数
+	 * @throws BufferOverflowException
+	 *             dst 空间不足，此时两个缓冲区的 position 不变
+	 */
+	public abstract int compress(ByteBuffer src, ByteBuffer dst);
+
+	/**
+	 * 把 src 中剩余的压缩数据解压写入 dst。成功后 src 的 position 移到已读取数据之后，dst 的 position 后移写入的字节数。
+	 *
+	 * @param src
+	 *            压缩数据
+	 * @param dst
+	 *            目标缓冲区
+	 * @return 写入 dst 的字节数
+	 * @throws IOException
+	 *             数据格式错误或不完整
+	 * @throws BufferOverflowException
+	 *             dst 空间不足，此时两个缓冲区的 position 不变
+	 */
+	public abstract int decompress(ByteBuffer src, ByteBuffer dst) throws IOException;
+
+	/**
+	 * @param len
+	 *            原始数据长度
+	 * @return 压缩后的最大长度
+	 */
+	public abstract int maxCompressedLength(int len);
+
+	/**
+	 * 压缩
+	 *
+	 * @param bytes
+	 *            数据
+	 * @return 压缩后的数据
+	 */
+	public byte[] compress(byte[] bytes) {
+		return compress(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * 解压
+	 *
+	 * @param bytes
+	 *            压缩数据
+	 * @return 解压后的数据
+	 * @throws IOException
+	 *             数据格式错误或不完整
+	 */
+	public byte[] decompress(byte[] bytes) throws IOException {
+		return decompress(bytes, 0, bytes.length);
+	}
+
+	@Override
+	public String toString() {
+		return getName();
+	}
+
+	/**
+	 * 输出区域，可以是可扩容的数组，也可以是固定大小的数组区间，或者是写满后分块转存到 {@link ByteBuffer} 的中转数组
+	 */
+	private static final class Output {
+		byte[] buf;
+		final int start;
+		int pos;
+		final int end;
+		final boolean growable;
+		final ByteBuffer sink;
+		int flushed;
+
+		Output(byte[] buf, int start, int end, boolean growable) {
+			this.buf = buf;
+			this.start = start;
+			this.pos = start;
+			this.end = end;
+			this.growable = growable;
+			this.sink = null;
+		}
+
+		Output(byte[] buf, ByteBuffer sink) {
+			this.buf = buf;
+			this.start = 0;
+			this.pos = 0;
+			this.end = buf.length;
+			this.growable = false;
+			this.sink = sink;
+		}
+
+		int limit() {
+			if (sink != null) {
+				// 未转存的数据也要占用 sink 的空间
+				return (int) Math.min(end, (long) start + sink.remaining());
+			}
+			return growable ? buf.length : end;
+		}
+
+		/**
+		 * 保证至少还有 n 字节空间，固定区间空间不足时返回 false
+		 */
+		boolean ensure(int n) {
+			if (limit() - pos >= n) {
+				return true;
+			}
+			if (sink != null) {
+				flush();
+				return limit() - pos >= n;
+			}
+			if (!growable) {
+				return false;
+			}
+			buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+			return true;
+		}
+
+		/**
+		 * 把中转数组中的数据转存到 sink
+		 */
+		void flush() {
+			if (sink != null && pos > start) {
+				sink.put(buf, start, pos - start);
+				flushed += pos - start;
+				pos = start;
+			}
+		}
+
+		void write(int b) {
+			buf[pos++] = (byte) b;
+		}
+
+		void writeIntLE(long value) {
+			write((int) value & 0xff);
+			write((int) (value >>> 8) & 0xff);
+			write((int) (value >>> 16) & 0xff);
+			write((int) (value >>> 24) & 0xff);
+		}
+
+		int length() {
+			return flushed + pos - start;
+		}
+	}
+
+	/**
+	 * 基于 {@link Deflater}/{@link Inflater} 的 gzip、zlib、原始 deflate 编解码器
+	 */
+	private static final class DeflateCodec extends CompressionCodec {
+
+		/**
+		 * 每个实例最多缓存的 Deflater/Inflater 数
+		 */
+		private static final int POOL_CAPACITY = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+		/**
+		 * 直接内存目标缓冲区每次中转的最大字节数
+		 */
+		private static final int DIRECT_CHUNK_SIZE = 64 * 1024;
+
+		private static final int FHCRC = 2;
+		private static final int FEXTRA = 4;
+		private static final int FNAME = 8;
+		private static final int FCOMMENT = 16;
+
+		private final String name;
+		private final int level;
+		private final int strategy;
+		private final boolean gzip;
+		private final boolean nowrap;
+
+		private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger deflaterCount = new AtomicInteger();
+		private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger inflaterCount = new AtomicInteger();
+
+		DeflateCodec(String name, int level, int strategy) {
+			if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION) {
+				throw new IllegalArgumentException("Invalid compression level " + level);
+			}
+			if (strategy != Deflater.DEFAULT_STRATEGY && strategy != Deflater.FILTERED
+					&& strategy != Deflater.HUFFMAN_ONLY) {
+				throw new IllegalArgumentException("Invalid compression strategy " + strategy);
+			}
+			this.name = name;
+			this.level = level;
+			this.strategy = strategy;
+			this.gzip = GZIP.equals(name);
+			this.nowrap = !ZLIB.equals(name);
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public boolean matches(byte[] bytes) {
+			if (bytes == null || bytes.length < 2) {
+				return false;
+			}
+			int b0 = bytes[0] & 0xff;
+			int b1 = bytes[1] & 0xff;
+			if (gzip) {
+				return b0 == 0x1f && b1 == 0x8b;
+			}
+			if (!nowrap) {
+				// CM = 8，窗口不超过 32KB，没有预置字典，且头部校验正确
+				return (b0 & 0x0f) == 8 && (b0 >>> 4) <= 7 && (b1 & 0x20) == 0 && ((b0 << 8) | b1) % 31 == 0;
+			}
+			return false;
+		}
+
+		@Override
+		public int maxCompressedLength(int len) {
+			// zlib 的 deflateBound，加上 gzip 头尾
+			return len + (len >>> 12) + (len >>> 14) + (len >>> 25) + 13 + (gzip ? 18 : nowrap ? 0 : 6);
+		}
+
+		@Override
+		public byte[] compress(byte[] bytes, int off, int len) {
+			int bound = maxCompressedLength(len);
+			byte[] buffer = BufferPool.getDefault().acquire(bound);
+			try {
+				Output out = new Output(buffer, 0, buffer.length, false);
+				deflate(bytes, off, len, out);
+				return Arrays.copyOf(out.buf, out.length());
+			} finally {
+				BufferPool.getDefault().release(buffer);
+			}
+		}
+
+		@Override
+		public byte[] decompress(byte[] bytes, int off, int len) throws IOException {
+			Output out = new Output(new byte[Math.max(64, Math.min(len * 4, 1 << 20))], 0, 0, true);
+			inflate(bytes, off, len, out);
+			return out.buf.length == out.pos ? out.buf : Arrays.copyOf(out.buf, out.pos);
+		}
+
+		@Override
+		public int compress(ByteBuffer src, ByteBuffer dst) {
+			int len = src.remaining();
+			byte[] in;
+			int inOff;
+			byte[] copy = null;
+			if (src.hasArray()) {
+				in = src.array();
+				inOff = src.arrayOffset() + src.position();
+			} else {
+				copy = BufferPool.getDefault().acquire(len);
+				src.duplicate().get(copy, 0, len);
+				in = copy;
+				inOff = 0;
+			}
+			try {
+				int written = intoBuffer(dst, in, inOff, len, true);
+				src.position(src.limit());
+				return written;
+			} catch (IOException e) {
+				// 压缩不会出现数据格式错误
+				throw new IllegalStateException(e);
+			} finally {
+				BufferPool.getDefault().release(copy);
+			}
+		}
+
+		@Override
+		public int decompress(ByteBuffer src, ByteBuffer dst) throws IOException {
+			int len = src.remaining();
+			byte[] in;
+			int inOff;
+			byte[] copy = null;
+			if (src.hasArray()) {
+				in = src.array();
+				inOff = src.arrayOffset() + src.position();
+			} else {
+				copy = BufferPool.getDefault().acquire(len);
+				src.duplicate().get(copy, 0, len);
+				in = copy;
+				inOff = 0;
+			}
+			try {
+				int[] consumed = new int[1];
+				int written = intoBuffer(dst, in, inOff, len, false, consumed);
+				src.position(src.position() + consumed[0]);
+				return written;
+			} finally {
+				BufferPool.getDefault().release(copy);
+			}
+		}
+
+		private int intoBuffer(ByteBuffer dst, byte[] in, int inOff, int len, boolean compress) throws IOException {
+			return intoBuffer(dst, in, inOff, len, compress, new int[1]);
+		}
+
+		/**
+		 * 压缩或解压到 dst，堆内缓冲区直接写入其底层数组，直接内存缓冲区经池化的临时数组分块中转，临时数组不超过
+		 * {@link #DIRECT_CHUNK_SIZE}
+		 */
+		private int intoBuffer(ByteBuffer dst, byte[] in, int inOff, int len, boolean compress, int[] consumed)
+				throws IOException {
+			int room = dst.remaining();
+			int position = dst.position();
+			byte[] temp = null;
+			Output out;
+			if (dst.hasArray()) {
+				int start = dst.arrayOffset() + position;
+				out = new Output(dst.array(), start, start + room, false);
+			} else {
+				int size = Math.min(room, DIRECT_CHUNK_SIZE);
+				if (compress) {
+					size = Math.min(size, maxCompressedLength(len));
+				}
+				temp = BufferPool.getDefault().acquire(size);
+				out = new Output(temp, dst);
+			}
+			boolean done = false;
+			try {
+				if (compress) {
+					deflate(in, inOff, len, out);
+					consumed[0] = len;
+				} else {
+					consumed[0] = inflate(in, inOff, len, out);
+				}
+				out.flush();
+				dst.position(position + out.length());
+				done = true;
+				return out.length();
+			} finally {
+				if (!done) {
+					// 已转存的部分作废
+					dst.position(position);
+				}
+				BufferPool.getDefault().release(temp);
+			}
+		}
+
+		private void deflate(byte[] in, int off, int len, Output out) {
+			if (gzip) {
+				if (!out.ensure(10)) {
+					throw new BufferOverflowException();
+				}
+				// 魔数、CM=8、无标志、MTIME=0、XFL=0、OS=0，与 GZIPOutputStream 相同
+				out.write(0x1f);
+				out.write(0x8b);
+				out.write(Deflater.DEFLATED);
+				for (int i = 0; i < 7; i++) {
+					out.write(0);
+				}
+			}
+			Deflater deflater = acquireDeflater();
+			try {
+				deflater.setInput(in, off, len);
+				deflater.finish();
+				while (!deflater.finished()) {
+					if (!out.ensure(1)) {
+						throw new BufferOverflowException();
+					}
+					out.pos += deflater.deflate(out.buf, out.pos, out.limit() - out.pos);
+				}
+			} finally {
+				releaseDeflater(deflater);
+			}
+			if (gzip) {
+				if (!out.ensure(8)) {
+					throw new BufferOverflowException();
+				}
+				CRC32 crc = new CRC32();
+				crc.update(in, off, len);
+				out.writeIntLE(crc.getValue());
+				out.writeIntLE(len);
+			}
+		}
+
+		/**
+		 * @return 读取的压缩数据字节数
+		 */
+		private int inflate(byte[] in, int off, int len, Output out) throws IOException {
+			int pos = off;
+			int end = off + len;
+			Inflater inflater = acquireInflater();
+			try {
+				do {
+					if (gzip) {
+						pos = skipGzipHeader(in, pos, end);
+					}
+					int start = out.length();
+					CRC32 crc = gzip ? new CRC32() : null;
+					inflater.reset();
+					inflater.setInput(in, pos, end - pos);
+					inflateFully(inflater, out, crc);
+					pos = end - inflater.getRemaining();
+					if (gzip) {
+						if (end - pos < 8) {
+							throw new EOFException("Unexpected end of GZIP trailer");
+						}
+						if (readIntLE(in, pos) != crc.getValue()
+								|| readIntLE(in, pos + 4) != ((out.length() - start) & 0xffffffffL)) {
+							throw new ZipException("Corrupt GZIP trailer");
+						}
+						pos += 8;
+					}
+					// 与 GZIPInputStream 相同，支持多个 gzip 成员首尾相接
+				} while (gzip && end - pos >= 2 && (in[pos] & 0xff) == 0x1f && (in[pos + 1] & 0xff) == 0x8b);
+			} finally {
+				releaseInflater(inflater);
+			}
+			return pos - off;
+		}
+
+		/**
+		 * @param crc
+		 *            不为 null 时累加解压出的数据，输出可能分块转存，不能事后再从输出区域计算
+		 */
+		private static void inflateFully(Inflater inflater, Output out, CRC32 crc) throws IOException {
+			try {
+				while (!inflater.finished()) {
+					if (!out.ensure(1)) {
+						// 输出区间恰好写满时，用一个字节试探是否已经结束
+						byte[] probe = new byte[1];
+						if (inflater.inflate(probe) > 0 || !inflater.finished()) {
+							throw new BufferOverflowException();
+						}
+						return;
+					}
+					int n = inflater.inflate(out.buf, out.pos, out.limit() - out.pos);
+					if (crc != null) {
+						crc.update(out.buf, out.pos, n);
+					}
+					out.pos += n;
+					if (n == 0 && !inflater.finished()) {
+						if (inflater.needsDictionary()) {
+							throw new ZipException("Compressed data requires a preset dictionary");
+						}
+						if (inflater.needsInput()) {
+							throw new EOFException("Unexpected end of ZLIB input stream");
+						}
+					}
+				}
+			} catch (DataFormatException e) {
+				throw new ZipException(e.getMessage() == null ? "Invalid ZLIB data format" : e.getMessage());
+			}
+		}
+
+		/**
+		 * @return 头部之后的位置
+		 */
+		private static int skipGzipHeader(byte[] in, int pos, int end) throws IOException {
+			if (end - pos < 10) {
+				throw new EOFException("Unexpected end of GZIP header");
+			}
+			if ((in[pos] & 0xff) != 0x1f || (in[pos + 1] & 0xff) != 0x8b) {
+				throw new ZipException("Not in GZIP format");
+			}
+			if (in[pos + 2] != Deflater.DEFLATED) {
+				throw new ZipException("Unsupported compression method");
+			}
+			int flags = in[pos + 3] & 0xff;
+			int p = pos + 10;
+			if ((flags & FEXTRA) != 0) {
+				if (end - p < 2) {
+					throw new EOFException("Unexpected end of GZIP header");
+				}
+				p += 2 + ((in[p] & 0xff) | (in[p + 1] & 0xff) << 8);
+			}
+			if ((flags & FNAME) != 0) {
+				p = skipZeroTerminated(in, p, end);
+			}
+			if ((flags & FCOMMENT) != 0) {
+				p = skipZeroTerminated(in, p, end);
+			}
+			if ((flags & FHCRC) != 0) {
+				p += 2;
+			}
+			if (p > end) {
+				throw new EOFException("Unexpected end of GZIP header");
+			}
+			return p;
+		}
+
+		private static int skipZeroTerminated(byte[] in, int p, int end) throws IOException {
+			while (p < end && in[p] != 0) {
+				p++;
+			}
+			if (p >= end) {
+				throw new EOFException("Unexpected end of GZIP header");
+			}
+			return p + 1;
+		}
+
+		private static long readIntLE(byte[] in, int pos) {
+			return (in[pos] & 0xffL) | (in[pos + 1] & 0xffL) << 8 | (in[pos + 2] & 0xffL) << 16
+					| (in[pos + 3] & 0xffL) << 24;
+		}
+
+		private Deflater acquireDeflater() {
+			Deflater deflater = deflaters.poll();
+			if (deflater != null) {
+				deflaterCount.decrementAndGet();
+				return deflater;
+			}
+			deflater = new Deflater(level, nowrap);
+			deflater.setStrategy(strategy);
+			return deflater;
+		}
+
+		private void releaseDeflater(Deflater deflater) {
+			if (deflaterCount.incrementAndGet() <= POOL_CAPACITY) {
+				deflater.reset();
+				deflaters.offer(deflater);
+			} else {
+				deflaterCount.decrementAndGet();
+				deflater.end();
+			}
+		}
+
+		private Inflater acquireInflater() {
+			Inflater inflater = inflaters.poll();
+			if (inflater != null) {
+				inflaterCount.decrementAndGet();
+				return inflater;
+			}
+			return new Inflater(nowrap);
+		}
+
+		private void releaseInflater(Inflater inflater) {
+			if (inflaterCount.incrementAndGet() <= POOL_CAPACITY) {
+				inflater.reset();
+				inflaters.offer(inflater);
+			} else {
+				inflaterCount.decrementAndGet();
+				inflater.end();
+			}
+		}
+	}
+}
@@ -13,23 +13,39 @@
  */
 package priv.lucife.utils.core.io;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.URL;
-import java.net.URLConnection;
+import java.nio.charset.Charset;
 
 import priv.lucife.utils.core.annotation.UBTCompatible;
 
 /**
  * http请求的工具类
+ * <p>
+ * 请求由共享的 {@link AsyncHttpClient} 同步发送，同一主机的连接会被复用。需要异步、批量或流式处理响应时直接使用
+ * {@link AsyncHttpClient}。
  * 
  * @author Lucifer Wong
  *
  */
 @UBTCompatible
 public abstract class HttpUtil {
+
+	private static final String USER_AGENT = "Mozilla/4.0 (compatible; MSIE 6.0; Windows NT 5.1;SV1)";
+
+	private static class ClientHolder {
+		private static final AsyncHttpClient CLIENT = new AsyncHttpClient();
+	}
+
+	/**
+	 * 获取 HttpUtil 使用的共享客户端
+	 * 
+	 * @author Lucifer Wong
+	 * @return 共享客户端
+	 */
+	public static AsyncHttpClient getClient() {
+		return ClientHolder.CLIENT;
+	}
+
 	/**
 	 * 向指定URL发送GET方法的请求
 	 * 
@@ -40,52 +56,10 @@ public abstract class HttpUtil {
 	 *            请求参数，请求参数应该是 name1=value1&amp;name2=value2 的形式。
 	 * @return URL 所代表远程资源的响应结果
 	 * @throws Exception
-	 *             请求超时
+	 *             请求超时或响应码错误
 	 */
 	public static String sendGet(String url, String param) throws Exception {
-		String result = "";
-		BufferedReader in = null;
-		try {
-			String urlNameString = url + "?" + param;
-			URL realUrl = new URL(urlNameString);
-			// 打开和URL之间的连接
-			URLConnection connection = realUrl.openConnection();
-			// 设置通用的请求属性
-			connection.setConnectTimeout(60000);
-			connection.setReadTimeout(60000);
-			connection.setRequestProperty("accept", "*/*");
-			connection.setRequestProperty("connection", "Keep-Alive");
-			connection.setRequestProperty("user-agent", "Mozilla/4.0 (compatible; MSIE 6.0; Windows NT 5.1;SV1)");
-			// 建立实际的连接
-			connection.connect();
-			// 获取所有响应头字段
-			// Map<String, List<String>> map = connection.getHeaderFields();
-			// 遍历所有的响应头字段
-			// for (String key : map.keySet()) {
-			// System.out.println(key + "--->" + map.get(key));
-			// }
-			// 定义 BufferedReader输入流来读取URL的响应
-			in = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-			int line;
-			while ((line = in.read()) != -1) {
-				result += (char) line;
-			}
-		} catch (Exception e) {
-			// System.out.println("发送GET请求出现异常！" + e);
-			e.printStackTrace();
-			throw new Exception();
-		}
-		// 使用finally块来关闭输入流
-		finally {
-			try {
-				if (in != null) {
-					in.close();
-				}
-			} catch (Exception e2) {
-				e2.printStackTrace();
-			}
-		}
-		return result;
+		return send(AsyncHttpClient.Request.get(url + "?" + param));
 	}
 
 	/**
@@ -98,52 +72,19 @@ public abstract class HttpUtil {
 	 *            请求参数，请求参数应该是 name1=value1&amp;name2=value2 的形式。
 	 * @return 所代表远程资源的响应结果
 	 * @throws Exception
-	 *             请求超时
+	 *             请求超时或响应码错误
 	 */
 	public static String sendPost(String url, String param) throws Exception {
-		PrintWriter out = null;
-		BufferedReader in = null;
-		String result = "";
-		try {
-			URL realUrl = new URL(url);
-			// 打开和URL之间的连接
-			URLConnection conn = realUrl.openConnection();
-			// 设置通用的请求属性
-			conn.setRequestProperty("accept", "*/*");
-			conn.setRequestProperty("connection", "Keep-Alive");
-			conn.setRequestProperty("user-agent", "Mozilla/4.0 (compatible; MSIE 6.0; Windows NT 5.1;SV1)");
-			// 发送POST请求必须设置如下两行
-			conn.setDoOutput(true);
-			conn.setDoInput(true);
-			// 获取URLConnection对象对应的输出流
-			out = new PrintWriter(conn.getOutputStream());
-			// 发送请求参数
-			out.print(param);
-			// flush输出流的缓冲
-			out.flush();
-			// 定义BufferedReader输入流来读取URL的响应
-			in = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-			int line;
-			while ((line = in.read()) != -1) {
-				result += (char) line;
-			}
-		} catch (Exception e) {
-			// System.out.println("发送 POST 请求出现异常！" + e);
-			throw new Exception();
-		}
-		// 使用finally块来关闭输出流、输入流
-		finally {
-			try {
-				if (out != null) {
-					out.close();
-				}
-				if (in != null) {
-					in.close();
-				}
-			} catch (IOException ex) {
-				ex.printStackTrace();
-			}
+		byte[] body = param == null ? new byte[0] : param.getBytes(Charset.defaultCharset());
+		return send(AsyncHttpClient.Request.post(url, body));
+	}
+
+	private static String send(AsyncHttpClient.Request request) throws IOException {
+		request.header("accept", "*/*").header("connection", "Keep-Alive").header("user-agent", USER_AGENT);
+		AsyncHttpClient.Response<String> response = getClient().send(request, AsyncHttpClient.ofString());
+		if (response.getStatus() >= 400) {
+			throw new IOException("Server returned HTTP response code " + response.getStatus() + " for " + request);
 		}
-		return result;
+		return response.getBody();
 	}
 }
@@ -18,7 +18,6 @@ import priv.lucife.utils.core.base.HexByteUtil;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
@@ -29,9 +28,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URLConnection;
-import java.util.zip.DeflaterOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 
@@ -44,6 +45,11 @@ import java.util.zip.InflaterInputStream;
 public abstract class IOUtil {
 	private static final int TRANSFER_BUFFER = 32768;
 
+	/**
+	 * 通道零拷贝传输时每次 transferTo/transferFrom 的最大字节数，也是进度回调的粒度
+	 */
+	private static final long CHANNEL_CHUNK = 8L * 1024 * 1024;
+
 	/**
 	 * 得到一个URL的输入流
 	 * 
@@ -130,6 +136,12 @@ public abstract class IOUtil {
 	 *             IO出错
 	 */
 	public static void transfer(InputStream s, File f, TransferCallback cb) throws Exception {
+		if (cb == null && s instanceof FileInputStream) {
+			try (FileOutputStream out = new FileOutputStream(f)) {
+				transfer(((FileInputStream) s).getChannel(), out.getChannel(), null);
+			}
+			return;
+		}
 		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(f))) {
 			transfer(s, out, cb);
 		}
@@ -149,16 +161,24 @@ public abstract class IOUtil {
 	 *             IO出错
 	 */
 	public static void transfer(InputStream in, OutputStream out, TransferCallback cb) throws IOException {
-		byte[] bytes = new byte[TRANSFER_BUFFER];
-		int count;
-		while ((count = in.read(bytes)) != -1) {
-			out.write(bytes, 0, count);
-			if (cb != null) {
-				cb.bytesTransferred(bytes, count);
-				if (cb.isCancelled()) {
-					break;
+		if (cb == null) {
+			transfer(in, out);
+			return;
+		}
+		byte[] bytes = BufferPool.getDefault().acquire(TRANSFER_BUFFER);
+		try {
+			int count;
+			while ((count = in.read(bytes)) != -1) {
+				out.write(bytes, 0, count);
+				if (cb != null) {
+					cb.bytesTransferred(bytes, count);
+					if (cb.isCancelled()) {
+						break;
+					}
 				}
 			}
+		} finally {
+			BufferPool.getDefault().release(bytes);
 		}
 	}
 
@@ -198,10 +218,18 @@ public abstract class IOUtil {
 	 *             IO出错
 	 */
 	public static void transfer(InputStream in, OutputStream out) throws IOException {
-		byte[] bytes = new byte[TRANSFER_BUFFER];
-		int count;
-		while ((count = in.read(bytes)) != -1) {
-			out.write(bytes, 0, count);
+		if (in instanceof FileInputStream && out instanceof FileOutputStream) {
+			transfer(((FileInputStream) in).getChannel(), ((FileOutputStream) out).getChannel(), null);
+			return;
+		}
+		byte[] bytes = BufferPool.getDefault().acquire(TRANSFER_BUFFER);
+		try {
+			int count;
+			while ((count = in.read(bytes)) != -1) {
+				out.write(bytes, 0, count);
+			}
+		} finally {
+			BufferPool.getDefault().release(bytes);
 		}
 	}
 
@@ -217,6 +245,12 @@ public abstract class IOUtil {
 	 *             IO出错
 	 */
 	public static void transfer(File file, OutputStream out) throws IOException {
+		if (out instanceof FileOutputStream) {
+			try (FileInputStream in = new FileInputStream(file)) {
+				transfer(in.getChannel(), ((FileOutputStream) out).getChannel(), null);
+			}
+			return;
+		}
 		try (InputStream in = new BufferedInputStream(new FileInputStream(file), TRANSFER_BUFFER)) {
 			transfer(in, out);
 		} finally {
@@ -224,6 +258,153 @@ public abstract class IOUtil {
 		}
 	}
 
+	/**
+	 * 复制文件，使用 {@link FileChannel#transferTo(long, long, WritableByteChannel)}，在 Linux 上由内核完成复制，不经过用户态缓冲区。
+	 * 目标文件已存在时截断后覆盖。
+	 * 
+	 * @author Lucifer Wong
+	 * @param src
+	 *            源文件
+	 * @param dst
+	 *            目标文件
+	 * @param cb
+	 *            回调函数，每传输一块调用一次，可以为 null
+	 * @return 复制的字节数
+	 * @throws IOException
+	 *             IO出错
+	 */
+	public static long transfer(File src, File dst, TransferCallback cb) throws IOException {
+		try (FileInputStream in = new FileInputStream(src); FileOutputStream out = new FileOutputStream(dst)) {
+			return transfer(in.getChannel(), out.getChannel(), cb);
+		}
+	}
+
+	/**
+	 * 文件通道之间的零拷贝传输，见 {@link #transfer(FileChannel, WritableByteChannel, TransferCallback)}
+	 * 
+	 * @author Lucifer Wong
+	 * @param src
+	 *            源文件通道
+	 * @param dst
+	 *            目标文件通道
+	 * @param cb
+	 *            回调函数，可以为 null
+	 * @return 传输的字节数
+	 * @throws IOException
+	 *             IO出错
+	 */
+	public static long transfer(FileChannel src, FileChannel dst, TransferCallback cb) throws IOException {
+		return transfer(src, (WritableByteChannel) dst, cb);
+	}
+
+	/**
+	 * 从文件通道的当前位置开始，把剩余内容零拷贝写入目标通道（文件或 socket），完成后源通道的位置移到传输结束处。
+	 * <p>
+	 * 对于管道、FIFO、终端等不能定位的通道，size() 不可靠的特殊文件，或者 transferTo 无法处理的目标，退回到缓冲区复制。目标通道必须是阻塞模式。
+	 * 
+	 * @author Lucifer Wong
+	 * @param src
+	 *            源文件通道
+	 * @param dst
+	 *            目标通道
+	 * @param cb
+	 *            回调函数，每传输一块调用一次，可以为 null；零拷贝时 bytes 参数为 null
+	 * @return 传输的字节数
+	 * @throws IOException
+	 *             IO出错
+	 */
+	public static long transfer(FileChannel src, WritableByteChannel dst, TransferCallback cb) throws IOException {
+		long start;
+		try {
+			start = src.position();
+		} catch (IOException e) {
+			// 管道、FIFO 等不能定位（Illegal seek）
+			return transferBuffered(src, dst, cb);
+		}
+		long position = start;
+		long size = src.size();
+		while (position < size) {
+			long count = src.transferTo(position, Math.min(CHANNEL_CHUNK, size - position), dst);
+			if (count <= 0) {
+				break;
+			}
+			position += count;
+			if (cb != null) {
+				cb.bytesTransferred(null, (int) count);
+				if (cb.isCancelled()) {
+					src.position(position);
+					return position - start;
+				}
+			}
+		}
+		src.position(position);
+		return position - start + transferBuffered(src, dst, cb);
+	}
+
+	/**
+	 * 把源通道（文件或 socket）的内容零拷贝写入文件通道的当前位置，直到源通道结束，完成后目标通道的位置移到写入结束处。目标通道不能定位（管道、FIFO
+	 * 等）时退回到缓冲区复制。
+	 * 
+	 * @author Lucifer Wong
+	 * @param src
+	 *            源通道，必须是阻塞模式
+	 * @param dst
+	 *            目标文件通道
+	 * @param cb
+	 *            回调函数，每传输一块调用一次，可以为 null；bytes 参数为 null
+	 * @return 传输的字节数
+	 * @throws IOException
+	 *             IO出错
+	 */
+	public static long transfer(ReadableByteChannel src, FileChannel dst, TransferCallback cb) throws IOException {
+		long start;
+		try {
+			start = dst.position();
+		} catch (IOException e) {
+			return transferBuffered(src, dst, cb);
+		}
+		long position = start;
+		long count;
+		while ((count = dst.transferFrom(src, position, CHANNEL_CHUNK)) > 0) {
+			position += count;
+			if (cb != null) {
+				cb.bytesTransferred(null, (int) count);
+				if (cb.isCancelled()) {
+					break;
+				}
+			}
+		}
+		dst.position(position);
+		return position - start;
+	}
+
+	private static long transferBuffered(ReadableByteChannel src, WritableByteChannel dst, TransferCallback cb)
+			throws IOException {
+		byte[] bytes = BufferPool.getDefault().acquire(TRANSFER_BUFFER);
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			long total = 0;
+			int count;
+			while ((count = src.read(buffer)) != -1) {
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					dst.write(buffer);
+				}
+				total += count;
+				if (cb != null) {
+					cb.bytesTransferred(bytes, count);
+					if (cb.isCancelled()) {
+						break;
+					}
+				}
+				buffer.clear();
+			}
+			return total;
+		} finally {
+			BufferPool.getDefault().release(bytes);
+		}
+	}
+
 	/**
 	 * 关闭一个Closeable
 	 * 
@@ -292,7 +473,7 @@ public abstract class IOUtil {
 	}
 
 	/**
-	 * 压缩字节
+	 * 以 gzip 格式压缩字节
 	 * 
 	 * @author Lucifer Wong
 	 * @param original
@@ -305,14 +486,11 @@ public abstract class IOUtil {
 	 */
 	public static void compressBytes(ByteArrayOutputStream original, ByteArrayOutputStream compressed)
 			throws IOException {
-		DeflaterOutputStream gzipStream = new GZIPOutputStream(compressed, TRANSFER_BUFFER);
-		original.writeTo(gzipStream);
-		gzipStream.flush();
-		gzipStream.close();
+		compressed.write(CompressionCodec.gzip().compress(original.toByteArray()));
 	}
 
 	/**
-	 * 压缩字节
+	 * 以默认级别的 gzip 格式压缩字节
 	 * 
 	 * @author Lucifer Wong
 	 * @param bytes
@@ -320,20 +498,25 @@ public abstract class IOUtil {
 	 * @return 压缩字节
 	 */
 	public static byte[] compressBytes(byte[] bytes) {
-		try (ByteArrayOutputStream byteStream = new ByteArrayOutputStream(bytes.length)) {
-			try (GZIPOutputStream gzipStream = new GZIPOutputStream(byteStream)) {
-				gzipStream.write(bytes);
-				gzipStream.flush();
-			}
-			return byteStream.toByteArray();
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-		return bytes;
+		return CompressionCodec.gzip().compress(bytes);
+	}
+
+	/**
+	 * 以指定的编解码器压缩字节
+	 * 
+	 * @author Lucifer Wong
+	 * @param bytes
+	 *            压缩的字节
+	 * @param codec
+	 *            编解码器，如 {@link CompressionCodec#zlib(int, int)}
+	 * @return 压缩字节
+	 */
+	public static byte[] compressBytes(byte[] bytes, CompressionCodec codec) {
+		return codec.compress(bytes);
 	}
 
 	/**
-	 * 解压缩字节
+	 * 解压缩字节，只识别 gzip 格式，其他数据原样返回
 	 * 
 	 * @author Lucifer Wong
 	 * @param bytes
@@ -341,18 +524,30 @@ public abstract class IOUtil {
 	 * @return 解压缩的字节
 	 */
 	public static byte[] uncompressBytes(byte[] bytes) {
-		if (HexByteUtil.isGzipped(bytes)) {
-			try (ByteArrayInputStream byteStream = new ByteArrayInputStream(bytes)) {
-				try (GZIPInputStream gzipStream = new GZIPInputStream(byteStream, 8192)) {
-					return inputStreamToBytes(gzipStream);
-				}
-			} catch (Exception e) {
-				throw new RuntimeException("Error uncompressing bytes", e);
-			}
+		if (bytes.length >= 2 && HexByteUtil.isGzipped(bytes)) {
+			return uncompressBytes(bytes, CompressionCodec.gzip());
 		}
 		return bytes;
 	}
 
+	/**
+	 * 以指定的编解码器解压缩字节
+	 * 
+	 * @author Lucifer Wong
+	 * @param bytes
+	 *            解压缩字节
+	 * @param codec
+	 *            编解码器
+	 * @return 解压缩的字节
+	 */
+	public static byte[] uncompressBytes(byte[] bytes, CompressionCodec codec) {
+		try {
+			return codec.decompress(bytes);
+		} catch (IOException e) {
+			throw new RuntimeException("Error uncompressing bytes", e);
+		}
+	}
+
 	/**
 	 * 进度显示的回调接口
 	 * 
@@ -364,7 +559,7 @@ public abstract class IOUtil {
 		 * 可用于显示进度
 		 * 
 		 * @param bytes
-		 *            传输的字节
+		 *            传输的字节，通道零拷贝传输时为 null
 		 * @param count
 		 *            字节数量
 		 */
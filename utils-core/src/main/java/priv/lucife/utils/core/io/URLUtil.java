@@ -128,12 +128,6 @@ public abstract class URLUtil {
 	protected static SSLSocketFactory naiveSSLSocketFactory;
 
 	static {
-		try {
-			// Default new HTTP connections to follow redirects
-			HttpURLConnection.setFollowRedirects(true);
-		} catch (Exception ignored) {
-		}
-
 		try {
 			// could be other algorithms (prob need to calculate this another
 			// way.
@@ -444,11 +438,11 @@ public abstract class URLUtil {
 			c.setRequestProperty("User-Agent", agent);
 		}
 
-		if (c instanceof HttpURLConnection) { // setFollowRedirects is a static
-												// (global) method / setting -
-												// resetting it in case other
-												// code changed it?
-			HttpURLConnection.setFollowRedirects(true);
+		if (c instanceof HttpURLConnection) { // per connection, so other code
+												// using the global
+												// setFollowRedirects is not
+												// affected
+			((HttpURLConnection) c).setInstanceFollowRedirects(true);
 		}
 
 		if (c instanceof HttpsURLConnection && allowAllCerts) {
@@ -672,6 +666,26 @@ public abstract class URLUtil {
 		}
 	}
 
+	/**
+	 * 并发抓取一批 URL 的内容，每个 URL 完成后立即回调 listener，阻塞直到全部完成。
+	 *
+	 * @author Lucifer Wong
+	 * @param urls
+	 *            URL 列表
+	 * @param maxPerHost
+	 *            每个主机的并发数
+	 * @param listener
+	 *            结果回调，必须是线程安全的
+	 * @return 吞吐量和延迟统计
+	 * @throws InterruptedException
+	 *             等待时被中断
+	 * @see BulkUrlFetcher
+	 */
+	public static BulkUrlFetcher.Stats getContentFromUrls(Collection<String> urls, int maxPerHost,
+			BulkUrlFetcher.Listener listener) throws InterruptedException {
+		return new BulkUrlFetcher(BulkUrlFetcher.DEFAULT_MAX_CONCURRENCY, maxPerHost).fetch(urls, listener);
+	}
+
 	public static String getCookieDomainFromHost(String host) {
 		while (host.indexOf(DOT) != host.lastIndexOf(DOT)) {
 			host = host.substring(host.indexOf(DOT) + 1);
@@ -1025,7 +1039,6 @@ public abstract class URLUtil {
 		URL url = new URL(pageURL);
 		HttpURLConnection client = (HttpURLConnection) url.openConnection();
 
-		HttpURLConnection.setFollowRedirects(false);
 		client.setInstanceFollowRedirects(false);
 
 		client.connect();
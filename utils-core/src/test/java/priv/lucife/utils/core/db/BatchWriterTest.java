@@ -0,0 +1,99 @@
+package priv.lucife.utils.core.db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BatchWriterTest {
+
+	private static final int[] TYPES = { Types.INTEGER, Types.VARCHAR };
+
+	private static void write(BatchWriter writer, int rows) throws SQLException {
+		try {
+			for (int i = 0; i < rows; i++) {
+				writer.add(i, "v" + i);
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	private static void assertRows(FakeDatabase db, int rows) {
+		List<Object[]> written = db.rows(2);
+		assertEquals(rows, written.size());
+		for (int i = 0; i < rows; i++) {
+			assertArrayEquals(new Object[] { i, "v" + i }, written.get(i));
+		}
+	}
+
+	@Test
+	public void writesBatchesAndCommits() throws SQLException {
+		FakeDatabase db = new FakeDatabase();
+		try (Connection conn = db.connection()) {
+			BatchWriter writer = new BatchWriter(conn, "INSERT INTO t (a, b) VALUES (?, ?)", TYPES)
+					.setBatchSize(100, 100, 100).setCommitRows(300);
+			write(writer, 1050);
+			assertEquals(1050, writer.getRowsWritten());
+			assertEquals(1050, writer.getRowsCommitted());
+			assertEquals(11, writer.getFlushes());
+			assertEquals(4, db.commits.get());
+			assertTrue(conn.getAutoCommit());
+		}
+		assertRows(db, 1050);
+		assertEquals(0, db.openStatements.get());
+	}
+
+	@Test
+	public void rewritesToMultiRowValues() throws SQLException {
+		FakeDatabase db = new FakeDatabase();
+		try (Connection conn = db.connection()) {
+			write(new BatchWriter(conn, "INSERT INTO t (a, b) VALUES (?, ?)", TYPES).setMultiRowValues(true)
+					.setBatchSize(100, 100, 100), 1000);
+		}
+		assertRows(db, 1000);
+		// 每批 100 行拆成 64 + 32 + 4
+		assertEquals(30, db.executions.size());
+		assertEquals(3, db.prepares.get());
+	}
+
+	@Test
+	public void findsValuesAfterUnderscoreIdentifiers() throws SQLException {
+		assertMultiRow("INSERT INTO metric_values (a, b) VALUES (?, ?)",
+				"INSERT INTO metric_values (a, b) VALUES (?, ?),(?, ?)");
+		assertMultiRow("INSERT INTO t (values_a, $values) VALUES (?, ?)",
+				"INSERT INTO t (values_a, $values) VALUES (?, ?),(?, ?)");
+		assertMultiRow("INSERT INTO t /* values (x) */ (a, b) -- values (y)\n VALUES (?, ?) ON CONFLICT DO NOTHING",
+				"INSERT INTO t /* values (x) */ (a, b) -- values (y)\n VALUES (?, ?),(?, ?) ON CONFLICT DO NOTHING");
+		assertMultiRow("INSERT INTO t (a, b) VALUES (?, ')') /* ) */",
+				"INSERT INTO t (a, b) VALUES (?, ')'),(?, ')') /* ) */");
+	}
+
+	private static void assertMultiRow(String sql, String expected) throws SQLException {
+		FakeDatabase db = new FakeDatabase();
+		int[] types = sql.contains("')'") ? new int[] { Types.INTEGER } : TYPES;
+		try (Connection conn = db.connection();
+				BatchWriter writer = new BatchWriter(conn, sql, types).setMultiRowValues(true).setBatchSize(2, 2,
+						2)) {
+			for (int i = 0; i < 2; i++) {
+				writer.add(types.length == 1 ? new Object[] { i } : new Object[] { i, "v" + i });
+			}
+		}
+		assertEquals(1, db.executions.size());
+		assertEquals(expected, db.executions.get(0).sql);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsStatementWithoutValues() throws SQLException {
+		try (Connection conn = new FakeDatabase().connection()) {
+			new BatchWriter(conn, "INSERT INTO t_values SELECT ? FROM dual", new int[] { Types.INTEGER })
+					.setMultiRowValues(true);
+		}
+	}
+}
@@ -0,0 +1,231 @@
+package priv.lucife.utils.core.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BeanRowMapperTest {
+
+	public static class Item {
+		private long id;
+		private int quantity = -1;
+		private double ratio = 0.5;
+		private boolean active;
+		private String userName;
+		private BigDecimal price;
+		private Timestamp createdAt;
+		private Integer rank = 99;
+		private Short level;
+		private BigInteger total;
+
+		public long getId() {
+			return id;
+		}
+
+		public void setId(long id) {
+			this.id = id;
+		}
+
+		public int getQuantity() {
+			return quantity;
+		}
+
+		public void setQuantity(int quantity) {
+			this.quantity = quantity;
+		}
+
+		public double getRatio() {
+			return ratio;
+		}
+
+		public void setRatio(double ratio) {
+			this.ratio = ratio;
+		}
+
+		public boolean isActive() {
+			return active;
+		}
+
+		public void setActive(boolean active) {
+			this.active = active;
+		}
+
+		public String getUserName() {
+			return userName;
+		}
+
+		public void setUserName(String userName) {
+			this.userName = userName;
+		}
+
+		public BigDecimal getPrice() {
+			return price;
+		}
+
+		public void setPrice(BigDecimal price) {
+			this.price = price;
+		}
+
+		public Timestamp getCreatedAt() {
+			return createdAt;
+		}
+
+		public void setCreatedAt(Timestamp createdAt) {
+			this.createdAt = createdAt;
+		}
+
+		public Integer getRank() {
+			return rank;
+		}
+
+		public void setRank(Integer rank) {
+			this.rank = rank;
+		}
+
+		public Short getLevel() {
+			return level;
+		}
+
+		public void setLevel(Short level) {
+			this.level = level;
+		}
+
+		public BigInteger getTotal() {
+			return total;
+		}
+
+		public void setTotal(BigInteger total) {
+			this.total = total;
+		}
+	}
+
+	private static FakeDatabase.Table table(String[] labels, Object[]... rows) {
+		int[] types = new int[labels.length];
+		for (int i = 0; i < types.length; i++) {
+			types[i] = Types.OTHER;
+		}
+		List<Object[]> list = new ArrayList<>();
+		Collections.addAll(list, rows);
+		return new FakeDatabase.Table(labels, types, list);
+	}
+
+	private static List<Item> map(FakeDatabase.Table table) throws SQLException {
+		return BeanRowMapper.of(Item.class).mapAll(FakeDatabase.resultSet(table));
+	}
+
+	@Test
+	public void matchesLabelsIgnoringCaseAndUnderscores() throws SQLException {
+		Timestamp ts = new Timestamp(1600000000000L);
+		List<Item> items = map(table(new String[] { "ID", "USER_NAME", "Price", "created_at", "uSeR_nAmE_" },
+				new Object[] { 1L, "alice", new BigDecimal("1.50"), ts, "alice" }));
+		assertEquals(1, items.size());
+		Item item = items.get(0);
+		assertEquals(1L, item.getId());
+		assertEquals("alice", item.getUserName());
+		assertEquals(new BigDecimal("1.50"), item.getPrice());
+		assertEquals(ts, item.getCreatedAt());
+	}
+
+	@Test
+	public void leavesPrimitivesUnsetForSqlNull() throws SQLException {
+		List<Item> items = map(table(new String[] { "ID", "QUANTITY", "RATIO", "ACTIVE", "RANK", "USER_NAME" },
+				new Object[] { 1L, null, null, null, null, null },
+				new Object[] { 2L, 0, 0.0, false, 0, "" }));
+		Item nulls = items.get(0);
+		assertEquals(-1, nulls.getQuantity());
+		assertEquals(0.5, nulls.getRatio(), 0);
+		assertFalse(nulls.isActive());
+		// 引用类型的属性设为 null
+		assertNull(nulls.getRank());
+		assertNull(nulls.getUserName());
+
+		Item zeros = items.get(1);
+		assertEquals(0, zeros.getQuantity());
+		assertEquals(0.0, zeros.getRatio(), 0);
+		assertEquals(Integer.valueOf(0), zeros.getRank());
+		assertEquals("", zeros.getUserName());
+	}
+
+	@Test
+	public void convertsColumnTypes() throws SQLException {
+		List<Item> items = map(table(
+				new String[] { "ID", "QUANTITY", "RATIO", "ACTIVE", "USER_NAME", "PRICE", "RANK", "LEVEL", "TOTAL" },
+				new Object[] { new BigDecimal("7"), 3L, new BigDecimal("0.25"), 1, 42, 10, new BigDecimal("5"), 3,
+						123L }));
+		Item item = items.get(0);
+		assertEquals(7L, item.getId());
+		assertEquals(3, item.getQuantity());
+		assertEquals(0.25, item.getRatio(), 0);
+		assertTrue(item.isActive());
+		assertEquals("42", item.getUserName());
+		assertEquals(new BigDecimal("10"), item.getPrice());
+		assertEquals(Integer.valueOf(5), item.getRank());
+		// 没有专门读取方法的类型经 ConvertUtil 转换
+		assertEquals(Short.valueOf((short) 3), item.getLevel());
+		assertEquals(BigInteger.valueOf(123), item.getTotal());
+	}
+
+	@Test
+	public void ignoresUnmappedColumns() throws SQLException {
+		List<Item> items = map(table(new String[] { "NOT_A_PROPERTY", "CLASS", "ID", "EXTRA" },
+				new Object[] { "x", "y", 5L, new Object() }));
+		assertEquals(1, items.size());
+		assertEquals(5L, items.get(0).getId());
+		assertEquals(-1, items.get(0).getQuantity());
+	}
+
+	@Test
+	public void mapsDifferentColumnOrdersWithOneMapper() throws SQLException {
+		Item first = map(table(new String[] { "ID", "USER_NAME" }, new Object[] { 1L, "a" })).get(0);
+		Item second = map(table(new String[] { "USER_NAME", "ID" }, new Object[] { "b", 2L })).get(0);
+		assertEquals(1L, first.getId());
+		assertEquals("a", first.getUserName());
+		assertEquals(2L, second.getId());
+		assertEquals("b", second.getUserName());
+	}
+
+	@Test
+	public void cursorClosesStatement() throws SQLException {
+		FakeDatabase db = new FakeDatabase();
+		db.handler = new FakeDatabase.QueryHandler() {
+			@Override
+			public FakeDatabase.Table query(String sql, Object[] params) {
+				List<Object[]> rows = new ArrayList<>();
+				for (long i = 1; i <= 1000; i++) {
+					rows.add(new Object[] { i, i % 3 == 0 ? null : (int) i });
+				}
+				return new FakeDatabase.Table(new String[] { "id", "quantity" },
+						new int[] { Types.BIGINT, Types.INTEGER }, rows);
+			}
+		};
+		Connection conn = db.connection();
+		long sum = 0;
+		int unset = 0;
+		try (BeanRowMapper.Cursor<Item> cursor = BeanRowMapper.of(Item.class).query(conn,
+				"SELECT id, quantity FROM item WHERE id > ?", new Object[] { 0 }, 100)) {
+			for (Item item : cursor) {
+				sum += item.getId();
+				if (item.getQuantity() == -1) {
+					unset++;
+				}
+			}
+			assertEquals(1000, cursor.getRows());
+		}
+		assertEquals(500500, sum);
+		assertEquals(333, unset);
+		assertEquals(0, db.openStatements.get());
+	}
+}
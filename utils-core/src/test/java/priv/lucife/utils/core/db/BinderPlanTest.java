@@ -0,0 +1,61 @@
+package priv.lucife.utils.core.db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+import org.junit.Test;
+
+public class BinderPlanTest {
+
+	private static Object[] bind(String sql, int[] types, Object... args) throws SQLException {
+		FakeDatabase db = new FakeDatabase();
+		try (Connection conn = db.connection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+			BinderPlan.compile(sql, types).bind(ps, args);
+			ps.executeUpdate();
+		}
+		return db.executions.get(0).params;
+	}
+
+	@Test
+	public void countsParametersOutsideLiteralsAndComments() {
+		String sql = "UPDATE t SET a = ?, b = '?x', c = ? /* ? */ WHERE d = ? -- ?\n AND e = ?";
+		int[] types = { Types.INTEGER, Types.VARCHAR, Types.TIMESTAMP, Types.DATE };
+		assertEquals(4, BinderPlan.compile(sql, types).getParameterCount());
+		assertSame(BinderPlan.compile(sql, types), BinderPlan.compile(sql, types.clone()));
+	}
+
+	@Test
+	public void convertsDates() throws SQLException {
+		java.util.Date date = new java.util.Date(86400000L);
+		Object[] params = bind("INSERT INTO t VALUES (?, ?, ?)", new int[] { Types.DATE, Types.TIMESTAMP,
+				Types.INTEGER }, date, date, null);
+		assertArrayEquals(new Object[] { new Date(86400000L), new Timestamp(86400000L), null }, params);
+	}
+
+	@Test
+	public void fallsBackToSetObjectForUnexpectedValueTypes() throws SQLException {
+		Object[] args = { 1, "7", new BigDecimal("12345678901234567890"), 1.5, 2L };
+		Object[] params = bind("INSERT INTO t VALUES (?, ?, ?, ?, ?)", new int[] { Types.BIT, Types.SMALLINT,
+				Types.BIGINT, Types.REAL, Types.LONGVARCHAR }, args);
+		assertArrayEquals(args, params);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsMissingArguments() throws SQLException {
+		bind("INSERT INTO t VALUES (?, ?)", new int[] { Types.INTEGER, Types.INTEGER }, 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsMismatchedTypeCount() {
+		BinderPlan.compile("UPDATE t SET a = ?", new int[] { Types.INTEGER, Types.INTEGER });
+	}
+}
@@ -0,0 +1,191 @@
+package priv.lucife.utils.core.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ConnectionPoolTest {
+
+	@Test
+	public void reusesCachedStatements() throws SQLException {
+		FakeDatabase db = new FakeDatabase();
+		try (ConnectionPool pool = new ConnectionPool(db.dataSource()).setMaxSize(1).setStatementCacheSize(2)) {
+			PreparedStatement first;
+			try (Connection conn = pool.getConnection()) {
+				first = conn.prepareStatement("S1");
+				first.setFetchSize(50);
+				first.close();
+				PreparedStatement again = conn.prepareStatement("S1", ResultSet.TYPE_FORWARD_ONLY,
+						ResultSet.CONCUR_READ_ONLY);
+				assertSame(first, again);
+				assertSame(conn, again.getConnection());
+				// 归还时恢复默认设置
+				assertEquals(0, again.getFetchSize());
+
+				// 同一语句正在使用时另外准备一个
+				PreparedStatement nested = conn.prepareStatement("S1");
+				assertNotSame(again, nested);
+				nested.close();
+
+				// 使用中的语句被挤出缓存后，关闭时真正关闭
+				conn.prepareStatement("S2").close();
+				conn.prepareStatement("S3").close();
+				again.close();
+
+				conn.setAutoCommit(false);
+			}
+			assertEquals(1, pool.getStatementCacheHits());
+			assertEquals(4, db.prepares.get());
+			assertEquals(2, db.openStatements.get());
+			// 归还时回滚未提交的事务
+			assertEquals(1, db.rollbacks.get());
+			try {
+				first.executeUpdate();
+				fail();
+			} catch (SQLException e) {
+				// 连接归还后语句不能再用
+			}
+		}
+		assertEquals(0, db.openStatements.get());
+		assertEquals(0, db.openConnections.get());
+	}
+
+	@Test
+	public void rollsBackWhenConnectionsDefaultToManualCommit() throws SQLException {
+		FakeDatabase db = new FakeDatabase();
+		db.autoCommit = false;
+		try (ConnectionPool pool = new ConnectionPool(db.dataSource()).setMaxSize(1)) {
+			try (Connection conn = pool.getConnection()) {
+				conn.prepareStatement("UPDATE t SET a = 1").executeUpdate();
+			}
+			// 未改过自动提交，归还时也回滚
+			assertEquals(1, db.rollbacks.get());
+			try (Connection conn = pool.getConnection()) {
+				conn.prepareStatement("UPDATE t SET a = 2").executeUpdate();
+				conn.commit();
+			}
+			assertEquals(1, db.commits.get());
+			assertEquals(2, db.rollbacks.get());
+			try (Connection conn = pool.getConnection()) {
+				conn.setAutoCommit(true);
+			}
+			// 恢复为不自动提交
+			try (Connection conn = pool.getConnection()) {
+				assertEquals(false, conn.getAutoCommit());
+			}
+			assertEquals(1, db.connections.get());
+		}
+	}
+
+	@Test
+	public void timesOutWhenExhausted() throws SQLException {
+		FakeDatabase db = new FakeDatabase();
+		try (ConnectionPool pool = new ConnectionPool(db.dataSource()).setMaxSize(2).setConnectionTimeoutMillis(100)) {
+			Connection c1 = pool.getConnection();
+			Connection c2 = pool.getConnection();
+			try {
+				pool.getConnection();
+				fail();
+			} catch (SQLTransientConnectionException e) {
+				assertEquals(1, pool.getTimeoutCount());
+			}
+			c1.close();
+			c1.close();
+			assertTrue(c1.isClosed());
+			try {
+				c1.prepareStatement("S");
+				fail();
+			} catch (SQLException e) {
+				// 已归还的连接不能再用
+			}
+			assertEquals(1, pool.getActiveCount());
+			assertEquals(1, pool.getIdleCount());
+			c2.close();
+			assertEquals(2, pool.getTotalCount());
+			assertEquals(2, db.connections.get());
+		}
+		assertEquals(0, db.openConnections.get());
+	}
+
+	@Test
+	public void replacesInvalidConnections() throws SQLException {
+		FakeDatabase db = new FakeDatabase();
+		try (ConnectionPool pool = new ConnectionPool(db.dataSource()).setMaxSize(3).setValidation(0, 1)) {
+			pool.getConnection().close();
+			db.valid = false;
+			Connection conn = pool.getConnection();
+			db.valid = true;
+			conn.close();
+			assertTrue(db.validations.get() > 0);
+			assertEquals(2, db.connections.get());
+			assertEquals(1, db.openConnections.get());
+		}
+		assertEquals(0, db.openConnections.get());
+	}
+
+	@Test
+	public void reportsLeaks() throws Exception {
+		FakeDatabase db = new FakeDatabase();
+		try (ConnectionPool pool = new ConnectionPool(db.dataSource()).setLeakDetectionMillis(100)) {
+			Connection leaked = pool.getConnection();
+			long deadline = System.currentTimeMillis() + 5000;
+			while (pool.getLeakCount() == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(20);
+			}
+			assertEquals(1, pool.getLeakCount());
+			assertEquals(1, pool.getSuspectedLeaks().size());
+			leaked.close();
+			assertEquals(0, pool.getSuspectedLeaks().size());
+		}
+	}
+
+	@Test
+	public void sharesConnectionsAcrossThreads() throws Exception {
+		final FakeDatabase db = new FakeDatabase();
+		final AtomicInteger errors = new AtomicInteger();
+		try (final ConnectionPool pool = new ConnectionPool(db.dataSource()).setMaxSize(3)) {
+			Thread[] threads = new Thread[8];
+			for (int i = 0; i < threads.length; i++) {
+				threads[i] = new Thread() {
+					@Override
+					public void run() {
+						for (int k = 0; k < 2000; k++) {
+							try (Connection conn = pool.getConnection();
+									PreparedStatement ps = conn.prepareStatement("Q" + (k % 5))) {
+								ps.setInt(1, k);
+								ps.executeUpdate();
+							} catch (SQLException | RuntimeException e) {
+								errors.incrementAndGet();
+							}
+						}
+					}
+				};
+				threads[i].start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			assertEquals(0, errors.get());
+			assertEquals(16000, db.executions.size());
+			assertEquals(16000, pool.getBorrowCount());
+			assertTrue(pool.getTotalCount() <= 3);
+			assertEquals(0, pool.getActiveCount());
+			assertTrue(pool.getStatementCacheHits() > 0);
+			// 每个连接每条语句只准备一次
+			assertTrue(db.prepares.get() <= 3 * 5);
+		}
+		assertEquals(0, db.openConnections.get());
+		assertEquals(0, db.openStatements.get());
+	}
+}
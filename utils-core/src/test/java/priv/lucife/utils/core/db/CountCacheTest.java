@@ -0,0 +1,140 @@
+package priv.lucife.utils.core.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class CountCacheTest {
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * 统计查询返回 count 的当前值，failure 不为 null 时抛出它
+	 */
+	private static FakeDatabase counting(final AtomicLong count, final AtomicInteger queries, final long delayMillis,
+			final SQLException[] failure) {
+		FakeDatabase db = new FakeDatabase();
+		db.handler = new FakeDatabase.QueryHandler() {
+			@Override
+			public FakeDatabase.Table query(String sql, Object[] params) throws SQLException {
+				queries.incrementAndGet();
+				try {
+					Thread.sleep(delayMillis);
+				} catch (InterruptedException e) {
+					throw new SQLException(e);
+				}
+				if (failure[0] != null) {
+					throw failure[0];
+				}
+				List<Object[]> rows = Collections.singletonList(new Object[] { count.get() });
+				return new FakeDatabase.Table(new String[] { "C" }, new int[] { Types.BIGINT }, rows);
+			}
+		};
+		return db;
+	}
+
+	@Test
+	public void loadsFirstCountOnce() throws Exception {
+		AtomicInteger queries = new AtomicInteger();
+		FakeDatabase db = counting(new AtomicLong(42), queries, 200, new SQLException[1]);
+		final CountCache cache = new CountCache(db.dataSource(), 60000, 10, null);
+		final CountDownLatch start = new CountDownLatch(1);
+		Future<?>[] futures = new Future<?>[8];
+		for (int i = 0; i < futures.length; i++) {
+			futures[i] = executor.submit(new Callable<Long>() {
+				@Override
+				public Long call() throws Exception {
+					start.await();
+					return cache.count("SELECT * FROM t WHERE a = ?", 1);
+				}
+			});
+		}
+		start.countDown();
+		for (Future<?> future : futures) {
+			assertEquals(42L, future.get(10, TimeUnit.SECONDS));
+		}
+		assertEquals(1, queries.get());
+		assertEquals(1, cache.getLoadCount());
+		assertEquals(42, cache.count("SELECT  *  FROM t WHERE a = ?", 1));
+		assertEquals(1, queries.get());
+	}
+
+	@Test
+	public void surfacesBackgroundRefreshFailure() throws Exception {
+		AtomicLong count = new AtomicLong(1);
+		SQLException[] failure = new SQLException[1];
+		FakeDatabase db = counting(count, new AtomicInteger(), 0, failure);
+		ExecutorService refresher = Executors.newSingleThreadExecutor();
+		try {
+			CountCache cache = new CountCache(db.dataSource(), 1, 10, refresher);
+			assertEquals(1, cache.count("SELECT * FROM t"));
+
+			failure[0] = new SQLException("down");
+			Thread.sleep(5);
+			// 过期后先返回旧值，后台刷新失败
+			assertEquals(1, cache.count("SELECT * FROM t"));
+			refresher.submit(new Runnable() {
+				@Override
+				public void run() {
+				}
+			}).get(10, TimeUnit.SECONDS);
+			assertEquals(1, cache.getRefreshFailureCount());
+			assertSame(failure[0], cache.getLastRefreshFailure());
+
+			// 下一次访问同步重试，把异常抛给调用方
+			try {
+				cache.count("SELECT * FROM t");
+				fail();
+			} catch (SQLException e) {
+				assertSame(failure[0], e);
+			}
+
+			failure[0] = null;
+			count.set(2);
+			assertEquals(2, cache.count("SELECT * FROM t"));
+		} finally {
+			refresher.shutdownNow();
+		}
+	}
+
+	@Test
+	public void doesNotCacheFailedFirstLoad() throws Exception {
+		SQLException[] failure = { new SQLException("down") };
+		AtomicInteger queries = new AtomicInteger();
+		CountCache cache = new CountCache(counting(new AtomicLong(3), queries, 0, failure).dataSource(), 60000, 10,
+				null);
+		try {
+			cache.count("SELECT * FROM t");
+			fail();
+		} catch (SQLException e) {
+			assertSame(failure[0], e);
+		}
+		assertEquals(0, cache.size());
+		assertNull(cache.getLastRefreshFailure());
+		failure[0] = null;
+		assertEquals(3, cache.count("SELECT * FROM t"));
+		assertEquals(2, queries.get());
+	}
+}
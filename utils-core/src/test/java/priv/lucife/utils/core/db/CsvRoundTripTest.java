@@ -0,0 +1,168 @@
+package priv.lucife.utils.core.db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CsvRoundTripTest {
+
+	private static final String[] LABELS = { "ID", "NAME", "PRICE", "RATIO", "OK", "DAY", "TS", "BIN" };
+
+	private static final int[] TYPES = { Types.BIGINT, Types.VARCHAR, Types.DECIMAL, Types.DOUBLE, Types.BOOLEAN,
+			Types.DATE, Types.TIMESTAMP, Types.VARBINARY };
+
+	private static final String INSERT = "INSERT INTO t (id, name, price, ratio, ok, day, ts, bin)"
+			+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static List<Object[]> rows(int count, boolean lineBreaks) {
+		List<Object[]> rows = new ArrayList<>(count);
+		for (int i = 1; i <= count; i++) {
+			if (i % 7 == 0) {
+				rows.add(new Object[] { (long) i, null, null, null, null, null, null, null });
+				continue;
+			}
+			String name;
+			if (i % 11 == 0) {
+				name = "";
+			} else if (i % 3 == 0) {
+				name = "he said \"hi\", ok";
+			} else if (i % 5 == 0 && lineBreaks) {
+				name = "multi\nline";
+			} else {
+				name = "名字" + i + "\uD83D\uDE00";
+			}
+			rows.add(new Object[] { i % 2 == 0 ? -(long) i : (long) i, name, new BigDecimal(i + ".25"), i / 4.0,
+					i % 2 == 0, java.sql.Date.valueOf("2020-02-" + (10 + i % 18)),
+					new Timestamp(1600000000000L + i * 1001L), new byte[] { (byte) i, (byte) 0xFF } });
+		}
+		return rows;
+	}
+
+	private List<Object[]> roundTrip(List<Object[]> rows, CsvExporter exporter, String fileName, int parallelism)
+			throws IOException, SQLException {
+		File file = folder.newFile(fileName);
+		long exported = exporter.export(FakeDatabase.resultSet(new FakeDatabase.Table(LABELS, TYPES, rows)), file);
+		assertEquals(rows.size(), exported);
+
+		FakeDatabase db = new FakeDatabase();
+		long imported = new CsvImporter(db.dataSource(), INSERT, TYPES, ',').setParallelism(parallelism)
+				.setCommitRows(1000).importFile(file);
+		assertEquals(rows.size(), imported);
+		assertEquals(0, db.openConnections.get());
+
+		List<Object[]> result = db.rows(LABELS.length);
+		Collections.sort(result, new Comparator<Object[]>() {
+			@Override
+			public int compare(Object[] a, Object[] b) {
+				return Long.compare(Math.abs((Long) a[0]), Math.abs((Long) b[0]));
+			}
+		});
+		return result;
+	}
+
+	private static void assertRows(List<Object[]> expected, List<Object[]> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertArrayEquals("row " + (i + 1), expected.get(i), actual.get(i));
+		}
+	}
+
+	@Test
+	public void keepsValuesAndNulls() throws IOException, SQLException {
+		List<Object[]> rows = rows(200, true);
+		assertRows(rows, roundTrip(rows, new CsvExporter(CsvExporter.COMMA), "small.csv", 1));
+	}
+
+	@Test
+	public void keepsEmptyStringsDistinctFromCustomNull() throws IOException, SQLException {
+		List<Object[]> rows = new ArrayList<>();
+		rows.add(new Object[] { 1L, "\\N", null, null, null, null, null, null });
+		rows.add(new Object[] { 2L, null, null, null, null, null, null, null });
+		rows.add(new Object[] { 3L, "", null, null, null, null, null, null });
+		File file = folder.newFile("null.csv");
+		new CsvExporter(CsvExporter.COMMA).setNullString("\\N").setHeader(false).export(
+				FakeDatabase.resultSet(new FakeDatabase.Table(LABELS, TYPES, rows)), file);
+		List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+		assertEquals("1,\"\\N\",\\N,\\N,\\N,\\N,\\N,\\N", lines.get(0));
+		assertEquals("3,,\\N,\\N,\\N,\\N,\\N,\\N", lines.get(2));
+
+		FakeDatabase db = new FakeDatabase();
+		new CsvImporter(db.dataSource(), INSERT, TYPES, ',').setNullString("\\N").setHeader(false)
+				.importFile(file);
+		assertRows(rows, db.rows(LABELS.length));
+	}
+
+	@Test
+	public void importsInParallel() throws IOException, SQLException {
+		List<Object[]> rows = rows(20000, false);
+		assertRows(rows, roundTrip(rows, new CsvExporter(CsvExporter.COMMA), "big.csv", 4));
+	}
+
+	@Test
+	public void importsGzip() throws IOException, SQLException {
+		List<Object[]> rows = rows(5000, true);
+		assertRows(rows, roundTrip(rows, new CsvExporter(CsvExporter.COMMA), "big.csv.gz", 1));
+	}
+
+	@Test
+	public void keepsCarriageReturnsInQuotedFields() throws IOException, SQLException {
+		List<Object[]> rows = new ArrayList<>();
+		rows.add(new Object[] { 1L, "a\r\nb", null, null, null, null, null, null });
+		rows.add(new Object[] { 2L, "lone\rcr", null, null, null, null, null, null });
+		rows.add(new Object[] { 3L, "a\nb\r\n\r\nc", null, null, null, null, null, null });
+		rows.add(new Object[] { 4L, "trailing\r", null, null, null, null, null, null });
+		assertRows(rows, roundTrip(rows, new CsvExporter(CsvExporter.COMMA), "cr.csv", 1));
+		assertRows(rows, roundTrip(rows, new CsvExporter(CsvExporter.COMMA), "cr.csv.gz", 1));
+	}
+
+	@Test
+	public void importsCrlfLineEndings() throws IOException, SQLException {
+		int[] types = { Types.BIGINT, Types.VARCHAR };
+		String csv = "ID,NAME\r\n1,\"a\r\nb\"\r\n2,plain\r\n3,\"x\ny\"\r\n";
+		List<Object[]> expected = new ArrayList<>();
+		expected.add(new Object[] { 1L, "a\r\nb" });
+		expected.add(new Object[] { 2L, "plain" });
+		expected.add(new Object[] { 3L, "x\ny" });
+		for (String name : new String[] { "crlf.csv", "crlf.csv.gz" }) {
+			File file = folder.newFile(name);
+			byte[] bytes = csv.getBytes(StandardCharsets.UTF_8);
+			if (name.endsWith(".gz")) {
+				try (GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(file))) {
+					out.write(bytes);
+				}
+			} else {
+				Files.write(file.toPath(), bytes);
+			}
+			FakeDatabase db = new FakeDatabase();
+			assertEquals(3, new CsvImporter(db.dataSource(), "INSERT INTO t (id, name) VALUES (?, ?)", types, ',')
+					.importFile(file));
+			assertRows(expected, db.rows(2));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNonAsciiDelimiter() {
+		new CsvExporter('\u00A6');
+	}
+}
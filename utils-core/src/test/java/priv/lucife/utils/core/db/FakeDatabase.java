@@ -0,0 +1,360 @@
+package priv.lucife.utils.core.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+/**
+ * 测试用的内存 JDBC 驱动：用动态代理实现 DataSource、Connection、PreparedStatement 和 ResultSet，记录执行的语句和参数。
+ * <p>
+ * ResultSet 遵守 JDBC 约定，游标不在某一行上时读取列值抛出 SQLException。查询结果由 {@link QueryHandler} 提供。
+ */
+final class FakeDatabase {
+
+	/**
+	 * 根据语句和参数返回查询结果
+	 */
+	interface QueryHandler {
+		Table query(String sql, Object[] params) throws SQLException;
+	}
+
+	/**
+	 * 查询结果：列名、列类型（{@link java.sql.Types}）和行
+	 */
+	static final class Table {
+		final String[] labels;
+		final int[] types;
+		final List<Object[]> rows;
+
+		Table(String[] labels, int[] types, List<Object[]> rows) {
+			this.labels = labels;
+			this.types = types;
+			this.rows = rows;
+		}
+	}
+
+	/**
+	 * 一次 executeUpdate，或 executeBatch 中的一行
+	 */
+	static final class Execution {
+		final String sql;
+		final Object[] params;
+
+		Execution(String sql, Object[] params) {
+			this.sql = sql;
+			this.params = params;
+		}
+	}
+
+	final List<Execution> executions = Collections.synchronizedList(new ArrayList<Execution>());
+	final AtomicInteger connections = new AtomicInteger();
+	final AtomicInteger openConnections = new AtomicInteger();
+	final AtomicInteger prepares = new AtomicInteger();
+	final AtomicInteger openStatements = new AtomicInteger();
+	final AtomicInteger commits = new AtomicInteger();
+	final AtomicInteger rollbacks = new AtomicInteger();
+	final AtomicInteger validations = new AtomicInteger();
+	volatile boolean valid = true;
+	/**
+	 * 新连接的自动提交设置
+	 */
+	volatile boolean autoCommit = true;
+	volatile QueryHandler handler;
+
+	DataSource dataSource() {
+		return proxy(DataSource.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("getConnection")) {
+					return connection();
+				}
+				return objectMethod(proxy, method, args);
+			}
+		});
+	}
+
+	Connection connection() {
+		connections.incrementAndGet();
+		openConnections.incrementAndGet();
+		return proxy(Connection.class, new InvocationHandler() {
+			private boolean autoCommit = FakeDatabase.this.autoCommit;
+			private boolean readOnly;
+			private boolean closed;
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+				if (name.equals("close")) {
+					if (!closed) {
+						closed = true;
+						openConnections.decrementAndGet();
+					}
+					return null;
+				} else if (name.equals("isClosed")) {
+					return closed;
+				} else if (name.equals("isValid")) {
+					validations.incrementAndGet();
+					return valid;
+				}
+				if (closed && !isObjectMethod(name)) {
+					throw new SQLException("Connection is closed");
+				}
+				switch (name) {
+				case "getAutoCommit":
+					return autoCommit;
+				case "setAutoCommit":
+					autoCommit = (Boolean) args[0];
+					return null;
+				case "isReadOnly":
+					return readOnly;
+				case "setReadOnly":
+					readOnly = (Boolean) args[0];
+					return null;
+				case "commit":
+					commits.incrementAndGet();
+					return null;
+				case "rollback":
+					rollbacks.incrementAndGet();
+					return null;
+				case "prepareStatement":
+					return statement((Connection) proxy, (String) args[0]);
+				default:
+					return objectMethod(proxy, method, args);
+				}
+			}
+		});
+	}
+
+	private PreparedStatement statement(final Connection conn, final String sql) {
+		prepares.incrementAndGet();
+		openStatements.incrementAndGet();
+		return proxy(PreparedStatement.class, new InvocationHandler() {
+			private final List<Object> params = new ArrayList<>();
+			private final List<Object[]> batch = new ArrayList<>();
+			private int fetchSize;
+			private int maxRows;
+			private int queryTimeout;
+			private boolean closed;
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+				if (name.equals("close")) {
+					if (!closed) {
+						closed = true;
+						openStatements.decrementAndGet();
+					}
+					return null;
+				} else if (name.equals("isClosed")) {
+					return closed;
+				}
+				if (closed && !isObjectMethod(name)) {
+					throw new SQLException("Statement is closed");
+				}
+				if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+					int index = (Integer) args[0];
+					while (params.size() < index) {
+						params.add(null);
+					}
+					params.set(index - 1, name.equals("setNull") ? null : args[1]);
+					return null;
+				}
+				switch (name) {
+				case "clearParameters":
+					params.clear();
+					return null;
+				case "addBatch":
+					batch.add(params.toArray());
+					return null;
+				case "clearBatch":
+					batch.clear();
+					return null;
+				case "executeBatch":
+					int[] counts = new int[batch.size()];
+					for (int i = 0; i < counts.length; i++) {
+						executions.add(new Execution(sql, batch.get(i)));
+						counts[i] = 1;
+					}
+					batch.clear();
+					return counts;
+				case "executeUpdate":
+					executions.add(new Execution(sql, params.toArray()));
+					return 1;
+				case "execute":
+					return false;
+				case "executeQuery":
+					return resultSet(handler.query(sql, params.toArray()));
+				case "getConnection":
+					return conn;
+				case "getFetchSize":
+					return fetchSize;
+				case "setFetchSize":
+					fetchSize = (Integer) args[0];
+					return null;
+				case "getMaxRows":
+					return maxRows;
+				case "setMaxRows":
+					maxRows = (Integer) args[0];
+					return null;
+				case "getQueryTimeout":
+					return queryTimeout;
+				case "setQueryTimeout":
+					queryTimeout = (Integer) args[0];
+					return null;
+				default:
+					return objectMethod(proxy, method, args);
+				}
+			}
+		});
+	}
+
+	/**
+	 * 按每行的参数个数拆分所有执行记录，多行 VALUES 语句的参数被拆成多行
+	 */
+	List<Object[]> rows(int width) {
+		List<Object[]> rows = new ArrayList<>();
+		synchronized (executions) {
+			for (Execution execution : executions) {
+				if (execution.params.length % width != 0) {
+					throw new AssertionError(execution.params.length + " params for width " + width + ": "
+							+ execution.sql);
+				}
+				for (int i = 0; i < execution.params.length; i += width) {
+					rows.add(Arrays.copyOfRange(execution.params, i, i + width));
+				}
+			}
+		}
+		return rows;
+	}
+
+	static ResultSet resultSet(final Table table) {
+		final ResultSetMetaData meta = proxy(ResultSetMetaData.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				switch (method.getName()) {
+				case "getColumnCount":
+					return table.labels.length;
+				case "getColumnLabel":
+				case "getColumnName":
+					return table.labels[(Integer) args[0] - 1];
+				case "getColumnType":
+					return table.types[(Integer) args[0] - 1];
+				default:
+					return objectMethod(proxy, method, args);
+				}
+			}
+		});
+		return proxy(ResultSet.class, new InvocationHandler() {
+			private int row = -1;
+			private boolean wasNull;
+			private boolean closed;
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+				switch (name) {
+				case "next":
+					if (row < table.rows.size()) {
+						row++;
+					}
+					return row < table.rows.size();
+				case "close":
+					closed = true;
+					return null;
+				case "isClosed":
+					return closed;
+				case "wasNull":
+					return wasNull;
+				case "getMetaData":
+					return meta;
+				case "setFetchSize":
+					return null;
+				default:
+					break;
+				}
+				if (!name.startsWith("get") || args == null || args.length != 1) {
+					return objectMethod(proxy, method, args);
+				}
+				if (row < 0 || row >= table.rows.size()) {
+					throw new SQLException("No current row");
+				}
+				Object value = table.rows.get(row)[column(args[0])];
+				wasNull = value == null;
+				return convert(name, value);
+			}
+
+			private int column(Object column) throws SQLException {
+				if (column instanceof Integer) {
+					return (Integer) column - 1;
+				}
+				for (int i = 0; i < table.labels.length; i++) {
+					if (table.labels[i].equalsIgnoreCase((String) column)) {
+						return i;
+					}
+				}
+				throw new SQLException("Column not found: " + column);
+			}
+		});
+	}
+
+	private static Object convert(String getter, Object value) {
+		switch (getter) {
+		case "getString":
+			return value == null ? null : value.toString();
+		case "getBoolean":
+			return value instanceof Number ? ((Number) value).intValue() != 0 : Boolean.TRUE.equals(value);
+		case "getByte":
+			return value == null ? (byte) 0 : ((Number) value).byteValue();
+		case "getShort":
+			return value == null ? (short) 0 : ((Number) value).shortValue();
+		case "getInt":
+			return value == null ? 0 : ((Number) value).intValue();
+		case "getLong":
+			return value == null ? 0L : ((Number) value).longValue();
+		case "getFloat":
+			return value == null ? 0f : ((Number) value).floatValue();
+		case "getDouble":
+			return value == null ? 0d : ((Number) value).doubleValue();
+		case "getBigDecimal":
+			return value == null || value instanceof BigDecimal ? value : new BigDecimal(value.toString());
+		default:
+			return value;
+		}
+	}
+
+	private static boolean isObjectMethod(String name) {
+		return name.equals("toString") || name.equals("hashCode") || name.equals("equals");
+	}
+
+	private static Object objectMethod(Object proxy, Method method, Object[] args) {
+		switch (method.getName()) {
+		case "toString":
+			return "Fake" + proxy.getClass().getInterfaces()[0].getSimpleName() + "@"
+					+ Integer.toHexString(System.identityHashCode(proxy));
+		case "hashCode":
+			return System.identityHashCode(proxy);
+		case "equals":
+			return proxy == args[0];
+		default:
+			throw new UnsupportedOperationException(method.toString());
+		}
+	}
+
+	private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+		return type.cast(Proxy.newProxyInstance(FakeDatabase.class.getClassLoader(), new Class<?>[] { type },
+				handler));
+	}
+}
@@ -0,0 +1,102 @@
+package priv.lucife.utils.core.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class InSQLExecutorTest {
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * 返回这一批的 IN 参数，随机停顿打乱完成顺序
+	 */
+	private static InSQLExecutor.InSQLQuery<Object> echo(final int otherArgs) {
+		final Random random = new Random(1);
+		return new InSQLExecutor.InSQLQuery<Object>() {
+			@Override
+			public List<Object> query(Connection conn, String sql, Object[] args) throws SQLException {
+				try {
+					Thread.sleep(random.nextInt(5));
+				} catch (InterruptedException e) {
+					throw new SQLException(e);
+				}
+				return new ArrayList<>(Arrays.asList(args).subList(otherArgs, args.length));
+			}
+		};
+	}
+
+	private static Object[] range(int n) {
+		Object[] values = new Object[n];
+		for (int i = 0; i < n; i++) {
+			values[i] = i;
+		}
+		return values;
+	}
+
+	@Test
+	public void mergesInChunkOrder() throws SQLException {
+		FakeDatabase db = new FakeDatabase();
+		InSQLExecutor in = new InSQLExecutor(db.dataSource(), executor, 4, 10, true);
+		List<Object> result = in.query("SELECT * FROM t WHERE a = ? AND b IN", range(95), new Object[] { "x" },
+				echo(1));
+		assertEquals(Arrays.asList(range(95)), result);
+		assertEquals(0, db.openConnections.get());
+	}
+
+	@Test
+	public void mergesInCompletionOrder() throws SQLException {
+		FakeDatabase db = new FakeDatabase();
+		InSQLExecutor in = new InSQLExecutor(db.dataSource(), executor, 4, 10, false);
+		List<Object> result = in.query("SELECT * FROM t WHERE b IN", range(95), null, echo(0));
+		Collections.sort(result, new Comparator<Object>() {
+			@Override
+			public int compare(Object a, Object b) {
+				return Integer.compare((Integer) a, (Integer) b);
+			}
+		});
+		assertEquals(Arrays.asList(range(95)), result);
+	}
+
+	@Test
+	public void returnsEmptyForNoArgs() throws SQLException {
+		InSQLExecutor in = new InSQLExecutor(new FakeDatabase().dataSource(), executor, 4, 10, true);
+		assertEquals(0, in.query("SELECT * FROM t WHERE b IN", new Object[0], null, echo(0)).size());
+	}
+
+	@Test
+	public void rethrowsQueryFailure() {
+		final SQLException failure = new SQLException("boom");
+		InSQLExecutor in = new InSQLExecutor(new FakeDatabase().dataSource(), executor, 4, 10, true);
+		try {
+			in.query("SELECT * FROM t WHERE b IN", range(95), null, new InSQLExecutor.InSQLQuery<Object>() {
+				@Override
+				public List<Object> query(Connection conn, String sql, Object[] args) throws SQLException {
+					throw failure;
+				}
+			});
+			fail();
+		} catch (SQLException e) {
+			assertSame(failure, e);
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package priv.lucife.utils.core.db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class KeysetPagerTest {
+
+	public static class Row {
+		private int id;
+		private String name;
+
+		public int getId() {
+			return id;
+		}
+
+		public void setId(int id) {
+			this.id = id;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+	}
+
+	private final KeysetPager pager = new KeysetPager("SELECT id, name FROM t WHERE grp = ? ORDER BY name", true,
+			Dialect.MYSQL, "id");
+
+	/**
+	 * 表 t 中 id 为 1..rows，按 LIMIT 和 id &gt; ? 返回
+	 */
+	private static FakeDatabase table(final int rows) {
+		FakeDatabase db = new FakeDatabase();
+		db.handler = new FakeDatabase.QueryHandler() {
+			@Override
+			public FakeDatabase.Table query(String sql, Object[] params) {
+				int after = sql.contains("id > ?") ? (Integer) params[1] : 0;
+				int limit = Integer.parseInt(sql.substring(sql.lastIndexOf("LIMIT ") + 6));
+				List<Object[]> result = new ArrayList<>();
+				for (int id = after + 1; id <= rows && result.size() < limit; id++) {
+					result.add(new Object[] { id, "n" + id });
+				}
+				return new FakeDatabase.Table(new String[] { "ID", "NAME" },
+						new int[] { Types.INTEGER, Types.VARCHAR }, result);
+			}
+		};
+		return db;
+	}
+
+	@Test
+	public void generatesSeekQueries() {
+		assertEquals("SELECT id, name FROM t WHERE (grp = ?) ORDER BY id ASC LIMIT 10", pager.firstPageSQL(10));
+		assertEquals("SELECT id, name FROM t WHERE (grp = ?) AND ((id > ?)) ORDER BY id ASC LIMIT 10",
+				pager.nextPageSQL(10));
+
+		KeysetPager two = new KeysetPager("SELECT * FROM t", false, Dialect.MYSQL, "t.created DESC", "id");
+		assertEquals("SELECT * FROM t WHERE ((t.created < ?) OR (t.created = ? AND id > ?))"
+				+ " ORDER BY t.created DESC, id ASC LIMIT 5", two.nextPageSQL(5));
+		assertArrayEquals(new Object[] { "g", 9, 9, 4 }, two.nextPageArgs(new Object[] { "g" }, new Object[] { 9, 4 }));
+	}
+
+	@Test
+	public void wrapsExistingWhereClause() {
+		KeysetPager or = new KeysetPager("SELECT * FROM t WHERE a = ? OR b = ?", true, Dialect.MYSQL, "id");
+		assertEquals("SELECT * FROM t WHERE (a = ? OR b = ?) AND ((id > ?)) ORDER BY id ASC LIMIT 5",
+				or.nextPageSQL(5));
+
+		KeysetPager commented = new KeysetPager("SELECT * FROM t WHERE a = ? -- note\nORDER BY x", true, Dialect.MYSQL,
+				"id");
+		assertEquals("SELECT * FROM t WHERE (a = ? -- note\n) AND ((id > ?)) ORDER BY id ASC LIMIT 5",
+				commented.nextPageSQL(5));
+	}
+
+	@Test
+	public void stripsOnlyTopLevelOrderBy() {
+		KeysetPager spaced = new KeysetPager("SELECT * FROM t ORDER  BY\nname", false, Dialect.MYSQL, "id");
+		assertEquals("SELECT * FROM t ORDER BY id ASC LIMIT 5", spaced.firstPageSQL(5));
+
+		String windowed = "SELECT id, ROW_NUMBER() OVER (ORDER BY name) rn FROM t"
+				+ " WHERE id IN (SELECT id FROM u ORDER BY id) AND note <> ' order by '";
+		KeysetPager nested = new KeysetPager(windowed, true, Dialect.MYSQL, "id");
+		assertEquals("SELECT id, ROW_NUMBER() OVER (ORDER BY name) rn FROM t WHERE (id IN (SELECT id FROM u ORDER BY id)"
+				+ " AND note <> ' order by ') ORDER BY id ASC LIMIT 5", nested.firstPageSQL(5));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsMissingWhere() {
+		new KeysetPager("SELECT * FROM t", true, Dialect.MYSQL, "id");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsUnexpectedWhere() {
+		new KeysetPager("SELECT * FROM t WHERE a = ?", false, Dialect.MYSQL, "id");
+	}
+
+	@Test
+	public void fetchesShortLastPage() throws SQLException {
+		FakeDatabase db = table(3);
+		try (Connection conn = db.connection()) {
+			KeysetPager.Page<Row> page = pager.fetch(conn, new Object[] { "g" }, null, 10, BeanRowMapper.of(Row.class));
+			assertEquals(3, page.getRows().size());
+			assertFalse(page.hasMore());
+			assertArrayEquals(new Object[] { 3 }, page.getLastKeys());
+		}
+	}
+
+	@Test
+	public void fetchesFullPages() throws SQLException {
+		FakeDatabase db = table(20);
+		BeanRowMapper<Row> mapper = BeanRowMapper.of(Row.class);
+		try (Connection conn = db.connection()) {
+			KeysetPager.Page<Row> first = pager.fetch(conn, new Object[] { "g" }, null, 10, mapper);
+			assertEquals(10, first.getRows().size());
+			assertTrue(first.hasMore());
+			assertArrayEquals(new Object[] { 10 }, first.getLastKeys());
+
+			KeysetPager.Page<Row> second = pager.fetch(conn, new Object[] { "g" }, first.getLastKeys(), 10, mapper);
+			assertEquals(11, second.getRows().get(0).getId());
+			assertEquals(10, second.getRows().size());
+			assertFalse(second.hasMore());
+
+			KeysetPager.Page<Row> empty = pager.fetch(conn, new Object[] { "g" }, second.getLastKeys(), 10, mapper);
+			assertTrue(empty.getRows().isEmpty());
+			assertNull(empty.getLastKeys());
+		}
+		assertEquals(0, db.openStatements.get());
+	}
+
+	@Test
+	public void streamsAllPages() {
+		streamAll(null);
+		ExecutorService prefetcher = Executors.newSingleThreadExecutor();
+		try {
+			streamAll(prefetcher);
+		} finally {
+			prefetcher.shutdown();
+		}
+	}
+
+	private void streamAll(ExecutorService prefetcher) {
+		FakeDatabase db = table(25);
+		int expected = 0;
+		try (KeysetPager.PageCursor<Row> cursor = pager.stream(db.dataSource(), new Object[] { "g" }, 10,
+				BeanRowMapper.of(Row.class), prefetcher)) {
+			for (Row row : cursor) {
+				assertEquals(++expected, row.getId());
+				assertEquals("n" + expected, row.getName());
+			}
+			assertEquals(25, cursor.getRows());
+			assertEquals(3, cursor.getPages());
+		}
+		assertEquals(25, expected);
+		assertEquals(0, db.openConnections.get());
+	}
+}
@@ -0,0 +1,207 @@
+package priv.lucife.utils.core.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class QueryCacheTest {
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	private final FakeDatabase db = new FakeDatabase();
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * 返回 [第一个参数, 开始时的 version]，每次执行计数，started 计数后等待 release
+	 */
+	private static final class Loader implements InSQLExecutor.InSQLQuery<String> {
+		final AtomicInteger calls = new AtomicInteger();
+		final AtomicInteger version = new AtomicInteger();
+		volatile CountDownLatch started = new CountDownLatch(0);
+		volatile CountDownLatch release = new CountDownLatch(0);
+
+		@Override
+		public List<String> query(Connection conn, String sql, Object[] args) throws SQLException {
+			calls.incrementAndGet();
+			int read = version.get();
+			started.countDown();
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				throw new SQLException(e);
+			}
+			return Arrays.asList(String.valueOf(args == null ? null : args[0]), "v" + read);
+		}
+	}
+
+	@Test
+	public void loadsConcurrentMissesOnce() throws Exception {
+		final QueryCache cache = new QueryCache(db.dataSource(), 1 << 20, 60000);
+		final Loader loader = new Loader();
+		loader.started = new CountDownLatch(1);
+		loader.release = new CountDownLatch(1);
+		List<Future<List<String>>> futures = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			futures.add(executor.submit(new Callable<List<String>>() {
+				@Override
+				public List<String> call() throws SQLException {
+					return cache.query("SELECT  name FROM users WHERE id = ?", new Object[] { 1 }, loader);
+				}
+			}));
+		}
+		assertTrue(loader.started.await(10, TimeUnit.SECONDS));
+		// 给其他线程时间进入等待
+		Thread.sleep(100);
+		loader.release.countDown();
+		List<String> first = futures.get(0).get(10, TimeUnit.SECONDS);
+		for (Future<List<String>> future : futures) {
+			assertSame(first, future.get(10, TimeUnit.SECONDS));
+		}
+		assertEquals(1, loader.calls.get());
+		assertEquals(1, cache.getLoadCount());
+		assertEquals(1, cache.size());
+		assertEquals(0, db.openConnections.get());
+
+		// 规范化后相同的 SQL 命中
+		assertSame(first, cache.query("SELECT name\n FROM users WHERE id = ?", new Object[] { 1 }, loader));
+		assertEquals(1, loader.calls.get());
+		assertNotEquals(first, cache.query("SELECT name FROM users WHERE id = ?", new Object[] { 2 }, loader));
+		assertEquals(2, loader.calls.get());
+	}
+
+	@Test
+	public void doesNotCacheLoadsRacingInvalidation() throws Exception {
+		final QueryCache cache = new QueryCache(db.dataSource(), 1 << 20, 60000);
+		final Loader loader = new Loader();
+		loader.started = new CountDownLatch(1);
+		loader.release = new CountDownLatch(1);
+		Future<List<String>> stale = executor.submit(new Callable<List<String>>() {
+			@Override
+			public List<String> call() throws SQLException {
+				return cache.query("SELECT * FROM app.users WHERE id = ?", new Object[] { 1 }, loader);
+			}
+		});
+		assertTrue(loader.started.await(10, TimeUnit.SECONDS));
+		// 查询已读到旧数据，随后表被写入并失效
+		loader.version.set(1);
+		assertEquals(0, cache.invalidateTable("USERS"));
+		loader.release.countDown();
+		assertEquals(Arrays.asList("1", "v0"), stale.get(10, TimeUnit.SECONDS));
+		assertEquals(0, cache.size());
+
+		assertEquals(Arrays.asList("1", "v1"),
+				cache.query("SELECT * FROM app.users WHERE id = ?", new Object[] { 1 }, loader));
+		assertEquals(2, loader.calls.get());
+		assertEquals(1, cache.size());
+		assertEquals(1, cache.invalidateTable("users"));
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getEstimatedBytes());
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedByBytes() throws SQLException {
+		Loader loader = new Loader();
+		QueryCache probe = new QueryCache(db.dataSource(), 1 << 20, 60000);
+		probe.query("SELECT * FROM t WHERE id = ?", new Object[] { 10 }, loader);
+		long bytes = probe.getEstimatedBytes();
+		assertTrue(bytes > 0);
+
+		// 能放下三个同样大小的条目
+		QueryCache cache = new QueryCache(db.dataSource(), bytes * 3 + bytes / 2, 60000);
+		for (int id = 11; id <= 13; id++) {
+			cache.query("SELECT * FROM t WHERE id = ?", new Object[] { id }, loader);
+		}
+		assertEquals(3, cache.size());
+		assertEquals(bytes * 3, cache.getEstimatedBytes());
+		// 访问 11 之后最久未用的是 12
+		cache.query("SELECT * FROM t WHERE id = ?", new Object[] { 11 }, loader);
+		cache.query("SELECT * FROM t WHERE id = ?", new Object[] { 14 }, loader);
+		assertEquals(3, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+		assertTrue(cache.getEstimatedBytes() <= bytes * 3 + bytes / 2);
+
+		int calls = loader.calls.get();
+		cache.query("SELECT * FROM t WHERE id = ?", new Object[] { 11 }, loader);
+		cache.query("SELECT * FROM t WHERE id = ?", new Object[] { 13 }, loader);
+		cache.query("SELECT * FROM t WHERE id = ?", new Object[] { 14 }, loader);
+		assertEquals(calls, loader.calls.get());
+		cache.query("SELECT * FROM t WHERE id = ?", new Object[] { 12 }, loader);
+		assertEquals(calls + 1, loader.calls.get());
+	}
+
+	@Test
+	public void skipsEntriesLargerThanTheCache() throws SQLException {
+		Loader loader = new Loader();
+		QueryCache cache = new QueryCache(db.dataSource(), 64, 60000);
+		cache.query("SELECT * FROM t WHERE id = ?", new Object[] { 1 }, loader);
+		cache.query("SELECT * FROM t WHERE id = ?", new Object[] { 1 }, loader);
+		assertEquals(2, loader.calls.get());
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getEvictionCount());
+	}
+
+	@Test
+	public void doesNotCacheFailures() throws SQLException {
+		QueryCache cache = new QueryCache(db.dataSource(), 1 << 20, 60000);
+		final AtomicInteger calls = new AtomicInteger();
+		InSQLExecutor.InSQLQuery<String> failing = new InSQLExecutor.InSQLQuery<String>() {
+			@Override
+			public List<String> query(Connection conn, String sql, Object[] args) throws SQLException {
+				if (calls.incrementAndGet() == 1) {
+					throw new SQLException("down");
+				}
+				return Arrays.asList("ok");
+			}
+		};
+		try {
+			cache.query("SELECT * FROM t", null, failing);
+			fail();
+		} catch (SQLException e) {
+			assertEquals("down", e.getMessage());
+		}
+		assertEquals(0, cache.size());
+		assertEquals(Arrays.asList("ok"), cache.query("SELECT * FROM t", null, failing));
+		assertEquals(0, db.openConnections.get());
+	}
+
+	@Test
+	public void keysNormalizeWhitespaceOutsideLiterals() {
+		QueryKey key = new QueryKey("  SELECT *\n\tFROM t  WHERE a = 'x  y' ", new Object[] { 1, new byte[] { 2 } });
+		assertEquals("SELECT * FROM t WHERE a = 'x  y'", key.sql);
+		assertEquals(key, new QueryKey("SELECT * FROM t WHERE a = 'x  y'", new Object[] { 1, new byte[] { 2 } }));
+		assertEquals(key.hashCode(),
+				new QueryKey("SELECT * FROM t WHERE a = 'x  y'", new Object[] { 1, new byte[] { 2 } }).hashCode());
+		assertFalse(key.equals(new QueryKey("SELECT * FROM t WHERE a = 'x y'", new Object[] { 1, new byte[] { 2 } })));
+		assertFalse(key.equals(new QueryKey("SELECT * FROM t WHERE a = 'x  y'", new Object[] { 1, new byte[] { 3 } })));
+
+		// 参数被复制，之后修改原数组不影响键
+		Object[] args = { 1 };
+		QueryKey copied = new QueryKey("SELECT 1", args);
+		args[0] = 2;
+		assertEquals(new QueryKey("SELECT 1", new Object[] { 1 }), copied);
+		assertEquals(new QueryKey("SELECT 1", null), new QueryKey("SELECT 1", new Object[0]));
+	}
+}
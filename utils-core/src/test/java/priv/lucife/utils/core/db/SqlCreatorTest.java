@@ -0,0 +1,217 @@
+package priv.lucife.utils.core.db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import priv.lucife.utils.core.db.JdbcUtil.SqlCreator;
+
+public class SqlCreatorTest {
+
+	/**
+	 * 形状缓存是全局的，每个用例用不同的原始 sql 保证第一次是未命中
+	 */
+	private static final AtomicInteger TABLES = new AtomicInteger();
+
+	private static String table() {
+		return "t" + TABLES.incrementAndGet();
+	}
+
+	/**
+	 * 改为形状缓存之前逐段拼接 sql 的实现，作为对照
+	 */
+	private static final class Reference {
+		private final StringBuilder sql;
+		private final boolean hasWhere;
+		private boolean isFirst = true;
+		private boolean hasOrderBy;
+
+		Reference(String baseSQL, boolean hasWhere) {
+			this.sql = new StringBuilder(baseSQL.trim());
+			this.hasWhere = hasWhere;
+		}
+
+		void addExpression(String operator, String expression) {
+			if (isFirst) {
+				if (hasWhere) {
+					if (!sql.toString().toLowerCase().endsWith("where")) {
+						sql.append(" " + operator);
+					}
+				} else {
+					sql.append(" WHERE");
+				}
+				isFirst = false;
+			} else {
+				sql.append(" " + operator);
+			}
+			sql.append(" " + expression);
+		}
+
+		void andIn(String columnName, int count) {
+			if (isFirst) {
+				if (hasWhere) {
+					if (!sql.toString().toLowerCase().endsWith("where")) {
+						sql.append(" AND");
+					}
+				} else {
+					sql.append(" WHERE");
+				}
+				sql.append(" ");
+				isFirst = false;
+			} else {
+				sql.append(" AND ");
+			}
+			sql.append(columnName).append(" IN ").append(JdbcUtil.getInSQL(count));
+		}
+
+		void groupBy(String... columnNames) {
+			sql.append(" GROUP BY ");
+			for (String columnName : columnNames) {
+				sql.append(columnName).append(", ");
+			}
+			sql.delete(sql.length() - 2, sql.length() - 1);
+		}
+
+		void orderBy(String columnName, boolean isDesc) {
+			sql.append(hasOrderBy ? ", " : " ORDER BY ").append(columnName);
+			if (isDesc) {
+				sql.append(" DESC");
+			}
+			hasOrderBy = true;
+		}
+	}
+
+	/**
+	 * 按 mask 的各位决定添加哪些片段，同时作用于 creator 和对照实现
+	 */
+	private static void apply(int mask, SqlCreator creator, Reference reference) {
+		boolean name = (mask & 1) != 0;
+		creator.and("name = ?", "n", Types.VARCHAR, name);
+		if (name) {
+			reference.addExpression("AND", "name = ?");
+		}
+		boolean age = (mask & 2) != 0;
+		creator.or("age > ?", 18, Types.INTEGER, age);
+		if (age) {
+			reference.addExpression("OR", "age > ?");
+		}
+		if ((mask & 4) != 0) {
+			creator.andIn("id", new Object[] { 1, 2, 3 }, Types.INTEGER, true);
+			reference.andIn("id", 3);
+		}
+		if ((mask & 8) != 0) {
+			creator.and("deleted = 0", true);
+			reference.addExpression("AND", "deleted = 0");
+		}
+		if ((mask & 16) != 0) {
+			creator.groupBy("dept", "role");
+			reference.groupBy("dept", "role");
+		}
+		if ((mask & 32) != 0) {
+			creator.orderBy("age");
+			reference.orderBy("age", false);
+		}
+		if ((mask & 64) != 0) {
+			creator.orderByDesc("id");
+			reference.orderBy("id", true);
+		}
+	}
+
+	@Test
+	public void matchesReferenceWithAndWithoutCache() {
+		String[] bases = { "SELECT * FROM %s WHERE", "SELECT * FROM %s WHERE status = 1", "  SELECT * FROM %s  " };
+		boolean[] hasWheres = { true, true, false };
+		for (int b = 0; b < bases.length; b++) {
+			String base = String.format(bases[b], table());
+			SqlCreator reused = SqlCreator.create(base, hasWheres[b]);
+			for (int mask = 0; mask < 128; mask++) {
+				Reference reference = new Reference(base, hasWheres[b]);
+				SqlCreator uncached = SqlCreator.create(base, hasWheres[b]);
+				apply(mask, uncached, reference);
+				String expected = reference.sql.toString();
+				assertEquals(base + " " + mask, expected, uncached.getSQL());
+
+				// 同一形状再次生成时命中缓存
+				SqlCreator cached = SqlCreator.create(base, hasWheres[b]);
+				apply(mask, cached, new Reference(base, hasWheres[b]));
+				assertEquals(expected, cached.getSQL());
+				assertArrayEquals(uncached.getArgs(), cached.getArgs());
+				assertArrayEquals(uncached.getArgTypes(), cached.getArgTypes());
+
+				reused.reset();
+				apply(mask, reused, new Reference(base, hasWheres[b]));
+				assertEquals(expected, reused.getSQL());
+			}
+		}
+	}
+
+	@Test
+	public void keepsTrailingSpaceAfterGroupBy() {
+		String table = table();
+		for (int i = 0; i < 2; i++) {
+			SqlCreator creator = SqlCreator.create("SELECT dept, COUNT(*) FROM " + table + " WHERE");
+			creator.and("age > ?", 18, true);
+			creator.groupBy("dept", "role");
+			assertEquals("SELECT dept, COUNT(*) FROM " + table + " WHERE age > ? GROUP BY dept, role ",
+					creator.getSQL());
+			creator.orderBy("dept");
+			assertEquals("SELECT dept, COUNT(*) FROM " + table + " WHERE age > ? GROUP BY dept, role  ORDER BY dept",
+					creator.getSQL());
+		}
+	}
+
+	@Test
+	public void buildsWhereClauses() {
+		String table = table();
+		for (int i = 0; i < 2; i++) {
+			SqlCreator creator = SqlCreator.create("SELECT * FROM " + table + " where");
+			creator.and("a = ?", 1, true);
+			creator.and("b = ?", 2, false);
+			creator.or("c = ?", 3, true);
+			creator.andIn("d", new Object[] { 4, 5 }, Types.INTEGER, true);
+			assertEquals("SELECT * FROM " + table + " where a = ? OR c = ? AND d IN (?,?)", creator.getSQL());
+			assertArrayEquals(new Object[] { 1, 3, 4, 5 }, creator.getArgs());
+			assertArrayEquals(new int[] { Types.INTEGER, Types.INTEGER }, creator.getArgTypes());
+
+			SqlCreator noWhere = SqlCreator.create("SELECT * FROM " + table, false);
+			noWhere.or("a = ?", 1, true);
+			noWhere.orderBy("a");
+			noWhere.orderBy("b", true);
+			assertEquals("SELECT * FROM " + table + " WHERE a = ? ORDER BY a, b DESC", noWhere.getSQL());
+		}
+	}
+
+	@Test
+	public void distinguishesShapesWithEqualText() {
+		String base = "SELECT * FROM " + table() + " WHERE 1 = 1";
+		List<String> sqls = new ArrayList<>();
+		for (int count = 1; count <= 3; count++) {
+			SqlCreator creator = SqlCreator.create(base);
+			creator.andIn("id", new Object[count], Types.INTEGER, true);
+			sqls.add(creator.getSQL());
+		}
+		assertEquals(base + " AND id IN (?)", sqls.get(0));
+		assertEquals(base + " AND id IN (?,?)", sqls.get(1));
+		assertEquals(base + " AND id IN (?,?,?)", sqls.get(2));
+
+		// 不同实例的等值字符串命中同一形状
+		SqlCreator copy = SqlCreator.create(base);
+		copy.and(new String("x = ?"), 1, true);
+		SqlCreator original = SqlCreator.create(base);
+		original.and("x = ?", 1, true);
+		assertEquals(original.getSQL(), copy.getSQL());
+
+		SqlCreator or = SqlCreator.create(base);
+		or.or("x = ?", 1, true);
+		assertEquals(base + " OR x = ?", or.getSQL());
+		SqlCreator desc = SqlCreator.create(base);
+		desc.orderByDesc("x");
+		assertEquals(base + " ORDER BY x DESC", desc.getSQL());
+	}
+}
@@ -0,0 +1,92 @@
+package priv.lucife.utils.core.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Calendar;
+
+import org.junit.Test;
+
+public class SqlInlinerTest {
+
+	private static String inline(String sql, Object... args) {
+		StringBuilder out = new StringBuilder();
+		assertFalse(SqlInliner.inline(out, sql, args, -1));
+		return out.toString();
+	}
+
+	@Test
+	public void doublesQuotesInStringValues() {
+		assertEquals("SELECT * FROM t WHERE name = 'O''Brien' AND note = ''''''",
+				inline("SELECT * FROM t WHERE name = ? AND note = ?", "O'Brien", "''"));
+		assertEquals("UPDATE t SET a = 'x\"y'", inline("UPDATE t SET a = ?", new StringBuilder("x\"y")));
+	}
+
+	@Test
+	public void skipsPlaceholdersInLiteralsAndComments() {
+		assertEquals("SELECT '?', \"a?b\", 'it''s ?' FROM t WHERE a = 1",
+				inline("SELECT '?', \"a?b\", 'it''s ?' FROM t WHERE a = ?", 1));
+		assertEquals("SELECT 1 -- why?\nFROM t /* really? */ WHERE a = 2",
+				inline("SELECT 1 -- why?\nFROM t /* really? */ WHERE a = ?", 2));
+		// 未闭合的注释或字面量原样复制到末尾
+		assertEquals("SELECT 3 /* ? ", inline("SELECT ? /* ? ", 3, 4));
+		assertEquals("SELECT 3, 'a?", inline("SELECT ?, 'a?", 3, 4));
+	}
+
+	@Test
+	public void writesNullNumbersAndBytes() {
+		assertEquals("VALUES (null, 1, 2.5, 0.00000001, true, X'00FF10')",
+				inline("VALUES (?, ?, ?, ?, ?, ?)", null, 1L, 2.5, new BigDecimal("1E-8"), true,
+						new byte[] { 0, (byte) 0xFF, 0x10 }));
+	}
+
+	@Test
+	public void formatsDatesAndTimestamps() {
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(2020, Calendar.MARCH, 4, 5, 6, 7);
+		Timestamp ts = new Timestamp(calendar.getTimeInMillis());
+		ts.setNanos(123000000);
+		assertEquals("SELECT '2020-03-04 05:06:07', '2020-03-04 05:06:07', '2020-03-04 00:00:00'",
+				inline("SELECT ?, ?, ?", calendar.getTime(), ts, java.sql.Date.valueOf("2020-03-04")));
+		calendar.set(987, Calendar.DECEMBER, 31, 23, 59, 59);
+		assertEquals("'0987-12-31 23:59:59'", inline("?", calendar.getTime()));
+	}
+
+	@Test
+	public void toleratesWrongArgumentCount() {
+		// 参数不足时保留问号，多余的参数忽略
+		assertEquals("a = 1 AND b = ? AND c = ?", inline("a = ? AND b = ? AND c = ?", 1));
+		assertEquals("a = 1", inline("a = ?", 1, 2, 3));
+		assertEquals("a = ?", inline("a = ?"));
+		StringBuilder out = new StringBuilder();
+		assertFalse(SqlInliner.inline(out, "a = ?", null, -1));
+		assertEquals("a = ?", out.toString());
+	}
+
+	@Test
+	public void truncatesLongOutput() {
+		StringBuilder out = new StringBuilder("prefix:");
+		assertTrue(SqlInliner.inline(out, "SELECT ? FROM t", new Object[] { "abcdefghij" }, 12));
+		assertEquals("prefix:SELECT 'abcd" + SqlInliner.ELLIPSIS, out.toString());
+
+		out.setLength(0);
+		assertTrue(SqlInliner.inline(out, "SELECT ?", new Object[] { java.sql.Date.valueOf("2020-03-04") }, 20));
+		assertEquals("SELECT " + SqlInliner.ELLIPSIS, out.toString());
+
+		out.setLength(0);
+		assertFalse(SqlInliner.inline(out, "SELECT ?", new Object[] { "ab" }, 11));
+		assertEquals("SELECT 'ab'", out.toString());
+	}
+
+	@Test
+	public void getSqlDelegatesToInliner() {
+		assertEquals("SELECT * FROM t WHERE a = 'x''y'",
+				JdbcUtil.getSQL("SELECT * FROM t WHERE a = ?", new Object[] { "x'y" }));
+		assertEquals("SELECT * FROM t WHERE a = ?", JdbcUtil.getSQL("SELECT * FROM t WHERE a = ?", null));
+		assertEquals("SELECT * F" + SqlInliner.ELLIPSIS, JdbcUtil.getSQL("SELECT * FROM t", null, 10));
+	}
+}
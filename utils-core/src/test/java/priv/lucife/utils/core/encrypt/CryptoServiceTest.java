@@ -0,0 +1,32 @@
+package priv.lucife.utils.core.encrypt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class CryptoServiceTest {
+
+	@Test
+	public void derivesSameAesKeyEveryTime() throws Exception {
+		assertArrayEquals(AESUtil.generateKey("secret").getEncoded(), AESUtil.generateKey("secret").getEncoded());
+	}
+
+	@Test
+	public void decryptsAfterContextIsEvicted() throws Exception {
+		CryptoService service = new CryptoService(1);
+		String encrypted = service.encrypt(CryptoService.AES, "secret", "hello world");
+		// 淘汰 "secret" 的上下文
+		service.encrypt(CryptoService.AES, "other", "x");
+		assertEquals("hello world", service.decrypt(CryptoService.AES, "secret", encrypted));
+		assertEquals("hello world", new CryptoService(1).decrypt(CryptoService.AES, "secret", encrypted));
+		assertEquals("hello world", AESUtil.decrypt(encrypted, "secret"));
+	}
+
+	@Test
+	public void matchesSha1PrngDerivedCiphertext() throws Exception {
+		// 以秘钥为种子的 SHA1PRNG 派生的密钥，与平台无关
+		assertEquals("lFPkHD0Su1uYfyWHP13whw==", AESUtil.encrypt("hello", "secret"));
+		assertEquals("hello", new CryptoService(4).decrypt(CryptoService.AES, "secret", "lFPkHD0Su1uYfyWHP13whw=="));
+	}
+}
@@ -0,0 +1,50 @@
+package priv.lucife.utils.core.encrypt;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DigestUtilTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void hashesBytes() {
+		byte[] abc = "abc".getBytes(StandardCharsets.US_ASCII);
+		assertEquals("900150983cd24fb0d6963f7d28e17f72", DigestUtil.md5Hex(abc));
+		assertEquals("a9993e364706816aba3e25717850c26c9cd0d89d", DigestUtil.sha1Hex(abc));
+		assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", DigestUtil.sha256Hex(abc));
+	}
+
+	@Test
+	public void hashesFilesWithTheCachedDigest() throws IOException {
+		File small = folder.newFile();
+		Files.write(small.toPath(), "abc".getBytes(StandardCharsets.US_ASCII));
+		// 超过内存映射阈值的文件
+		byte[] data = new byte[5 * 1024 * 1024 + 3];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i * 31);
+		}
+		File large = folder.newFile();
+		Files.write(large.toPath(), data);
+
+		// 线程内缓存的实例留有未完成的数据时，使用前也会被重置
+		DigestUtil.getDigest(DigestUtil.MD5).update(data, 0, 100);
+		assertEquals("900150983cd24fb0d6963f7d28e17f72", DigestUtil.md5Hex(small));
+		assertEquals(DigestUtil.md5Hex(data), DigestUtil.md5Hex(large));
+		assertEquals("900150983cd24fb0d6963f7d28e17f72", DigestUtil.md5Hex(small));
+
+		Map<String, String> all = DigestUtil.digestHex(large, DigestUtil.MD5, DigestUtil.SHA_256);
+		assertEquals(DigestUtil.md5Hex(data), all.get(DigestUtil.MD5));
+		assertEquals(DigestUtil.sha256Hex(data), all.get(DigestUtil.SHA_256));
+	}
+}
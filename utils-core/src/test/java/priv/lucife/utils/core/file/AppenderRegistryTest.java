@@ -0,0 +1,110 @@
+package priv.lucife.utils.core.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AppenderRegistryTest {
+
+	private File file;
+	private AppenderRegistry registry;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("appender-registry", ".log");
+		registry = new AppenderRegistry(AppenderRegistry.IDLE_MILLIS);
+	}
+
+	@After
+	public void tearDown() {
+		registry.closeAll();
+		file.delete();
+	}
+
+	private List<String> lines() throws IOException {
+		return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void reopensAfterClose() throws IOException {
+		registry.append(file.getPath(), "a\n");
+		assertEquals(1, registry.size());
+		assertTrue(registry.close(file.getPath()));
+		assertEquals(0, registry.size());
+		assertFalse(registry.close(file.getPath()));
+		assertEquals(1, lines().size());
+
+		registry.append(file.getPath(), "b\n");
+		registry.flush();
+		assertEquals(2, lines().size());
+	}
+
+	@Test
+	public void closesIdleAppenders() throws Exception {
+		AppenderRegistry eager = new AppenderRegistry(0);
+		eager.append(file.getPath(), "a\n");
+		eager.closeIdle();
+		assertEquals(0, eager.size());
+		assertEquals(1, lines().size());
+	}
+
+	/**
+	 * 与 close 并发的追加都写入文件，关闭后的追加重新打开追加器
+	 */
+	@Test
+	public void keepsEveryRecordWhenClosingConcurrently() throws Exception {
+		final int producers = 4;
+		final int records = 2000;
+		final CountDownLatch started = new CountDownLatch(producers);
+		Thread[] threads = new Thread[producers];
+		for (int p = 0; p < producers; p++) {
+			final int id = p;
+			threads[p] = new Thread() {
+				@Override
+				public void run() {
+					started.countDown();
+					for (int i = 0; i < records; i++) {
+						registry.append(file.getPath(), id + ":" + i + "\n");
+					}
+				}
+			};
+			threads[p].start();
+		}
+		started.await();
+		for (int i = 0; i < 20; i++) {
+			registry.close(file.getPath());
+			registry.closeIdle();
+			Thread.sleep(1);
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		registry.close(file.getPath());
+		List<String> lines = lines();
+		assertEquals(producers * records, lines.size());
+		Set<String> unique = new HashSet<>(lines);
+		assertEquals(producers * records, unique.size());
+	}
+
+	@Test
+	public void fileUtilDelegatesToDefaultRegistry() throws IOException {
+		FileUtil.appendString(file.getPath(), "a\n");
+		FileUtil.flushAppenders();
+		assertEquals(1, lines().size());
+		assertTrue(FileUtil.closeAppender(file.getPath()));
+		assertFalse(FileUtil.closeAppender(file.getPath()));
+	}
+}
@@ -0,0 +1,167 @@
+package priv.lucife.utils.core.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncFileAppenderTest {
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("async-appender", ".log");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	private List<String> lines() throws IOException {
+		return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+	}
+
+	private AsyncFileAppender open(int capacity) throws IOException {
+		return new AsyncFileAppender(file, StandardCharsets.UTF_8, capacity,
+				AsyncFileAppender.ForcePolicy.NONE, 0);
+	}
+
+	@Test
+	public void writesInOrder() throws IOException {
+		AsyncFileAppender appender = open(16);
+		for (int i = 0; i < 1000; i++) {
+			appender.append(i + "\n");
+		}
+		appender.flush();
+		assertEquals(1000, appender.getWritten());
+		appender.close();
+		List<String> lines = lines();
+		assertEquals(1000, lines.size());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(String.valueOf(i), lines.get(i));
+		}
+		assertEquals(0, appender.getQueueDepth());
+	}
+
+	@Test
+	public void rejectsAppendAfterClose() throws IOException {
+		AsyncFileAppender appender = open(16);
+		appender.append("a\n");
+		appender.close();
+		appender.close();
+		try {
+			appender.append("b\n");
+			fail();
+		} catch (IllegalStateException e) {
+			// 已关闭
+		}
+		try {
+			appender.tryAppend("c\n");
+			fail();
+		} catch (IllegalStateException e) {
+			// 已关闭
+		}
+		assertEquals(1, lines().size());
+	}
+
+	@Test
+	public void tryAppendRejectsWhenFull() throws Exception {
+		AsyncFileAppender appender = open(1);
+		int accepted = 0;
+		for (int i = 0; i < 10000; i++) {
+			if (appender.tryAppend(i + "\n")) {
+				accepted++;
+			}
+		}
+		appender.close();
+		assertEquals(accepted, lines().size());
+		assertEquals(10000 - accepted, appender.getRejected());
+	}
+
+	/**
+	 * 与 close 并发的追加要么成功并写入文件，要么抛出异常，不能成功后丢失
+	 */
+	@Test
+	public void keepsEveryAcceptedRecordWhenClosingConcurrently() throws Exception {
+		for (int round = 0; round < 200; round++) {
+			file.delete();
+			final AsyncFileAppender appender = open(64);
+			final int producers = 4;
+			final CountDownLatch started = new CountDownLatch(producers);
+			final AtomicInteger accepted = new AtomicInteger();
+			final Set<String> acceptedRecords = Collections.synchronizedSet(new HashSet<String>());
+			Thread[] threads = new Thread[producers];
+			for (int p = 0; p < producers; p++) {
+				final int id = p;
+				threads[p] = new Thread() {
+					@Override
+					public void run() {
+						started.countDown();
+						for (int i = 0;; i++) {
+							String record = id + ":" + i;
+							try {
+								appender.append(record + "\n");
+							} catch (IllegalStateException e) {
+								return;
+							}
+							accepted.incrementAndGet();
+							acceptedRecords.add(record);
+						}
+					}
+				};
+				threads[p].start();
+			}
+			started.await();
+			Thread.sleep(round % 5);
+			appender.close();
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			List<String> lines = lines();
+			assertEquals("round " + round, accepted.get(), lines.size());
+			assertEquals(acceptedRecords, new HashSet<>(lines));
+			assertEquals(accepted.get(), appender.getWritten());
+		}
+	}
+
+	@Test
+	public void flushWaitsForConcurrentProducers() throws Exception {
+		final AsyncFileAppender appender = open(8);
+		Thread[] threads = new Thread[4];
+		for (int p = 0; p < threads.length; p++) {
+			threads[p] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 5000; i++) {
+						appender.append("x\n");
+					}
+				}
+			};
+			threads[p].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		appender.flush();
+		assertEquals(20000, appender.getWritten());
+		appender.close();
+		assertEquals(20000, lines().size());
+		assertTrue(appender.getBatches() > 0);
+	}
+}
@@ -0,0 +1,80 @@
+package priv.lucife.utils.core.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileTreeUtilTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static Path file(Path dir, String name) throws IOException {
+		Files.createDirectories(dir);
+		return Files.write(dir.resolve(name), name.getBytes());
+	}
+
+	@Test
+	public void deletesTree() throws IOException {
+		Path root = folder.getRoot().toPath().resolve("tree");
+		for (int i = 0; i < 20; i++) {
+			file(root.resolve("d" + i % 4).resolve("e" + i % 3), "f" + i);
+		}
+		FileTreeUtil.deleteTree(root, 3, null);
+		assertFalse(Files.exists(root));
+		// 不存在时直接返回
+		FileTreeUtil.deleteTree(root, 3, null);
+	}
+
+	/**
+	 * 删除文件期间有目录被写入新文件，这些目录删不掉，其他目录照常删除，错误一起报告
+	 */
+	@Test
+	public void keepsDeletingAfterFailures() throws IOException {
+		final Path root = folder.getRoot().toPath().resolve("tree");
+		file(root.resolve("busy1"), "a");
+		file(root.resolve("busy2"), "b");
+		file(root.resolve("free"), "c");
+		file(root, "d");
+		final AtomicBoolean injected = new AtomicBoolean();
+		// 单线程、文件数不超过队列容量，回调在工作线程中执行，遍历先于注入完成
+		FileTreeUtil.Progress progress = new FileTreeUtil.Progress() {
+			@Override
+			public void fileCompleted(Path file, long bytes, long completedFiles, long completedBytes) {
+				if (!injected.compareAndSet(false, true)) {
+					return;
+				}
+				try {
+					Thread.sleep(200);
+					Files.createFile(root.resolve("busy1").resolve("late"));
+					Files.createFile(root.resolve("busy2").resolve("late"));
+				} catch (IOException | InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		};
+		try {
+			FileTreeUtil.deleteTree(root, 1, progress);
+			fail();
+		} catch (DirectoryNotEmptyException e) {
+			// busy1、busy2 和根目录各一个错误，后两个附加为 suppressed
+			assertEquals(2, e.getSuppressed().length);
+		}
+		assertFalse(Files.exists(root.resolve("free")));
+		assertFalse(Files.exists(root.resolve("d")));
+		assertFalse(Files.exists(root.resolve("busy1").resolve("a")));
+		assertTrue(Files.exists(root.resolve("busy1").resolve("late")));
+		assertTrue(Files.exists(root.resolve("busy2").resolve("late")));
+	}
+}
@@ -0,0 +1,182 @@
+package priv.lucife.utils.core.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedRecordReaderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File write(String content) throws IOException {
+		File file = folder.newFile();
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	private static List<String> read(File file, byte delimiter, int window) throws IOException {
+		List<String> records = new ArrayList<>();
+		try (MappedRecordReader reader = new MappedRecordReader(file, delimiter, 0, Long.MAX_VALUE, window)) {
+			for (MappedRecordReader.Record record; (record = reader.next()) != null;) {
+				records.add(record.toString());
+			}
+			assertNull(reader.next());
+		}
+		return records;
+	}
+
+	private static List<String> lines(int count) {
+		List<String> lines = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			StringBuilder line = new StringBuilder();
+			line.append(i).append(',');
+			for (int j = 0; j < i % 37; j++) {
+				line.append(j % 3 == 0 ? "名" : j % 3 == 1 ? "😀" : "x");
+			}
+			lines.add(line.toString());
+		}
+		return lines;
+	}
+
+	private static String join(List<String> lines, String separator) {
+		StringBuilder builder = new StringBuilder();
+		for (String line : lines) {
+			builder.append(line).append(separator);
+		}
+		return builder.toString();
+	}
+
+	@Test
+	public void readsRecordsLargerThanTheWindow() throws IOException {
+		File file = write("short\n" + new String(new char[100]).replace('\0', 'a') + "\nend");
+		List<String> records = read(file, MappedRecordReader.LINE_FEED, 8);
+		assertEquals(3, records.size());
+		assertEquals("short", records.get(0));
+		assertEquals(100, records.get(1).length());
+		assertEquals("end", records.get(2));
+	}
+
+	@Test
+	public void keepsMultiByteCharactersAcrossWindows() throws IOException {
+		List<String> lines = lines(500);
+		File file = write(join(lines, "\n"));
+		// 窗口大小不是字符宽度的整数倍，字符会落在窗口边界上
+		for (int window : new int[] { 5, 7, 64, 1000 }) {
+			assertEquals("window " + window, lines, read(file, MappedRecordReader.LINE_FEED, window));
+		}
+	}
+
+	@Test
+	public void stripsCarriageReturnBeforeLineFeed() throws IOException {
+		File file = write("a\r\nb\r\n\r\nc\rd\r\ne\r");
+		for (int window : new int[] { 2, 3, 1024 }) {
+			assertEquals(Arrays.asList("a", "b", "", "c\rd", "e"),
+					read(file, MappedRecordReader.LINE_FEED, window));
+		}
+		// 其他分隔符不去掉 '\r'
+		assertEquals(Arrays.asList("a\r\nb\r\n\r\nc\rd\r\ne\r"), read(file, (byte) 0, 4));
+	}
+
+	@Test
+	public void exposesBytesAndPositions() throws IOException {
+		File file = write("ab\n名\n\n");
+		try (MappedRecordReader reader = new MappedRecordReader(file)) {
+			MappedRecordReader.Record first = reader.next();
+			assertEquals(0, first.getPosition());
+			assertTrue(first.isAscii());
+			assertEquals("b", first.subSequence(1, 2).toString());
+			assertEquals(3, reader.getPosition());
+
+			MappedRecordReader.Record second = reader.next();
+			assertEquals(3, second.getPosition());
+			assertEquals(3, second.byteLength());
+			assertEquals(1, second.length());
+			assertArrayEquals("名".getBytes(StandardCharsets.UTF_8), second.toByteArray());
+
+			MappedRecordReader.Record third = reader.next();
+			assertEquals(0, third.length());
+			assertNull(reader.next());
+		}
+	}
+
+	@Test
+	public void splitsAtRecordBoundaries() throws IOException {
+		List<String> lines = lines(2000);
+		File file = write(join(lines, "\r\n"));
+		for (int parts : new int[] { 1, 2, 3, 7, 16 }) {
+			long[] bounds = MappedRecordReader.split(file, MappedRecordReader.LINE_FEED, parts);
+			assertEquals(0, bounds[0]);
+			assertEquals(file.length(), bounds[bounds.length - 1]);
+			assertTrue(bounds.length - 1 <= parts);
+			List<String> records = new ArrayList<>();
+			for (int i = 0; i < bounds.length - 1; i++) {
+				assertTrue(bounds[i] < bounds[i + 1]);
+				try (MappedRecordReader reader = new MappedRecordReader(file, MappedRecordReader.LINE_FEED, bounds[i],
+						bounds[i + 1], 256)) {
+					for (MappedRecordReader.Record record; (record = reader.next()) != null;) {
+						records.add(record.toString());
+					}
+				}
+			}
+			assertEquals("parts " + parts, lines, records);
+		}
+		// 记录比段还长时段数变少
+		File single = write("only-one-record-without-delimiter");
+		assertArrayEquals(new long[] { 0, single.length() },
+				MappedRecordReader.split(single, MappedRecordReader.LINE_FEED, 8));
+	}
+
+	@Test
+	public void readsInParallel() throws IOException {
+		List<String> lines = lines(5000);
+		File file = write(join(lines, "\n"));
+		final List<String> records = Collections.synchronizedList(new ArrayList<String>());
+		long count = MappedRecordReader.forEach(file, MappedRecordReader.LINE_FEED, 4,
+				new MappedRecordReader.RecordHandler() {
+					@Override
+					public void handle(MappedRecordReader.Record record) {
+						records.add(record.toString());
+					}
+				});
+		assertEquals(lines.size(), count);
+		List<String> sorted = new ArrayList<>(records);
+		Collections.sort(sorted);
+		List<String> expected = new ArrayList<>(lines);
+		Collections.sort(expected);
+		assertEquals(expected, sorted);
+	}
+
+	@Test
+	public void propagatesHandlerFailures() throws IOException {
+		File file = write(join(lines(100), "\n"));
+		try {
+			MappedRecordReader.forEach(file, MappedRecordReader.LINE_FEED, 2, new MappedRecordReader.RecordHandler() {
+				@Override
+				public void handle(MappedRecordReader.Record record) throws IOException {
+					if (record.toString().startsWith("50,")) {
+						throw new IOException("bad record");
+					}
+				}
+			});
+			fail();
+		} catch (IOException e) {
+			assertEquals("bad record", e.getMessage());
+		}
+	}
+}
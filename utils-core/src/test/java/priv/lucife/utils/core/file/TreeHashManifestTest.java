@@ -0,0 +1,98 @@
+package priv.lucife.utils.core.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import priv.lucife.utils.core.encrypt.DigestUtil;
+
+public class TreeHashManifestTest {
+
+	private static final int CHUNK = 1024;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File file(int length) throws IOException {
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte) (i * 7);
+		}
+		File file = folder.newFile();
+		Files.write(file.toPath(), data);
+		return file;
+	}
+
+	private static void append(File file, int bytes) throws IOException {
+		try (FileOutputStream out = new FileOutputStream(file, true)) {
+			out.write(new byte[bytes]);
+		}
+	}
+
+	private static void assertChunks(TreeHashManifest manifest, File file, boolean... expected) throws IOException {
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals("chunk " + i, expected[i], manifest.verifyChunk(file, i));
+		}
+	}
+
+	@Test
+	public void verifiesUnchangedFile() throws IOException {
+		File file = file(CHUNK * 3 + 10);
+		TreeHashManifest manifest = TreeHashManifest.create(file, DigestUtil.SHA_256, CHUNK);
+		assertEquals(4, manifest.getChunkCount());
+		assertEquals(Collections.<Integer> emptyList(), manifest.verify(file));
+		assertChunks(manifest, file, true, true, true, true);
+
+		File manifestFile = folder.newFile();
+		manifest.write(manifestFile);
+		TreeHashManifest read = TreeHashManifest.read(manifestFile);
+		assertEquals(manifest.getRootHex(), read.getRootHex());
+		assertEquals(Collections.<Integer> emptyList(), read.verify(file));
+	}
+
+	@Test
+	public void detectsBytesAppendedToTheLastChunk() throws IOException {
+		File file = file(CHUNK * 2 + 10);
+		TreeHashManifest manifest = TreeHashManifest.create(file, DigestUtil.SHA_256, CHUNK);
+		append(file, 5);
+		assertEquals(Arrays.asList(2), manifest.verify(file));
+		assertChunks(manifest, file, true, true, false);
+	}
+
+	@Test
+	public void detectsChunkAppendedAfterFullChunks() throws IOException {
+		File file = file(CHUNK * 2);
+		TreeHashManifest manifest = TreeHashManifest.create(file, DigestUtil.SHA_256, CHUNK);
+		append(file, 5);
+		// 原有的块没有变化，多出一块
+		assertEquals(Arrays.asList(2), manifest.verify(file));
+		assertChunks(manifest, file, true, true);
+	}
+
+	@Test
+	public void detectsTruncationAndChangedBytes() throws IOException {
+		File file = file(CHUNK * 3 + 10);
+		TreeHashManifest manifest = TreeHashManifest.create(file, DigestUtil.SHA_256, CHUNK);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(CHUNK + 1);
+			raf.write(0xFF);
+			raf.setLength(CHUNK * 2 + 100);
+		}
+		assertEquals(Arrays.asList(1, 2, 3), manifest.verify(file));
+		assertChunks(manifest, file, true, false, false, false);
+		assertFalse(manifest.verifyChunk(file, 3));
+		assertTrue(manifest.verifyChunk(file, 0));
+	}
+}
@@ -0,0 +1,116 @@
+package priv.lucife.utils.core.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ZipArchiveWriterTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File file(String name, int size, long seed) throws IOException {
+		byte[] data = new byte[size];
+		Random random = new Random(seed);
+		// 一半随机一半重复，既能压缩又不会压缩得太快
+		for (int i = 0; i < size; i++) {
+			data[i] = i % 2 == 0 ? (byte) random.nextInt() : (byte) (i >> 10);
+		}
+		File file = folder.newFile(name);
+		Files.write(file.toPath(), data);
+		return file;
+	}
+
+	private static int spillFiles() {
+		String[] names = new File(System.getProperty("java.io.tmpdir")).list(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith("zip-entry") && name.endsWith(".deflate");
+			}
+		});
+		return names == null ? 0 : names.length;
+	}
+
+	private static byte[] read(ZipInputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		for (int len; (len = in.read(buffer)) != -1;) {
+			out.write(buffer, 0, len);
+		}
+		return out.toByteArray();
+	}
+
+	@Test
+	public void writesReadableArchive() throws IOException {
+		List<ZipArchiveWriter.Entry> entries = new ArrayList<>();
+		entries.add(new ZipArchiveWriter.Entry("dir/", null));
+		for (int i = 0; i < 5; i++) {
+			entries.add(new ZipArchiveWriter.Entry("dir/名字" + i, file("f" + i, 1000 * i, i)));
+		}
+		entries.add(new ZipArchiveWriter.Entry("big", file("big", 9 * 1024 * 1024, 9)));
+		int spills = spillFiles();
+		ByteArrayOutputStream zip = new ByteArrayOutputStream();
+		ZipArchiveWriter.write(entries, zip, 3, Deflater.DEFAULT_COMPRESSION);
+		assertEquals(spills, spillFiles());
+
+		try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip.toByteArray()))) {
+			for (ZipArchiveWriter.Entry entry : entries) {
+				ZipEntry zipEntry = in.getNextEntry();
+				assertEquals(entry.name, zipEntry.getName());
+				byte[] expected = entry.file == null ? new byte[0] : Files.readAllBytes(entry.file.toPath());
+				assertArrayEquals(entry.name, expected, read(in));
+			}
+			assertNull(in.getNextEntry());
+		}
+	}
+
+	/**
+	 * 写入失败时，仍在压缩的大条目完成后也要删除临时文件
+	 */
+	@Test
+	public void deletesSpillFilesWhenWriteFails() throws IOException {
+		List<ZipArchiveWriter.Entry> entries = new ArrayList<>();
+		entries.add(new ZipArchiveWriter.Entry("small", file("small", 100, 1)));
+		for (int i = 0; i < 4; i++) {
+			entries.add(new ZipArchiveWriter.Entry("big" + i, file("big" + i, 9 * 1024 * 1024, i)));
+		}
+		int spills = spillFiles();
+		OutputStream failing = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				throw new IOException("disk full");
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				throw new IOException("disk full");
+			}
+		};
+		try {
+			ZipArchiveWriter.write(entries, failing, 2, Deflater.DEFAULT_COMPRESSION);
+			fail();
+		} catch (IOException e) {
+			assertEquals("disk full", e.getMessage());
+		}
+		assertEquals(spills, spillFiles());
+	}
+}
@@ -0,0 +1,220 @@
+package priv.lucife.utils.core.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class AsyncHttpClientTest {
+
+	private HttpServer server;
+	private ExecutorService serverThreads;
+	private AsyncHttpClient client;
+	private String base;
+	private final CountDownLatch slow = new CountDownLatch(1);
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/hello", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				reply(exchange, 200, ("hello " + exchange.getRequestURI().getQuery()).getBytes(StandardCharsets.UTF_8));
+			}
+		});
+		server.createContext("/echo", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				ByteArrayOutputStream body = new ByteArrayOutputStream();
+				InputStream in = exchange.getRequestBody();
+				byte[] buffer = new byte[1024];
+				int count;
+				while ((count = in.read(buffer)) != -1) {
+					body.write(buffer, 0, count);
+				}
+				exchange.getResponseHeaders().add("X-Method", exchange.getRequestMethod());
+				exchange.getResponseHeaders().add("X-Echo", exchange.getRequestHeaders().getFirst("X-Echo"));
+				reply(exchange, 200, body.toByteArray());
+			}
+		});
+		server.createContext("/missing", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				reply(exchange, 404, "not found".getBytes(StandardCharsets.UTF_8));
+			}
+		});
+		server.createContext("/slow", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					slow.await(30, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				reply(exchange, 200, "slow".getBytes(StandardCharsets.UTF_8));
+			}
+		});
+		server.createContext("/endless", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.sendResponseHeaders(200, 0);
+				byte[] chunk = new byte[8192];
+				try (OutputStream out = exchange.getResponseBody()) {
+					// 客户端断开之前一直写
+					while (true) {
+						out.write(chunk);
+						out.flush();
+					}
+				} catch (IOException e) {
+					// 客户端断开
+				}
+			}
+		});
+		serverThreads = Executors.newCachedThreadPool();
+		server.setExecutor(serverThreads);
+		server.start();
+		base = "http://127.0.0.1:" + server.getAddress().getPort();
+		client = new AsyncHttpClient(4, 2);
+	}
+
+	@After
+	public void tearDown() {
+		slow.countDown();
+		client.close();
+		server.stop(0);
+		serverThreads.shutdownNow();
+	}
+
+	private static void reply(HttpExchange exchange, int status, byte[] body) throws IOException {
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	@Test
+	public void sendsGet() throws IOException {
+		AsyncHttpClient.Response<String> response = client.send(AsyncHttpClient.Request.get(base + "/hello?a"),
+				AsyncHttpClient.ofString());
+		assertEquals(200, response.getStatus());
+		assertEquals("hello a", response.getBody());
+	}
+
+	@Test
+	public void sendsPostWithHeaders() throws IOException {
+		byte[] body = "payload".getBytes(StandardCharsets.UTF_8);
+		AsyncHttpClient.Response<byte[]> response = client.send(
+				AsyncHttpClient.Request.post(base + "/echo", body).header("X-Echo", "yes").timeout(1000, 5000),
+				AsyncHttpClient.ofBytes());
+		assertEquals(200, response.getStatus());
+		assertArrayEquals(body, response.getBody());
+		assertEquals("POST", response.getHeaders().get("X-method").get(0));
+		assertEquals("yes", response.getHeaders().get("X-echo").get(0));
+	}
+
+	@Test
+	public void readsErrorBody() throws IOException {
+		AsyncHttpClient.Response<String> response = client.send(AsyncHttpClient.Request.get(base + "/missing"),
+				AsyncHttpClient.ofString());
+		assertEquals(404, response.getStatus());
+		assertEquals("not found", response.getBody());
+	}
+
+	@Test
+	public void callsBackAfterAsyncSend() throws Exception {
+		final CountDownLatch done = new CountDownLatch(1);
+		final AtomicReference<String> body = new AtomicReference<>();
+		Future<AsyncHttpClient.Response<String>> future = client.sendAsync(
+				AsyncHttpClient.Request.get(base + "/hello?b"), AsyncHttpClient.ofString(),
+				new AsyncHttpClient.Callback<String>() {
+					@Override
+					public void completed(AsyncHttpClient.Response<String> response) {
+						body.set(response.getBody());
+						done.countDown();
+					}
+
+					@Override
+					public void failed(Exception e) {
+						done.countDown();
+					}
+				});
+		assertEquals("hello b", future.get(10, TimeUnit.SECONDS).getBody());
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals("hello b", body.get());
+	}
+
+	@Test
+	public void sendsAllInOrder() throws Exception {
+		List<AsyncHttpClient.Request> requests = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			requests.add(AsyncHttpClient.Request.get(base + "/hello?" + i));
+		}
+		List<Future<AsyncHttpClient.Response<String>>> futures = client.sendAll(requests, AsyncHttpClient.ofString());
+		assertEquals(20, futures.size());
+		for (int i = 0; i < 20; i++) {
+			assertEquals("hello " + i, futures.get(i).get(10, TimeUnit.SECONDS).getBody());
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void disconnectsInsteadOfDrainingLargeBody() throws IOException {
+		AsyncHttpClient.Response<Void> response = client.send(AsyncHttpClient.Request.get(base + "/endless"),
+				AsyncHttpClient.discarding());
+		assertEquals(200, response.getStatus());
+		assertNull(response.getBody());
+		// 连接断开后仍可以继续请求
+		assertEquals("hello c",
+				client.send(AsyncHttpClient.Request.get(base + "/hello?c"), AsyncHttpClient.ofString()).getBody());
+	}
+
+	@Test
+	public void saturatedHostDoesNotBlockOtherHosts() throws Exception {
+		AsyncHttpClient limited = new AsyncHttpClient(2, 1);
+		try {
+			List<Future<AsyncHttpClient.Response<String>>> stuck = new ArrayList<>();
+			for (int i = 0; i < 5; i++) {
+				stuck.add(limited.sendAsync(AsyncHttpClient.Request.get(base + "/slow"), AsyncHttpClient.ofString()));
+			}
+			// 同一服务器的另一个主机名算作另一个主机
+			String other = "http://localhost:" + server.getAddress().getPort();
+			Future<AsyncHttpClient.Response<String>> async = limited.sendAsync(
+					AsyncHttpClient.Request.get(other + "/hello?async"), AsyncHttpClient.ofString());
+			assertEquals("hello async", async.get(5, TimeUnit.SECONDS).getBody());
+			assertEquals("hello sync",
+					limited.send(AsyncHttpClient.Request.get(other + "/hello?sync"), AsyncHttpClient.ofString())
+							.getBody());
+			assertTrue(limited.getQueuedCount() >= 4);
+
+			slow.countDown();
+			for (Future<AsyncHttpClient.Response<String>> future : stuck) {
+				assertEquals("slow", future.get(10, TimeUnit.SECONDS).getBody());
+			}
+			assertEquals(0, limited.getQueuedCount());
+		} finally {
+			limited.close();
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package priv.lucife.utils.core.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+	private static <T> T inOtherThread(Callable<T> task) throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			return executor.submit(task).get();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void roundsUpToSizeClass() {
+		BufferPool pool = new BufferPool(1024 * 1024);
+		assertEquals(BufferPool.MIN_SIZE, pool.acquire(1).length);
+		assertEquals(8192, pool.acquire(4097).length);
+		assertEquals(BufferPool.MAX_SIZE + 1, pool.acquire(BufferPool.MAX_SIZE + 1).length);
+		assertEquals(3, pool.getOutstanding());
+	}
+
+	@Test
+	public void reusesSmallBuffersInSameThread() {
+		BufferPool pool = new BufferPool(1024 * 1024);
+		byte[] buffer = pool.acquire(100);
+		pool.release(buffer);
+		assertSame(buffer, pool.acquire(100));
+		assertEquals(1, pool.getHits());
+	}
+
+	@Test
+	public void keepsSmallBuffersThreadLocal() throws Exception {
+		final BufferPool pool = new BufferPool(1024 * 1024);
+		final byte[] buffer = pool.acquire(100);
+		pool.release(buffer);
+		byte[] other = inOtherThread(new Callable<byte[]>() {
+			@Override
+			public byte[] call() {
+				return pool.acquire(100);
+			}
+		});
+		assertNotSame(buffer, other);
+	}
+
+	@Test
+	public void sharesLargeBuffersAcrossThreads() throws Exception {
+		final BufferPool pool = new BufferPool(4 * 1024 * 1024);
+		final ByteBuffer buffer = pool.acquireDirect(BufferPool.MAX_SIZE);
+		final byte[] array = pool.acquire(BufferPool.MAX_SIZE);
+		pool.releaseDirect(buffer);
+		pool.release(array);
+		// 大级别不进入线程本地缓存，其他线程可以直接从共享池取到
+		assertSame(buffer, inOtherThread(new Callable<ByteBuffer>() {
+			@Override
+			public ByteBuffer call() {
+				return pool.acquireDirect(BufferPool.MAX_SIZE);
+			}
+		}));
+		assertSame(array, inOtherThread(new Callable<byte[]>() {
+			@Override
+			public byte[] call() {
+				return pool.acquire(BufferPool.MAX_SIZE);
+			}
+		}));
+		assertEquals(2L * BufferPool.MAX_SIZE, pool.getBytesInUse());
+	}
+}
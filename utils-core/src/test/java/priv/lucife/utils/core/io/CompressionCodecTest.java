@@ -0,0 +1,134 @@
+package priv.lucife.utils.core.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+public class CompressionCodecTest {
+
+	private static final CompressionCodec[] CODECS = { CompressionCodec.gzip(), CompressionCodec.zlib(),
+			CompressionCodec.deflate() };
+
+	/**
+	 * 一半随机、一半重复，压缩后仍然比中转块大
+	 */
+	private static byte[] payload(int size) {
+		byte[] bytes = new byte[size];
+		Random random = new Random(size);
+		for (int i = 0; i < size; i++) {
+			bytes[i] = (i & 1) == 0 ? (byte) random.nextInt() : (byte) (i >>> 10);
+		}
+		return bytes;
+	}
+
+	private static byte[] remaining(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	@Test
+	public void roundTripsArrays() throws IOException {
+		for (CompressionCodec codec : CODECS) {
+			for (int size : new int[] { 0, 100, 100000 }) {
+				byte[] data = payload(size);
+				byte[] compressed = codec.compress(data);
+				if (!CompressionCodec.DEFLATE.equals(codec.getName())) {
+					assertTrue(codec.getName(), codec.matches(compressed));
+				}
+				assertArrayEquals(codec.getName(), data, codec.decompress(compressed));
+			}
+		}
+	}
+
+	@Test
+	public void roundTripsThroughDirectBuffersLargerThanChunk() throws IOException {
+		for (CompressionCodec codec : CODECS) {
+			byte[] data = payload(1 << 20);
+			ByteBuffer src = ByteBuffer.allocateDirect(data.length);
+			src.put(data).flip();
+			ByteBuffer compressed = ByteBuffer.allocateDirect(codec.maxCompressedLength(data.length));
+			int written = codec.compress(src, compressed);
+			assertEquals(0, src.remaining());
+			assertEquals(written, compressed.position());
+			compressed.flip();
+			byte[] compressedBytes = remaining(compressed.duplicate());
+			assertArrayEquals(codec.getName(), data, codec.decompress(compressedBytes));
+
+			// 目标恰好放得下
+			ByteBuffer dst = ByteBuffer.allocateDirect(data.length);
+			assertEquals(data.length, codec.decompress(compressed, dst));
+			assertEquals(0, compressed.remaining());
+			dst.flip();
+			assertArrayEquals(codec.getName(), data, remaining(dst));
+		}
+	}
+
+	@Test
+	public void leavesPositionsOnOverflow() throws IOException {
+		for (CompressionCodec codec : CODECS) {
+			byte[] data = payload(300000);
+			byte[] compressed = codec.compress(data);
+
+			ByteBuffer src = ByteBuffer.wrap(compressed);
+			ByteBuffer dst = ByteBuffer.allocateDirect(data.length - 1);
+			dst.position(1);
+			try {
+				codec.decompress(src, dst);
+				fail(codec.getName());
+			} catch (BufferOverflowException e) {
+				assertEquals(0, src.position());
+				assertEquals(1, dst.position());
+			}
+
+			ByteBuffer plain = ByteBuffer.wrap(data);
+			ByteBuffer small = ByteBuffer.allocateDirect(compressed.length / 2);
+			try {
+				codec.compress(plain, small);
+				fail(codec.getName());
+			} catch (BufferOverflowException e) {
+				assertEquals(0, plain.position());
+				assertEquals(0, small.position());
+			}
+		}
+	}
+
+	@Test
+	public void decompressesConcatenatedGzipMembersIntoDirectBuffer() throws IOException {
+		CompressionCodec gzip = CompressionCodec.gzip();
+		byte[] first = payload(200000);
+		byte[] second = payload(70000);
+		ByteArrayOutputStream joined = new ByteArrayOutputStream();
+		joined.write(gzip.compress(first));
+		joined.write(gzip.compress(second));
+
+		ByteBuffer dst = ByteBuffer.allocateDirect(first.length + second.length);
+		gzip.decompress(ByteBuffer.wrap(joined.toByteArray()), dst);
+		dst.flip();
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		expected.write(first);
+		expected.write(second);
+		assertArrayEquals(expected.toByteArray(), remaining(dst));
+
+		// 与 JDK 的 gzip 实现互通
+		GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip.compress(first)));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int count;
+		while ((count = in.read(buffer)) != -1) {
+			out.write(buffer, 0, count);
+		}
+		assertArrayEquals(first, out.toByteArray());
+	}
+}